@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.benchmark;
+
+import org.everit.osgi.ecm.annotation.Activate;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Deactivate;
+import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
+import org.everit.osgi.ecm.annotation.attribute.LongAttribute;
+import org.everit.osgi.ecm.annotation.attribute.StringAttribute;
+
+/**
+ * Component that is driven by the benchmarks. It has a dynamic and non-dynamic attributes and a
+ * dynamic service reference so every hot path of the component runtime can be reached.
+ */
+@Component(componentId = BenchmarkComponent.COMPONENT_ID,
+    configurationPolicy = ConfigurationPolicy.OPTIONAL)
+public class BenchmarkComponent {
+
+  public static final String ATTR_LABEL = "label";
+
+  public static final String ATTR_POOL_SIZE = "poolSize";
+
+  public static final String ATTR_TIMEOUT = "timeout";
+
+  public static final String COMPONENT_ID = "BenchmarkComponent";
+
+  public static final String REFERENCE_GREETER = "greeter";
+
+  private boolean active;
+
+  private Greeter greeter;
+
+  @StringAttribute(attributeId = ATTR_LABEL, defaultValue = "benchmark", dynamic = true)
+  private String label;
+
+  @IntegerAttribute(attributeId = ATTR_POOL_SIZE, defaultValue = 1)
+  private int poolSize;
+
+  @LongAttribute(attributeId = ATTR_TIMEOUT, defaultValue = 0, dynamic = true)
+  private long timeout;
+
+  @Activate
+  public void activate() {
+    active = true;
+  }
+
+  @Deactivate
+  public void deactivate() {
+    active = false;
+  }
+
+  public Greeter getGreeter() {
+    return greeter;
+  }
+
+  public String getLabel() {
+    return label;
+  }
+
+  public int getPoolSize() {
+    return poolSize;
+  }
+
+  public long getTimeout() {
+    return timeout;
+  }
+
+  public boolean isActive() {
+    return active;
+  }
+
+  @ServiceRef(referenceId = REFERENCE_GREETER, defaultValue = "(service.id>=0)", dynamic = true)
+  public void setGreeter(final Greeter greeter) {
+    this.greeter = greeter;
+  }
+
+  public void setLabel(final String label) {
+    this.label = label;
+  }
+
+  public void setPoolSize(final int poolSize) {
+    this.poolSize = poolSize;
+  }
+
+  public void setTimeout(final long timeout) {
+    this.timeout = timeout;
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.benchmark;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+import org.everit.osgi.ecm.annotation.metadatabuilder.MetadataBuilder;
+import org.everit.osgi.ecm.component.ri.ComponentContainerOptions;
+import org.everit.osgi.ecm.component.ri.internal.ComponentContainerImpl;
+import org.everit.osgi.ecm.component.ri.internal.ComponentContextImpl;
+import org.everit.osgi.ecm.component.ri.internal.FactoryComponentContainerImpl;
+import org.everit.osgi.ecm.component.ri.internal.JavaLogService;
+import org.everit.osgi.ecm.component.ri.internal.resource.ServiceCapabilityCache;
+import org.everit.osgi.ecm.metadata.ComponentMetadata;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.launch.FrameworkFactory;
+import org.osgi.service.log.LogService;
+
+/**
+ * Embedded OSGi framework that the benchmarks run in. The component runtime and the benchmark
+ * component are loaded from the classpath and they use the context of the system bundle, so no
+ * bundle has to be installed.
+ */
+final class BenchmarkEnvironment {
+
+  private static final long FRAMEWORK_STOP_TIMEOUT = 10000;
+
+  private final ServiceCapabilityCache capabilityCache;
+
+  private final BundleContext context;
+
+  private final Framework framework;
+
+  private final LogService logService = new JavaLogService();
+
+  private final Path storage;
+
+  /**
+   * Starts an embedded framework with a clean storage.
+   */
+  BenchmarkEnvironment() throws IOException, BundleException {
+    storage = Files.createTempDirectory("ecm-benchmark");
+
+    Map<String, String> configuration = new HashMap<>();
+    configuration.put(Constants.FRAMEWORK_STORAGE, storage.toString());
+    configuration.put(Constants.FRAMEWORK_STORAGE_CLEAN,
+        Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+
+    Iterator<FrameworkFactory> factories =
+        ServiceLoader.load(FrameworkFactory.class).iterator();
+    if (!factories.hasNext()) {
+      throw new IllegalStateException("No OSGi framework found on the classpath");
+    }
+    framework = factories.next().newFramework(configuration);
+    framework.start();
+    context = framework.getBundleContext();
+    capabilityCache = new ServiceCapabilityCache();
+  }
+
+  /**
+   * Creates a container for the benchmark component without opening it.
+   */
+  ComponentContainerImpl<BenchmarkComponent> createContainer() {
+    ComponentMetadata componentMetadata =
+        MetadataBuilder.buildComponentMetadata(BenchmarkComponent.class);
+
+    return new ComponentContainerImpl<>(componentMetadata, context, logService,
+        ComponentContainerOptions.DEFAULT, capabilityCache);
+  }
+
+  /**
+   * Creates a component context for the container. The context is not opened.
+   */
+  ComponentContextImpl<BenchmarkComponent> createContext(
+      final ComponentContainerImpl<BenchmarkComponent> container,
+      final Dictionary<String, Object> properties) {
+    return new ComponentContextImpl<>(container, context, properties, logService);
+  }
+
+  /**
+   * Creates a factory container for the benchmark component without opening it. Component
+   * instances can be created by passing configurations to the container.
+   */
+  FactoryComponentContainerImpl<BenchmarkComponent> createFactoryContainer() {
+    ComponentMetadata componentMetadata =
+        MetadataBuilder.buildComponentMetadata(BenchmarkComponent.class);
+
+    return new FactoryComponentContainerImpl<>(componentMetadata, context, logService,
+        ComponentContainerOptions.DEFAULT, capabilityCache);
+  }
+
+  /**
+   * Registers a {@link Greeter} with the specified ranking.
+   */
+  ServiceRegistration<Greeter> registerGreeter(final int ranking) {
+    Dictionary<String, Object> properties = new Hashtable<>();
+    properties.put(Constants.SERVICE_RANKING, ranking);
+    return context.registerService(Greeter.class, (name) -> "Hello " + name, properties);
+  }
+
+  /**
+   * Stops the framework and deletes its storage.
+   */
+  void shutdown() throws BundleException, InterruptedException, IOException {
+    framework.stop();
+    framework.waitForStop(FRAMEWORK_STOP_TIMEOUT);
+
+    Files.walkFileTree(storage, new SimpleFileVisitor<Path>() {
+
+      @Override
+      public FileVisitResult postVisitDirectory(final Path dir, final IOException exc)
+          throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs)
+          throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.benchmark;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.osgi.ecm.component.ri.internal.ComponentContainerImpl;
+import org.everit.osgi.ecm.component.ri.internal.ComponentContextImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Measures opening and closing a component context. Every invocation goes through the
+ * INACTIVE, STARTING, ACTIVE, STOPPING and INACTIVE states, including the resolution of the
+ * properties, the opening of the reference trackers and the activation of the instance.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ComponentLifecycleBenchmark {
+
+  private ComponentContainerImpl<BenchmarkComponent> container;
+
+  private BenchmarkEnvironment environment;
+
+  private ServiceRegistration<Greeter> greeterRegistration;
+
+  private Dictionary<String, Object> properties;
+
+  /**
+   * Opens and closes a component context that has its reference satisfied.
+   */
+  @Benchmark
+  public void openAndClose(final Blackhole blackhole) {
+    ComponentContextImpl<BenchmarkComponent> componentContext =
+        environment.createContext(container, properties);
+
+    componentContext.open();
+    blackhole.consume(componentContext.getState());
+    componentContext.close();
+  }
+
+  /**
+   * Starts the framework and registers the service that the component references.
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    environment = new BenchmarkEnvironment();
+    greeterRegistration = environment.registerGreeter(0);
+    container = environment.createContainer();
+
+    properties = new Hashtable<>();
+    properties.put(BenchmarkComponent.ATTR_LABEL, "lifecycle");
+    properties.put(BenchmarkComponent.ATTR_POOL_SIZE, "4");
+  }
+
+  /**
+   * Unregisters the referenced service and stops the framework.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    greeterRegistration.unregister();
+    environment.shutdown();
+  }
+}
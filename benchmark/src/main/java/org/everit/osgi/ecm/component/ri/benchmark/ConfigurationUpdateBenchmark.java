@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.benchmark;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.osgi.ecm.component.ri.internal.ComponentContextImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Measures {@link ComponentContextImpl#updateConfiguration(Dictionary)} on an active component.
+ * Changing a dynamic attribute updates the instance in place, while changing a non-dynamic
+ * attribute restarts the component.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfigurationUpdateBenchmark {
+
+  @SuppressWarnings("unchecked")
+  private static Dictionary<String, Object>[] createDictionaryArray() {
+    return new Dictionary[2];
+  }
+
+  private static Dictionary<String, Object> createProperties(final String label,
+      final String poolSize) {
+    Dictionary<String, Object> properties = new Hashtable<>();
+    properties.put(BenchmarkComponent.ATTR_LABEL, label);
+    properties.put(BenchmarkComponent.ATTR_POOL_SIZE, poolSize);
+    return properties;
+  }
+
+  private ComponentContextImpl<BenchmarkComponent> componentContext;
+
+  private final Dictionary<String, Object>[] dynamicChanges = createDictionaryArray();
+
+  private BenchmarkEnvironment environment;
+
+  private ServiceRegistration<Greeter> greeterRegistration;
+
+  private int iteration;
+
+  private final Dictionary<String, Object>[] nonDynamicChanges = createDictionaryArray();
+
+  /**
+   * Starts the framework, registers the referenced service and activates the component.
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    environment = new BenchmarkEnvironment();
+    greeterRegistration = environment.registerGreeter(0);
+
+    dynamicChanges[0] = createProperties("a", "1");
+    dynamicChanges[1] = createProperties("b", "1");
+    nonDynamicChanges[0] = createProperties("a", "1");
+    nonDynamicChanges[1] = createProperties("a", "2");
+
+    componentContext =
+        environment.createContext(environment.createContainer(), dynamicChanges[0]);
+    componentContext.open();
+  }
+
+  /**
+   * Closes the component, unregisters the referenced service and stops the framework.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    componentContext.close();
+    greeterRegistration.unregister();
+    environment.shutdown();
+  }
+
+  /**
+   * Updates the configuration with the same values that the component already has.
+   */
+  @Benchmark
+  public void updateUnchangedConfiguration(final Blackhole blackhole) {
+    componentContext.updateConfiguration(dynamicChanges[0]);
+    blackhole.consume(componentContext.getState());
+  }
+
+  /**
+   * Alternates the value of a dynamic attribute.
+   */
+  @Benchmark
+  public void updateWithDynamicChange(final Blackhole blackhole) {
+    componentContext.updateConfiguration(dynamicChanges[iteration++ & 1]);
+    blackhole.consume(componentContext.getState());
+  }
+
+  /**
+   * Alternates the value of a non-dynamic attribute that restarts the component.
+   */
+  @Benchmark
+  public void updateWithNonDynamicChange(final Blackhole blackhole) {
+    componentContext.updateConfiguration(nonDynamicChanges[iteration++ & 1]);
+    blackhole.consume(componentContext.getState());
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.osgi.ecm.component.ri.internal.FactoryComponentContainerImpl;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.ConfigurationException;
+
+/**
+ * Measures the heap that a factory container retains per component instance. Every invocation
+ * passes {@link #instanceCount} configurations to a new factory container, so the same number of
+ * component instances are activated, and the retained heap per instance is reported as the
+ * secondary result <code>retainedBytesPerInstance</code>. The score is the time of creating the
+ * instances; run the benchmark with <code>-prof gc</code> to see the allocated bytes as well.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FactoryFootprintBenchmark {
+
+  /**
+   * Measures the retained heap of an iteration. The state depends on the benchmark state, so its
+   * setup runs after the empty container is created and its teardown runs before the container is
+   * closed.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class RetainedHeap {
+
+    public long retainedBytesPerInstance;
+
+    private long usedHeapBeforeIteration;
+
+    /**
+     * Measures the heap before any instance is created.
+     */
+    @Setup(Level.Iteration)
+    public void setUpIteration(final FactoryFootprintBenchmark benchmark) {
+      retainedBytesPerInstance = 0;
+      usedHeapBeforeIteration = measureUsedHeap();
+    }
+
+    /**
+     * Measures the heap that the instances retain.
+     */
+    @TearDown(Level.Iteration)
+    public void tearDownIteration(final FactoryFootprintBenchmark benchmark) {
+      long retainedBytes = measureUsedHeap() - usedHeapBeforeIteration;
+      retainedBytesPerInstance = retainedBytes / benchmark.instanceCount;
+    }
+  }
+
+  private static final int GC_ROUNDS = 5;
+
+  private static long measureUsedHeap() {
+    MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < GC_ROUNDS; i++) {
+      memoryMXBean.gc();
+    }
+    return memoryMXBean.getHeapMemoryUsage().getUsed();
+  }
+
+  private FactoryComponentContainerImpl<BenchmarkComponent> container;
+
+  private BenchmarkEnvironment environment;
+
+  private ServiceRegistration<Greeter> greeterRegistration;
+
+  @Param({ "10000" })
+  public int instanceCount;
+
+  /**
+   * Creates the component instances by passing a configuration for each of them to the factory
+   * container. The retained heap state is a parameter only so that JMH reports its counters.
+   */
+  @Benchmark
+  public void createInstances(final RetainedHeap retainedHeap) throws ConfigurationException {
+    for (int i = 0; i < instanceCount; i++) {
+      Dictionary<String, Object> properties = new Hashtable<>();
+      properties.put(BenchmarkComponent.ATTR_LABEL, "instance-" + i);
+      container.updated("instance-" + i, properties);
+    }
+  }
+
+  /**
+   * Starts the framework and registers the service that the component references.
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    environment = new BenchmarkEnvironment();
+    greeterRegistration = environment.registerGreeter(0);
+  }
+
+  /**
+   * Creates an empty factory container.
+   */
+  @Setup(Level.Iteration)
+  public void setUpIteration() {
+    container = environment.createFactoryContainer();
+  }
+
+  /**
+   * Unregisters the referenced service and stops the framework.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    greeterRegistration.unregister();
+    environment.shutdown();
+  }
+
+  /**
+   * Closes the container.
+   */
+  @TearDown(Level.Iteration)
+  public void tearDownIteration() {
+    container.close();
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.everit.osgi.ecm.component.ri.internal.ComponentContextImpl;
+import org.everit.osgi.ecm.component.ri.internal.attribute.PropertyAttributeUtil;
+import org.everit.osgi.ecm.component.ri.internal.attribute.ValueConverter;
+import org.everit.osgi.ecm.metadata.AttributeMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Measures the conversions of the {@link ValueConverter}s that are done for every property
+ * attribute when the configuration of a component is resolved.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PropertyConversionBenchmark {
+
+  private ComponentContextImpl<BenchmarkComponent> componentContext;
+
+  private BenchmarkEnvironment environment;
+
+  private ServiceRegistration<Greeter> greeterRegistration;
+
+  private AttributeMetadata<?> labelAttribute;
+
+  private final Object oneElementArray = new String[] { "42" };
+
+  private AttributeMetadata<?> poolSizeAttribute;
+
+  private final String poolSizeValue = "42";
+
+  private AttributeMetadata<?> timeoutAttribute;
+
+  private final String timeoutValue = "30000";
+
+  private Object convert(final AttributeMetadata<?> attributeMetadata, final Object value) {
+    return componentContext.getValueConverterRegistry()
+        .getConverter(attributeMetadata, value.getClass()).convert(value, componentContext);
+  }
+
+  /**
+   * Converts a string to the same type, which is the most common case.
+   */
+  @Benchmark
+  public Object convertSameType() {
+    return convert(labelAttribute, poolSizeValue);
+  }
+
+  /**
+   * Converts a string to int.
+   */
+  @Benchmark
+  public Object convertStringToInt() {
+    return convert(poolSizeAttribute, poolSizeValue);
+  }
+
+  /**
+   * Converts a string to long.
+   */
+  @Benchmark
+  public Object convertStringToLong() {
+    return convert(timeoutAttribute, timeoutValue);
+  }
+
+  /**
+   * Resolves a string value that was specified in a one element array and converts it to int.
+   */
+  @Benchmark
+  public Object resolveOneElementArrayAndConvert() {
+    Object simpleValue = PropertyAttributeUtil.resolveSimpleValueEvenIfItIsInOneElementArray(
+        oneElementArray, componentContext, poolSizeAttribute);
+    return convert(poolSizeAttribute, simpleValue);
+  }
+
+  /**
+   * Starts the framework, registers the referenced service and activates the component that is
+   * passed to the conversion methods.
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    environment = new BenchmarkEnvironment();
+    greeterRegistration = environment.registerGreeter(0);
+    componentContext = environment.createContext(environment.createContainer(), null);
+    componentContext.open();
+
+    for (AttributeMetadata<?> attributeMetadata : componentContext.getComponentContainer()
+        .getComponentMetadata().getAttributes()) {
+      String attributeId = attributeMetadata.getAttributeId();
+      if (BenchmarkComponent.ATTR_LABEL.equals(attributeId)) {
+        labelAttribute = attributeMetadata;
+      } else if (BenchmarkComponent.ATTR_POOL_SIZE.equals(attributeId)) {
+        poolSizeAttribute = attributeMetadata;
+      } else if (BenchmarkComponent.ATTR_TIMEOUT.equals(attributeId)) {
+        timeoutAttribute = attributeMetadata;
+      }
+    }
+  }
+
+  /**
+   * Closes the component, unregisters the referenced service and stops the framework.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    componentContext.close();
+    greeterRegistration.unregister();
+    environment.shutdown();
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.everit.osgi.ecm.component.ri.internal.ComponentContextImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Measures {@code ComponentRevisionImpl.Builder.build()} through
+ * {@link ComponentContextImpl#getComponentRevision()}. The revision is cached until the state of
+ * the component changes, so the cost of building a new revision is the difference between
+ * {@link #rebindAndBuildRevision(Blackhole)} and {@link ReferenceRebindBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RevisionBuildBenchmark {
+
+  private ComponentContextImpl<BenchmarkComponent> componentContext;
+
+  private BenchmarkEnvironment environment;
+
+  private ServiceRegistration<Greeter> greeterRegistration;
+
+  /**
+   * Queries the revision of a component whose state does not change.
+   */
+  @Benchmark
+  public void getCachedRevision(final Blackhole blackhole) {
+    blackhole.consume(componentContext.getComponentRevision());
+  }
+
+  /**
+   * Rebinds the dynamic reference twice and builds the revision after both changes.
+   */
+  @Benchmark
+  public void rebindAndBuildRevision(final Blackhole blackhole) {
+    ServiceRegistration<Greeter> betterRanked = environment.registerGreeter(1);
+    blackhole.consume(componentContext.getComponentRevision());
+    betterRanked.unregister();
+    blackhole.consume(componentContext.getComponentRevision());
+  }
+
+  /**
+   * Starts the framework, registers the referenced service and activates the component.
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    environment = new BenchmarkEnvironment();
+    greeterRegistration = environment.registerGreeter(0);
+    componentContext = environment.createContext(environment.createContainer(), null);
+    componentContext.open();
+  }
+
+  /**
+   * Closes the component, unregisters the referenced service and stops the framework.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    componentContext.close();
+    greeterRegistration.unregister();
+    environment.shutdown();
+  }
+}
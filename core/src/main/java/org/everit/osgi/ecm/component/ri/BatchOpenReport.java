@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The result of opening multiple {@link ComponentContainerInstance}s together via
+ * {@link ComponentContainerFactory#openAll(java.util.Collection, java.util.concurrent.Executor)}.
+ */
+public final class BatchOpenReport {
+
+  private final Map<ComponentContainerInstance<?>, Throwable> failuresByContainer;
+
+  private final Map<ComponentContainerInstance<?>, Long> openNanosByContainer;
+
+  private final long totalNanos;
+
+  /**
+   * Constructor.
+   *
+   * @param totalNanos
+   *          The time in nanoseconds that passed from the start of the batch until the last
+   *          container was opened.
+   * @param openNanosByContainer
+   *          The time in nanoseconds that the {@link ComponentContainerInstance#open()} call took
+   *          for each container.
+   * @param failuresByContainer
+   *          The exceptions that were thrown by the {@link ComponentContainerInstance#open()}
+   *          calls.
+   */
+  public BatchOpenReport(final long totalNanos,
+      final Map<ComponentContainerInstance<?>, Long> openNanosByContainer,
+      final Map<ComponentContainerInstance<?>, Throwable> failuresByContainer) {
+    this.totalNanos = totalNanos;
+    this.openNanosByContainer = Collections.unmodifiableMap(
+        new LinkedHashMap<ComponentContainerInstance<?>, Long>(openNanosByContainer));
+    this.failuresByContainer = Collections.unmodifiableMap(
+        new LinkedHashMap<ComponentContainerInstance<?>, Throwable>(failuresByContainer));
+  }
+
+  /**
+   * The exceptions that were thrown when the containers were opened.
+   *
+   * @return The exceptions by the containers that could not be opened. The map is empty if all
+   *         containers were opened successfully.
+   */
+  public Map<ComponentContainerInstance<?>, Throwable> getFailuresByContainer() {
+    return failuresByContainer;
+  }
+
+  /**
+   * The time that opening the containers took one by one.
+   *
+   * @return The duration of the {@link ComponentContainerInstance#open()} call in nanoseconds for
+   *         every container in the same order as the containers were passed to the batch.
+   */
+  public Map<ComponentContainerInstance<?>, Long> getOpenNanosByContainer() {
+    return openNanosByContainer;
+  }
+
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  public boolean isSuccessful() {
+    return failuresByContainer.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return "BatchOpenReport [totalNanos=" + totalNanos + ", containerNum="
+        + openNanosByContainer.size() + ", failureNum=" + failuresByContainer.size() + "]";
+  }
+}
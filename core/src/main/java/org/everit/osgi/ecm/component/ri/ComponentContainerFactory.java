@@ -15,9 +15,18 @@
  */
 package org.everit.osgi.ecm.component.ri;
 
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
 import org.everit.osgi.ecm.component.ri.internal.ComponentContainerImpl;
+import org.everit.osgi.ecm.component.ri.internal.ContainerBatchOpener;
 import org.everit.osgi.ecm.component.ri.internal.FactoryComponentContainerImpl;
 import org.everit.osgi.ecm.component.ri.internal.JavaLogService;
+import org.everit.osgi.ecm.component.ri.internal.attribute.RequirementParseCache;
+import org.everit.osgi.ecm.component.ri.internal.resource.ServiceCapabilityCache;
 import org.everit.osgi.ecm.metadata.ComponentMetadata;
 import org.everit.osgi.ecm.metadata.ConfigurationPolicy;
 import org.osgi.framework.BundleContext;
@@ -30,8 +39,12 @@ public class ComponentContainerFactory {
 
   private final BundleContext bundleContext;
 
+  private final ServiceCapabilityCache capabilityCache;
+
   private final LogService logService;
 
+  private final ComponentContainerOptions options;
+
   /**
    * Same as using the constructor ComponentcontainerFactory(bundleContext, null).
    *
@@ -54,7 +67,31 @@ public class ComponentContainerFactory {
    *          used.
    */
   public ComponentContainerFactory(final BundleContext bundleContext, final LogService logService) {
+    this(bundleContext, logService, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param bundleContext
+   *          The context of the bundle that would like to create and open
+   *          {@link ComponentContainerInstance}s.
+   * @param logService
+   *          The logService to log to or <code>null</code> if the standard JDK logger should be
+   *          used.
+   * @param options
+   *          The options of the created containers or <code>null</code> if
+   *          {@link ComponentContainerOptions#DEFAULT} should be used.
+   */
+  public ComponentContainerFactory(final BundleContext bundleContext, final LogService logService,
+      final ComponentContainerOptions options) {
     this.bundleContext = bundleContext;
+    this.capabilityCache = new ServiceCapabilityCache();
+    if (options != null) {
+      this.options = options;
+    } else {
+      this.options = ComponentContainerOptions.DEFAULT;
+    }
     if (logService != null) {
       this.logService = logService;
     } else {
@@ -75,9 +112,132 @@ public class ComponentContainerFactory {
   public <C> ComponentContainerInstance<C> createComponentContainer(
       final ComponentMetadata componentMetadata) {
     if (ConfigurationPolicy.FACTORY.equals(componentMetadata.getConfigurationPolicy())) {
-      return new FactoryComponentContainerImpl<C>(componentMetadata, bundleContext, logService);
+      return new FactoryComponentContainerImpl<C>(componentMetadata, bundleContext, logService,
+          options, capabilityCache);
     } else {
-      return new ComponentContainerImpl<C>(componentMetadata, bundleContext, logService);
+      return new ComponentContainerImpl<C>(componentMetadata, bundleContext, logService,
+          options, capabilityCache);
+    }
+  }
+
+  /**
+   * Returns the statistics of the cache of the parsed requirements of the references. The cache
+   * is shared by the containers of every factory, so the statistics contain the requirements of
+   * all of them.
+   *
+   * @return A snapshot of the statistics of the cache.
+   */
+  public RequirementParseCacheStatistics getRequirementParseCacheStatistics() {
+    return RequirementParseCache.getInstance().getStatistics();
+  }
+
+  /**
+   * Opens the containers concurrently on an executor that uses virtual threads if they are
+   * available in the JVM or as many threads as many processors are available. See
+   * {@link #openAll(Collection, Executor)} for more information.
+   *
+   * @param containers
+   *          The containers that should be opened.
+   * @return The report about the duration and the failures of opening the containers.
+   * @throws InterruptedException
+   *           if the current thread is interrupted while it waits for the containers.
+   */
+  public BatchOpenReport openAll(
+      final Collection<? extends ComponentContainerInstance<?>> containers)
+      throws InterruptedException {
+    ExecutorService executor = ContainerBatchOpener.createDefaultExecutor();
+    try {
+      return openAll(containers, executor);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Opens the containers concurrently on the specified executor and waits until all of them are
+   * opened. A container that references a service that is provided by another container of the
+   * batch is opened after the providing container, so its reference is already satisfied when it
+   * is opened. Containers that reference each other circularly are opened at the same time.
+   *
+   * <p>
+   * An exception that is thrown by the {@link ComponentContainerInstance#open()} method of a
+   * container does not stop opening the other containers. The exception is available in the
+   * returned report.
+   *
+   * @param containers
+   *          The containers that should be opened.
+   * @param executor
+   *          The executor that opens the containers.
+   * @return The report about the duration and the failures of opening the containers.
+   * @throws InterruptedException
+   *           if the current thread is interrupted while it waits for the containers.
+   */
+  public BatchOpenReport openAll(
+      final Collection<? extends ComponentContainerInstance<?>> containers,
+      final Executor executor) throws InterruptedException {
+    return new ContainerBatchOpener(containers, executor).openAll();
+  }
+
+  /**
+   * Applies the configurations on a factory container concurrently on an executor that uses
+   * virtual threads if they are available in the JVM or as many threads as many processors are
+   * available. See
+   * {@link #updateAll(ComponentContainerInstance, Map, Executor, ConfigurationBatchListener)} for
+   * more information.
+   *
+   * @param container
+   *          The container that was created for a component with factory configuration policy.
+   * @param configurations
+   *          The properties of the configurations by their PIDs.
+   * @return The report about the duration and the failures of applying the configurations.
+   * @throws InterruptedException
+   *           if the current thread is interrupted while it waits for the configurations.
+   */
+  public ConfigurationBatchReport updateAll(final ComponentContainerInstance<?> container,
+      final Map<String, ? extends Dictionary<String, ?>> configurations)
+      throws InterruptedException {
+    ExecutorService executor = ContainerBatchOpener.createDefaultExecutor();
+    try {
+      return updateAll(container, configurations, executor, null);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Applies the configurations on a factory container concurrently on the specified executor and
+   * waits until all of them are applied. It has the same effect as if
+   * {@link org.osgi.service.cm.ManagedServiceFactory#updated(String, Dictionary)} was called for
+   * each configuration, but the component instances of different configurations are created and
+   * opened in parallel.
+   *
+   * <p>
+   * An exception that is thrown while a configuration is applied does not stop applying the other
+   * configurations. The exception is available in the returned report.
+   *
+   * @param container
+   *          The container that was created for a component with factory configuration policy.
+   * @param configurations
+   *          The properties of the configurations by their PIDs.
+   * @param executor
+   *          The executor that applies the configurations.
+   * @param listener
+   *          The listener that is notified about the progress or <code>null</code>.
+   * @return The report about the duration and the failures of applying the configurations.
+   * @throws InterruptedException
+   *           if the current thread is interrupted while it waits for the configurations.
+   * @throws IllegalArgumentException
+   *           if the container does not belong to a component with factory configuration policy.
+   */
+  public ConfigurationBatchReport updateAll(final ComponentContainerInstance<?> container,
+      final Map<String, ? extends Dictionary<String, ?>> configurations,
+      final Executor executor, final ConfigurationBatchListener listener)
+      throws InterruptedException {
+    if (!(container instanceof FactoryComponentContainerImpl)) {
+      throw new IllegalArgumentException(
+          "Configurations can be applied in batch only on factory component containers");
     }
+    return ((FactoryComponentContainerImpl<?>) container).updateAll(configurations, executor,
+        listener);
   }
 }
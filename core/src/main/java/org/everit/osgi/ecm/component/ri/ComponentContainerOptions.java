@@ -0,0 +1,543 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options that change the default behavior of the {@link ComponentContainerInstance}s that are
+ * created by a {@link ComponentContainerFactory}. Instances are immutable and can be created via
+ * {@link Builder}.
+ */
+public final class ComponentContainerOptions {
+
+  /**
+   * Builder of {@link ComponentContainerOptions}.
+   */
+  public static final class Builder {
+
+    private Executor activationExecutor;
+
+    private boolean asynchronousActivation = false;
+
+    private Executor configurationBatchExecutor;
+
+    private ConfigurationBatchListener configurationBatchListener;
+
+    private boolean configurationBatching = false;
+
+    private boolean incrementalReferenceBinding = false;
+
+    private long instancePoolIdleTimeoutNanos = 0;
+
+    private int instancePoolMaxSize = Integer.MAX_VALUE;
+
+    private int instancePoolMinSize = 0;
+
+    private boolean lazyActivation = false;
+
+    private long lazyActivationIdleTimeoutNanos = 0;
+
+    private boolean lazyServiceProxies = false;
+
+    private ComponentLifecycleListener lifecycleListener;
+
+    private boolean liveServiceViews = false;
+
+    private boolean referenceEventCoalescing = false;
+
+    private long referenceEventCoalescingWindowNanos = 0;
+
+    private boolean serviceRetentionOnRestart = false;
+
+    private ComponentServiceScope serviceScope = ComponentServiceScope.SINGLETON;
+
+    public ComponentContainerOptions build() {
+      return new ComponentContainerOptions(this);
+    }
+
+    /**
+     * Sets the executor that instantiates and activates the components if asynchronous activation
+     * is turned on via {@link #withAsynchronousActivation(boolean)}. The executor may be shared
+     * between any number of containers.
+     *
+     * @param activationExecutor
+     *          The executor or <code>null</code> if a shared executor of ECM with daemon threads
+     *          should be used.
+     * @return This builder.
+     */
+    public Builder withActivationExecutor(final Executor activationExecutor) {
+      this.activationExecutor = activationExecutor;
+      return this;
+    }
+
+    /**
+     * Turns on or off the asynchronous activation of the components. By default, the component
+     * is instantiated, its references and properties are applied and its activate method is
+     * called on the thread that made the component satisfied (often the thread that delivers the
+     * service events of the framework). If asynchronous activation is turned on, the component
+     * goes to {@link org.everit.osgi.ecm.component.resource.ComponentState#STARTING} state
+     * immediately and the activation runs on the activation executor. While the activation is
+     * pending, the revision of the component is in <code>STARTING</code> state without a
+     * processing thread.
+     *
+     * <p>
+     * The deactivation of the components remains synchronous, as the component must stop using
+     * the referenced services before the service events about their unregistration are processed.
+     *
+     * @param enabled
+     *          Whether the components should be activated asynchronously or not.
+     * @return This builder.
+     */
+    public Builder withAsynchronousActivation(final boolean enabled) {
+      this.asynchronousActivation = enabled;
+      return this;
+    }
+
+    /**
+     * Sets the executor that applies the configurations of factory components if configuration
+     * batching is turned on via {@link #withConfigurationBatching(boolean)}. The executor may be
+     * shared between any number of containers.
+     *
+     * @param configurationBatchExecutor
+     *          The executor or <code>null</code> if a shared executor of ECM with daemon threads
+     *          should be used.
+     * @return This builder.
+     */
+    public Builder withConfigurationBatchExecutor(final Executor configurationBatchExecutor) {
+      this.configurationBatchExecutor = configurationBatchExecutor;
+      return this;
+    }
+
+    /**
+     * Sets the listener that is notified about the progress of the configuration batches if
+     * configuration batching is turned on via {@link #withConfigurationBatching(boolean)}.
+     *
+     * @param configurationBatchListener
+     *          The listener or <code>null</code>.
+     * @return This builder.
+     */
+    public Builder withConfigurationBatchListener(
+        final ConfigurationBatchListener configurationBatchListener) {
+      this.configurationBatchListener = configurationBatchListener;
+      return this;
+    }
+
+    /**
+     * Turns on or off the batching of the configurations of factory components. By default,
+     * Configuration Admin creates and opens the component instances one by one on its own thread.
+     * If batching is turned on, the configurations that Configuration Admin delivers are queued
+     * and the queued configurations are applied in batches on the configuration batch executor.
+     * The configurations with different PIDs are applied in parallel, while the changes of the
+     * same PID are applied in the order they were delivered.
+     *
+     * @param enabled
+     *          Whether the configurations of factory components should be applied in batches.
+     * @return This builder.
+     */
+    public Builder withConfigurationBatching(final boolean enabled) {
+      this.configurationBatching = enabled;
+      return this;
+    }
+
+    /**
+     * Turns on or off the incremental binding of multiple service references. By default, the
+     * array setter of a reference is called with all bound services whenever any of them changes.
+     * If incremental binding is turned on and the component declares the <code>add</code> and
+     * <code>remove</code> callbacks of a reference with an array setter, only the changes are
+     * delivered: the callbacks are called with one service (or {@link
+     * org.everit.osgi.ecm.component.ServiceHolder}) each and the setter is not called. For a setter
+     * named <code>setFoos(Foo[])</code>, the callbacks are <code>addFoos(Foo)</code> and
+     * <code>removeFoos(Foo)</code>. The optional <code>modifiedFoos(Foo)</code> callback is called
+     * if a service stays bound but the attributes of its requirement change, otherwise such a
+     * change is delivered as a removal and an addition.
+     *
+     * @param enabled
+     *          Whether the changes of multiple service references should be delivered to the add
+     *          and remove callbacks of the components.
+     * @return This builder.
+     */
+    public Builder withIncrementalReferenceBinding(final boolean enabled) {
+      this.incrementalReferenceBinding = enabled;
+      return this;
+    }
+
+    /**
+     * Sets the time after which an idle instance of a component with bundle or prototype service
+     * scope is deactivated, as long as the pool of the component keeps more instances than its
+     * minimum size. Has effect only if the service scope is set via
+     * {@link #withServiceScope(ComponentServiceScope)}.
+     *
+     * @param idleTimeout
+     *          The time while an instance may stay idle in the pool. Zero means that the idle
+     *          instances are kept until the component is stopped.
+     * @param timeUnit
+     *          The unit of the timeout.
+     * @return This builder.
+     */
+    public Builder withInstancePoolIdleTimeout(final long idleTimeout, final TimeUnit timeUnit) {
+      if (idleTimeout < 0) {
+        throw new IllegalArgumentException("Idle timeout must not be negative: " + idleTimeout);
+      }
+      this.instancePoolIdleTimeoutNanos = timeUnit.toNanos(idleTimeout);
+      return this;
+    }
+
+    /**
+     * Sets the size of the pool of the instances of components with bundle or prototype service
+     * scope. The pool is warmed up with <code>minSize</code> instances when the component is
+     * activated. The pool keeps at most <code>maxSize</code> instances: if more consumers use the
+     * service at the same time, the additional instances are deactivated when they are released.
+     * Consumers never wait for a free instance. Has effect only if the service scope is set via
+     * {@link #withServiceScope(ComponentServiceScope)}.
+     *
+     * @param minSize
+     *          The number of instances that are created on activation and kept even if they are
+     *          idle.
+     * @param maxSize
+     *          The maximum number of instances that the pool keeps.
+     * @return This builder.
+     */
+    public Builder withInstancePoolSize(final int minSize, final int maxSize) {
+      if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+        throw new IllegalArgumentException("Invalid instance pool size: [minSize=" + minSize
+            + ", maxSize=" + maxSize + "]");
+      }
+      this.instancePoolMinSize = minSize;
+      this.instancePoolMaxSize = maxSize;
+      return this;
+    }
+
+    /**
+     * Turns on or off the lazy activation of the components that provide a service. By default,
+     * a component is instantiated and activated as soon as its references are satisfied, even if
+     * nobody ever uses its service. If lazy activation is turned on, a
+     * {@link org.osgi.framework.ServiceFactory} is registered for the component when it becomes
+     * satisfied and the component is instantiated, bound and activated only when the first bundle
+     * gets the service. Until then, the revision of the component is <code>ACTIVE</code> without
+     * an instance. Components that do not provide a service are always activated eagerly, while
+     * components with bundle or prototype service scope are always instantiated on demand.
+     *
+     * @param enabled
+     *          Whether components that provide a service should be activated lazily or not.
+     * @return This builder.
+     */
+    public Builder withLazyActivation(final boolean enabled) {
+      this.lazyActivation = enabled;
+      return this;
+    }
+
+    /**
+     * Sets the time after which a lazily activated component is deactivated if no bundle uses its
+     * service. The service of the component remains registered and the component is activated
+     * again when a bundle gets the service next time. Has effect only if lazy activation is turned
+     * on via {@link #withLazyActivation(boolean)}.
+     *
+     * @param idleTimeout
+     *          The time while the component may stay active without being used. Zero means that
+     *          the component is deactivated only when it is stopped.
+     * @param timeUnit
+     *          The unit of the timeout.
+     * @return This builder.
+     */
+    public Builder withLazyActivationIdleTimeout(final long idleTimeout,
+        final TimeUnit timeUnit) {
+      if (idleTimeout < 0) {
+        throw new IllegalArgumentException("Idle timeout must not be negative: " + idleTimeout);
+      }
+      this.lazyActivationIdleTimeoutNanos = timeUnit.toNanos(idleTimeout);
+      return this;
+    }
+
+    /**
+     * Turns on or off the injection of lazy service proxies. By default, every referenced service
+     * is got when the reference is bound to the component, even if the component calls the
+     * service rarely or never. If lazy proxies are turned on, a proxy is injected instead of each
+     * service of a reference whose type is an interface, and the proxy gets the service only when
+     * one of its methods is called for the first time. This avoids calling the service factories
+     * of the referenced services while the component is activated. A proxy throws a
+     * {@link org.osgi.framework.ServiceException} if the service is not available anymore when it
+     * is called.
+     *
+     * <p>
+     * The <code>equals</code> and <code>hashCode</code> methods of the proxies are based on the
+     * identity of the proxies and they are not passed to the services. This changes the behavior
+     * of components that compare the injected services or use them as keys in hash based
+     * collections: two proxies of the same service (e.g. injected by different references or
+     * after a rebind) are not equal and a proxy is never equal to the service itself.
+     *
+     * @param enabled
+     *          Whether proxies should be injected instead of the services of the references.
+     * @return This builder.
+     */
+    public Builder withLazyServiceProxies(final boolean enabled) {
+      this.lazyServiceProxies = enabled;
+      return this;
+    }
+
+    /**
+     * Sets the listener that is notified about the timings of the lifecycle phases and the state
+     * changes of the components. If no listener is set, the lifecycle phases are not timed.
+     *
+     * @param lifecycleListener
+     *          The listener or <code>null</code>.
+     * @return This builder.
+     */
+    public Builder withLifecycleListener(final ComponentLifecycleListener lifecycleListener) {
+      this.lifecycleListener = lifecycleListener;
+      return this;
+    }
+
+    /**
+     * Turns on or off the live views of service references. If live views are turned on and the
+     * parameter of the setter of a service reference is a {@link java.util.Map}, the setter is
+     * called only once for each component instance with a read-only view of the bound services by
+     * requirement ids, and the view follows the later changes of the reference without calling
+     * the setter again. References whose service interface is {@link java.util.Map} itself get
+     * the services as before.
+     *
+     * @param enabled
+     *          Whether setters with a Map parameter should get a live view of the services.
+     * @return This builder.
+     */
+    public Builder withLiveServiceViews(final boolean enabled) {
+      this.liveServiceViews = enabled;
+      return this;
+    }
+
+    /**
+     * Turns on or off the coalescing of reference events. If coalescing is turned on, the changes
+     * of the references of a component are collected and only the final state is applied on the
+     * component. E.g.: if a hundred services appear that are referenced by the component, the
+     * component is restarted or the references are re-bound only once instead of a hundred times.
+     *
+     * <p>
+     * The changes are applied when the lifecycle step that is currently in progress on the
+     * component (e.g.: activation) finishes. If a coalescing window is specified via
+     * {@link #withReferenceEventCoalescingWindow(long, TimeUnit)}, the changes are applied when
+     * the window elapses after the first change.
+     *
+     * @param enabled
+     *          Whether reference events should be coalesced or not.
+     * @return This builder.
+     */
+    public Builder withReferenceEventCoalescing(final boolean enabled) {
+      this.referenceEventCoalescing = enabled;
+      return this;
+    }
+
+    /**
+     * Sets the window during which the reference events of a component are collected before they
+     * are applied. The window starts when the first event arrives after the previous changes were
+     * applied. Has effect only if coalescing is turned on via
+     * {@link #withReferenceEventCoalescing(boolean)}.
+     *
+     * @param window
+     *          The length of the window. Zero means that the events are applied as soon as the
+     *          lifecycle step that is currently in progress on the component finishes.
+     * @param timeUnit
+     *          The unit of the window.
+     * @return This builder.
+     */
+    public Builder withReferenceEventCoalescingWindow(final long window,
+        final TimeUnit timeUnit) {
+      if (window < 0) {
+        throw new IllegalArgumentException("Coalescing window must not be negative: " + window);
+      }
+      this.referenceEventCoalescingWindowNanos = timeUnit.toNanos(window);
+      return this;
+    }
+
+    /**
+     * Turns on or off the retention of the referenced services when a component restarts. By
+     * default, a component that restarts due to the change of a non-dynamic reference releases
+     * all services that it got and gets them again when it is activated. If retention is turned
+     * on, the services whose capability did not change are passed to the new instance of the
+     * component without getting them again, so expensive service factories are not called twice.
+     * Only the services that were replaced or that are not referenced anymore are released. The
+     * services are retained only until the restart finishes, so components that are activated
+     * asynchronously or lazily get their services again.
+     *
+     * @param enabled
+     *          Whether the services of the references should be retained when a component
+     *          restarts.
+     * @return This builder.
+     */
+    public Builder withServiceRetentionOnRestart(final boolean enabled) {
+      this.serviceRetentionOnRestart = enabled;
+      return this;
+    }
+
+    /**
+     * Sets the scope of the OSGi service of the components. By default, one instance of a
+     * component is registered as a singleton service. With {@link ComponentServiceScope#BUNDLE}
+     * or {@link ComponentServiceScope#PROTOTYPE} scope, a service factory is registered and each
+     * consumer gets its own instance of the component, so stateful components can serve
+     * concurrent consumers without internal locking. The instances are created, bound and
+     * activated when they are requested. The instances that the consumers release are kept
+     * activated in a pool and they are handed out again on the next request (see
+     * {@link #withInstancePoolSize(int, int)}). Components that do not provide a service always
+     * have one instance.
+     *
+     * @param serviceScope
+     *          The scope of the service of the components.
+     * @return This builder.
+     */
+    public Builder withServiceScope(final ComponentServiceScope serviceScope) {
+      if (serviceScope == null) {
+        throw new IllegalArgumentException("Service scope must not be null");
+      }
+      this.serviceScope = serviceScope;
+      return this;
+    }
+  }
+
+  /**
+   * The options that are used if no options are specified for the
+   * {@link ComponentContainerFactory}.
+   */
+  public static final ComponentContainerOptions DEFAULT = new Builder().build();
+
+  private final Executor activationExecutor;
+
+  private final boolean asynchronousActivation;
+
+  private final Executor configurationBatchExecutor;
+
+  private final ConfigurationBatchListener configurationBatchListener;
+
+  private final boolean configurationBatching;
+
+  private final boolean incrementalReferenceBinding;
+
+  private final long instancePoolIdleTimeoutNanos;
+
+  private final int instancePoolMaxSize;
+
+  private final int instancePoolMinSize;
+
+  private final boolean lazyActivation;
+
+  private final long lazyActivationIdleTimeoutNanos;
+
+  private final boolean lazyServiceProxies;
+
+  private final ComponentLifecycleListener lifecycleListener;
+
+  private final boolean liveServiceViews;
+
+  private final boolean referenceEventCoalescing;
+
+  private final long referenceEventCoalescingWindowNanos;
+
+  private final boolean serviceRetentionOnRestart;
+
+  private final ComponentServiceScope serviceScope;
+
+  private ComponentContainerOptions(final Builder builder) {
+    this.activationExecutor = builder.activationExecutor;
+    this.asynchronousActivation = builder.asynchronousActivation;
+    this.configurationBatchExecutor = builder.configurationBatchExecutor;
+    this.configurationBatchListener = builder.configurationBatchListener;
+    this.configurationBatching = builder.configurationBatching;
+    this.incrementalReferenceBinding = builder.incrementalReferenceBinding;
+    this.instancePoolIdleTimeoutNanos = builder.instancePoolIdleTimeoutNanos;
+    this.instancePoolMaxSize = builder.instancePoolMaxSize;
+    this.instancePoolMinSize = builder.instancePoolMinSize;
+    this.lazyActivation = builder.lazyActivation;
+    this.lazyActivationIdleTimeoutNanos = builder.lazyActivationIdleTimeoutNanos;
+    this.lazyServiceProxies = builder.lazyServiceProxies;
+    this.lifecycleListener = builder.lifecycleListener;
+    this.liveServiceViews = builder.liveServiceViews;
+    this.referenceEventCoalescing = builder.referenceEventCoalescing;
+    this.referenceEventCoalescingWindowNanos = builder.referenceEventCoalescingWindowNanos;
+    this.serviceRetentionOnRestart = builder.serviceRetentionOnRestart;
+    this.serviceScope = builder.serviceScope;
+  }
+
+  public Executor getActivationExecutor() {
+    return activationExecutor;
+  }
+
+  public Executor getConfigurationBatchExecutor() {
+    return configurationBatchExecutor;
+  }
+
+  public ConfigurationBatchListener getConfigurationBatchListener() {
+    return configurationBatchListener;
+  }
+
+  public long getInstancePoolIdleTimeoutNanos() {
+    return instancePoolIdleTimeoutNanos;
+  }
+
+  public int getInstancePoolMaxSize() {
+    return instancePoolMaxSize;
+  }
+
+  public int getInstancePoolMinSize() {
+    return instancePoolMinSize;
+  }
+
+  public long getLazyActivationIdleTimeoutNanos() {
+    return lazyActivationIdleTimeoutNanos;
+  }
+
+  public ComponentLifecycleListener getLifecycleListener() {
+    return lifecycleListener;
+  }
+
+  public long getReferenceEventCoalescingWindowNanos() {
+    return referenceEventCoalescingWindowNanos;
+  }
+
+  public ComponentServiceScope getServiceScope() {
+    return serviceScope;
+  }
+
+  public boolean isAsynchronousActivation() {
+    return asynchronousActivation;
+  }
+
+  public boolean isConfigurationBatching() {
+    return configurationBatching;
+  }
+
+  public boolean isIncrementalReferenceBinding() {
+    return incrementalReferenceBinding;
+  }
+
+  public boolean isLazyActivation() {
+    return lazyActivation;
+  }
+
+  public boolean isLazyServiceProxies() {
+    return lazyServiceProxies;
+  }
+
+  public boolean isLiveServiceViews() {
+    return liveServiceViews;
+  }
+
+  public boolean isReferenceEventCoalescing() {
+    return referenceEventCoalescing;
+  }
+
+  public boolean isServiceRetentionOnRestart() {
+    return serviceRetentionOnRestart;
+  }
+}
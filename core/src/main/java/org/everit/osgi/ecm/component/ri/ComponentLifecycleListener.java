@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri;
+
+import org.everit.osgi.ecm.component.resource.ComponentContainer;
+import org.everit.osgi.ecm.component.resource.ComponentState;
+
+/**
+ * Listener that is notified about the timings of the lifecycle phases and about the state changes
+ * of the components. A listener can be registered via
+ * {@link ComponentContainerOptions.Builder#withLifecycleListener(ComponentLifecycleListener)}.
+ *
+ * <p>
+ * The methods of the listener are called synchronously on the thread that manages the lifecycle
+ * of the component, so they should return quickly. Exceptions thrown by the listener are logged
+ * and do not affect the component.
+ */
+public interface ComponentLifecycleListener {
+
+  /**
+   * Called when a component fails.
+   *
+   * @param container
+   *          The container of the component.
+   * @param cause
+   *          The cause of the failure.
+   * @param permanent
+   *          Whether the failure is permanent and can be resolved only by updating the component
+   *          binary.
+   */
+  void componentFailed(ComponentContainer<?> container, Throwable cause, boolean permanent);
+
+  /**
+   * Checks whether the listener should be notified. If the listener is not enabled, the phases are
+   * not timed at all.
+   *
+   * @return <code>true</code> if the listener collects information.
+   */
+  boolean isEnabled();
+
+  /**
+   * Called when a lifecycle phase of a component finished, even if it failed.
+   *
+   * @param container
+   *          The container of the component.
+   * @param phase
+   *          The phase that finished.
+   * @param attributeId
+   *          The id of the attribute that the phase belongs to in case of
+   *          {@link ComponentLifecyclePhase#APPLY_PROPERTY} and
+   *          {@link ComponentLifecyclePhase#BIND}, otherwise <code>null</code>.
+   * @param durationNanos
+   *          The time the phase took in nanoseconds.
+   */
+  void phaseCompleted(ComponentContainer<?> container, ComponentLifecyclePhase phase,
+      String attributeId, long durationNanos);
+
+  /**
+   * Called when a reference of a component becomes satisfied or unsatisfied.
+   *
+   * @param container
+   *          The container of the component.
+   * @param referenceId
+   *          The attribute id of the reference.
+   * @param satisfied
+   *          Whether the reference became satisfied or unsatisfied.
+   */
+  void referenceSatisfactionChanged(ComponentContainer<?> container, String referenceId,
+      boolean satisfied);
+
+  /**
+   * Called when the state of a component changes.
+   *
+   * @param container
+   *          The container of the component.
+   * @param oldState
+   *          The state of the component before the change.
+   * @param newState
+   *          The state of the component after the change.
+   */
+  void stateChanged(ComponentContainer<?> container, ComponentState oldState,
+      ComponentState newState);
+}
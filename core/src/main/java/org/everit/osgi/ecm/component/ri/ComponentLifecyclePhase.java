@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri;
+
+/**
+ * The timed phases of the lifecycle of a component that are reported to
+ * {@link ComponentLifecycleListener#phaseCompleted(
+ * org.everit.osgi.ecm.component.resource.ComponentContainer, ComponentLifecyclePhase, String,
+ * long)}.
+ */
+public enum ComponentLifecyclePhase {
+
+  /**
+   * Calling the activate method of the component instance.
+   */
+  ACTIVATE,
+
+  /**
+   * Applying the value of a property attribute on the component instance via its setter.
+   */
+  APPLY_PROPERTY,
+
+  /**
+   * Passing the current value of a reference to the component instance via its setter.
+   */
+  BIND,
+
+  /**
+   * Calling the deactivate method of the component instance.
+   */
+  DEACTIVATE,
+
+  /**
+   * Instantiating the component class.
+   */
+  INSTANTIATE,
+
+  /**
+   * Opening the component context, including the tracking of the references and the starting of
+   * the component if it is satisfied.
+   */
+  OPEN,
+
+  /**
+   * Registering the OSGi service of the component instance.
+   */
+  REGISTER_SERVICE,
+
+  /**
+   * Starting the component from instantiation until it becomes active or fails.
+   */
+  START,
+
+  /**
+   * Stopping the component, including the deactivation and the release of the references.
+   */
+  STOP,
+
+  /**
+   * Releasing the references of a component instance that is stopped.
+   */
+  UNBIND,
+
+  /**
+   * Applying a new configuration on the component.
+   */
+  UPDATE_CONFIGURATION
+}
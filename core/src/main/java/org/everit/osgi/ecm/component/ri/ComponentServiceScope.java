@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri;
+
+/**
+ * The scope of the OSGi service that a component is registered with. The scope decides whether
+ * the consumers of the service share one instance of the component or each of them gets its own
+ * instance.
+ */
+public enum ComponentServiceScope {
+
+  /**
+   * Each bundle that gets the service gets its own instance of the component.
+   */
+  BUNDLE,
+
+  /**
+   * Each bundle gets its own instance of the component and a bundle may get any number of
+   * instances via {@link org.osgi.framework.ServiceObjects}.
+   */
+  PROTOTYPE,
+
+  /**
+   * All consumers of the service share the same instance of the component.
+   */
+  SINGLETON
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri;
+
+import org.everit.osgi.ecm.component.resource.ComponentContainer;
+
+/**
+ * Listener that is notified about the progress of applying a batch of factory configurations.
+ * The listener is called on the threads of the executor that applies the configurations, so the
+ * implementation must be thread safe.
+ */
+public interface ConfigurationBatchListener {
+
+  /**
+   * Called when all changes of one configuration of the batch were applied on the container.
+   *
+   * @param container
+   *          The factory container that the configuration belongs to.
+   * @param pid
+   *          The PID of the configuration.
+   * @param failure
+   *          The exception that was thrown while the configuration was applied or
+   *          <code>null</code> if the configuration was applied successfully.
+   * @param processedNum
+   *          The number of configurations of the batch that are processed, including this one.
+   * @param totalNum
+   *          The number of configurations in the batch.
+   */
+  void configurationProcessed(ComponentContainer<?> container, String pid, Throwable failure,
+      int processedNum, int totalNum);
+}
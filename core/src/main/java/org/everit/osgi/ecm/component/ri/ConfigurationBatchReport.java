@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The result of applying multiple factory configurations together via
+ * {@link ComponentContainerFactory#updateAll(ComponentContainerInstance, Map)}.
+ */
+public final class ConfigurationBatchReport {
+
+  private final int configurationNum;
+
+  private final Map<String, Throwable> failuresByPid;
+
+  private final long totalNanos;
+
+  /**
+   * Constructor.
+   *
+   * @param totalNanos
+   *          The time in nanoseconds that passed from the start of the batch until the last
+   *          configuration was applied.
+   * @param configurationNum
+   *          The number of configurations (different PIDs) in the batch.
+   * @param failuresByPid
+   *          The exceptions that were thrown while the configurations were applied.
+   */
+  public ConfigurationBatchReport(final long totalNanos, final int configurationNum,
+      final Map<String, Throwable> failuresByPid) {
+    this.totalNanos = totalNanos;
+    this.configurationNum = configurationNum;
+    this.failuresByPid = Collections.unmodifiableMap(
+        new LinkedHashMap<String, Throwable>(failuresByPid));
+  }
+
+  public int getConfigurationNum() {
+    return configurationNum;
+  }
+
+  /**
+   * The exceptions that were thrown when the configurations were applied.
+   *
+   * @return The exceptions by the PIDs of the configurations that could not be applied. The map is
+   *         empty if all configurations were applied successfully.
+   */
+  public Map<String, Throwable> getFailuresByPid() {
+    return failuresByPid;
+  }
+
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  public boolean isSuccessful() {
+    return failuresByPid.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return "ConfigurationBatchReport [totalNanos=" + totalNanos + ", configurationNum="
+        + configurationNum + ", failureNum=" + failuresByPid.size() + "]";
+  }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.everit.osgi.ecm.component.resource.ComponentContainer;
+import org.everit.osgi.ecm.component.resource.ComponentState;
+
+/**
+ * {@link ComponentLifecycleListener} that aggregates the durations of the lifecycle phases into
+ * histograms per component and counts the state changes and failures. Recording a duration does
+ * not allocate memory after the first event of a component and it does not lock. The collection
+ * can be turned off and on at runtime via {@link #setEnabled(boolean)}.
+ */
+public class HistogramComponentLifecycleListener implements ComponentLifecycleListener {
+
+  /**
+   * Histogram of durations with buckets that are powers of two in nanoseconds. The bucket with
+   * index <code>i</code> holds the durations that are at least <code>2^i</code> and smaller than
+   * <code>2^(i+1)</code> nanoseconds, except the first bucket that holds zero durations as well.
+   */
+  public static final class Histogram {
+
+    /**
+     * The number of buckets in every histogram.
+     */
+    public static final int BUCKET_COUNT = Long.SIZE - 1;
+
+    private static int bucketIndex(final long durationNanos) {
+      if (durationNanos <= 1) {
+        return 0;
+      }
+      return Long.SIZE - 1 - Long.numberOfLeadingZeros(durationNanos);
+    }
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    Histogram() {
+    }
+
+    private void add(final Histogram other) {
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        buckets.addAndGet(i, other.buckets.get(i));
+      }
+      count.addAndGet(other.count.get());
+      totalNanos.addAndGet(other.totalNanos.get());
+      updateMax(other.maxNanos.get());
+    }
+
+    /**
+     * Returns the number of recorded durations in a bucket.
+     *
+     * @param bucketIndex
+     *          The index of the bucket between <code>0</code> and {@link #BUCKET_COUNT}
+     *          (exclusive).
+     * @return The number of durations in the bucket.
+     */
+    public long getBucketCount(final int bucketIndex) {
+      return buckets.get(bucketIndex);
+    }
+
+    public long getCount() {
+      return count.get();
+    }
+
+    public long getMaxNanos() {
+      return maxNanos.get();
+    }
+
+    /**
+     * Returns the average of the recorded durations.
+     *
+     * @return The average duration in nanoseconds or zero if nothing was recorded.
+     */
+    public long getMeanNanos() {
+      long currentCount = count.get();
+      if (currentCount == 0) {
+        return 0;
+      }
+      return totalNanos.get() / currentCount;
+    }
+
+    public long getTotalNanos() {
+      return totalNanos.get();
+    }
+
+    /**
+     * Returns an upper estimate of the duration that the specified percentage of the recorded
+     * durations do not exceed. The result is the upper bound of the bucket of the percentile, but
+     * never more than the maximum recorded duration.
+     *
+     * @param percentile
+     *          A percentile between zero and hundred.
+     * @return The estimated duration in nanoseconds or zero if nothing was recorded.
+     */
+    public long getValueAtPercentile(final double percentile) {
+      if ((percentile < 0) || (percentile > 100)) {
+        throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+      }
+      long currentCount = count.get();
+      if (currentCount == 0) {
+        return 0;
+      }
+      long threshold = Math.max(1, (long) Math.ceil(currentCount * percentile / 100));
+      long seen = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        seen += buckets.get(i);
+        if (seen >= threshold) {
+          long upperBound = (i == BUCKET_COUNT - 1) ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+          return Math.min(upperBound, maxNanos.get());
+        }
+      }
+      return maxNanos.get();
+    }
+
+    void record(final long durationNanos) {
+      long nonNegativeDuration = Math.max(0, durationNanos);
+      buckets.incrementAndGet(bucketIndex(nonNegativeDuration));
+      count.incrementAndGet();
+      totalNanos.addAndGet(nonNegativeDuration);
+      updateMax(nonNegativeDuration);
+    }
+
+    @Override
+    public String toString() {
+      return "Histogram [count=" + count + ", meanNanos=" + getMeanNanos() + ", p99Nanos="
+          + getValueAtPercentile(99) + ", maxNanos=" + maxNanos + "]";
+    }
+
+    private void updateMax(final long durationNanos) {
+      long currentMax = maxNanos.get();
+      while ((durationNanos > currentMax) && !maxNanos.compareAndSet(currentMax, durationNanos)) {
+        currentMax = maxNanos.get();
+      }
+    }
+  }
+
+  private static final ComponentLifecyclePhase[] PHASES = ComponentLifecyclePhase.values();
+
+  private static Histogram[] createHistograms() {
+    Histogram[] result = new Histogram[PHASES.length];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = new Histogram();
+    }
+    return result;
+  }
+
+  private volatile boolean enabled;
+
+  private final AtomicLong failureCount = new AtomicLong();
+
+  private final ConcurrentMap<String, Histogram[]> histogramsByComponentId =
+      new ConcurrentHashMap<>();
+
+  private final AtomicLongArray stateChangeCounts =
+      new AtomicLongArray(ComponentState.values().length);
+
+  /**
+   * Constructor of an enabled listener.
+   */
+  public HistogramComponentLifecycleListener() {
+    this(true);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param enabled
+   *          Whether the listener should collect information right after it is created.
+   */
+  public HistogramComponentLifecycleListener(final boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  @Override
+  public void componentFailed(final ComponentContainer<?> container, final Throwable cause,
+      final boolean permanent) {
+    if (enabled) {
+      failureCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the ids of the components that have at least one recorded phase.
+   *
+   * @return The ids of the components.
+   */
+  public Set<String> getComponentIds() {
+    return Collections.unmodifiableSet(histogramsByComponentId.keySet());
+  }
+
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+
+  /**
+   * Returns a histogram that aggregates the durations of a phase of every component. The returned
+   * histogram is a copy that does not change when new durations are recorded.
+   *
+   * @param phase
+   *          The lifecycle phase.
+   * @return The aggregated histogram.
+   */
+  public Histogram getHistogram(final ComponentLifecyclePhase phase) {
+    Histogram result = new Histogram();
+    for (Histogram[] histograms : histogramsByComponentId.values()) {
+      result.add(histograms[phase.ordinal()]);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the live histogram of a phase of a component.
+   *
+   * @param componentId
+   *          The id of the component.
+   * @param phase
+   *          The lifecycle phase.
+   * @return The histogram or <code>null</code> if nothing was recorded for the component.
+   */
+  public Histogram getHistogram(final String componentId, final ComponentLifecyclePhase phase) {
+    Histogram[] histograms = histogramsByComponentId.get(componentId);
+    if (histograms == null) {
+      return null;
+    }
+    return histograms[phase.ordinal()];
+  }
+
+  /**
+   * Returns how many times components changed to a specific state.
+   *
+   * @param newState
+   *          The state that the components changed to.
+   * @return The number of state changes.
+   */
+  public long getStateChangeCount(final ComponentState newState) {
+    return stateChangeCounts.get(newState.ordinal());
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void phaseCompleted(final ComponentContainer<?> container,
+      final ComponentLifecyclePhase phase, final String attributeId, final long durationNanos) {
+    if (!enabled) {
+      return;
+    }
+    String componentId = container.getComponentMetadata().getComponentId();
+    Histogram[] histograms = histogramsByComponentId.get(componentId);
+    if (histograms == null) {
+      Histogram[] newHistograms = createHistograms();
+      histograms = histogramsByComponentId.putIfAbsent(componentId, newHistograms);
+      if (histograms == null) {
+        histograms = newHistograms;
+      }
+    }
+    histograms[phase.ordinal()].record(durationNanos);
+  }
+
+  @Override
+  public void referenceSatisfactionChanged(final ComponentContainer<?> container,
+      final String referenceId, final boolean satisfied) {
+    // The changes of the references are reflected by the state changes of the components
+  }
+
+  /**
+   * Drops every recorded information.
+   */
+  public void reset() {
+    histogramsByComponentId.clear();
+    failureCount.set(0);
+    for (int i = 0; i < stateChangeCounts.length(); i++) {
+      stateChangeCounts.set(i, 0);
+    }
+  }
+
+  public void setEnabled(final boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  @Override
+  public void stateChanged(final ComponentContainer<?> container, final ComponentState oldState,
+      final ComponentState newState) {
+    if (enabled) {
+      stateChangeCounts.incrementAndGet(newState.ordinal());
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri;
+
+/**
+ * Statistics of the pool of the instances of a component with bundle or prototype service scope.
+ * The statistics are a snapshot that is taken when they are queried via
+ * {@link PooledComponentRevision#getInstancePoolStatistics()}.
+ */
+public interface InstancePoolStatistics {
+
+  /**
+   * The average time of creating and activating an instance of the component.
+   *
+   * @return The average time in nanoseconds or zero if no instance has been created yet.
+   */
+  long getAverageCreationNanos();
+
+  /**
+   * The number of instances that were created and activated by the pool, including the instances
+   * created during the warm-up of the pool.
+   *
+   * @return The number of created instances.
+   */
+  long getCreatedNum();
+
+  /**
+   * The number of instances that were deactivated because they were idle for too long or because
+   * they were released while the pool was full.
+   *
+   * @return The number of destroyed instances.
+   */
+  long getDestroyedNum();
+
+  /**
+   * The number of requests that were served with an idle instance.
+   *
+   * @return The number of hits.
+   */
+  long getHitNum();
+
+  /**
+   * The ratio of the requests that were served with an idle instance instead of creating a new
+   * one.
+   *
+   * @return The hit rate between zero and one or zero if there was no request yet.
+   */
+  double getHitRate();
+
+  /**
+   * The number of activated instances that no consumer uses.
+   *
+   * @return The number of idle instances.
+   */
+  int getIdleSize();
+
+  /**
+   * The longest time of creating and activating an instance of the component.
+   *
+   * @return The longest time in nanoseconds.
+   */
+  long getMaxCreationNanos();
+
+  /**
+   * The number of times a consumer requested an instance of the component.
+   *
+   * @return The number of requests.
+   */
+  long getRequestNum();
+
+  /**
+   * The number of activated instances that belong to the pool, including the ones that are used
+   * by consumers and the idle ones.
+   *
+   * @return The number of instances.
+   */
+  int getSize();
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri;
+
+import org.everit.osgi.ecm.component.resource.ComponentRevision;
+
+/**
+ * A {@link ComponentRevision} that gives access to the statistics of the instance pool of the
+ * component. The revisions of the component containers that are created by the
+ * {@link ComponentContainerFactory} implement this interface.
+ *
+ * @param <C>
+ *          The type of the component implementation.
+ */
+public interface PooledComponentRevision<C> extends ComponentRevision<C> {
+
+  /**
+   * Returns the current statistics of the instance pool of the component. Unlike the other
+   * information of the revision, the statistics are queried when this method is called.
+   *
+   * @return The statistics or <code>null</code> if the component has singleton service scope and
+   *         it does not pool its instances.
+   */
+  InstancePoolStatistics getInstancePoolStatistics();
+}
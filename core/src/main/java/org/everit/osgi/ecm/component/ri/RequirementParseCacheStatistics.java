@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri;
+
+/**
+ * Statistics of the cache that holds the parsed clauses and compiled filters of the requirements
+ * of the references. The cache is shared by every component container of this implementation,
+ * so the same requirement string of different components or factory configurations is parsed
+ * only once. The statistics are a snapshot that is taken when they are queried via
+ * {@link ComponentContainerFactory#getRequirementParseCacheStatistics()}.
+ */
+public interface RequirementParseCacheStatistics {
+
+  /**
+   * The number of clauses that were found in the cache.
+   *
+   * @return The number of hits.
+   */
+  long getClauseHitNum();
+
+  /**
+   * The number of clauses that had to be parsed, including the invalid ones that are not cached.
+   *
+   * @return The number of misses.
+   */
+  long getClauseMissNum();
+
+  /**
+   * The number of filters that were found in the cache.
+   *
+   * @return The number of hits.
+   */
+  long getFilterHitNum();
+
+  /**
+   * The number of filters that had to be compiled, including the invalid ones that are not
+   * cached.
+   *
+   * @return The number of misses.
+   */
+  long getFilterMissNum();
+}
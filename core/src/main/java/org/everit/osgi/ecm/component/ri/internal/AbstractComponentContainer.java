@@ -21,13 +21,18 @@ import java.util.List;
 
 import org.everit.osgi.ecm.component.ECMComponentConstants;
 import org.everit.osgi.ecm.component.ri.ComponentContainerInstance;
+import org.everit.osgi.ecm.component.ri.ComponentContainerOptions;
+import org.everit.osgi.ecm.component.ri.ComponentLifecycleListener;
+import org.everit.osgi.ecm.component.ri.internal.attribute.ValueConverterRegistry;
 import org.everit.osgi.ecm.component.ri.internal.metatype.MetatypeProviderImpl;
 import org.everit.osgi.ecm.component.ri.internal.resource.ComponentRevisionImpl;
+import org.everit.osgi.ecm.component.ri.internal.resource.ServiceCapabilityCache;
 import org.everit.osgi.ecm.metadata.ComponentMetadata;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleWiring;
 import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
 import org.osgi.resource.Wire;
@@ -47,14 +52,32 @@ public abstract class AbstractComponentContainer<C> implements MetaTypeProvider,
 
   private final BundleContext bundleContext;
 
+  private final ServiceCapabilityCache capabilityCache;
+
   private final ComponentMetadata componentMetadata;
 
+  /**
+   * The model of the component type that is resolved when the first context of the container
+   * needs it.
+   */
+  private volatile ComponentTypeModel<C> componentTypeModel;
+
+  private final Object componentTypeModelMutex = new Object();
+
+  private final ComponentLifecycleListener lifecycleListener;
+
   private final LogService logService;
 
   private final MetatypeProviderImpl<C> metatypeProvider;
 
+  private final ComponentContainerOptions options;
+
+  private final ComponentPropertyMap.Layout propertyMapLayout;
+
   private ServiceRegistration<?> serviceRegistration = null;
 
+  private final ValueConverterRegistry valueConverterRegistry;
+
   private final Version version;
 
   /**
@@ -66,13 +89,29 @@ public abstract class AbstractComponentContainer<C> implements MetaTypeProvider,
    *          The context of the bundle that implemented the component.
    * @param logService
    *          The logger to send info about events to.
+   * @param options
+   *          The options that change the default behavior of the container.
+   * @param capabilityCache
+   *          The cache of the capabilities of OSGi services that is shared between the containers
+   *          of the same factory.
    */
   public AbstractComponentContainer(final ComponentMetadata componentMetadata,
-      final BundleContext bundleContext, final LogService logService) {
+      final BundleContext bundleContext, final LogService logService,
+      final ComponentContainerOptions options, final ServiceCapabilityCache capabilityCache) {
+    this.capabilityCache = capabilityCache;
     this.componentMetadata = componentMetadata;
     this.bundleContext = bundleContext;
     this.logService = logService;
+    this.options = options;
+    ComponentLifecycleListener optionsLifecycleListener = options.getLifecycleListener();
+    if (optionsLifecycleListener != null) {
+      this.lifecycleListener = new GuardedLifecycleListener(optionsLifecycleListener, logService);
+    } else {
+      this.lifecycleListener = null;
+    }
     this.metatypeProvider = new MetatypeProviderImpl<C>(componentMetadata, bundleContext);
+    this.propertyMapLayout = new ComponentPropertyMap.Layout(componentMetadata.getAttributes());
+    this.valueConverterRegistry = new ValueConverterRegistry(componentMetadata);
     this.version = resolveComponentVersion();
   }
 
@@ -99,11 +138,48 @@ public abstract class AbstractComponentContainer<C> implements MetaTypeProvider,
     return bundleContext;
   }
 
+  public ServiceCapabilityCache getCapabilityCache() {
+    return capabilityCache;
+  }
+
   @Override
   public ComponentMetadata getComponentMetadata() {
     return componentMetadata;
   }
 
+  /**
+   * Returns the model of the component type that is shared by all contexts of the container. The
+   * model is resolved when it is requested for the first time, as loading the implementation class
+   * of the component might have side effects on the bundle that contains it.
+   *
+   * @return The model of the component type.
+   */
+  public ComponentTypeModel<C> getComponentTypeModel() {
+    ComponentTypeModel<C> result = componentTypeModel;
+    if (result != null) {
+      return result;
+    }
+    synchronized (componentTypeModelMutex) {
+      if (componentTypeModel == null) {
+        ClassLoader classLoader =
+            bundleContext.getBundle().adapt(BundleWiring.class).getClassLoader();
+        componentTypeModel = new ComponentTypeModel<>(componentMetadata, classLoader,
+            options.isIncrementalReferenceBinding());
+      }
+      return componentTypeModel;
+    }
+  }
+
+  /**
+   * The lifecycle listener of the container that is shared by all contexts of the container.
+   *
+   * @return The listener that logs the exceptions of the listener that is specified in the
+   *         options or <code>null</code> if there is no listener.
+   */
+  public ComponentLifecycleListener getLifecycleListener() {
+    return lifecycleListener;
+  }
+
   @Override
   public String[] getLocales() {
     return metatypeProvider.getLocales();
@@ -118,6 +194,14 @@ public abstract class AbstractComponentContainer<C> implements MetaTypeProvider,
     return metatypeProvider.getObjectClassDefinition(id, locale);
   }
 
+  public ComponentContainerOptions getOptions() {
+    return options;
+  }
+
+  public ComponentPropertyMap.Layout getPropertyMapLayout() {
+    return propertyMapLayout;
+  }
+
   @Override
   public abstract ComponentRevisionImpl<C>[] getResources();
 
@@ -125,6 +209,10 @@ public abstract class AbstractComponentContainer<C> implements MetaTypeProvider,
     return serviceRegistration.getReference();
   }
 
+  public ValueConverterRegistry getValueConverterRegistry() {
+    return valueConverterRegistry;
+  }
+
   public Version getVersion() {
     return version;
   }
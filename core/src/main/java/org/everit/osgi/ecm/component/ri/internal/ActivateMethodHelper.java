@@ -22,6 +22,8 @@ import java.util.Map;
 import java.util.Set;
 
 import org.everit.osgi.ecm.component.ComponentContext;
+import org.everit.osgi.ecm.component.ri.internal.invoker.MethodInvoker;
+import org.everit.osgi.ecm.component.ri.internal.invoker.MethodInvokerFactory;
 import org.everit.osgi.ecm.metadata.ComponentMetadata;
 import org.everit.osgi.ecm.metadata.MetadataValidationException;
 import org.everit.osgi.ecm.util.method.MethodDescriptor;
@@ -52,62 +54,53 @@ public class ActivateMethodHelper<C> {
 
   private static final int MAX_ACTIVATE_METHOD_PARAM_NUM = 3;
 
-  private final ComponentContextImpl<C> componentContext;
-
   private int indexOfBundleContextParameter = -1;
 
   private int indexOfComponentContextParameter = -1;
 
   private int indexOfPropertiesParameter = -1;
 
-  private Method method = null;
+  private MethodInvoker methodInvoker = null;
+
+  private int parameterCount = 0;
 
   /**
-   * Constructor.
+   * Constructor. The activate method is resolved once per component type, so the helper can be
+   * shared between all contexts of the component.
    *
-   * @param componentContext
-   *          The ComponentContext.
+   * @param componentMetadata
+   *          The metadata of the component.
+   * @param componentType
+   *          The implementation class of the component.
+   * @throws MetadataValidationException
+   *           if the activate method cannot be found or it has parameters that are not supported.
    */
-  public ActivateMethodHelper(final ComponentContextImpl<C> componentContext) {
-    this.componentContext = componentContext;
-    ComponentMetadata componentMetadata = componentContext.getComponentContainer()
-        .getComponentMetadata();
+  public ActivateMethodHelper(final ComponentMetadata componentMetadata,
+      final Class<C> componentType) {
     MethodDescriptor methodDescriptor = componentMetadata.getActivate();
     if (methodDescriptor == null) {
       return;
     }
 
-    Method locatedMethod;
-    try {
-      locatedMethod = resolveActivateMethod(methodDescriptor);
-    } catch (NoClassDefFoundError e) {
-      componentContext.fail(e, true);
-      return;
-    }
-
-    if (componentContext.isFailed()) {
-      return;
-    }
+    Method locatedMethod = resolveActivateMethod(methodDescriptor, componentType);
 
     if (locatedMethod == null) {
-      Exception e = new MetadataValidationException(
+      throw new MetadataValidationException(
           "Could not find activate method for component '"
               + componentMetadata.getComponentId() + " based on descriptor: "
               + methodDescriptor.toString());
-
-      componentContext.fail(e, true);
-
-      return;
     }
 
-    method = locatedMethod;
-    initializeParameterIndexes();
+    methodInvoker = MethodInvokerFactory.getInvoker(componentType, locatedMethod);
+    initializeParameterIndexes(locatedMethod);
 
   }
 
   /**
    * Call the activate method on the component instance.
    *
+   * @param componentContext
+   *          The context of the component instance.
    * @param instance
    *          The component instance.
    * @throws IllegalAccessException
@@ -115,32 +108,34 @@ public class ActivateMethodHelper<C> {
    * @throws InvocationTargetException
    *           if activate method throws an exception.
    */
-  public void call(final Object instance)
+  public void call(final ComponentContextImpl<C> componentContext, final Object instance)
       throws IllegalAccessException, InvocationTargetException {
-    if (method == null) {
+    if (methodInvoker == null) {
       return;
     }
 
-    int paramNum = method.getParameterTypes().length;
-    Object[] parameters = new Object[paramNum];
+    if (parameterCount == 0) {
+      methodInvoker.invoke(instance);
+      return;
+    }
 
-    if (paramNum > 0) {
-      if (indexOfBundleContextParameter >= 0) {
-        parameters[indexOfBundleContextParameter] = componentContext.getBundleContext();
-      }
-      if (indexOfComponentContextParameter >= 0) {
-        parameters[indexOfComponentContextParameter] = componentContext;
-      }
-      if (indexOfPropertiesParameter >= 0) {
-        parameters[indexOfPropertiesParameter] = componentContext.getProperties();
-      }
+    Object[] parameters = new Object[parameterCount];
+    if (indexOfBundleContextParameter >= 0) {
+      parameters[indexOfBundleContextParameter] = componentContext.getBundleContext();
+    }
+    if (indexOfComponentContextParameter >= 0) {
+      parameters[indexOfComponentContextParameter] = componentContext;
+    }
+    if (indexOfPropertiesParameter >= 0) {
+      parameters[indexOfPropertiesParameter] = componentContext.getProperties();
     }
 
-    method.invoke(instance, parameters);
+    methodInvoker.invokeWithParameters(instance, parameters);
   }
 
-  private void initializeParameterIndexes() {
+  private void initializeParameterIndexes(final Method method) {
     Class<?>[] parameterTypes = method.getParameterTypes();
+    parameterCount = parameterTypes.length;
     for (int i = 0; i < parameterTypes.length; i++) {
       Class<?> parameterType = parameterTypes[i];
       if (parameterType.equals(ComponentContext.class)) {
@@ -150,10 +145,8 @@ public class ActivateMethodHelper<C> {
       } else if (Map.class.isAssignableFrom(parameterType)) {
         indexOfPropertiesParameter = i;
       } else {
-        componentContext.fail(new MetadataValidationException(
-            "Unrecognized type in Activate method: "
-                + parameterType),
-            true);
+        throw new MetadataValidationException(
+            "Unrecognized type in Activate method: " + parameterType);
       }
     }
   }
@@ -167,7 +160,7 @@ public class ActivateMethodHelper<C> {
 
       for (int i = 0; (i < declaredMethods.length) && (foundMethod == null); i++) {
         Method declaredMethod = declaredMethods[i];
-        Class<?>[] parameterTypes = method.getParameterTypes();
+        Class<?>[] parameterTypes = declaredMethod.getParameterTypes();
         int parameterNum = parameterTypes.length;
         if (MethodUtil.isMethodAccessibleFromClass(clazz, declaredMethod, false)
             && (parameterNum >= 2) && (parameterNum <= MAX_ACTIVATE_METHOD_PARAM_NUM)
@@ -182,19 +175,17 @@ public class ActivateMethodHelper<C> {
     return foundMethod;
   }
 
-  private Method resolveActivateMethod(final MethodDescriptor methodDescriptor) {
-    Class<C> componentType = componentContext.getComponentType();
+  private Method resolveActivateMethod(final MethodDescriptor methodDescriptor,
+      final Class<C> componentType) {
     String methodName = methodDescriptor.getMethodName();
 
     Method locatedMethod = null;
 
     if (methodDescriptor.getParameterTypeNames() != null) {
       locatedMethod = methodDescriptor.locate(componentType, false);
-      if (!validateMethod(locatedMethod)) {
-        Exception e = new IllegalMetadataException("Invalid activate method: "
+      if ((locatedMethod != null) && !validateMethod(locatedMethod)) {
+        throw new IllegalMetadataException("Invalid activate method: "
             + locatedMethod.toGenericString());
-        componentContext.fail(e, true);
-        return null;
       }
     } else {
       locatedMethod = new MethodDescriptor(methodName,
@@ -23,7 +23,9 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.everit.osgi.ecm.component.resource.ComponentContainer;
+import org.everit.osgi.ecm.component.ri.ComponentContainerOptions;
 import org.everit.osgi.ecm.component.ri.internal.resource.ComponentRevisionImpl;
+import org.everit.osgi.ecm.component.ri.internal.resource.ServiceCapabilityCache;
 import org.everit.osgi.ecm.metadata.ComponentMetadata;
 import org.everit.osgi.ecm.metadata.ConfigurationPolicy;
 import org.osgi.framework.BundleContext;
@@ -49,8 +51,9 @@ public class ComponentContainerImpl<C> extends AbstractComponentContainer<C>
       new AtomicReference<ComponentContextImpl<C>>();
 
   public ComponentContainerImpl(final ComponentMetadata componentMetadata,
-      final BundleContext bundleContext, final LogService logService) {
-    super(componentMetadata, bundleContext, logService);
+      final BundleContext bundleContext, final LogService logService,
+      final ComponentContainerOptions options, final ServiceCapabilityCache capabilityCache) {
+    super(componentMetadata, bundleContext, logService, options, capabilityCache);
   }
 
   @Override
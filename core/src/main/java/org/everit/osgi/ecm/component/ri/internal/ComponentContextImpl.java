@@ -17,51 +17,49 @@ package org.everit.osgi.ecm.component.ri.internal;
 
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
-import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import javax.annotation.Generated;
-
 import org.everit.osgi.ecm.component.ComponentContext;
 import org.everit.osgi.ecm.component.ECMComponentConstants;
 import org.everit.osgi.ecm.component.PasswordHolder;
-import org.everit.osgi.ecm.component.resource.ComponentContainer;
 import org.everit.osgi.ecm.component.resource.ComponentState;
+import org.everit.osgi.ecm.component.ri.ComponentContainerOptions;
+import org.everit.osgi.ecm.component.ri.ComponentLifecycleListener;
+import org.everit.osgi.ecm.component.ri.ComponentLifecyclePhase;
 import org.everit.osgi.ecm.component.ri.internal.attribute.BundleCapabilityReferenceAttributeHelper;
 import org.everit.osgi.ecm.component.ri.internal.attribute.PropertyAttributeHelper;
 import org.everit.osgi.ecm.component.ri.internal.attribute.PropertyAttributeUtil;
 import org.everit.osgi.ecm.component.ri.internal.attribute.ReferenceHelper;
 import org.everit.osgi.ecm.component.ri.internal.attribute.ServiceReferenceAttributeHelper;
+import org.everit.osgi.ecm.component.ri.internal.attribute.ValueConverter;
+import org.everit.osgi.ecm.component.ri.internal.attribute.ValueConverterRegistry;
+import org.everit.osgi.ecm.component.ri.internal.invoker.MethodInvoker;
 import org.everit.osgi.ecm.component.ri.internal.resource.ComponentRevisionImpl;
 import org.everit.osgi.ecm.metadata.AttributeMetadata;
 import org.everit.osgi.ecm.metadata.BundleCapabilityReferenceMetadata;
 import org.everit.osgi.ecm.metadata.ComponentMetadata;
 import org.everit.osgi.ecm.metadata.PasswordAttributeMetadata;
-import org.everit.osgi.ecm.metadata.PropertyAttributeMetadata;
 import org.everit.osgi.ecm.metadata.ReferenceMetadata;
-import org.everit.osgi.ecm.metadata.ServiceMetadata;
 import org.everit.osgi.ecm.metadata.ServiceReferenceMetadata;
-import org.everit.osgi.ecm.util.method.MethodDescriptor;
-import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
-import org.osgi.framework.wiring.BundleWiring;
 import org.osgi.service.log.LogService;
 
 /**
@@ -73,6 +71,27 @@ import org.osgi.service.log.LogService;
  */
 public class ComponentContextImpl<C> implements ComponentContext<C> {
 
+  /**
+   * A failure that happened on a thread that held only the read lock of the component and that is
+   * applied as soon as the thread releases the read lock. The failure is dropped if the instance
+   * that failed is not active anymore when the failure would be applied (e.g.: the component was
+   * restarted by another thread in the meantime).
+   */
+  private static final class DeferredFailure {
+
+    private final Throwable cause;
+
+    private final Object failedInstance;
+
+    private final boolean permanent;
+
+    DeferredFailure(final Throwable cause, final boolean permanent, final Object failedInstance) {
+      this.cause = cause;
+      this.permanent = permanent;
+      this.failedInstance = failedInstance;
+    }
+  }
+
   /**
    * Event handler that catches all events of references and based on satisfaction, starts or
    * unsatisfies the component instance.
@@ -93,8 +112,56 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
       }
     }
 
+    /**
+     * Updates the suitings of a dynamic reference and rebinds it while the current thread holds
+     * the read lock of the component. The rebinds of different references may run concurrently,
+     * while the events of the same reference are serialized by the event lock of the reference.
+     * The instances of components with bundle or prototype service scope are rebound one after
+     * the other, so in their case the current thread holds the write lock.
+     *
+     * @return Whether the component is failed and it should be started again with the new
+     *         suitings. Starting the component needs the write lock that cannot be acquired while
+     *         the read lock is held.
+     */
+    private boolean rebindDynamicReference(
+        final ReferenceHelper<?, ?, ? extends ReferenceMetadata> referenceHelper) {
+      Lock eventLock = referenceHelper.getEventLock();
+      eventLock.lock();
+      try {
+        revisionBuilder.updateSuitingsForAttribute(referenceHelper.getReferenceMetadata(),
+            referenceHelper.getSuitings());
+        if (referenceEventBatchInProgress) {
+          // Only the thread that holds the write lock can get here
+          dynamicReferencesChangedInBatch.add(referenceHelper);
+          return false;
+        }
+        ComponentState state = getState();
+        if (state == ComponentState.ACTIVE) {
+          for (C activeInstance : getActiveInstances()) {
+            instance = activeInstance;
+            try {
+              referenceHelper.bind();
+              if (getState() == ComponentState.ACTIVE && !configurationUpdateInProgress
+                  && !hasDeferredFailure()) {
+                callUpdateMethod();
+              }
+              if (getState() != ComponentState.ACTIVE) {
+                break;
+              }
+            } finally {
+              deselectScopedInstance();
+            }
+          }
+          return false;
+        }
+        return state == ComponentState.FAILED && !configurationUpdateInProgress;
+      } finally {
+        eventLock.unlock();
+      }
+    }
+
     @Override
-    public synchronized void satisfied(
+    public void satisfied(
         final ReferenceHelper<?, ?, ? extends ReferenceMetadata> referenceHelper) {
       Lock writeLock = readWriteLock.writeLock();
       writeLock.lock();
@@ -105,7 +172,7 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
         revisionBuilder.updateSuitingsForAttribute(referenceHelper.getReferenceMetadata(),
             referenceHelper.getSuitings());
 
-        if (configurationUpdateInProgress) {
+        if (configurationUpdateInProgress || referenceEventBatchInProgress) {
           return;
         }
 
@@ -120,7 +187,7 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
     }
 
     @Override
-    public synchronized void unsatisfied(
+    public void unsatisfied(
         final ReferenceHelper<?, ?, ? extends ReferenceMetadata> referenceHelper) {
       Lock writeLock = readWriteLock.writeLock();
       writeLock.lock();
@@ -131,8 +198,8 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
         revisionBuilder.updateSuitingsForAttribute(referenceHelper.getReferenceMetadata(),
             referenceHelper.getSuitings());
 
-        if (configurationUpdateInProgress) {
-          // Stopping will be called in the end of configuration
+        if (configurationUpdateInProgress || referenceEventBatchInProgress) {
+          // Stopping will be called in the end of configuration or the batch
           return;
         }
 
@@ -144,6 +211,11 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
           case FAILED:
             revisionBuilder.unsatisfied();
             break;
+          case STARTING:
+            if (cancelPendingActivation()) {
+              revisionBuilder.unsatisfied();
+            }
+            break;
           case STOPPING:
             // happens in case of circular dynamic references
             referenceHelper.free();
@@ -159,23 +231,30 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
     @Override
     public void updateDynamicWithoutSatisfactionChange(
         final ReferenceHelper<?, ?, ? extends ReferenceMetadata> referenceHelper) {
-      Lock writeLock = readWriteLock.writeLock();
-      writeLock.lock();
+      boolean startingNecessary;
+      Lock rebindLock = (instancePool == null)
+          ? readWriteLock.readLock()
+          : readWriteLock.writeLock();
+      rebindLock.lock();
       try {
-        revisionBuilder.updateSuitingsForAttribute(referenceHelper.getReferenceMetadata(),
-            referenceHelper.getSuitings());
-        ComponentState state = getState();
-        if (state == ComponentState.ACTIVE) {
-          referenceHelper.bind();
-          if (getState() == ComponentState.ACTIVE && !configurationUpdateInProgress) {
-            callUpdateMethod();
+        startingNecessary = rebindDynamicReference(referenceHelper);
+      } finally {
+        rebindLock.unlock();
+      }
+
+      if (startingNecessary) {
+        Lock writeLock = readWriteLock.writeLock();
+        writeLock.lock();
+        try {
+          // The state might have changed while no lock was held
+          if (getState() == ComponentState.FAILED && !configurationUpdateInProgress) {
+            starting();
           }
-        } else if (state == ComponentState.FAILED && !configurationUpdateInProgress) {
-          starting();
+        } finally {
+          writeLock.unlock();
         }
-      } finally {
-        writeLock.unlock();
       }
+      applyDeferredEvents();
     }
 
     @Override
@@ -184,6 +263,12 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
       Lock writeLock = readWriteLock.writeLock();
       writeLock.lock();
       try {
+        if (referenceEventBatchInProgress) {
+          revisionBuilder.updateSuitingsForAttribute(referenceHelper.getReferenceMetadata(),
+              referenceHelper.getSuitings());
+          nonDynamicReferenceChangedInBatch = true;
+          return;
+        }
         ComponentState state = getState();
         if (state == ComponentState.ACTIVE) {
           revisionBuilder.stopping();
@@ -203,58 +288,138 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
 
   }
 
-  private static void resolveSuperInterfacesRecurse(final Class<?> currentClass,
-      final Set<String> interfaces) {
-    Class<?>[] superInterfaces = currentClass.getInterfaces();
-    for (Class<?> superInterface : superInterfaces) {
-      interfaces.add(superInterface.getName());
-      ComponentContextImpl.resolveSuperInterfacesRecurse(superInterface, interfaces);
-    }
-  }
+  /**
+   * Returned by {@link #lifecyclePhaseStarted()} if the lifecycle phases are not timed.
+   */
+  private static final long PHASE_NOT_TIMED = Long.MIN_VALUE;
+
+  /**
+   * The maximum time that a bundle waits for the lifecycle step in progress on the component when
+   * it gets or releases the service of the component via a service factory.
+   */
+  private static final long SERVICE_FACTORY_LOCK_TIMEOUT_SECONDS = 10;
+
+  /**
+   * The executor that activates the component or <code>null</code> if the component is activated
+   * synchronously.
+   */
+  private final Executor activationExecutor;
+
+  /**
+   * Incremented every time an asynchronous activation is scheduled or cancelled, so an activation
+   * task can recognize that it became obsolete.
+   */
+  private volatile long activationGeneration = 0;
+
+  /**
+   * Whether an asynchronous activation is scheduled that has not started yet.
+   */
+  private boolean activationPending = false;
 
-  private ActivateMethodHelper<C> activateMethodHelper;
+  private final Map<String, Integer> attributeIndexes;
 
   private final BundleContext bundleContext;
 
   private final AbstractComponentContainer<C> componentContainer;
 
-  private Class<C> componentType;
+  /**
+   * The resolved methods and helpers of the component type that are shared by all contexts of the
+   * container.
+   */
+  private final ComponentTypeModel<C> componentTypeModel;
 
   /**
-   * We need to store component type name to be able to write out meaningful log messages if wicked
-   * proxy technologies weave classes in the system and {@link #componentType}.getName() returns a
-   * meaningless name.
+   * The configuration that the current properties of the component were resolved from.
    */
-  private String componentTypeName;
+  private Map<String, Object> configuration;
 
   private boolean configurationUpdateInProgress = false;
 
-  private Method deactivateMethod;
+  private final Object deferredEventMutex = new Object();
+
+  /**
+   * The failures that were deferred while only the read lock was held. Created only when the first
+   * failure is deferred as most of the components never need it.
+   */
+  private List<DeferredFailure> deferredFailures = null;
+
+  /**
+   * The references whose events were deferred while only the read lock was held. Created only when
+   * the first event is deferred as most of the components never need it.
+   */
+  private Set<ReferenceHelper<?, ?, ?>> deferredReferenceHelpers = null;
+
+  private final List<ReferenceHelper<?, ?, ?>> dynamicReferencesChangedInBatch =
+      new ArrayList<>();
 
   private C instance;
 
+  /**
+   * The pool of the instances of a component with bundle or prototype service scope or
+   * <code>null</code> if the component has one instance.
+   */
+  private final ComponentInstancePool<C> instancePool;
+
+  /**
+   * The idle eviction of the instance pool that is scheduled or <code>null</code>.
+   */
+  private ScheduledFuture<?> instancePoolEviction = null;
+
+  /**
+   * The service factory that is registered instead of the instance of the component or
+   * <code>null</code> if the component is activated eagerly.
+   */
+  private final LazyComponentServiceFactory<C> lazyServiceFactory;
+
+  private final ComponentLifecycleListener lifecycleListener;
+
   private final LogService logService;
 
+  private boolean nonDynamicReferenceChangedInBatch = false;
+
   private boolean opened = false;
 
-  private final List<PropertyAttributeHelper<C, Object>> propertyAttributeHelpers =
-      new ArrayList<>();
+  private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+
+  private boolean referenceEventBatchInProgress = false;
 
-  private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+  private final ReferenceEventCoalescer referenceEventCoalescer;
 
   private final ReferenceEventHandler referenceEventHandler = new ReferenceEventHandlerImpl();
 
-  private final List<ReferenceHelper<?, C, ?>> referenceHelpers = new ArrayList<>();
+  private List<ReferenceHelper<?, C, ?>> referenceHelpers = Collections.emptyList();
+
+  /**
+   * Whether the references should retain their service objects instead of releasing them when
+   * the component is deactivated, as the component is restarted.
+   */
+  private boolean referenceRetentionInProgress = false;
 
   private final ComponentRevisionImpl.Builder<C> revisionBuilder;
 
-  private final Set<ReferenceHelper<?, ?, ?>> satisfiedReferenceHelpers = new HashSet<>();
+  private Set<ReferenceHelper<?, ?, ?>> satisfiedReferenceHelpers = Collections.emptySet();
 
-  private String[] serviceInterfaces;
+  /**
+   * The service factory that creates an instance for each consumer or <code>null</code> if the
+   * component has singleton service scope.
+   */
+  private final ScopedComponentServiceFactory<C> scopedServiceFactory;
+
+  /**
+   * Whether the component is being activated by its service factory. The framework does not allow
+   * unregistering the service of the factory until the activation finishes.
+   */
+  private boolean serviceFactoryActivationInProgress = false;
 
   private ServiceRegistration<?> serviceRegistration = null;
 
-  private Method updateMethod;
+  private final boolean serviceRetentionOnRestart;
+
+  /**
+   * Dynamic references of the component might be rebound concurrently, but the update method of
+   * the component must be called by one thread at a time.
+   */
+  private final Object updateMethodMutex = new Object();
 
   /**
    * Constructor.
@@ -277,49 +442,106 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
     this.componentContainer = componentContainer;
     this.logService = logService;
 
+    ComponentContainerOptions options = componentContainer.getOptions();
+    this.lifecycleListener = componentContainer.getLifecycleListener();
+    if (!options.isAsynchronousActivation()) {
+      this.activationExecutor = null;
+    } else if (options.getActivationExecutor() != null) {
+      this.activationExecutor = options.getActivationExecutor();
+    } else {
+      this.activationExecutor = DefaultActivationExecutor.getInstance();
+    }
+    this.serviceRetentionOnRestart = options.isServiceRetentionOnRestart();
+    if (options.isReferenceEventCoalescing()) {
+      this.referenceEventCoalescer = new ReferenceEventCoalescer(this,
+          options.getReferenceEventCoalescingWindowNanos());
+    } else {
+      this.referenceEventCoalescer = null;
+    }
+
+    this.componentTypeModel = componentContainer.getComponentTypeModel();
+    this.attributeIndexes = componentContainer.getPropertyMapLayout().getAttributeIndexes();
+
+    // Service factories make sense only for components that provide a service
+    boolean serviceProvided = (componentTypeModel.getFailure() == null)
+        && (componentTypeModel.getServiceInterfaces().length > 0);
+    this.scopedServiceFactory = (serviceProvided)
+        ? ScopedComponentServiceFactory.create(this, options.getServiceScope())
+        : null;
+    if (scopedServiceFactory != null) {
+      this.instancePool = new ComponentInstancePool<>(options.getInstancePoolMinSize(),
+          options.getInstancePoolMaxSize(), options.getInstancePoolIdleTimeoutNanos());
+    } else {
+      this.instancePool = null;
+    }
+    if (serviceProvided && options.isLazyActivation() && (scopedServiceFactory == null)) {
+      this.lazyServiceFactory = new LazyComponentServiceFactory<>(this,
+          options.getLazyActivationIdleTimeoutNanos());
+    } else {
+      this.lazyServiceFactory = null;
+    }
+
     Map<String, Object> propertyMap = createPropMapFromConfigDictionary(properties);
+    this.configuration = propertyMap;
     this.revisionBuilder =
-        new ComponentRevisionImpl.Builder<>(componentContainer, propertyMap);
+        new ComponentRevisionImpl.Builder<>(componentContainer, propertyMap,
+            componentContainer.getCapabilityCache(), lifecycleListener);
+    this.revisionBuilder.setInstancePool(instancePool);
 
     this.revisionBuilder.updateProperties(resolveProperties(propertyMap, false));
 
-    ComponentMetadata componentMetadata = componentContainer.getComponentMetadata();
-    Bundle bundle = bundleContext.getBundle();
-    BundleWiring bundleWiring = bundle.adapt(BundleWiring.class);
-    ClassLoader classLoader = bundleWiring.getClassLoader();
-    componentTypeName = componentMetadata.getType();
-    try {
-      @SuppressWarnings("unchecked")
-      Class<C> tmpComponentType = (Class<C>) classLoader.loadClass(componentTypeName);
-      componentType = tmpComponentType;
-    } catch (ClassNotFoundException e) {
-      fail(e, true);
+    Throwable typeFailure = componentTypeModel.getFailure();
+    if (typeFailure != null) {
+      fail(typeFailure, true);
       return;
     }
 
-    activateMethodHelper = new ActivateMethodHelper<>(this);
+    fillReferenceHelpers(componentContainer.getComponentMetadata().getAttributes());
+  }
 
-    if (isFailed()) {
-      return;
+  /**
+   * Instantiates the component, binds its references, injects its properties and calls its
+   * activate method.
+   *
+   * @return <code>true</code> if the component was activated, <code>false</code> if it failed.
+   */
+  private boolean activateInstance() {
+    long instantiationStartNanos = lifecyclePhaseStarted();
+    try {
+      instance = componentTypeModel.getComponentType().newInstance();
+    } catch (InstantiationException | IllegalAccessException | RuntimeException e) {
+      fail(e, true);
+      return false;
+    } finally {
+      lifecyclePhaseCompleted(ComponentLifecyclePhase.INSTANTIATE, null,
+          instantiationStartNanos);
     }
 
-    AttributeMetadata<?>[] attributes = componentMetadata.getAttributes();
-
-    fillAttributeHelpers(attributes);
-
-    serviceInterfaces = resolveServiceInterfaces();
+    for (ReferenceHelper<?, C, ?> referenceHelper : referenceHelpers) {
+      referenceHelper.bind();
+      if (isFailed()) {
+        return false;
+      }
+    }
 
     try {
-      deactivateMethod = resolveAnnotatedMethod("deactivate", componentContainer
-          .getComponentMetadata().getDeactivate());
-
-      updateMethod = resolveAnnotatedMethod("update", componentContainer
-          .getComponentMetadata().getUpdate());
-    } catch (NoClassDefFoundError e) {
+      if (!componentTypeModel.getPropertyInjector().inject(this, getProperties())) {
+        return false;
+      }
+      long activationStartNanos = lifecyclePhaseStarted();
+      try {
+        componentTypeModel.getActivateMethodHelper().call(this, instance);
+      } finally {
+        lifecyclePhaseCompleted(ComponentLifecyclePhase.ACTIVATE, null, activationStartNanos);
+      }
+    } catch (IllegalAccessException e) {
       fail(e, true);
-      return;
+      return false;
+    } catch (InvocationTargetException e) {
+      fail(e.getCause(), false, true);
+      return false;
     }
-
+    return true;
   }
 
   private void addCommonComponentProperties(final Map<String, Object> properties) {
@@ -331,16 +553,106 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
         componentContainer.getVersion());
   }
 
-  private void callUpdateMethod() {
-    if (updateMethod != null) {
+  /**
+   * Applies the changes of references that were collected by the {@link ReferenceEventCoalescer}.
+   * The events of the references are processed first without changing the state of the component
+   * and the component is started, stopped, restarted or updated only once in the end based on the
+   * final state of the references.
+   *
+   * @param changedReferenceHelpers
+   *          The references that changed since the last time the changes were applied.
+   */
+  public void applyCoalescedReferenceEvents(
+      final Collection<ReferenceHelper<?, ?, ?>> changedReferenceHelpers) {
+    Lock writeLock = readWriteLock.writeLock();
+    writeLock.lock();
+    try {
+      referenceEventBatchInProgress = true;
       try {
-        updateMethod.invoke(instance);
-      } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-        fail(e, false);
+        for (ReferenceHelper<?, ?, ?> referenceHelper : changedReferenceHelpers) {
+          referenceHelper.notifyEventHandler();
+        }
+      } finally {
+        referenceEventBatchInProgress = false;
+      }
+      finishReferenceEventBatch();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Applies the failures and reference events that were deferred while the current thread or
+   * other threads held only the read lock of the component. Nothing happens if the current thread
+   * still holds any lock of the component as the outermost call will apply the deferred events.
+   */
+  private void applyDeferredEvents() {
+    if (readWriteLock.getReadHoldCount() > 0 || readWriteLock.isWriteLockedByCurrentThread()) {
+      return;
+    }
+    while (true) {
+      List<DeferredFailure> failures;
+      List<ReferenceHelper<?, ?, ?>> changedReferenceHelpers;
+      synchronized (deferredEventMutex) {
+        if (deferredFailures == null && deferredReferenceHelpers == null) {
+          return;
+        }
+        failures = (deferredFailures != null)
+            ? deferredFailures
+            : Collections.<DeferredFailure> emptyList();
+        changedReferenceHelpers = (deferredReferenceHelpers != null)
+            ? new ArrayList<>(deferredReferenceHelpers)
+            : Collections.<ReferenceHelper<?, ?, ?>> emptyList();
+        deferredFailures = null;
+        deferredReferenceHelpers = null;
+      }
+
+      Lock writeLock = readWriteLock.writeLock();
+      writeLock.lock();
+      try {
+        for (DeferredFailure failure : failures) {
+          if ((failure.failedInstance == null) || isActiveInstance(failure.failedInstance)) {
+            fail(failure.cause, failure.permanent);
+          }
+        }
+        if (!changedReferenceHelpers.isEmpty()) {
+          applyCoalescedReferenceEvents(changedReferenceHelpers);
+        }
+      } finally {
+        writeLock.unlock();
       }
     }
   }
 
+  private void callUpdateMethod() {
+    MethodInvoker updateMethodInvoker = componentTypeModel.getUpdateMethodInvoker();
+    if (updateMethodInvoker != null) {
+      synchronized (updateMethodMutex) {
+        try {
+          updateMethodInvoker.invoke(instance);
+        } catch (IllegalAccessException | IllegalArgumentException
+            | InvocationTargetException e) {
+          fail(e, false);
+        }
+      }
+    }
+  }
+
+  /**
+   * Cancels the asynchronous activation of the component if it is scheduled, but has not started
+   * yet.
+   *
+   * @return <code>true</code> if there was a pending activation that was cancelled.
+   */
+  private boolean cancelPendingActivation() {
+    if (!activationPending) {
+      return false;
+    }
+    activationPending = false;
+    activationGeneration++;
+    return true;
+  }
+
   /**
    * Closing the component context that stops the component instance as well if it is started.
    */
@@ -352,10 +664,17 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
         throw new IllegalStateException("Cannot close a component context that is not opened");
       }
       opened = false;
+      if (referenceEventCoalescer != null) {
+        referenceEventCoalescer.close();
+      }
       if (getState() == ComponentState.ACTIVE) {
         stopping(ComponentState.INACTIVE);
       } else {
+        boolean activationCancelled = cancelPendingActivation();
         closeReferenceHelpers();
+        if (activationCancelled) {
+          revisionBuilder.inactive();
+        }
       }
     } finally {
       writeLock.unlock();
@@ -373,94 +692,197 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
   private void convertAttributeValueIfNecessary(
       final AttributeMetadata<?> attributeMetadata, final Map<String, Object> result) {
 
-    if (attributeMetadata.isMultiple()) {
-      // TODO convert multiple values or at least do a check.
-      return;
-    }
-
     String attributeId = attributeMetadata.getAttributeId();
     Object attributeValue = result.get(attributeId);
 
-    attributeValue = PropertyAttributeUtil
-        .resolveSimpleValueEvenIfItIsInOneElementArray(attributeValue, this, attributeMetadata);
+    if (!attributeMetadata.isMultiple()) {
+      attributeValue = PropertyAttributeUtil
+          .resolveSimpleValueEvenIfItIsInOneElementArray(attributeValue, this, attributeMetadata);
+    }
 
-    if (attributeValue == null) {
+    if ((attributeValue == null) || (attributeValue instanceof PasswordHolder)) {
       return;
     }
 
-    Class<? extends Object> configuredAttributeValueType = attributeValue.getClass();
+    ValueConverter valueConverter =
+        getValueConverterRegistry().getConverter(attributeMetadata, attributeValue.getClass());
+    Object newAttributeValue = valueConverter.convert(attributeValue, this);
 
-    Class<?> attributeType = attributeMetadata.getValueType();
-    if (PropertyAttributeUtil.typesEqualWithOrWithoutBoxing(configuredAttributeValueType,
-        attributeType)) {
-      return;
+    if (newAttributeValue != attributeValue) {
+      result.put(attributeId, newAttributeValue);
     }
+  }
 
-    if (attributeValue instanceof PasswordHolder) {
-      attributeType = PasswordHolder.class;
+  /**
+   * Creates and activates a new instance of a component with bundle or prototype service scope
+   * and adds it to the instance pool.
+   *
+   * @return The instance or <code>null</code> if the activation failed.
+   */
+  private C createPooledInstance() {
+    long startNanos = lifecyclePhaseStarted();
+    long creationStartNanos = System.nanoTime();
+    try {
+      if (!activateInstance()) {
+        return null;
+      }
+      C pooledInstance = instance;
+      instancePool.instanceCreated(pooledInstance, System.nanoTime() - creationStartNanos);
+      return pooledInstance;
+    } finally {
+      instance = null;
+      lifecyclePhaseCompleted(ComponentLifecyclePhase.START, null, startNanos);
     }
+  }
 
-    Object newAttributeValue =
-        PropertyAttributeUtil.tryConvertingSimpleValue(attributeValue, attributeType,
-            this, attributeMetadata);
+  private Map<String, Object> createPropMapFromConfigDictionary(final Dictionary<String, ?> props) {
+    return componentContainer.getPropertyMapLayout().createMap(props);
+  }
 
-    result.put(attributeId, newAttributeValue);
+  private Dictionary<String, Object> createServiceProperties(
+      final Map<String, Object> properties) {
+    if (properties instanceof ComponentPropertyMap) {
+      return ((ComponentPropertyMap) properties).asDictionary();
+    }
+    return new Hashtable<>(properties);
   }
 
-  private Map<String, Object> createPropMapFromConfigDictionary(final Dictionary<String, ?> props) {
-    Map<String, Object> result = new HashMap<>();
+  /**
+   * Deactivates a lazily activated component whose service has not been used for the idle
+   * timeout. The service of the component remains registered, so the component is activated again
+   * when a bundle gets the service next time.
+   *
+   * @param generation
+   *          The generation of the idle deactivation that was scheduled by the service factory.
+   */
+  void deactivateIdleInstance(final long generation) {
+    Lock writeLock = readWriteLock.writeLock();
+    writeLock.lock();
+    try {
+      if (!lazyServiceFactory.isIdleDeactivationValid(generation)
+          || getState() != ComponentState.ACTIVE || instance == null) {
+        return;
+      }
+      long startNanos = lifecyclePhaseStarted();
+      try {
+        deactivateInstance(ComponentState.ACTIVE);
+      } finally {
+        lifecyclePhaseCompleted(ComponentLifecyclePhase.STOP, null, startNanos);
+      }
+    } finally {
+      writeLock.unlock();
+    }
+    applyDeferredEvents();
+  }
 
-    if (props != null) {
-      Enumeration<?> elements = props.elements();
-      Enumeration<String> keys = props.keys();
-      while (keys.hasMoreElements()) {
-        String key = keys.nextElement();
-        Object element = elements.nextElement();
-        result.put(key, element);
+  /**
+   * Calls the deactivate method of the instances of the component, unregisters the services that
+   * the component registered and frees its references.
+   *
+   * @param targetState
+   *          The state that the component goes to after the deactivation.
+   */
+  private void deactivateInstance(final ComponentState targetState) {
+    C selectedInstance = instance;
+    List<C> scopedInstances = Collections.emptyList();
+    if (instancePool != null) {
+      if (instancePool.isInstance(selectedInstance)) {
+        selectedInstance = null;
       }
+      scopedInstances = instancePool.removeInstances();
+    }
+    if (selectedInstance == null && scopedInstances.isEmpty()) {
+      return;
+    }
+    for (C scopedInstance : scopedInstances) {
+      instance = scopedInstance;
+      invokeDeactivateMethod(targetState);
+    }
+    if (selectedInstance != null) {
+      instance = selectedInstance;
+      invokeDeactivateMethod(targetState);
     }
-    return result;
+    unregisterServices();
+    freeReferences();
+    instance = null;
   }
 
-  @Generated("eclipse")
-  private boolean equals(final Object oldValue, final Object newValue) {
-    if (((oldValue == null) && (newValue != null)) || ((oldValue != null) && (newValue == null))) {
+  /**
+   * Defers the event of a reference if the current thread holds only the read lock of the
+   * component. The read lock cannot be upgraded to the write lock, so events that are caused by a
+   * dynamic rebind (e.g.: the component unregisters a service in its setter or update method that
+   * it references itself) are applied after the rebind finished and the read lock was released.
+   *
+   * @param referenceHelper
+   *          The reference that changed.
+   * @return <code>true</code> if the event was deferred and it must not be processed by the
+   *         caller.
+   */
+  public boolean deferReferenceEventIfNecessary(final ReferenceHelper<?, ?, ?> referenceHelper) {
+    if (!isOnlyReadLockedByCurrentThread()) {
       return false;
     }
-    if ((oldValue != null) && !oldValue.equals(newValue)) {
-
-      Class<? extends Object> oldValueClass = oldValue.getClass();
-      Class<? extends Object> newValueClass = newValue.getClass();
-      if (!oldValueClass.equals(newValueClass) || !oldValueClass.isArray()) {
-        return false;
+    if (referenceEventCoalescer != null) {
+      referenceEventCoalescer.discard(referenceHelper);
+    }
+    synchronized (deferredEventMutex) {
+      if (deferredReferenceHelpers == null) {
+        deferredReferenceHelpers = new LinkedHashSet<>();
       }
+      deferredReferenceHelpers.add(referenceHelper);
+    }
+    return true;
+  }
 
-      boolean equals;
-      if (oldValueClass.equals(boolean[].class)) {
-        equals = Arrays.equals((boolean[]) oldValue, (boolean[]) newValue);
-      } else if (oldValueClass.equals(byte[].class)) {
-        equals = Arrays.equals((byte[]) oldValue, (byte[]) newValue);
-      } else if (oldValueClass.equals(char[].class)) {
-        equals = Arrays.equals((char[]) oldValue, (char[]) newValue);
-      } else if (oldValueClass.equals(double[].class)) {
-        equals = Arrays.equals((double[]) oldValue, (double[]) newValue);
-      } else if (oldValueClass.equals(float[].class)) {
-        equals = Arrays.equals((float[]) oldValue, (float[]) newValue);
-      } else if (oldValueClass.equals(int[].class)) {
-        equals = Arrays.equals((int[]) oldValue, (int[]) newValue);
-      } else if (oldValueClass.equals(long[].class)) {
-        equals = Arrays.equals((long[]) oldValue, (long[]) newValue);
-      } else if (oldValueClass.equals(short[].class)) {
-        equals = Arrays.equals((short[]) oldValue, (short[]) newValue);
-      } else {
-        equals = Arrays.equals((Object[]) oldValue, (Object[]) newValue);
-      }
+  /**
+   * Clears the instance that a lifecycle step was applied on if the component has bundle or
+   * prototype service scope, as such components do not have one main instance.
+   */
+  private void deselectScopedInstance() {
+    if (instancePool != null) {
+      instance = null;
+    }
+  }
 
-      if (!equals) {
-        return false;
+  /**
+   * Deactivates an instance that was removed from the instance pool. The references of the
+   * component stay bound, as the other instances still use them.
+   *
+   * @param pooledInstance
+   *          The instance to deactivate.
+   */
+  private void destroyPooledInstance(final C pooledInstance) {
+    instance = pooledInstance;
+    try {
+      invokeDeactivateMethod(ComponentState.ACTIVE);
+    } finally {
+      instance = null;
+    }
+    for (ReferenceHelper<?, C, ?> referenceHelper : referenceHelpers) {
+      referenceHelper.instanceDeactivated(pooledInstance);
+    }
+  }
+
+  /**
+   * Deactivates the instances that have been idle in the instance pool for longer than the idle
+   * timeout and schedules the next eviction if there are more idle instances.
+   */
+  private void evictIdleInstances() {
+    Lock writeLock = readWriteLock.writeLock();
+    writeLock.lock();
+    try {
+      instancePoolEviction = null;
+      if (getState() != ComponentState.ACTIVE) {
+        return;
+      }
+      for (C evictedInstance : instancePool.evictIdleInstances(System.nanoTime())) {
+        destroyPooledInstance(evictedInstance);
       }
+      scheduleInstancePoolEviction();
+    } finally {
+      writeLock.unlock();
     }
-    return true;
+    applyDeferredEvents();
   }
 
   /**
@@ -475,6 +897,17 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
    *          can be changed only by upgrading the component instance binary.
    */
   public void fail(final Throwable e, final boolean permanent) {
+    if (isOnlyReadLockedByCurrentThread()) {
+      // Stopping the component needs the write lock, the failure is applied after the read lock
+      // is released
+      synchronized (deferredEventMutex) {
+        if (deferredFailures == null) {
+          deferredFailures = new ArrayList<>();
+        }
+        deferredFailures.add(new DeferredFailure(e, permanent, instance));
+      }
+      return;
+    }
     boolean stopComponent = false;
     if (getState() == ComponentState.ACTIVE) {
       stopComponent = true;
@@ -496,28 +929,21 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
     if (stopComponent) {
       stopping(ComponentState.FAILED);
     } else {
+      cancelPendingActivation();
       instance = null;
     }
 
     revisionBuilder.fail(e, permanent);
+
+    if (isLifecycleListenerEnabled()) {
+      lifecycleListener.componentFailed(componentContainer, e, permanent);
+    }
   }
 
-  private void fillAttributeHelpers(final AttributeMetadata<?>[] attributes) {
+  private void fillReferenceHelpers(final AttributeMetadata<?>[] attributes) {
+    List<ReferenceHelper<?, C, ?>> helpers = new ArrayList<>();
     for (AttributeMetadata<?> attributeMetadata : attributes) {
-      if (attributeMetadata instanceof PropertyAttributeMetadata) {
-
-        try {
-          @SuppressWarnings("unchecked")
-          PropertyAttributeHelper<C, Object> propertyAttributeHelper =
-              new PropertyAttributeHelper<>(this,
-                  (PropertyAttributeMetadata<Object>) attributeMetadata);
-
-          propertyAttributeHelpers.add(propertyAttributeHelper);
-        } catch (NoClassDefFoundError e) {
-          fail(e, true);
-          return;
-        }
-      } else {
+      if (attributeMetadata instanceof ReferenceMetadata) {
         ReferenceHelper<?, C, ?> helper;
         try {
           if (attributeMetadata instanceof ServiceReferenceMetadata) {
@@ -535,15 +961,88 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
           fail(e, true);
           return;
         }
-        referenceHelpers.add(helper);
+        helpers.add(helper);
+      }
+    }
+    if (!helpers.isEmpty()) {
+      referenceHelpers = helpers;
+      satisfiedReferenceHelpers = new HashSet<>();
+    }
+  }
+
+  private void finishReferenceEventBatch() {
+    boolean nonDynamicReferenceChanged = nonDynamicReferenceChangedInBatch;
+    List<ReferenceHelper<?, ?, ?>> dynamicReferencesChanged =
+        new ArrayList<>(dynamicReferencesChangedInBatch);
+    nonDynamicReferenceChangedInBatch = false;
+    dynamicReferencesChangedInBatch.clear();
+
+    if (!opened) {
+      return;
+    }
+
+    ComponentState state = getState();
+    if (state == ComponentState.ACTIVE) {
+      if (!isSatisfied()) {
+        stopping(ComponentState.UNSATISFIED);
+      } else if (nonDynamicReferenceChanged) {
+        restart();
+      } else if (dynamicReferencesChanged.size() > 0) {
+        for (C activeInstance : getActiveInstances()) {
+          instance = activeInstance;
+          try {
+            for (ReferenceHelper<?, ?, ?> referenceHelper : dynamicReferencesChanged) {
+              referenceHelper.bind();
+              if (getState() != ComponentState.ACTIVE) {
+                return;
+              }
+            }
+            callUpdateMethod();
+          } finally {
+            deselectScopedInstance();
+          }
+        }
       }
+    } else if (state == ComponentState.UNSATISFIED || state == ComponentState.FAILED) {
+      if (isSatisfied()) {
+        starting();
+      } else if (state == ComponentState.FAILED) {
+        revisionBuilder.unsatisfied();
+      }
+    } else if (state == ComponentState.STARTING && !isSatisfied() && cancelPendingActivation()) {
+      revisionBuilder.unsatisfied();
     }
   }
 
   private void freeReferences() {
     for (ReferenceHelper<?, C, ?> referenceHelper : referenceHelpers) {
-      referenceHelper.free();
+      long startNanos = lifecyclePhaseStarted();
+      if (referenceRetentionInProgress) {
+        referenceHelper.retain();
+      } else {
+        referenceHelper.free();
+      }
+      lifecyclePhaseCompleted(ComponentLifecyclePhase.UNBIND,
+          referenceHelper.getReferenceMetadata().getAttributeId(), startNanos);
+    }
+  }
+
+  /**
+   * Returns the instances that the changes of the references and the configuration must be
+   * applied on.
+   *
+   * @return The instances of a component with bundle or prototype service scope, the instance of
+   *         a singleton component or an empty list if a lazily activated component has not been
+   *         instantiated yet.
+   */
+  private List<C> getActiveInstances() {
+    if (instancePool != null) {
+      return instancePool.getInstances();
+    }
+    if (instance == null) {
+      return Collections.emptyList();
     }
+    return Collections.singletonList(instance);
   }
 
   @Override
@@ -552,7 +1051,7 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
   }
 
   @Override
-  public ComponentContainer<C> getComponentContainer() {
+  public AbstractComponentContainer<C> getComponentContainer() {
     return componentContainer;
   }
 
@@ -577,11 +1076,15 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
 
   @Override
   public Class<C> getComponentType() {
-    return componentType;
+    return componentTypeModel.getComponentType();
+  }
+
+  public ComponentTypeModel<C> getComponentTypeModel() {
+    return componentTypeModel;
   }
 
   public String getComponentTypeName() {
-    return componentTypeName;
+    return componentTypeModel.getComponentTypeName();
   }
 
   @Override
@@ -589,20 +1092,152 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
     return instance;
   }
 
+  /**
+   * Returns the instance of a lazily activated component to a bundle that gets the service of the
+   * component. The component is instantiated and activated if it has no instance yet.
+   *
+   * @return The instance of the component or <code>null</code> if the component is not active or
+   *         its activation failed.
+   */
+  Object getLazyServiceInstance() {
+    Lock writeLock = readWriteLock.writeLock();
+    if (!tryLockForServiceFactory(writeLock)) {
+      return null;
+    }
+    try {
+      if (getState() != ComponentState.ACTIVE) {
+        return null;
+      }
+      if (instance == null) {
+        long startNanos = lifecyclePhaseStarted();
+        serviceFactoryActivationInProgress = true;
+        try {
+          if (!activateInstance()) {
+            return null;
+          }
+        } finally {
+          serviceFactoryActivationInProgress = false;
+          lifecyclePhaseCompleted(ComponentLifecyclePhase.START, null, startNanos);
+        }
+      }
+      lazyServiceFactory.serviceGot();
+      return instance;
+    } finally {
+      writeLock.unlock();
+      applyDeferredEvents();
+    }
+  }
+
   @Override
   public Map<String, Object> getProperties() {
     return revisionBuilder.getProperties();
   }
 
+  /**
+   * The coalescer of the reference events of this component.
+   *
+   * @return The coalescer or <code>null</code> if reference events should not be coalesced.
+   */
+  public ReferenceEventCoalescer getReferenceEventCoalescer() {
+    return referenceEventCoalescer;
+  }
+
+  /**
+   * Returns an instance of a component with bundle or prototype service scope to a consumer of
+   * the service of the component. An idle instance is taken from the pool if there is one,
+   * otherwise a new instance is created and activated.
+   *
+   * @return The instance or <code>null</code> if the component is not active or the activation
+   *         of the new instance failed.
+   */
+  Object getScopedServiceInstance() {
+    Lock writeLock = readWriteLock.writeLock();
+    if (!tryLockForServiceFactory(writeLock)) {
+      return null;
+    }
+    try {
+      if (getState() != ComponentState.ACTIVE) {
+        return null;
+      }
+      C scopedInstance = instancePool.acquire();
+      if (scopedInstance != null) {
+        return scopedInstance;
+      }
+      serviceFactoryActivationInProgress = true;
+      try {
+        return createPooledInstance();
+      } finally {
+        serviceFactoryActivationInProgress = false;
+      }
+    } finally {
+      writeLock.unlock();
+      applyDeferredEvents();
+    }
+  }
+
   public ComponentState getState() {
     return revisionBuilder.getState();
   }
 
+  public ValueConverterRegistry getValueConverterRegistry() {
+    return componentContainer.getValueConverterRegistry();
+  }
+
+  private boolean hasDeferredFailure() {
+    synchronized (deferredEventMutex) {
+      return deferredFailures != null;
+    }
+  }
+
+  private void invokeDeactivateMethod(final ComponentState targetState) {
+    MethodInvoker deactivateMethodInvoker = componentTypeModel.getDeactivateMethodInvoker();
+    if (deactivateMethodInvoker == null) {
+      return;
+    }
+    long deactivationStartNanos = lifecyclePhaseStarted();
+    try {
+      deactivateMethodInvoker.invoke(instance);
+    } catch (IllegalAccessException | IllegalArgumentException
+        | InvocationTargetException e) {
+      logService.log(LogService.LOG_ERROR, "Component error: {id: '"
+          + componentContainer.getComponentMetadata().getComponentId()
+          + "', state: " + revisionBuilder.getState().toString() + ", properties: "
+          + revisionBuilder.getProperties().toString() + "}", e);
+      if (targetState == ComponentState.FAILED) {
+        revisionBuilder.setOrAddSuppressedCause(e);
+      } else {
+        e.printStackTrace(System.err);
+      }
+    } finally {
+      lifecyclePhaseCompleted(ComponentLifecyclePhase.DEACTIVATE, null, deactivationStartNanos);
+    }
+  }
+
+  private boolean isActiveInstance(final Object componentInstance) {
+    if (getState() != ComponentState.ACTIVE) {
+      return false;
+    }
+    for (C activeInstance : getActiveInstances()) {
+      if (activeInstance == componentInstance) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public boolean isFailed() {
     ComponentState state = getState();
     return (ComponentState.FAILED == state) || (ComponentState.FAILED_PERMANENT == state);
   }
 
+  private boolean isLifecycleListenerEnabled() {
+    return (lifecycleListener != null) && lifecycleListener.isEnabled();
+  }
+
+  private boolean isOnlyReadLockedByCurrentThread() {
+    return readWriteLock.getReadHoldCount() > 0 && !readWriteLock.isWriteLockedByCurrentThread();
+  }
+
   /**
    * Whether the component is satisfied based on the currently satisfied references or not.
    *
@@ -612,6 +1247,48 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
     return satisfiedReferenceHelpers.size() == referenceHelpers.size();
   }
 
+  /**
+   * Whether the current thread holds the write lock of the component, that means that the current
+   * thread executes a lifecycle step of the component.
+   *
+   * @return true if the write lock is held by the current thread.
+   */
+  public boolean isWriteLockedByCurrentThread() {
+    return readWriteLock.isWriteLockedByCurrentThread();
+  }
+
+  /**
+   * Notifies the lifecycle listener that a timed phase of the component finished.
+   *
+   * @param phase
+   *          The phase that finished.
+   * @param attributeId
+   *          The id of the attribute that the phase belongs to or <code>null</code>.
+   * @param startNanos
+   *          The value that {@link #lifecyclePhaseStarted()} returned when the phase started.
+   */
+  public void lifecyclePhaseCompleted(final ComponentLifecyclePhase phase,
+      final String attributeId, final long startNanos) {
+    if (startNanos != PHASE_NOT_TIMED) {
+      lifecycleListener.phaseCompleted(componentContainer, phase, attributeId,
+          System.nanoTime() - startNanos);
+    }
+  }
+
+  /**
+   * Returns the start time of a lifecycle phase that should be passed to
+   * {@link #lifecyclePhaseCompleted(ComponentLifecyclePhase, String, long)} when the phase
+   * finishes. The time is queried only if there is an enabled lifecycle listener.
+   *
+   * @return The start time of the phase in nanoseconds.
+   */
+  public long lifecyclePhaseStarted() {
+    if (!isLifecycleListenerEnabled()) {
+      return PHASE_NOT_TIMED;
+    }
+    return System.nanoTime();
+  }
+
   /**
    * Opens the component that means that configuration will be processed, all references will be
    * tracked and if all references are satisfied the component will be started.
@@ -620,6 +1297,7 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
     Lock writeLock = readWriteLock.writeLock();
     writeLock.lock();
 
+    long startNanos = lifecyclePhaseStarted();
     try {
       if (opened) {
         throw new IllegalStateException("Cannot open a component context that is already opened");
@@ -653,22 +1331,38 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
         }
       }
     } finally {
+      lifecyclePhaseCompleted(ComponentLifecyclePhase.OPEN, null, startNanos);
       writeLock.unlock();
     }
   }
 
   private void prepareConfigurationUpdate(final ComponentState stateBeforeUpdate,
-      final Map<String, Object> newProperties) {
+      final ConfigurationDiff configurationDiff) {
 
     if (stateBeforeUpdate == ComponentState.ACTIVE
-        && shouldRestartForNewConfiguraiton(newProperties)) {
+        && configurationDiff.isNonDynamicAttributeChanged()) {
       stopping(ComponentState.UPDATING_CONFIGURATION);
     } else if (stateBeforeUpdate == ComponentState.UNSATISFIED
-        || stateBeforeUpdate == ComponentState.FAILED) {
+        || stateBeforeUpdate == ComponentState.FAILED || cancelPendingActivation()) {
       revisionBuilder.updatingConfiguration();
     }
   }
 
+  /**
+   * Notifies the lifecycle listener that a reference of the component became satisfied or
+   * unsatisfied.
+   *
+   * @param referenceId
+   *          The attribute id of the reference.
+   * @param satisfied
+   *          Whether the reference became satisfied or unsatisfied.
+   */
+  public void referenceSatisfactionChanged(final String referenceId, final boolean satisfied) {
+    if (isLifecycleListenerEnabled()) {
+      lifecycleListener.referenceSatisfactionChanged(componentContainer, referenceId, satisfied);
+    }
+  }
+
   @Override
   public <S> ServiceRegistration<S> registerService(final Class<S> clazz, final S service,
       final Dictionary<String, ?> properties) {
@@ -708,6 +1402,20 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
     return componentServiceRegistration;
   }
 
+  /**
+   * Puts an instance of a component with bundle or prototype service scope back to the instance
+   * pool or destroys it if the pool is full. Must be called while the write lock is held.
+   */
+  private void releaseScopedServiceInstance(final Object service) {
+    if (instancePool.release(service, System.nanoTime())) {
+      @SuppressWarnings("unchecked")
+      C destroyedInstance = (C) service;
+      destroyPooledInstance(destroyedInstance);
+    } else if (getState() == ComponentState.ACTIVE) {
+      scheduleInstancePoolEviction();
+    }
+  }
+
   void removeServiceRegistration(final ServiceRegistration<?> pServiceRegistration) {
     revisionBuilder.removeServiceRegistration(pServiceRegistration);
   }
@@ -734,32 +1442,11 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
     }
   }
 
-  private Method resolveAnnotatedMethod(final String methodType,
-      final MethodDescriptor methodDescriptor) {
-    if (methodDescriptor == null) {
-      return null;
-    }
-    Method method = methodDescriptor.locate(componentType, false);
-    if (method == null) {
-      Exception exception = new IllegalMetadataException("Could not find " + methodType
-          + " method '" + methodDescriptor.toString()
-          + "' for type " + componentTypeName);
-      fail(exception, true);
-    }
-    if (method.getParameterTypes().length > 0) {
-      Exception exception = new IllegalMetadataException(
-          methodType.substring(0, 1).toUpperCase(Locale.getDefault()) + methodType.substring(1)
-              + " method must not have any parameters. Method '"
-              + method.toGenericString() + "' of type " + componentTypeName + " does have.");
-      fail(exception, true);
-    }
-    return method;
-  }
-
   private Map<String, Object> resolveProperties(final Map<String, Object> props,
       final boolean doConversionIfNecessary) {
 
-    Map<String, Object> result = new HashMap<>(props);
+    ComponentPropertyMap.Builder result =
+        componentContainer.getPropertyMapLayout().createBuilder(props);
     AttributeMetadata<?>[] attributes = componentContainer.getComponentMetadata().getAttributes();
     for (AttributeMetadata<?> attributeMetadata : attributes) {
       String attributeId = attributeMetadata.getAttributeId();
@@ -782,31 +1469,16 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
 
     addCommonComponentProperties(result);
 
-    return Collections.unmodifiableMap(result);
-  }
-
-  private String[] resolveServiceInterfaces() {
-    ServiceMetadata serviceMetadata = componentContainer.getComponentMetadata().getService();
-    if (serviceMetadata == null) {
-      return new String[0];
-    }
-
-    String[] clazzes = serviceMetadata.getClazzes();
-    if (clazzes.length > 0) {
-      return clazzes;
-    }
-
-    // Auto detect
-    Set<String> interfaces = new LinkedHashSet<>();
-    Class<?> currentClass = componentType;
-    ComponentContextImpl.resolveSuperInterfacesRecurse(currentClass, interfaces);
-    interfaces.add(componentTypeName);
-
-    return interfaces.toArray(new String[interfaces.size()]);
+    return result.build();
   }
 
   private void restart() {
-    stopping(ComponentState.STOPPING);
+    referenceRetentionInProgress = serviceRetentionOnRestart;
+    try {
+      stopping(ComponentState.STOPPING);
+    } finally {
+      referenceRetentionInProgress = false;
+    }
     if (isSatisfied()) {
       starting();
     } else {
@@ -814,30 +1486,92 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
       // disappears due to stopping the component.
       revisionBuilder.unsatisfied();
     }
+    if (serviceRetentionOnRestart) {
+      // Release the services of the references that were not bound again (e.g.: the activation
+      // is asynchronous or it failed before binding all references)
+      for (ReferenceHelper<?, C, ?> referenceHelper : referenceHelpers) {
+        referenceHelper.releaseRetained();
+      }
+    }
+  }
 
+  private void runScheduledActivation(final long generation) {
+    if (generation != activationGeneration) {
+      return;
+    }
+    Lock writeLock = readWriteLock.writeLock();
+    writeLock.lock();
+    try {
+      if (!activationPending || (generation != activationGeneration)) {
+        return;
+      }
+      activationPending = false;
+      if (!opened) {
+        return;
+      }
+      if (!isSatisfied()) {
+        revisionBuilder.unsatisfied();
+        return;
+      }
+      startInstance();
+    } finally {
+      writeLock.unlock();
+    }
   }
 
-  private boolean shouldRestartForNewConfiguraiton(final Map<String, Object> newProperties) {
-    AttributeMetadata<?>[] componentAttributes = componentContainer.getComponentMetadata()
-        .getAttributes();
-    Map<String, Object> properties = getProperties();
-    for (AttributeMetadata<?> attributeMetadata : componentAttributes) {
-      if (!attributeMetadata.isDynamic()) {
-        String attributeId = attributeMetadata.getAttributeId();
+  /**
+   * Moves the component to STARTING state and schedules its activation on the activation
+   * executor, so the thread that made the component satisfied does not run the code of the
+   * component.
+   */
+  private void scheduleActivation() {
+    if (getState() == ComponentState.FAILED_PERMANENT) {
+      return;
+    }
+    final long generation = ++activationGeneration;
+    activationPending = true;
+    revisionBuilder.activationScheduled();
+    try {
+      activationExecutor.execute(new Runnable() {
 
-        Object oldValue = properties.get(attributeId);
-        Object newValue = newProperties.get(attributeId);
-        if (!equals(oldValue, newValue)) {
-          return true;
+        @Override
+        public void run() {
+          runScheduledActivation(generation);
         }
-      }
+      });
+    } catch (RejectedExecutionException e) {
+      fail(e, false);
     }
-    return false;
   }
 
-  private void starting() {
+  /**
+   * Schedules the eviction of the idle instances of the instance pool if there are instances that
+   * may be evicted and no eviction is scheduled yet.
+   */
+  private void scheduleInstancePoolEviction() {
+    if (instancePoolEviction != null) {
+      return;
+    }
+    long delayNanos = instancePool.getNextEvictionDelayNanos(System.nanoTime());
+    if (delayNanos < 0) {
+      return;
+    }
+    instancePoolEviction = IdleInstanceScheduler.getInstance().schedule(new Runnable() {
+
+      @Override
+      public void run() {
+        evictIdleInstances();
+      }
+    }, delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Instantiates and activates the component on the current thread.
+   */
+  private void startInstance() {
     Lock writeLock = readWriteLock.writeLock();
     writeLock.lock();
+    long startNanos = lifecyclePhaseStarted();
     try {
       if (getState() == ComponentState.FAILED_PERMANENT) {
         return;
@@ -845,79 +1579,60 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
 
       revisionBuilder.starting();
 
-      try {
-        instance = componentType.newInstance();
-      } catch (InstantiationException | IllegalAccessException | RuntimeException e) {
-        fail(e, true);
-        return;
-      }
-
-      for (ReferenceHelper<?, C, ?> referenceHelper : referenceHelpers) {
-        referenceHelper.bind();
-        if (isFailed()) {
-          return;
-        }
-      }
-
-      Map<String, Object> properties = getProperties();
-      try {
-        for (PropertyAttributeHelper<C, Object> helper : propertyAttributeHelpers) {
-          PropertyAttributeMetadata<Object> attributeMetadata = helper.getAttributeMetadata();
-          String attributeId = attributeMetadata.getAttributeId();
-          Object propertyValue = properties.get(attributeId);
-          helper.applyValue(propertyValue);
-          if (isFailed()) {
-            return;
-          }
-        }
-        activateMethodHelper.call(instance);
-      } catch (IllegalAccessException e) {
-        fail(e, true);
-        return;
-      } catch (InvocationTargetException e) {
-        fail(e.getCause(), false, true);
+      String[] serviceInterfaces = componentTypeModel.getServiceInterfaces();
+      ServiceFactory<Object> serviceFactory =
+          (scopedServiceFactory != null) ? scopedServiceFactory : lazyServiceFactory;
+      if (serviceFactory == null && !activateInstance()) {
         return;
       }
 
       if (serviceInterfaces.length > 0) {
-        serviceRegistration = registerService(serviceInterfaces, instance,
-            new Hashtable<>(properties));
+        long registrationStartNanos = lifecyclePhaseStarted();
+        Object service = (serviceFactory != null) ? serviceFactory : instance;
+        serviceRegistration = registerService(serviceInterfaces, service,
+            createServiceProperties(getProperties()));
+        lifecyclePhaseCompleted(ComponentLifecyclePhase.REGISTER_SERVICE, null,
+            registrationStartNanos);
       }
       revisionBuilder.active();
+
+      if (instancePool != null) {
+        warmUpInstancePool();
+      }
     } finally {
+      lifecyclePhaseCompleted(ComponentLifecyclePhase.START, null, startNanos);
       writeLock.unlock();
     }
   }
 
+  private void starting() {
+    if (activationExecutor == null) {
+      startInstance();
+    } else {
+      scheduleActivation();
+    }
+  }
+
   private void stopping(final ComponentState targetState) {
+    long startNanos = lifecyclePhaseStarted();
     try {
       revisionBuilder.stopping();
       if (serviceRegistration != null) {
-        serviceRegistration.unregister();
+        if (serviceFactoryActivationInProgress) {
+          unregisterServiceAfterLazyActivation(serviceRegistration);
+        } else {
+          serviceRegistration.unregister();
+        }
         serviceRegistration = null;
       }
-      if (instance != null) {
-        if (deactivateMethod != null) {
-          try {
-            deactivateMethod.invoke(instance);
-          } catch (IllegalAccessException | IllegalArgumentException
-              | InvocationTargetException e) {
-            logService.log(LogService.LOG_ERROR, "Component error: {id: '"
-                + componentContainer.getComponentMetadata().getComponentId()
-                + "', state: " + revisionBuilder.getState().toString() + ", properties: "
-                + revisionBuilder.getProperties().toString() + "}", e);
-            if (targetState == ComponentState.FAILED) {
-              revisionBuilder.setOrAddSuppressedCause(e);
-            } else {
-              e.printStackTrace(System.err);
-            }
-          }
-        }
-        unregisterServices();
-        freeReferences();
-        instance = null;
+      if (lazyServiceFactory != null) {
+        lazyServiceFactory.reset();
       }
-
+      if (instancePoolEviction != null) {
+        instancePoolEviction.cancel(false);
+        instancePoolEviction = null;
+      }
+      deactivateInstance(targetState);
     } finally {
       switch (targetState) {
         case INACTIVE:
@@ -934,13 +1649,117 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
           // will be set by the caller function
           break;
       }
+      lifecyclePhaseCompleted(ComponentLifecyclePhase.STOP, null, startNanos);
+    }
+  }
+
+  /**
+   * Acquires the write lock of the component for the service factory of the component. The
+   * framework may call the service factory while it waits for the thread that holds the lock (e.g.
+   * while the thread unregisters the service), so the lock is acquired with a timeout instead of
+   * waiting forever.
+   *
+   * @param writeLock
+   *          The write lock of the component.
+   * @return <code>true</code> if the lock was acquired.
+   */
+  private boolean tryLockForServiceFactory(final Lock writeLock) {
+    boolean locked = false;
+    if (!isOnlyReadLockedByCurrentThread()) {
+      try {
+        locked = writeLock.tryLock(SERVICE_FACTORY_LOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (!locked) {
+      logService.log(LogService.LOG_WARNING, "Could not acquire the lock of the component '"
+          + componentContainer.getComponentMetadata().getComponentId()
+          + "' to get or release its service");
+    }
+    return locked;
+  }
+
+  /**
+   * Called when a bundle releases the service of a lazily activated component.
+   */
+  void ungetLazyServiceInstance() {
+    Lock writeLock = readWriteLock.writeLock();
+    if (!tryLockForServiceFactory(writeLock)) {
+      return;
+    }
+    try {
+      lazyServiceFactory.serviceReleased();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Called when a consumer releases an instance of a component with bundle or prototype service
+   * scope. The instance goes back to the instance pool and stays activated unless the pool is
+   * full.
+   *
+   * @param service
+   *          The instance that the consumer released.
+   */
+  void ungetScopedServiceInstance(final Object service) {
+    Lock writeLock = readWriteLock.writeLock();
+    if (!tryLockForServiceFactory(writeLock)) {
+      // The instance must not be lost, so it is released as soon as the lock is available
+      DefaultActivationExecutor.getInstance().execute(new Runnable() {
+
+        @Override
+        public void run() {
+          Lock lock = readWriteLock.writeLock();
+          lock.lock();
+          try {
+            releaseScopedServiceInstance(service);
+          } finally {
+            lock.unlock();
+          }
+        }
+      });
+      return;
     }
+    try {
+      releaseScopedServiceInstance(service);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Unregisters the service of a lazily activated component whose activation failed while a bundle
+   * was getting the service. The service is removed from the revision of the component
+   * immediately, but it is unregistered from the framework only after the service factory returned.
+   *
+   * @param registration
+   *          The registration of the service factory.
+   */
+  private void unregisterServiceAfterLazyActivation(final ServiceRegistration<?> registration) {
+    removeServiceRegistration(registration);
+    DefaultActivationExecutor.getInstance().execute(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          registration.unregister();
+        } catch (IllegalStateException e) {
+          // Already unregistered, e.g. the bundle of the component was stopped
+          return;
+        }
+      }
+    });
   }
 
   private void unregisterServices() {
     for (ServiceRegistration<?> lServiceRegistration : revisionBuilder
         .getCloneOfServiceRegistrations()) {
-      lServiceRegistration.unregister();
+      // The service of a lazily activated component remains registered after idle deactivation
+      if (lServiceRegistration != serviceRegistration) {
+        lServiceRegistration.unregister();
+      }
     }
   }
 
@@ -956,12 +1775,14 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
     Lock writeLock = readWriteLock.writeLock();
     writeLock.lock();
     configurationUpdateInProgress = true;
+    long startNanos = lifecyclePhaseStarted();
     try {
       if (getState() == ComponentState.FAILED_PERMANENT) {
         return;
       }
       updateConfigurationInLock(properties);
     } finally {
+      lifecyclePhaseCompleted(ComponentLifecyclePhase.UPDATE_CONFIGURATION, null, startNanos);
       configurationUpdateInProgress = false;
       writeLock.unlock();
     }
@@ -971,8 +1792,14 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
 
     ComponentState stateBeforeUpdate = getState();
 
+    if ((stateBeforeUpdate == ComponentState.ACTIVE)
+        && ConfigurationDiff.isSameConfiguration(configuration, properties)) {
+      return;
+    }
+
     Map<String, Object> oldProperties = getProperties();
     Map<String, Object> newPropertyMap = createPropMapFromConfigDictionary(properties);
+    configuration = newPropertyMap;
 
     Map<String, Object> newProperties;
     try {
@@ -983,12 +1810,20 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
       return;
     }
 
+    ConfigurationDiff configurationDiff = new ConfigurationDiff(
+        componentContainer.getComponentMetadata().getAttributes(), attributeIndexes,
+        oldProperties, newProperties);
+
+    if ((stateBeforeUpdate == ComponentState.ACTIVE) && !configurationDiff.isChanged()) {
+      return;
+    }
+
     // After this preparing, the component will be either UPDATING_CONFIGURATION or ACTIVE
-    prepareConfigurationUpdate(stateBeforeUpdate, newProperties);
+    prepareConfigurationUpdate(stateBeforeUpdate, configurationDiff);
 
     revisionBuilder.updateProperties(newProperties);
 
-    updateReferences(newProperties, oldProperties);
+    updateReferences(configurationDiff);
 
     ComponentState stateAfterReferenceUpdate = getState();
     if (stateAfterReferenceUpdate == ComponentState.UNSATISFIED || isFailed()) {
@@ -1005,31 +1840,36 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
       starting();
     } else {
       // This means that the component is active after references are updated
-      updatePropertiesOnComponentInstance(newProperties, oldProperties);
+      for (C activeInstance : getActiveInstances()) {
+        instance = activeInstance;
+        try {
+          updatePropertiesOnComponentInstance(newProperties, configurationDiff);
 
-      if (isFailed()) {
-        return;
-      }
+          if (isFailed()) {
+            return;
+          }
 
-      callUpdateMethod();
+          callUpdateMethod();
+        } finally {
+          deselectScopedInstance();
+        }
+      }
     }
 
     if (serviceRegistration != null) {
-      serviceRegistration.setProperties(new Hashtable<>(newProperties));
+      serviceRegistration.setProperties(createServiceProperties(newProperties));
     }
 
   }
 
   private void updatePropertiesOnComponentInstance(final Map<String, Object> newProperties,
-      final Map<String, Object> oldProperties) {
-    for (PropertyAttributeHelper<C, Object> helper : propertyAttributeHelpers) {
+      final ConfigurationDiff configurationDiff) {
+    for (PropertyAttributeHelper<C, Object> helper : componentTypeModel
+        .getPropertyAttributeHelpers()) {
       String attributeId = helper.getAttributeMetadata().getAttributeId();
 
-      Object oldValue = oldProperties.get(attributeId);
-      Object newValue = newProperties.get(attributeId);
-
-      if (!equals(oldValue, newValue)) {
-        helper.applyValue(newValue);
+      if (configurationDiff.isAttributeChanged(attributeId)) {
+        helper.applyValue(this, newProperties.get(attributeId));
 
         if (isFailed()) {
           return;
@@ -1038,15 +1878,11 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
     }
   }
 
-  private void updateReferences(final Map<String, Object> newProperties,
-      final Map<String, Object> oldProperties) {
+  private void updateReferences(final ConfigurationDiff configurationDiff) {
     for (ReferenceHelper<?, C, ?> referenceHelper : referenceHelpers) {
       String attributeId = referenceHelper.getReferenceMetadata().getAttributeId();
 
-      Object newValue = newProperties.get(attributeId);
-      Object oldValue = oldProperties.get(attributeId);
-
-      if (!equals(oldValue, newValue)) {
+      if (configurationDiff.isAttributeChanged(attributeId)) {
         referenceHelper.updateConfiguration();
       }
       if (!referenceHelper.isOpened()) {
@@ -1063,4 +1899,19 @@ public class ComponentContextImpl<C> implements ComponentContext<C> {
               + "component is ACTIVE or STARTING");
     }
   }
+
+  /**
+   * Fills the instance pool with the minimum number of instances when the component becomes
+   * active, so the first consumers do not have to wait for the activation of their instances.
+   */
+  private void warmUpInstancePool() {
+    while ((getState() == ComponentState.ACTIVE)
+        && (instancePool.getSize() < instancePool.getMinSize())) {
+      C pooledInstance = createPooledInstance();
+      if (pooledInstance == null) {
+        return;
+      }
+      instancePool.release(pooledInstance, System.nanoTime());
+    }
+  }
 }
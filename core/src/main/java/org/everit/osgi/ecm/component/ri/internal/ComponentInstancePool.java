@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.everit.osgi.ecm.component.ri.InstancePoolStatistics;
+
+/**
+ * The pool of the activated instances of a component with bundle or prototype service scope. The
+ * instances that the consumers release are kept and handed out again, the most recently released
+ * one first. The pool keeps at most <code>maxSize</code> instances: an instance that is released
+ * while the pool holds more instances is destroyed. Idle instances are destroyed after the idle
+ * timeout, but the pool always keeps at least <code>minSize</code> instances.
+ *
+ * <p>
+ * The pool only keeps track of the instances. The instances are created, activated and destroyed
+ * by the component context that asks the pool which instances to destroy. The methods of the pool
+ * are synchronized as the statistics may be queried on any thread.
+ *
+ * @param <C>
+ *          The type of the component implementation.
+ */
+public final class ComponentInstancePool<C> {
+
+  /**
+   * An instance that no consumer uses together with the time it was released.
+   *
+   * @param <C>
+   *          The type of the component implementation.
+   */
+  private static final class IdleInstance<C> {
+
+    private final long idleSinceNanos;
+
+    private final C instance;
+
+    IdleInstance(final C instance, final long idleSinceNanos) {
+      this.instance = instance;
+      this.idleSinceNanos = idleSinceNanos;
+    }
+  }
+
+  /**
+   * Immutable snapshot of the statistics of the pool.
+   */
+  private static final class Statistics implements InstancePoolStatistics {
+
+    private final long averageCreationNanos;
+
+    private final long createdNum;
+
+    private final long destroyedNum;
+
+    private final long hitNum;
+
+    private final int idleSize;
+
+    private final long maxCreationNanos;
+
+    private final long requestNum;
+
+    private final int size;
+
+    Statistics(final ComponentInstancePool<?> pool) {
+      this.createdNum = pool.createdNum;
+      this.averageCreationNanos = (createdNum == 0) ? 0 : pool.creationNanosSum / createdNum;
+      this.destroyedNum = pool.destroyedNum;
+      this.hitNum = pool.hitNum;
+      this.idleSize = pool.idleInstances.size();
+      this.maxCreationNanos = pool.maxCreationNanos;
+      this.requestNum = pool.requestNum;
+      this.size = pool.instances.size();
+    }
+
+    @Override
+    public long getAverageCreationNanos() {
+      return averageCreationNanos;
+    }
+
+    @Override
+    public long getCreatedNum() {
+      return createdNum;
+    }
+
+    @Override
+    public long getDestroyedNum() {
+      return destroyedNum;
+    }
+
+    @Override
+    public long getHitNum() {
+      return hitNum;
+    }
+
+    @Override
+    public double getHitRate() {
+      if (requestNum == 0) {
+        return 0;
+      }
+      return (double) hitNum / requestNum;
+    }
+
+    @Override
+    public int getIdleSize() {
+      return idleSize;
+    }
+
+    @Override
+    public long getMaxCreationNanos() {
+      return maxCreationNanos;
+    }
+
+    @Override
+    public long getRequestNum() {
+      return requestNum;
+    }
+
+    @Override
+    public int getSize() {
+      return size;
+    }
+
+    @Override
+    public String toString() {
+      return "InstancePoolStatistics [size=" + size + ", idleSize=" + idleSize + ", requestNum="
+          + requestNum + ", hitNum=" + hitNum + ", createdNum=" + createdNum + ", destroyedNum="
+          + destroyedNum + ", averageCreationNanos=" + averageCreationNanos
+          + ", maxCreationNanos=" + maxCreationNanos + "]";
+    }
+  }
+
+  private long createdNum = 0;
+
+  private long creationNanosSum = 0;
+
+  private long destroyedNum = 0;
+
+  private long hitNum = 0;
+
+  /**
+   * The idle instances, the most recently released one first.
+   */
+  private final Deque<IdleInstance<C>> idleInstances = new ArrayDeque<>();
+
+  private final long idleTimeoutNanos;
+
+  /**
+   * All instances of the pool, including the idle ones.
+   */
+  private final Set<Object> instances =
+      Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+  private long maxCreationNanos = 0;
+
+  private final int maxSize;
+
+  private final int minSize;
+
+  private long requestNum = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param minSize
+   *          The number of instances that are created when the component is activated and that
+   *          are never destroyed due to idleness.
+   * @param maxSize
+   *          The maximum number of instances that the pool keeps.
+   * @param idleTimeoutNanos
+   *          The time after an idle instance is destroyed or zero if idle instances should be kept
+   *          until the component is stopped.
+   */
+  public ComponentInstancePool(final int minSize, final int maxSize,
+      final long idleTimeoutNanos) {
+    this.minSize = minSize;
+    this.maxSize = maxSize;
+    this.idleTimeoutNanos = idleTimeoutNanos;
+  }
+
+  /**
+   * Takes an idle instance for a consumer.
+   *
+   * @return The most recently released idle instance or <code>null</code> if there is no idle
+   *         instance and a new one must be created.
+   */
+  public synchronized C acquire() {
+    requestNum++;
+    IdleInstance<C> idleInstance = idleInstances.pollFirst();
+    if (idleInstance == null) {
+      return null;
+    }
+    hitNum++;
+    return idleInstance.instance;
+  }
+
+  /**
+   * Removes the idle instances that have been idle for longer than the idle timeout, as long as
+   * the pool keeps at least <code>minSize</code> instances.
+   *
+   * @param nowNanos
+   *          The current value of {@link System#nanoTime()}.
+   * @return The instances that should be destroyed.
+   */
+  public synchronized List<C> evictIdleInstances(final long nowNanos) {
+    List<C> result = new ArrayList<>();
+    if (idleTimeoutNanos == 0) {
+      return result;
+    }
+    while (instances.size() > minSize && !idleInstances.isEmpty()
+        && nowNanos - idleInstances.peekLast().idleSinceNanos >= idleTimeoutNanos) {
+      C instance = idleInstances.pollLast().instance;
+      instances.remove(instance);
+      destroyedNum++;
+      result.add(instance);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the activated instances of the pool.
+   *
+   * @return A copy of the instances, including the idle ones.
+   */
+  public synchronized List<C> getInstances() {
+    List<C> result = new ArrayList<>(instances.size());
+    for (Object instance : instances) {
+      @SuppressWarnings("unchecked")
+      C typedInstance = (C) instance;
+      result.add(typedInstance);
+    }
+    return result;
+  }
+
+  public int getMinSize() {
+    return minSize;
+  }
+
+  /**
+   * Returns the time after the next idle instance should be evicted.
+   *
+   * @param nowNanos
+   *          The current value of {@link System#nanoTime()}.
+   * @return The time in nanoseconds or a negative number if no instance should be evicted.
+   */
+  public synchronized long getNextEvictionDelayNanos(final long nowNanos) {
+    if (idleTimeoutNanos == 0 || idleInstances.isEmpty() || instances.size() <= minSize) {
+      return -1;
+    }
+    long delay = idleInstances.peekLast().idleSinceNanos + idleTimeoutNanos - nowNanos;
+    return Math.max(delay, 0);
+  }
+
+  public synchronized int getSize() {
+    return instances.size();
+  }
+
+  public synchronized InstancePoolStatistics getStatistics() {
+    return new Statistics(this);
+  }
+
+  /**
+   * Adds a newly created and activated instance to the pool.
+   *
+   * @param instance
+   *          The instance.
+   * @param creationNanos
+   *          The time that the creation and the activation of the instance took.
+   */
+  public synchronized void instanceCreated(final C instance, final long creationNanos) {
+    instances.add(instance);
+    createdNum++;
+    creationNanosSum += creationNanos;
+    if (creationNanos > maxCreationNanos) {
+      maxCreationNanos = creationNanos;
+    }
+  }
+
+  public synchronized boolean isInstance(final Object instance) {
+    return instances.contains(instance);
+  }
+
+  /**
+   * Puts an instance that a consumer released back to the pool.
+   *
+   * @param instance
+   *          The released instance.
+   * @param nowNanos
+   *          The current value of {@link System#nanoTime()}.
+   * @return <code>true</code> if the instance was removed from the pool as the pool holds more
+   *         than <code>maxSize</code> instances and the caller should destroy the instance.
+   */
+  public synchronized boolean release(final Object instance, final long nowNanos) {
+    if (!instances.contains(instance)) {
+      return false;
+    }
+    if (instances.size() > maxSize) {
+      instances.remove(instance);
+      destroyedNum++;
+      return true;
+    }
+    @SuppressWarnings("unchecked")
+    C typedInstance = (C) instance;
+    idleInstances.addFirst(new IdleInstance<>(typedInstance, nowNanos));
+    return false;
+  }
+
+  /**
+   * Forgets all instances when the component is stopped. The statistics are kept.
+   *
+   * @return The instances that were activated.
+   */
+  public synchronized List<C> removeInstances() {
+    List<C> result = getInstances();
+    instances.clear();
+    idleInstances.clear();
+    return result;
+  }
+}
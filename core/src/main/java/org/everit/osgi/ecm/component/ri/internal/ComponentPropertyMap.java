@@ -0,0 +1,450 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.everit.osgi.ecm.metadata.AttributeMetadata;
+
+/**
+ * Immutable map of the properties of a component. The values of the attributes are stored in an
+ * array in the order of the attributes of the component, so the keys are shared by all property
+ * maps of the same component and only the properties that are not attributes of the component
+ * (e.g.: <code>service.pid</code>) need their own keys. The map can be viewed as a
+ * {@link Dictionary} that can be passed to the service registration methods without copying it
+ * to a {@link java.util.Hashtable}.
+ */
+public final class ComponentPropertyMap extends AbstractMap<String, Object> {
+
+  /**
+   * Mutable map that stores the values of the attributes in place in the slots of the layout, so
+   * the properties of a component can be resolved without copying them to a temporary map first.
+   * The builder is frozen by {@link #build()}.
+   */
+  public static final class Builder extends AbstractMap<String, Object> {
+
+    private final Object[] attributeValues;
+
+    private boolean built = false;
+
+    private final List<String> extraKeys;
+
+    private final List<Object> extraValues;
+
+    private final Layout layout;
+
+    private Builder(final Layout layout, final Object[] attributeValues,
+        final List<String> extraKeys, final List<Object> extraValues) {
+      this.layout = layout;
+      this.attributeValues = attributeValues;
+      this.extraKeys = extraKeys;
+      this.extraValues = extraValues;
+    }
+
+    /**
+     * Creates the immutable property map from the current entries of the builder. The builder
+     * cannot be modified afterwards.
+     *
+     * @return The property map.
+     */
+    public ComponentPropertyMap build() {
+      built = true;
+      return new ComponentPropertyMap(layout, attributeValues, extraKeys, extraValues);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+      Integer index = layout.attributeIndexes.get(key);
+      if (index != null) {
+        return attributeValues[index] != ABSENT;
+      }
+      return extraKeys.contains(key);
+    }
+
+    /**
+     * Returns a read-only snapshot of the current entries of the builder.
+     */
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+      return new ComponentPropertyMap(layout, attributeValues, extraKeys, extraValues).entrySet();
+    }
+
+    @Override
+    public Object get(final Object key) {
+      Integer index = layout.attributeIndexes.get(key);
+      if (index != null) {
+        Object value = attributeValues[index];
+        return (value != ABSENT) ? value : null;
+      }
+      int extraIndex = extraKeys.indexOf(key);
+      return (extraIndex >= 0) ? extraValues.get(extraIndex) : null;
+    }
+
+    @Override
+    public Object put(final String key, final Object value) {
+      if (built) {
+        throw new IllegalStateException("Property map is already built");
+      }
+      Integer index = layout.attributeIndexes.get(key);
+      if (index != null) {
+        Object previousValue = attributeValues[index];
+        attributeValues[index] = value;
+        return (previousValue != ABSENT) ? previousValue : null;
+      }
+      int extraIndex = extraKeys.indexOf(key);
+      if (extraIndex >= 0) {
+        return extraValues.set(extraIndex, value);
+      }
+      extraKeys.add(key);
+      extraValues.add(value);
+      return null;
+    }
+  }
+
+  /**
+   * Read-only {@link Dictionary} view of the map.
+   */
+  private final class DictionaryView extends Dictionary<String, Object> {
+
+    @Override
+    public Enumeration<Object> elements() {
+      return new SlotIterator<Object>() {
+
+        @Override
+        protected Object element(final int slot) {
+          return values[slot];
+        }
+      };
+    }
+
+    @Override
+    public Object get(final Object key) {
+      return ComponentPropertyMap.this.get(key);
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return size == 0;
+    }
+
+    @Override
+    public Enumeration<String> keys() {
+      return new SlotIterator<String>() {
+
+        @Override
+        protected String element(final int slot) {
+          return getKey(slot);
+        }
+      };
+    }
+
+    @Override
+    public Object put(final String key, final Object value) {
+      throw new UnsupportedOperationException("Component properties are immutable");
+    }
+
+    @Override
+    public Object remove(final Object key) {
+      throw new UnsupportedOperationException("Component properties are immutable");
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+  /**
+   * The entries of the map.
+   */
+  private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+
+    @Override
+    public Iterator<Entry<String, Object>> iterator() {
+      return new SlotIterator<Entry<String, Object>>() {
+
+        @Override
+        protected Entry<String, Object> element(final int slot) {
+          return new SimpleImmutableEntry<String, Object>(getKey(slot), values[slot]);
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+  /**
+   * The attributes of a component in the order of their declaration. The layout is created once
+   * for a component container and it is shared by all property maps of the container.
+   */
+  public static final class Layout {
+
+    private final String[] attributeIds;
+
+    private final Map<String, Integer> attributeIndexes;
+
+    /**
+     * Constructor.
+     *
+     * @param attributes
+     *          The attributes of the component.
+     */
+    public Layout(final AttributeMetadata<?>[] attributes) {
+      this.attributeIds = new String[attributes.length];
+      for (int i = 0; i < attributes.length; i++) {
+        attributeIds[i] = attributes[i].getAttributeId();
+      }
+      this.attributeIndexes = ConfigurationDiff.indexAttributes(attributes);
+    }
+
+    /**
+     * Creates a builder that is initialized with the entries of a map. If the map is a property
+     * map of the same layout, its slots are copied directly.
+     *
+     * @param source
+     *          The map whose entries are copied.
+     * @return The builder.
+     */
+    public Builder createBuilder(final Map<String, ?> source) {
+      if (source instanceof ComponentPropertyMap) {
+        ComponentPropertyMap propertyMap = (ComponentPropertyMap) source;
+        if (propertyMap.layout == this) {
+          int attributeCount = attributeIds.length;
+          Object[] attributeValues = new Object[attributeCount];
+          System.arraycopy(propertyMap.values, 0, attributeValues, 0, attributeCount);
+          int extraCount = propertyMap.extraKeys.length;
+          List<String> extraKeys = new ArrayList<>(extraCount);
+          List<Object> extraValues = new ArrayList<>(extraCount);
+          for (int i = 0; i < extraCount; i++) {
+            extraKeys.add(propertyMap.extraKeys[i]);
+            extraValues.add(propertyMap.values[attributeCount + i]);
+          }
+          return new Builder(this, attributeValues, extraKeys, extraValues);
+        }
+      }
+      Builder builder = new Builder(this, createEmptyAttributeValues(), new ArrayList<String>(),
+          new ArrayList<Object>());
+      for (Entry<String, ?> entry : source.entrySet()) {
+        builder.put(entry.getKey(), entry.getValue());
+      }
+      return builder;
+    }
+
+    private Object[] createEmptyAttributeValues() {
+      Object[] attributeValues = new Object[attributeIds.length];
+      for (int i = 0; i < attributeValues.length; i++) {
+        attributeValues[i] = ABSENT;
+      }
+      return attributeValues;
+    }
+
+    /**
+     * Creates a property map from the entries of a dictionary.
+     *
+     * @param source
+     *          The dictionary or <code>null</code> if the map should be empty.
+     * @return The property map.
+     */
+    public ComponentPropertyMap createMap(final Dictionary<String, ?> source) {
+      Object[] attributeValues = createEmptyAttributeValues();
+      List<String> extraKeys = new ArrayList<>();
+      List<Object> extraValues = new ArrayList<>();
+      if (source != null) {
+        Enumeration<String> keys = source.keys();
+        while (keys.hasMoreElements()) {
+          String key = keys.nextElement();
+          putValue(attributeValues, extraKeys, extraValues, key, source.get(key));
+        }
+      }
+      return new ComponentPropertyMap(this, attributeValues, extraKeys, extraValues);
+    }
+
+    /**
+     * The position of each attribute by the id of the attribute.
+     *
+     * @return The unmodifiable index of the attributes.
+     */
+    public Map<String, Integer> getAttributeIndexes() {
+      return attributeIndexes;
+    }
+
+    private void putValue(final Object[] attributeValues, final List<String> extraKeys,
+        final List<Object> extraValues, final String key, final Object value) {
+      Integer index = attributeIndexes.get(key);
+      if (index != null) {
+        attributeValues[index] = value;
+      } else {
+        extraKeys.add(key);
+        extraValues.add(value);
+      }
+    }
+  }
+
+  /**
+   * Iterates through the slots that hold a value and works as an {@link Enumeration} as well.
+   *
+   * @param <E>
+   *          The type of the elements.
+   */
+  private abstract class SlotIterator<E> implements Iterator<E>, Enumeration<E> {
+
+    private int nextSlot = findSlot(0);
+
+    protected abstract E element(int slot);
+
+    private int findSlot(final int fromSlot) {
+      int slot = fromSlot;
+      while ((slot < values.length) && (values[slot] == ABSENT)) {
+        slot++;
+      }
+      return slot;
+    }
+
+    @Override
+    public boolean hasMoreElements() {
+      return hasNext();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextSlot < values.length;
+    }
+
+    @Override
+    public E next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      int slot = nextSlot;
+      nextSlot = findSlot(slot + 1);
+      return element(slot);
+    }
+
+    @Override
+    public E nextElement() {
+      return next();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Component properties are immutable");
+    }
+  }
+
+  /**
+   * Marks the slots of the attributes that do not have any value in the map. <code>null</code>
+   * cannot be used as an attribute might be present with <code>null</code> value.
+   */
+  private static final Object ABSENT = new Object();
+
+  private final String[] extraKeys;
+
+  private final Layout layout;
+
+  private final int size;
+
+  /**
+   * The values of the attributes in the order of the layout followed by the values of the extra
+   * keys.
+   */
+  private final Object[] values;
+
+  private ComponentPropertyMap(final Layout layout, final Object[] attributeValues,
+      final List<String> extraKeys, final List<Object> extraValues) {
+    this.layout = layout;
+    this.extraKeys = extraKeys.toArray(new String[extraKeys.size()]);
+
+    int attributeCount = attributeValues.length;
+    this.values = new Object[attributeCount + extraValues.size()];
+    System.arraycopy(attributeValues, 0, values, 0, attributeCount);
+    int count = extraValues.size();
+    for (int i = 0; i < attributeCount; i++) {
+      if (attributeValues[i] != ABSENT) {
+        count++;
+      }
+    }
+    for (int i = 0, n = extraValues.size(); i < n; i++) {
+      values[attributeCount + i] = extraValues.get(i);
+    }
+    this.size = count;
+  }
+
+  /**
+   * Returns a read-only {@link Dictionary} view of this map. The view can be passed to the
+   * service registration methods of the OSGi framework as they copy the properties anyway.
+   *
+   * @return The dictionary view.
+   */
+  public Dictionary<String, Object> asDictionary() {
+    return new DictionaryView();
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    return findSlot(key) >= 0;
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return new EntrySet();
+  }
+
+  private int findSlot(final Object key) {
+    Integer index = layout.attributeIndexes.get(key);
+    if (index != null) {
+      return (values[index] != ABSENT) ? index : -1;
+    }
+    for (int i = 0; i < extraKeys.length; i++) {
+      if (extraKeys[i].equals(key)) {
+        return layout.attributeIds.length + i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public Object get(final Object key) {
+    int slot = findSlot(key);
+    return (slot >= 0) ? values[slot] : null;
+  }
+
+  private String getKey(final int slot) {
+    int attributeCount = layout.attributeIds.length;
+    return (slot < attributeCount) ? layout.attributeIds[slot] : extraKeys[slot - attributeCount];
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.everit.osgi.ecm.component.ri.internal.attribute.PropertyAttributeHelper;
+import org.everit.osgi.ecm.component.ri.internal.attribute.PropertyInjector;
+import org.everit.osgi.ecm.component.ri.internal.attribute.ReferenceCallbacks;
+import org.everit.osgi.ecm.component.ri.internal.invoker.MethodInvoker;
+import org.everit.osgi.ecm.component.ri.internal.invoker.MethodInvokerFactory;
+import org.everit.osgi.ecm.metadata.AttributeMetadata;
+import org.everit.osgi.ecm.metadata.ComponentMetadata;
+import org.everit.osgi.ecm.metadata.PropertyAttributeMetadata;
+import org.everit.osgi.ecm.metadata.ReferenceMetadata;
+import org.everit.osgi.ecm.metadata.ServiceMetadata;
+import org.everit.osgi.ecm.metadata.ServiceReferenceMetadata;
+import org.everit.osgi.ecm.util.method.MethodDescriptor;
+
+/**
+ * The parts of a component that depend only on the metadata and the implementation class of the
+ * component. The model is resolved once per component container and it is shared by all contexts
+ * of the container, so a factory container with many configurations does not load the class,
+ * locate the methods and create the property helpers again for every component instance.
+ *
+ * <p>
+ * If the implementation class does not match the metadata, the cause is stored in the model and
+ * every context of the container fails permanently with it.
+ *
+ * @param <C>
+ *          The type of the component implementation.
+ */
+public final class ComponentTypeModel<C> {
+
+  private static void resolveSuperInterfacesRecurse(final Class<?> currentClass,
+      final Set<String> interfaces) {
+    Class<?>[] superInterfaces = currentClass.getInterfaces();
+    for (Class<?> superInterface : superInterfaces) {
+      interfaces.add(superInterface.getName());
+      ComponentTypeModel.resolveSuperInterfacesRecurse(superInterface, interfaces);
+    }
+  }
+
+  private ActivateMethodHelper<C> activateMethodHelper;
+
+  private Class<C> componentType;
+
+  /**
+   * We need to store component type name to be able to write out meaningful log messages if wicked
+   * proxy technologies weave classes in the system and {@link #componentType}.getName() returns a
+   * meaningless name.
+   */
+  private final String componentTypeName;
+
+  private MethodInvoker deactivateMethodInvoker;
+
+  private Throwable failure;
+
+  private List<PropertyAttributeHelper<C, Object>> propertyAttributeHelpers =
+      Collections.emptyList();
+
+  private PropertyInjector<C> propertyInjector;
+
+  private final Map<String, ReferenceCallbacks> referenceCallbacks = new HashMap<>();
+
+  private final Map<String, Method> referenceSetterMethods = new HashMap<>();
+
+  private String[] serviceInterfaces;
+
+  private MethodInvoker updateMethodInvoker;
+
+  /**
+   * Constructor that loads the implementation class of the component and resolves everything that
+   * does not change between the instances of the component.
+   *
+   * @param componentMetadata
+   *          The metadata of the component.
+   * @param classLoader
+   *          The class loader of the bundle that contains the component implementation.
+   * @param incrementalReferenceBinding
+   *          Whether the add and remove callbacks of the multiple service references should be
+   *          located.
+   */
+  public ComponentTypeModel(final ComponentMetadata componentMetadata,
+      final ClassLoader classLoader, final boolean incrementalReferenceBinding) {
+    componentTypeName = componentMetadata.getType();
+    try {
+      @SuppressWarnings("unchecked")
+      Class<C> tmpComponentType = (Class<C>) classLoader.loadClass(componentTypeName);
+      componentType = tmpComponentType;
+    } catch (ClassNotFoundException e) {
+      failure = e;
+      return;
+    }
+
+    try {
+      activateMethodHelper = new ActivateMethodHelper<>(componentMetadata, componentType);
+
+      AttributeMetadata<?>[] attributes = componentMetadata.getAttributes();
+      propertyAttributeHelpers = resolvePropertyAttributeHelpers(componentMetadata, attributes);
+      propertyInjector = new PropertyInjector<>(propertyAttributeHelpers);
+      resolveReferenceSetterMethods(attributes, incrementalReferenceBinding);
+
+      serviceInterfaces = resolveServiceInterfaces(componentMetadata);
+
+      deactivateMethodInvoker =
+          resolveAnnotatedMethodInvoker("deactivate", componentMetadata.getDeactivate());
+      updateMethodInvoker =
+          resolveAnnotatedMethodInvoker("update", componentMetadata.getUpdate());
+    } catch (RuntimeException | NoClassDefFoundError e) {
+      failure = e;
+    }
+  }
+
+  public ActivateMethodHelper<C> getActivateMethodHelper() {
+    return activateMethodHelper;
+  }
+
+  public Class<C> getComponentType() {
+    return componentType;
+  }
+
+  public String getComponentTypeName() {
+    return componentTypeName;
+  }
+
+  public MethodInvoker getDeactivateMethodInvoker() {
+    return deactivateMethodInvoker;
+  }
+
+  /**
+   * The cause why the implementation class of the component cannot be used.
+   *
+   * @return The cause or <code>null</code> if the model was resolved successfully.
+   */
+  public Throwable getFailure() {
+    return failure;
+  }
+
+  public List<PropertyAttributeHelper<C, Object>> getPropertyAttributeHelpers() {
+    return propertyAttributeHelpers;
+  }
+
+  public PropertyInjector<C> getPropertyInjector() {
+    return propertyInjector;
+  }
+
+  /**
+   * Returns the callbacks of a multiple service reference that receive the changes of the
+   * reference one by one.
+   *
+   * @param referenceMetadata
+   *          The metadata of the reference.
+   * @return The callbacks or <code>null</code> if the array setter of the reference should be
+   *         called.
+   */
+  public ReferenceCallbacks getReferenceCallbacks(final ReferenceMetadata referenceMetadata) {
+    return referenceCallbacks.get(referenceMetadata.getAttributeId());
+  }
+
+  /**
+   * Returns the setter method of a reference that was located in the component type.
+   *
+   * @param referenceMetadata
+   *          The metadata of the reference.
+   * @return The setter method or <code>null</code> if the reference does not have a setter or the
+   *         setter could not be found.
+   */
+  public Method getReferenceSetterMethod(final ReferenceMetadata referenceMetadata) {
+    return referenceSetterMethods.get(referenceMetadata.getAttributeId());
+  }
+
+  /**
+   * The interfaces that the instances of the component are registered with as OSGi services.
+   *
+   * @return The shared array of the interface names that must not be modified.
+   */
+  public String[] getServiceInterfaces() {
+    return serviceInterfaces;
+  }
+
+  public MethodInvoker getUpdateMethodInvoker() {
+    return updateMethodInvoker;
+  }
+
+  private MethodInvoker resolveAnnotatedMethodInvoker(final String methodType,
+      final MethodDescriptor methodDescriptor) {
+    if (methodDescriptor == null) {
+      return null;
+    }
+    Method method = methodDescriptor.locate(componentType, false);
+    if (method == null) {
+      throw new IllegalMetadataException("Could not find " + methodType
+          + " method '" + methodDescriptor.toString()
+          + "' for type " + componentTypeName);
+    }
+    if (method.getParameterTypes().length > 0) {
+      throw new IllegalMetadataException(
+          methodType.substring(0, 1).toUpperCase(Locale.getDefault()) + methodType.substring(1)
+              + " method must not have any parameters. Method '"
+              + method.toGenericString() + "' of type " + componentTypeName + " does have.");
+    }
+    return MethodInvokerFactory.getInvoker(componentType, method);
+  }
+
+  private List<PropertyAttributeHelper<C, Object>> resolvePropertyAttributeHelpers(
+      final ComponentMetadata componentMetadata, final AttributeMetadata<?>[] attributes) {
+    List<PropertyAttributeHelper<C, Object>> result = new ArrayList<>();
+    for (AttributeMetadata<?> attributeMetadata : attributes) {
+      if (attributeMetadata instanceof PropertyAttributeMetadata) {
+        @SuppressWarnings("unchecked")
+        PropertyAttributeMetadata<Object> propertyAttributeMetadata =
+            (PropertyAttributeMetadata<Object>) attributeMetadata;
+        result.add(new PropertyAttributeHelper<>(componentType,
+            componentMetadata.getComponentId(), propertyAttributeMetadata));
+      }
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  private void resolveReferenceSetterMethods(final AttributeMetadata<?>[] attributes,
+      final boolean incrementalReferenceBinding) {
+    for (AttributeMetadata<?> attributeMetadata : attributes) {
+      if (attributeMetadata instanceof ReferenceMetadata) {
+        MethodDescriptor setterMethodDescriptor =
+            ((ReferenceMetadata) attributeMetadata).getSetter();
+        if (setterMethodDescriptor != null) {
+          Method setterMethod = setterMethodDescriptor.locate(componentType, false);
+          if (setterMethod != null) {
+            referenceSetterMethods.put(attributeMetadata.getAttributeId(), setterMethod);
+            if (incrementalReferenceBinding
+                && (attributeMetadata instanceof ServiceReferenceMetadata)) {
+              ReferenceCallbacks callbacks =
+                  ReferenceCallbacks.resolve(componentType, setterMethod);
+              if (callbacks != null) {
+                referenceCallbacks.put(attributeMetadata.getAttributeId(), callbacks);
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private String[] resolveServiceInterfaces(final ComponentMetadata componentMetadata) {
+    ServiceMetadata serviceMetadata = componentMetadata.getService();
+    if (serviceMetadata == null) {
+      return new String[0];
+    }
+
+    String[] clazzes = serviceMetadata.getClazzes();
+    if (clazzes.length > 0) {
+      return clazzes;
+    }
+
+    // Auto detect
+    Set<String> interfaces = new LinkedHashSet<>();
+    Class<?> currentClass = componentType;
+    ComponentTypeModel.resolveSuperInterfacesRecurse(currentClass, interfaces);
+    interfaces.add(componentTypeName);
+
+    return interfaces.toArray(new String[interfaces.size()]);
+  }
+}
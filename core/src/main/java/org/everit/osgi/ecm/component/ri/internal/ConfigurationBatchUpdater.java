@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.everit.osgi.ecm.component.ri.ConfigurationBatchListener;
+import org.everit.osgi.ecm.component.ri.ConfigurationBatchReport;
+import org.osgi.service.log.LogService;
+
+/**
+ * Applies a batch of configuration changes on a {@link FactoryComponentContainerImpl}
+ * concurrently. The changes of the same PID are applied one after the other in the order they
+ * were passed to the batch, while the changes of different PIDs are applied in parallel on the
+ * executor, so the component contexts of different configurations are created and opened at the
+ * same time.
+ *
+ * @param <C>
+ *          The type of the component implementation.
+ */
+public final class ConfigurationBatchUpdater<C> {
+
+  /**
+   * The update or the deletion of one factory configuration.
+   */
+  public static final class ConfigurationChange {
+
+    private final String pid;
+
+    private final Dictionary<String, ?> properties;
+
+    /**
+     * Constructor.
+     *
+     * @param pid
+     *          The PID of the configuration.
+     * @param properties
+     *          The new properties of the configuration or <code>null</code> if the configuration
+     *          is deleted.
+     */
+    public ConfigurationChange(final String pid, final Dictionary<String, ?> properties) {
+      this.pid = pid;
+      this.properties = properties;
+    }
+  }
+
+  private final Map<String, List<ConfigurationChange>> changesByPid =
+      new LinkedHashMap<String, List<ConfigurationChange>>();
+
+  private Runnable completionCallback;
+
+  private final CountDownLatch completionLatch = new CountDownLatch(1);
+
+  private final FactoryComponentContainerImpl<C> container;
+
+  private final Executor executor;
+
+  private final Map<String, Throwable> failuresByPid = new LinkedHashMap<String, Throwable>();
+
+  private final ConfigurationBatchListener listener;
+
+  private final AtomicInteger processedNum = new AtomicInteger();
+
+  private ConfigurationBatchReport report;
+
+  private long startNanos;
+
+  /**
+   * Constructor.
+   *
+   * @param container
+   *          The container that the configurations belong to.
+   * @param changes
+   *          The changes of the configurations in the order they should be applied per PID.
+   * @param executor
+   *          The executor that applies the configurations.
+   * @param listener
+   *          The listener that is notified about the progress or <code>null</code>.
+   */
+  public ConfigurationBatchUpdater(final FactoryComponentContainerImpl<C> container,
+      final Collection<ConfigurationChange> changes, final Executor executor,
+      final ConfigurationBatchListener listener) {
+    this.container = container;
+    this.executor = executor;
+    this.listener = listener;
+    for (ConfigurationChange change : changes) {
+      List<ConfigurationChange> changesOfPid = changesByPid.get(change.pid);
+      if (changesOfPid == null) {
+        changesOfPid = new ArrayList<ConfigurationChange>();
+        changesByPid.put(change.pid, changesOfPid);
+      }
+      changesOfPid.add(change);
+    }
+  }
+
+  private void apply(final String pid, final List<ConfigurationChange> changes) {
+    Throwable failure = null;
+    for (ConfigurationChange change : changes) {
+      try {
+        if (change.properties == null) {
+          container.removeConfiguration(pid);
+        } else {
+          container.applyConfiguration(pid, change.properties);
+        }
+      } catch (RuntimeException | Error e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    pidProcessed(pid, failure);
+  }
+
+  /**
+   * Waits until all configurations of the batch are applied. The batch must be started before.
+   *
+   * @return The report about the duration and the failures of the batch.
+   * @throws InterruptedException
+   *           if the current thread is interrupted while it waits for the batch.
+   */
+  public ConfigurationBatchReport await() throws InterruptedException {
+    completionLatch.await();
+    synchronized (failuresByPid) {
+      return report;
+    }
+  }
+
+  private void finish() {
+    Runnable callback;
+    synchronized (failuresByPid) {
+      report = new ConfigurationBatchReport(System.nanoTime() - startNanos, changesByPid.size(),
+          failuresByPid);
+      callback = completionCallback;
+    }
+    completionLatch.countDown();
+    if (callback != null) {
+      callback.run();
+    }
+  }
+
+  private void pidProcessed(final String pid, final Throwable failure) {
+    if (failure != null) {
+      synchronized (failuresByPid) {
+        failuresByPid.put(pid, failure);
+      }
+    }
+    int currentProcessedNum = processedNum.incrementAndGet();
+    if (listener != null) {
+      try {
+        listener.configurationProcessed(container, pid, failure, currentProcessedNum,
+            changesByPid.size());
+      } catch (RuntimeException e) {
+        container.getLogService().log(LogService.LOG_WARNING,
+            "Error in configuration batch listener", e);
+      }
+    }
+    if (currentProcessedNum == changesByPid.size()) {
+      finish();
+    }
+  }
+
+  /**
+   * Starts applying the configurations without waiting for them.
+   *
+   * @param callback
+   *          Called on the thread that applied the last configuration when the batch is completed
+   *          or <code>null</code>.
+   */
+  public void start(final Runnable callback) {
+    synchronized (failuresByPid) {
+      this.completionCallback = callback;
+      this.startNanos = System.nanoTime();
+    }
+    if (changesByPid.isEmpty()) {
+      finish();
+      return;
+    }
+    for (final Map.Entry<String, List<ConfigurationChange>> entry : changesByPid.entrySet()) {
+      Runnable task = new Runnable() {
+
+        @Override
+        public void run() {
+          apply(entry.getKey(), entry.getValue());
+        }
+      };
+      try {
+        executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        task.run();
+      }
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.everit.osgi.ecm.component.ri.ConfigurationBatchListener;
+import org.everit.osgi.ecm.component.ri.internal.ConfigurationBatchUpdater.ConfigurationChange;
+import org.osgi.service.cm.ManagedServiceFactory;
+
+/**
+ * {@link ManagedServiceFactory} adapter of a {@link FactoryComponentContainerImpl} that collects
+ * the configuration changes that Configuration Admin delivers one by one and applies them in
+ * batches via {@link ConfigurationBatchUpdater}. The calls of Configuration Admin return
+ * immediately. While a batch is applied, the new changes are queued and they are applied in the
+ * next batch, so the changes of the same PID are always applied in the order they were delivered.
+ *
+ * @param <C>
+ *          The type of the component implementation.
+ */
+public final class ConfigurationBatcher<C> implements ManagedServiceFactory {
+
+  private boolean batchInProgress = false;
+
+  private boolean closed = false;
+
+  private final FactoryComponentContainerImpl<C> container;
+
+  private final Executor executor;
+
+  private final ConfigurationBatchListener listener;
+
+  private final Object mutex = new Object();
+
+  private List<ConfigurationChange> pendingChanges = new ArrayList<ConfigurationChange>();
+
+  /**
+   * Constructor.
+   *
+   * @param container
+   *          The container that applies the configurations.
+   * @param executor
+   *          The executor that applies the batches.
+   * @param listener
+   *          The listener that is notified about the progress of the batches or
+   *          <code>null</code>.
+   */
+  public ConfigurationBatcher(final FactoryComponentContainerImpl<C> container,
+      final Executor executor, final ConfigurationBatchListener listener) {
+    this.container = container;
+    this.executor = executor;
+    this.listener = listener;
+  }
+
+  private void batchCompleted() {
+    List<ConfigurationChange> nextBatch;
+    synchronized (mutex) {
+      if (closed || pendingChanges.isEmpty()) {
+        batchInProgress = false;
+        mutex.notifyAll();
+        return;
+      }
+      nextBatch = pendingChanges;
+      pendingChanges = new ArrayList<ConfigurationChange>();
+    }
+    startBatch(nextBatch);
+  }
+
+  /**
+   * Drops the changes that are not applied yet and waits until the batch that is in progress is
+   * completed. Changes that arrive after closing are ignored.
+   */
+  public void close() {
+    synchronized (mutex) {
+      closed = true;
+      pendingChanges.clear();
+      while (batchInProgress) {
+        try {
+          mutex.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void deleted(final String pid) {
+    enqueue(new ConfigurationChange(pid, null));
+  }
+
+  private void enqueue(final ConfigurationChange change) {
+    List<ConfigurationChange> batch = null;
+    synchronized (mutex) {
+      if (closed) {
+        return;
+      }
+      pendingChanges.add(change);
+      if (!batchInProgress) {
+        batchInProgress = true;
+        batch = pendingChanges;
+        pendingChanges = new ArrayList<ConfigurationChange>();
+      }
+    }
+    if (batch != null) {
+      startBatch(batch);
+    }
+  }
+
+  @Override
+  public String getName() {
+    return container.getName();
+  }
+
+  private void startBatch(final List<ConfigurationChange> batch) {
+    new ConfigurationBatchUpdater<C>(container, batch, executor, listener).start(new Runnable() {
+
+      @Override
+      public void run() {
+        batchCompleted();
+      }
+    });
+  }
+
+  @Override
+  public void updated(final String pid, final Dictionary<String, ?> properties) {
+    enqueue(new ConfigurationChange(pid, properties));
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.Generated;
+
+import org.everit.osgi.ecm.metadata.AttributeMetadata;
+
+/**
+ * The difference of two resolved configurations of a component. The values of the attributes are
+ * compared only once during a configuration update and the result is used by every phase of the
+ * update.
+ */
+final class ConfigurationDiff {
+
+  /**
+   * Creates an index of the attributes of a component that can be passed to the constructor of
+   * {@link ConfigurationDiff}.
+   *
+   * @param attributes
+   *          The attributes of the component.
+   * @return The position of each attribute in the array by the id of the attribute.
+   */
+  static Map<String, Integer> indexAttributes(final AttributeMetadata<?>[] attributes) {
+    Map<String, Integer> result = new HashMap<>();
+    for (int i = 0; i < attributes.length; i++) {
+      result.put(attributes[i].getAttributeId(), i);
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  /**
+   * Checks whether a configuration that arrived from Configuration Admin is the same as the one the
+   * current properties of the component were resolved from. The check does not create any copy of
+   * the configuration.
+   *
+   * @param configuration
+   *          The configuration that the current properties were resolved from.
+   * @param properties
+   *          The new configuration or <code>null</code> if there is no configuration.
+   * @return <code>true</code> if the two configurations contain the same values.
+   */
+  static boolean isSameConfiguration(final Map<String, Object> configuration,
+      final Dictionary<String, ?> properties) {
+
+    if (properties == null) {
+      return configuration.isEmpty();
+    }
+    if (properties.size() != configuration.size()) {
+      return false;
+    }
+    Enumeration<String> keys = properties.keys();
+    while (keys.hasMoreElements()) {
+      String key = keys.nextElement();
+      Object oldValue = configuration.get(key);
+      if ((oldValue == null) || !valueEquals(oldValue, properties.get(key))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Generated("eclipse")
+  private static boolean valueEquals(final Object oldValue, final Object newValue) {
+    if (((oldValue == null) && (newValue != null)) || ((oldValue != null) && (newValue == null))) {
+      return false;
+    }
+    if ((oldValue != null) && !oldValue.equals(newValue)) {
+
+      Class<? extends Object> oldValueClass = oldValue.getClass();
+      Class<? extends Object> newValueClass = newValue.getClass();
+      if (!oldValueClass.equals(newValueClass) || !oldValueClass.isArray()) {
+        return false;
+      }
+
+      boolean equals;
+      if (oldValueClass.equals(boolean[].class)) {
+        equals = Arrays.equals((boolean[]) oldValue, (boolean[]) newValue);
+      } else if (oldValueClass.equals(byte[].class)) {
+        equals = Arrays.equals((byte[]) oldValue, (byte[]) newValue);
+      } else if (oldValueClass.equals(char[].class)) {
+        equals = Arrays.equals((char[]) oldValue, (char[]) newValue);
+      } else if (oldValueClass.equals(double[].class)) {
+        equals = Arrays.equals((double[]) oldValue, (double[]) newValue);
+      } else if (oldValueClass.equals(float[].class)) {
+        equals = Arrays.equals((float[]) oldValue, (float[]) newValue);
+      } else if (oldValueClass.equals(int[].class)) {
+        equals = Arrays.equals((int[]) oldValue, (int[]) newValue);
+      } else if (oldValueClass.equals(long[].class)) {
+        equals = Arrays.equals((long[]) oldValue, (long[]) newValue);
+      } else if (oldValueClass.equals(short[].class)) {
+        equals = Arrays.equals((short[]) oldValue, (short[]) newValue);
+      } else {
+        equals = Arrays.equals((Object[]) oldValue, (Object[]) newValue);
+      }
+
+      if (!equals) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private final Map<String, Integer> attributeIndexes;
+
+  private final BitSet changedAttributes;
+
+  private final boolean nonAttributePropertyChanged;
+
+  private final boolean nonDynamicAttributeChanged;
+
+  /**
+   * Compares the old and new properties of a component.
+   *
+   * @param attributes
+   *          The attributes of the component.
+   * @param attributeIndexes
+   *          The index of the attributes that was created by {@link #indexAttributes(
+   *          AttributeMetadata[])}.
+   * @param oldProperties
+   *          The current properties of the component.
+   * @param newProperties
+   *          The properties that were resolved from the new configuration.
+   */
+  ConfigurationDiff(final AttributeMetadata<?>[] attributes,
+      final Map<String, Integer> attributeIndexes, final Map<String, Object> oldProperties,
+      final Map<String, Object> newProperties) {
+
+    this.attributeIndexes = attributeIndexes;
+    this.changedAttributes = new BitSet(attributes.length);
+
+    boolean tmpNonDynamicAttributeChanged = false;
+    for (int i = 0; i < attributes.length; i++) {
+      AttributeMetadata<?> attributeMetadata = attributes[i];
+      String attributeId = attributeMetadata.getAttributeId();
+      if (!valueEquals(oldProperties.get(attributeId), newProperties.get(attributeId))) {
+        changedAttributes.set(i);
+        if (!attributeMetadata.isDynamic()) {
+          tmpNonDynamicAttributeChanged = true;
+        }
+      }
+    }
+    this.nonDynamicAttributeChanged = tmpNonDynamicAttributeChanged;
+    this.nonAttributePropertyChanged =
+        isNonAttributePropertyChanged(oldProperties, newProperties);
+  }
+
+  /**
+   * Checks whether the value of an attribute is different in the new properties.
+   *
+   * @param attributeId
+   *          The id of the attribute.
+   * @return <code>true</code> if the value of the attribute changed.
+   */
+  boolean isAttributeChanged(final String attributeId) {
+    Integer index = attributeIndexes.get(attributeId);
+    return (index != null) && changedAttributes.get(index);
+  }
+
+  /**
+   * Checks whether any of the properties changed, including the ones that do not belong to any
+   * attribute of the component.
+   *
+   * @return <code>true</code> if the new properties are not the same as the old ones.
+   */
+  boolean isChanged() {
+    return nonAttributePropertyChanged || !changedAttributes.isEmpty();
+  }
+
+  private boolean isNonAttributePropertyChanged(final Map<String, Object> oldProperties,
+      final Map<String, Object> newProperties) {
+
+    if (oldProperties.size() != newProperties.size()) {
+      return true;
+    }
+    for (Entry<String, Object> entry : newProperties.entrySet()) {
+      String key = entry.getKey();
+      if (!attributeIndexes.containsKey(key)
+          && (!oldProperties.containsKey(key) || !valueEquals(oldProperties.get(key),
+              entry.getValue()))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether an attribute changed that cannot be applied without restarting the component.
+   *
+   * @return <code>true</code> if the value of at least one non-dynamic attribute changed.
+   */
+  boolean isNonDynamicAttributeChanged() {
+    return nonDynamicAttributeChanged;
+  }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.everit.osgi.ecm.component.ri.BatchOpenReport;
+import org.everit.osgi.ecm.component.ri.ComponentContainerInstance;
+import org.everit.osgi.ecm.metadata.AttributeMetadata;
+import org.everit.osgi.ecm.metadata.ComponentMetadata;
+import org.everit.osgi.ecm.metadata.ServiceMetadata;
+import org.everit.osgi.ecm.metadata.ServiceReferenceMetadata;
+import org.osgi.framework.wiring.BundleWiring;
+
+/**
+ * Opens multiple {@link ComponentContainerInstance}s concurrently. Containers that provide a
+ * service interface that another container of the batch references are opened before the
+ * referencing container, so the references of the latter are satisfied already when it is opened
+ * and it does not have to go through an unsatisfied - satisfied transition. Containers that
+ * reference each other (directly or via other containers) are opened at the same time.
+ *
+ * <p>
+ * The provided service interfaces are resolved concurrently before the containers are opened. If
+ * the service interfaces are not specified in the metadata, the component class is loaded to
+ * detect them, the same way as the component does when it registers its service.
+ */
+public final class ContainerBatchOpener {
+
+  /**
+   * A container within the dependency graph of the batch.
+   */
+  private static final class ContainerNode {
+
+    private final ComponentContainerInstance<?> container;
+
+    private final List<ContainerNode> dependencies = new ArrayList<ContainerNode>();
+
+    private OpenGroup group;
+
+    private final int index;
+
+    private int lowLink;
+
+    private boolean onStack = false;
+
+    private Set<String> providedInterfaces = Collections.emptySet();
+
+    private int visitIndex = -1;
+
+    ContainerNode(final ComponentContainerInstance<?> container, final int index) {
+      this.container = container;
+      this.index = index;
+    }
+  }
+
+  /**
+   * Containers that depend on each other circularly and are opened at the same time.
+   */
+  private static final class OpenGroup {
+
+    private final Set<OpenGroup> dependents = new LinkedHashSet<OpenGroup>();
+
+    private final List<ContainerNode> members = new ArrayList<ContainerNode>();
+
+    private int pendingDependencyNum = 0;
+
+    private int pendingMemberNum = 0;
+  }
+
+  /**
+   * Creates the executor that is used if no executor is specified for the batch. The executor
+   * uses virtual threads if they are available in the current JVM, otherwise it has as many daemon
+   * threads as many processors are available.
+   *
+   * @return The executor that should be shut down after the batch is processed.
+   */
+  public static ExecutorService createDefaultExecutor() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+      return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+          DaemonExecutors.createThreadFactory("ECM-BatchOpen-"));
+    }
+  }
+
+  private static void resolveSuperInterfacesRecurse(final Class<?> currentClass,
+      final Set<String> interfaces) {
+    Class<?>[] superInterfaces = currentClass.getInterfaces();
+    for (Class<?> superInterface : superInterfaces) {
+      interfaces.add(superInterface.getName());
+      ContainerBatchOpener.resolveSuperInterfacesRecurse(superInterface, interfaces);
+    }
+  }
+
+  private final CountDownLatch completionLatch;
+
+  private final Executor executor;
+
+  private final Throwable[] failures;
+
+  private final Object mutex = new Object();
+
+  private final List<ContainerNode> nodes;
+
+  private final long[] openNanos;
+
+  private int visitCounter = 0;
+
+  private final Deque<ContainerNode> visitStack = new ArrayDeque<ContainerNode>();
+
+  /**
+   * Constructor.
+   *
+   * @param containers
+   *          The containers that should be opened.
+   * @param executor
+   *          The executor that opens the containers.
+   */
+  public ContainerBatchOpener(final Collection<? extends ComponentContainerInstance<?>> containers,
+      final Executor executor) {
+    this.executor = executor;
+    this.nodes = new ArrayList<ContainerNode>(containers.size());
+    for (ComponentContainerInstance<?> container : containers) {
+      nodes.add(new ContainerNode(container, nodes.size()));
+    }
+    this.completionLatch = new CountDownLatch(nodes.size());
+    this.failures = new Throwable[nodes.size()];
+    this.openNanos = new long[nodes.size()];
+  }
+
+  private void createGroups() {
+    for (ContainerNode node : nodes) {
+      if (node.visitIndex < 0) {
+        strongConnect(node);
+      }
+    }
+
+    for (ContainerNode node : nodes) {
+      for (ContainerNode dependency : node.dependencies) {
+        if ((dependency.group != node.group) && dependency.group.dependents.add(node.group)) {
+          node.group.pendingDependencyNum++;
+        }
+      }
+    }
+  }
+
+  private void nodeFinished(final ContainerNode node) {
+    List<OpenGroup> releasedGroups = new ArrayList<OpenGroup>();
+    synchronized (mutex) {
+      OpenGroup group = node.group;
+      group.pendingMemberNum--;
+      if (group.pendingMemberNum == 0) {
+        for (OpenGroup dependent : group.dependents) {
+          dependent.pendingDependencyNum--;
+          if (dependent.pendingDependencyNum == 0) {
+            releasedGroups.add(dependent);
+          }
+        }
+      }
+    }
+    completionLatch.countDown();
+    for (OpenGroup releasedGroup : releasedGroups) {
+      submitGroup(releasedGroup);
+    }
+  }
+
+  private void open(final ContainerNode node) {
+    long startTime = System.nanoTime();
+    try {
+      node.container.open();
+    } catch (RuntimeException | Error e) {
+      failures[node.index] = e;
+    } finally {
+      openNanos[node.index] = System.nanoTime() - startTime;
+    }
+    nodeFinished(node);
+  }
+
+  /**
+   * Opens all containers and waits until every {@link ComponentContainerInstance#open()} call
+   * returns.
+   *
+   * @return The report about the duration and the failures of the open calls.
+   * @throws InterruptedException
+   *           if the current thread is interrupted while it waits for the containers.
+   */
+  public BatchOpenReport openAll() throws InterruptedException {
+    long startTime = System.nanoTime();
+
+    resolveProvidedInterfaces();
+    resolveDependencies();
+    createGroups();
+
+    List<OpenGroup> independentGroups = new ArrayList<OpenGroup>();
+    for (ContainerNode node : nodes) {
+      OpenGroup group = node.group;
+      if ((group.pendingDependencyNum == 0) && (group.members.get(0) == node)) {
+        independentGroups.add(group);
+      }
+    }
+    for (OpenGroup group : independentGroups) {
+      submitGroup(group);
+    }
+
+    completionLatch.await();
+
+    Map<ComponentContainerInstance<?>, Long> openNanosByContainer =
+        new LinkedHashMap<ComponentContainerInstance<?>, Long>();
+    Map<ComponentContainerInstance<?>, Throwable> failuresByContainer =
+        new LinkedHashMap<ComponentContainerInstance<?>, Throwable>();
+    for (ContainerNode node : nodes) {
+      openNanosByContainer.put(node.container, openNanos[node.index]);
+      if (failures[node.index] != null) {
+        failuresByContainer.put(node.container, failures[node.index]);
+      }
+    }
+    return new BatchOpenReport(System.nanoTime() - startTime, openNanosByContainer,
+        failuresByContainer);
+  }
+
+  private void resolveDependencies() {
+    Map<String, List<ContainerNode>> providersByInterface =
+        new HashMap<String, List<ContainerNode>>();
+    for (ContainerNode node : nodes) {
+      for (String providedInterface : node.providedInterfaces) {
+        List<ContainerNode> providers = providersByInterface.get(providedInterface);
+        if (providers == null) {
+          providers = new ArrayList<ContainerNode>();
+          providersByInterface.put(providedInterface, providers);
+        }
+        providers.add(node);
+      }
+    }
+
+    for (ContainerNode node : nodes) {
+      Set<ContainerNode> dependencies = new LinkedHashSet<ContainerNode>();
+      AttributeMetadata<?>[] attributes = node.container.getComponentMetadata().getAttributes();
+      for (AttributeMetadata<?> attribute : attributes) {
+        if (attribute instanceof ServiceReferenceMetadata) {
+          String serviceInterface = ((ServiceReferenceMetadata) attribute).getServiceInterface();
+          List<ContainerNode> providers = providersByInterface.get(serviceInterface);
+          if (providers != null) {
+            dependencies.addAll(providers);
+          }
+        }
+      }
+      dependencies.remove(node);
+      node.dependencies.addAll(dependencies);
+    }
+  }
+
+  private void resolveProvidedInterfaces() throws InterruptedException {
+    final CountDownLatch resolvingLatch = new CountDownLatch(nodes.size());
+    for (final ContainerNode node : nodes) {
+      Runnable resolvingTask = new Runnable() {
+
+        @Override
+        public void run() {
+          try {
+            node.providedInterfaces = resolveProvidedInterfaces(node.container);
+          } finally {
+            resolvingLatch.countDown();
+          }
+        }
+      };
+      try {
+        executor.execute(resolvingTask);
+      } catch (RejectedExecutionException e) {
+        resolvingTask.run();
+      }
+    }
+    resolvingLatch.await();
+  }
+
+  private Set<String> resolveProvidedInterfaces(final ComponentContainerInstance<?> container) {
+    ComponentMetadata componentMetadata = container.getComponentMetadata();
+    ServiceMetadata serviceMetadata = componentMetadata.getService();
+    if (serviceMetadata == null) {
+      return Collections.emptySet();
+    }
+
+    String[] clazzes = serviceMetadata.getClazzes();
+    if (clazzes.length > 0) {
+      return new HashSet<String>(Arrays.asList(clazzes));
+    }
+
+    Set<String> interfaces = new HashSet<String>();
+    interfaces.add(componentMetadata.getType());
+    try {
+      BundleWiring bundleWiring = container.getBundleContext().getBundle()
+          .adapt(BundleWiring.class);
+      if (bundleWiring != null) {
+        Class<?> componentType = bundleWiring.getClassLoader().loadClass(
+            componentMetadata.getType());
+        ContainerBatchOpener.resolveSuperInterfacesRecurse(componentType, interfaces);
+      }
+    } catch (ClassNotFoundException | RuntimeException | LinkageError e) {
+      // The container will fail with the same error when it is opened
+      return interfaces;
+    }
+    return interfaces;
+  }
+
+  private void strongConnect(final ContainerNode node) {
+    node.visitIndex = visitCounter;
+    node.lowLink = visitCounter;
+    visitCounter++;
+    visitStack.push(node);
+    node.onStack = true;
+
+    for (ContainerNode dependency : node.dependencies) {
+      if (dependency.visitIndex < 0) {
+        strongConnect(dependency);
+        node.lowLink = Math.min(node.lowLink, dependency.lowLink);
+      } else if (dependency.onStack) {
+        node.lowLink = Math.min(node.lowLink, dependency.visitIndex);
+      }
+    }
+
+    if (node.lowLink == node.visitIndex) {
+      OpenGroup group = new OpenGroup();
+      ContainerNode member;
+      do {
+        member = visitStack.pop();
+        member.onStack = false;
+        member.group = group;
+        group.members.add(member);
+      } while (member != node);
+      group.pendingMemberNum = group.members.size();
+    }
+  }
+
+  private void submitGroup(final OpenGroup group) {
+    for (final ContainerNode node : group.members) {
+      try {
+        executor.execute(new Runnable() {
+
+          @Override
+          public void run() {
+            open(node);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        failures[node.index] = e;
+        nodeFinished(node);
+      }
+    }
+  }
+}
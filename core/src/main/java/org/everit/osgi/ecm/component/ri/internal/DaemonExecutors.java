@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors that the containers use in the background. The threads of the executors
+ * are created lazily, they are daemon threads and they stop after they have been idle for a while,
+ * so the executors do not have to be shut down.
+ */
+public final class DaemonExecutors {
+
+  private static final long KEEP_ALIVE_SECONDS = 10;
+
+  /**
+   * Creates an executor with an unbounded queue whose threads stop after they have been idle for a
+   * while.
+   *
+   * @param threadNum
+   *          The maximum number of threads of the executor.
+   * @param threadNamePrefix
+   *          The prefix of the names of the threads.
+   * @return The executor.
+   */
+  public static ThreadPoolExecutor createExecutor(final int threadNum,
+      final String threadNamePrefix) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threadNum, threadNum, KEEP_ALIVE_SECONDS,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        createThreadFactory(threadNamePrefix));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Creates a scheduled executor whose threads stop after they have been idle for a while. The
+   * cancelled tasks are removed from the queue of the executor immediately.
+   *
+   * @param threadNum
+   *          The maximum number of threads of the executor.
+   * @param threadNamePrefix
+   *          The prefix of the names of the threads.
+   * @return The executor.
+   */
+  public static ScheduledThreadPoolExecutor createScheduledExecutor(final int threadNum,
+      final String threadNamePrefix) {
+    ScheduledThreadPoolExecutor executor =
+        new ScheduledThreadPoolExecutor(threadNum, createThreadFactory(threadNamePrefix));
+    executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+    executor.allowCoreThreadTimeOut(true);
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
+  }
+
+  /**
+   * Creates a thread factory that creates daemon threads.
+   *
+   * @param threadNamePrefix
+   *          The prefix of the names of the threads. The names end with the sequence number of
+   *          the thread.
+   * @return The thread factory.
+   */
+  public static ThreadFactory createThreadFactory(final String threadNamePrefix) {
+    final AtomicInteger threadCounter = new AtomicInteger();
+    return new ThreadFactory() {
+
+      @Override
+      public Thread newThread(final Runnable runnable) {
+        Thread thread = new Thread(runnable, threadNamePrefix + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  private DaemonExecutors() {
+  }
+}
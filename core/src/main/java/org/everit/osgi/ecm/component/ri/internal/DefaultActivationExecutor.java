@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The executor that activates the components asynchronously if no executor is specified in the
+ * options of the container. The threads of the executor are created lazily, they are daemon
+ * threads and they stop after they have been idle for a while.
+ */
+public final class DefaultActivationExecutor {
+
+  /**
+   * Lazy holder of the executor.
+   */
+  private static final class ExecutorHolder {
+
+    private static final Executor EXECUTOR = DaemonExecutors.createExecutor(
+        Runtime.getRuntime().availableProcessors(), "ECM-ComponentActivator-");
+
+    private ExecutorHolder() {
+    }
+  }
+
+  public static Executor getInstance() {
+    return ExecutorHolder.EXECUTOR;
+  }
+
+  private DefaultActivationExecutor() {
+  }
+}
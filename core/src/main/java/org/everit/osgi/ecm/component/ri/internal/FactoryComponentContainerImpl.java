@@ -15,6 +15,7 @@
  */
 package org.everit.osgi.ecm.component.ri.internal;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Dictionary;
 import java.util.Hashtable;
@@ -24,9 +25,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 import org.everit.osgi.ecm.component.resource.ComponentContainer;
+import org.everit.osgi.ecm.component.ri.ComponentContainerOptions;
+import org.everit.osgi.ecm.component.ri.ConfigurationBatchListener;
+import org.everit.osgi.ecm.component.ri.ConfigurationBatchReport;
+import org.everit.osgi.ecm.component.ri.internal.ConfigurationBatchUpdater.ConfigurationChange;
 import org.everit.osgi.ecm.component.ri.internal.resource.ComponentRevisionImpl;
+import org.everit.osgi.ecm.component.ri.internal.resource.ServiceCapabilityCache;
 import org.everit.osgi.ecm.metadata.ComponentMetadata;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -48,13 +55,72 @@ public class FactoryComponentContainerImpl<C> extends AbstractComponentContainer
   private final Map<String, ComponentContextImpl<C>> components =
       new ConcurrentHashMap<String, ComponentContextImpl<C>>();
 
+  /**
+   * Queues the configurations that Configuration Admin delivers if configuration batching is
+   * turned on, otherwise <code>null</code>.
+   */
+  private final ConfigurationBatcher<C> configurationBatcher;
+
+  /**
+   * Constructor.
+   *
+   * @param componentMetadata
+   *          The metadata information of the components that should be managed by this container.
+   * @param bundleContext
+   *          The context of the bundle that implemented the component.
+   * @param logService
+   *          The logger to send info about events to.
+   * @param options
+   *          The options that change the default behavior of the container.
+   * @param capabilityCache
+   *          The cache of the capabilities of OSGi services that is shared between the containers
+   *          of the same factory.
+   */
   public FactoryComponentContainerImpl(final ComponentMetadata componentMetadata,
-      final BundleContext bundleContext, final LogService logService) {
-    super(componentMetadata, bundleContext, logService);
+      final BundleContext bundleContext, final LogService logService,
+      final ComponentContainerOptions options, final ServiceCapabilityCache capabilityCache) {
+    super(componentMetadata, bundleContext, logService, options, capabilityCache);
+    if (options.isConfigurationBatching()) {
+      Executor batchExecutor = options.getConfigurationBatchExecutor();
+      if (batchExecutor == null) {
+        batchExecutor = DefaultActivationExecutor.getInstance();
+      }
+      this.configurationBatcher = new ConfigurationBatcher<C>(this, batchExecutor,
+          options.getConfigurationBatchListener());
+    } else {
+      this.configurationBatcher = null;
+    }
+  }
+
+  /**
+   * Creates and opens a component instance for a configuration or updates the configuration of an
+   * existing instance. The method must not be called concurrently for the same PID.
+   *
+   * @param pid
+   *          The PID of the configuration.
+   * @param properties
+   *          The properties of the configuration.
+   */
+  void applyConfiguration(final String pid, final Dictionary<String, ?> properties) {
+    @SuppressWarnings("unchecked")
+    Dictionary<String, Object> props = (Dictionary<String, Object>) properties;
+
+    ComponentContextImpl<?> componentContextImpl = components.get(pid);
+    if (componentContextImpl != null) {
+      componentContextImpl.updateConfiguration(properties);
+    } else {
+      ComponentContextImpl<C> newComponent = new ComponentContextImpl<C>(this, getBundleContext(),
+          props, getLogService());
+      components.put(pid, newComponent);
+      newComponent.open();
+    }
   }
 
   @Override
   public void close() {
+    if (configurationBatcher != null) {
+      configurationBatcher.close();
+    }
     Iterator<Entry<String, ComponentContextImpl<C>>> iterator = components.entrySet().iterator();
     while (iterator.hasNext()) {
       Map.Entry<java.lang.String, ComponentContextImpl<C>> entry = iterator
@@ -70,10 +136,10 @@ public class FactoryComponentContainerImpl<C> extends AbstractComponentContainer
 
   @Override
   public void deleted(final String pid) {
-    ComponentContextImpl<?> component = components.get(pid);
-    if (component != null) {
-      component.close();
-      components.remove(pid);
+    if (configurationBatcher != null) {
+      configurationBatcher.deleted(pid);
+    } else {
+      removeConfiguration(pid);
     }
   }
 
@@ -118,20 +184,63 @@ public class FactoryComponentContainerImpl<C> extends AbstractComponentContainer
     registerContainerService(properties, serviceInterfaces);
   }
 
+  /**
+   * Closes and removes the component instance of a configuration. The method must not be called
+   * concurrently for the same PID.
+   *
+   * @param pid
+   *          The PID of the deleted configuration.
+   */
+  void removeConfiguration(final String pid) {
+    ComponentContextImpl<?> component = components.get(pid);
+    if (component != null) {
+      component.close();
+      components.remove(pid);
+    }
+  }
+
+  /**
+   * Applies multiple configurations concurrently and waits until all of them are applied. The
+   * component instances of different PIDs are created, opened or updated in parallel on the
+   * executor. The configurations must not be updated or deleted via
+   * {@link #updated(String, Dictionary)} or {@link #deleted(String)} while the batch is in
+   * progress.
+   *
+   * @param configurations
+   *          The properties of the configurations by their PIDs.
+   * @param executor
+   *          The executor that applies the configurations.
+   * @param listener
+   *          The listener that is notified about the progress of the batch or <code>null</code>.
+   * @return The report about the duration and the failures of the batch.
+   * @throws InterruptedException
+   *           if the current thread is interrupted while it waits for the configurations.
+   */
+  public ConfigurationBatchReport updateAll(
+      final Map<String, ? extends Dictionary<String, ?>> configurations,
+      final Executor executor, final ConfigurationBatchListener listener)
+      throws InterruptedException {
+    List<ConfigurationChange> changes = new ArrayList<ConfigurationChange>(configurations.size());
+    for (Map.Entry<String, ? extends Dictionary<String, ?>> entry : configurations.entrySet()) {
+      if (entry.getValue() == null) {
+        throw new IllegalArgumentException(
+            "Properties of configuration must not be null: " + entry.getKey());
+      }
+      changes.add(new ConfigurationChange(entry.getKey(), entry.getValue()));
+    }
+    ConfigurationBatchUpdater<C> updater =
+        new ConfigurationBatchUpdater<C>(this, changes, executor, listener);
+    updater.start(null);
+    return updater.await();
+  }
+
   @Override
   public void updated(final String pid, final Dictionary<String, ?> properties)
       throws ConfigurationException {
-    @SuppressWarnings("unchecked")
-    Dictionary<String, Object> props = (Dictionary<String, Object>) properties;
-
-    ComponentContextImpl<?> componentContextImpl = components.get(pid);
-    if (componentContextImpl != null) {
-      componentContextImpl.updateConfiguration(properties);
+    if (configurationBatcher != null) {
+      configurationBatcher.updated(pid, properties);
     } else {
-      ComponentContextImpl<C> newComponent = new ComponentContextImpl<C>(this, getBundleContext(),
-          props, getLogService());
-      components.put(pid, newComponent);
-      newComponent.open();
+      applyConfiguration(pid, properties);
     }
   }
 }
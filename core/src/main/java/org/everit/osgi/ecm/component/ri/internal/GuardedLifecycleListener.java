@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal;
+
+import org.everit.osgi.ecm.component.resource.ComponentContainer;
+import org.everit.osgi.ecm.component.resource.ComponentState;
+import org.everit.osgi.ecm.component.ri.ComponentLifecycleListener;
+import org.everit.osgi.ecm.component.ri.ComponentLifecyclePhase;
+import org.osgi.service.log.LogService;
+
+/**
+ * Wrapper of a {@link ComponentLifecycleListener} that logs the exceptions of the wrapped listener
+ * instead of letting them break the lifecycle of the component.
+ */
+final class GuardedLifecycleListener implements ComponentLifecycleListener {
+
+  private final ComponentLifecycleListener delegate;
+
+  private final LogService logService;
+
+  GuardedLifecycleListener(final ComponentLifecycleListener delegate,
+      final LogService logService) {
+    this.delegate = delegate;
+    this.logService = logService;
+  }
+
+  @Override
+  public void componentFailed(final ComponentContainer<?> container, final Throwable cause,
+      final boolean permanent) {
+    try {
+      delegate.componentFailed(container, cause, permanent);
+    } catch (RuntimeException e) {
+      logService.log(LogService.LOG_WARNING, "Error in component lifecycle listener", e);
+    }
+  }
+
+  @Override
+  public boolean isEnabled() {
+    try {
+      return delegate.isEnabled();
+    } catch (RuntimeException e) {
+      logService.log(LogService.LOG_WARNING, "Error in component lifecycle listener", e);
+      return false;
+    }
+  }
+
+  @Override
+  public void phaseCompleted(final ComponentContainer<?> container,
+      final ComponentLifecyclePhase phase, final String attributeId, final long durationNanos) {
+    try {
+      delegate.phaseCompleted(container, phase, attributeId, durationNanos);
+    } catch (RuntimeException e) {
+      logService.log(LogService.LOG_WARNING, "Error in component lifecycle listener", e);
+    }
+  }
+
+  @Override
+  public void referenceSatisfactionChanged(final ComponentContainer<?> container,
+      final String referenceId, final boolean satisfied) {
+    try {
+      delegate.referenceSatisfactionChanged(container, referenceId, satisfied);
+    } catch (RuntimeException e) {
+      logService.log(LogService.LOG_WARNING, "Error in component lifecycle listener", e);
+    }
+  }
+
+  @Override
+  public void stateChanged(final ComponentContainer<?> container, final ComponentState oldState,
+      final ComponentState newState) {
+    try {
+      if (delegate.isEnabled()) {
+        delegate.stateChanged(container, oldState, newState);
+      }
+    } catch (RuntimeException e) {
+      logService.log(LogService.LOG_WARNING, "Error in component lifecycle listener", e);
+    }
+  }
+}
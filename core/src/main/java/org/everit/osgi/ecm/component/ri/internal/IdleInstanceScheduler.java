@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * The scheduler that deactivates the instances of components that have not been used for a while:
+ * lazily activated components and the idle instances of instance pools. The thread of the
+ * scheduler is created lazily, it is a daemon thread and it stops after it has been idle for a
+ * while.
+ */
+public final class IdleInstanceScheduler {
+
+  /**
+   * Lazy holder of the scheduler.
+   */
+  private static final class SchedulerHolder {
+
+    private static final ScheduledExecutorService SCHEDULER =
+        DaemonExecutors.createScheduledExecutor(1, "ECM-IdleComponentDeactivator-");
+
+    private SchedulerHolder() {
+    }
+  }
+
+  public static ScheduledExecutorService getInstance() {
+    return SchedulerHolder.SCHEDULER;
+  }
+
+  private IdleInstanceScheduler() {
+  }
+}
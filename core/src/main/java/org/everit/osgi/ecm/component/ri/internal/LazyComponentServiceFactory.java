@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * The service factory that is registered instead of the component instance if lazy activation is
+ * turned on. The component is instantiated and activated when the first bundle gets the service
+ * and it is deactivated when no bundle has used the service for the idle timeout.
+ *
+ * <p>
+ * The fields of the factory are guarded by the write lock of the component context.
+ *
+ * @param <C>
+ *          The type of the component implementation.
+ */
+class LazyComponentServiceFactory<C> implements ServiceFactory<Object> {
+
+  private final ComponentContextImpl<C> componentContext;
+
+  /**
+   * Incremented every time an idle deactivation is scheduled or cancelled, so a deactivation task
+   * can recognize that it became obsolete.
+   */
+  private long idleDeactivationGeneration = 0;
+
+  private final long idleTimeoutNanos;
+
+  private ScheduledFuture<?> scheduledIdleDeactivation = null;
+
+  /**
+   * The number of bundles that got the service of the component.
+   */
+  private int useCount = 0;
+
+  LazyComponentServiceFactory(final ComponentContextImpl<C> componentContext,
+      final long idleTimeoutNanos) {
+    this.componentContext = componentContext;
+    this.idleTimeoutNanos = idleTimeoutNanos;
+  }
+
+  void cancelIdleDeactivation() {
+    idleDeactivationGeneration++;
+    if (scheduledIdleDeactivation != null) {
+      scheduledIdleDeactivation.cancel(false);
+      scheduledIdleDeactivation = null;
+    }
+  }
+
+  @Override
+  public Object getService(final Bundle bundle, final ServiceRegistration<Object> registration) {
+    return componentContext.getLazyServiceInstance();
+  }
+
+  /**
+   * Whether a deactivation task is still valid or the service was got or the component was
+   * stopped since the task was scheduled.
+   *
+   * @param generation
+   *          The generation that the task was scheduled with.
+   * @return <code>true</code> if the component should be deactivated.
+   */
+  boolean isIdleDeactivationValid(final long generation) {
+    return (generation == idleDeactivationGeneration) && (useCount == 0);
+  }
+
+  /**
+   * Resets the factory when the component is stopped.
+   */
+  void reset() {
+    cancelIdleDeactivation();
+    useCount = 0;
+  }
+
+  /**
+   * Called when a bundle got the service of the activated component.
+   */
+  void serviceGot() {
+    useCount++;
+    cancelIdleDeactivation();
+  }
+
+  /**
+   * Called when a bundle released the service of the component. Schedules the deactivation of the
+   * component if no bundle uses the service anymore and an idle timeout is specified.
+   */
+  void serviceReleased() {
+    if (useCount > 0) {
+      useCount--;
+    }
+    if (useCount > 0 || idleTimeoutNanos == 0) {
+      return;
+    }
+    cancelIdleDeactivation();
+    final long generation = idleDeactivationGeneration;
+    scheduledIdleDeactivation = IdleInstanceScheduler.getInstance().schedule(new Runnable() {
+
+      @Override
+      public void run() {
+        componentContext.deactivateIdleInstance(generation);
+      }
+    }, idleTimeoutNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void ungetService(final Bundle bundle, final ServiceRegistration<Object> registration,
+      final Object service) {
+    componentContext.ungetLazyServiceInstance();
+  }
+}
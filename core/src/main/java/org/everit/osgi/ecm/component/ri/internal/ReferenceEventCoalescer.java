@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.osgi.ecm.component.ri.internal.attribute.ReferenceHelper;
+
+/**
+ * Collects the changes of the references of a component and applies them together on the
+ * component. Only one thread applies the changes of a component at the same time. Changes that
+ * arrive while the changes are applied (e.g. while the component is restarted) are applied in the
+ * next round, so a burst of changes ends up in a few restarts or re-bindings instead of one per
+ * change.
+ */
+public class ReferenceEventCoalescer {
+
+  /**
+   * Lazy holder of the scheduler that applies the changes after the coalescing window elapsed.
+   */
+  private static final class SchedulerHolder {
+
+    private static final ScheduledThreadPoolExecutor SCHEDULER =
+        DaemonExecutors.createScheduledExecutor(Runtime.getRuntime().availableProcessors(),
+            "ECM-ReferenceEventCoalescer-");
+
+    private SchedulerHolder() {
+    }
+  }
+
+  private boolean applying = false;
+
+  private boolean closed = false;
+
+  private final ComponentContextImpl<?> componentContext;
+
+  private final Object mutex = new Object();
+
+  private final Set<ReferenceHelper<?, ?, ?>> pendingReferenceHelpers =
+      new LinkedHashSet<ReferenceHelper<?, ?, ?>>();
+
+  private ScheduledFuture<?> scheduledApply = null;
+
+  private final long windowNanos;
+
+  /**
+   * Constructor.
+   *
+   * @param componentContext
+   *          The context of the component whose reference events are coalesced.
+   * @param windowNanos
+   *          The time in nanoseconds while the events are collected before they are applied or
+   *          zero if the events should be applied as soon as possible.
+   */
+  public ReferenceEventCoalescer(final ComponentContextImpl<?> componentContext,
+      final long windowNanos) {
+    this.componentContext = componentContext;
+    this.windowNanos = windowNanos;
+  }
+
+  private void applyPendingChanges() {
+    boolean finished = false;
+    try {
+      while (!finished) {
+        List<ReferenceHelper<?, ?, ?>> referenceHelpers;
+        synchronized (mutex) {
+          if (closed || pendingReferenceHelpers.isEmpty()) {
+            applying = false;
+            finished = true;
+            referenceHelpers = null;
+          } else {
+            referenceHelpers = new ArrayList<ReferenceHelper<?, ?, ?>>(pendingReferenceHelpers);
+            pendingReferenceHelpers.clear();
+          }
+        }
+        if (referenceHelpers != null) {
+          componentContext.applyCoalescedReferenceEvents(referenceHelpers);
+        }
+      }
+    } finally {
+      if (!finished) {
+        synchronized (mutex) {
+          applying = false;
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops all pending changes and stops accepting new ones. Called when the component is closed.
+   */
+  public void close() {
+    synchronized (mutex) {
+      closed = true;
+      pendingReferenceHelpers.clear();
+      if (scheduledApply != null) {
+        scheduledApply.cancel(false);
+        scheduledApply = null;
+      }
+    }
+  }
+
+  /**
+   * Drops the pending change of a reference. Called when the change of the reference is applied
+   * directly, without coalescing.
+   *
+   * @param referenceHelper
+   *          The reference.
+   */
+  public void discard(final ReferenceHelper<?, ?, ?> referenceHelper) {
+    synchronized (mutex) {
+      pendingReferenceHelpers.remove(referenceHelper);
+    }
+  }
+
+  /**
+   * Registers the change of a reference. The change is applied either on the current thread or
+   * later, depending on the coalescing window and whether the changes of the component are being
+   * applied on another thread.
+   *
+   * @param referenceHelper
+   *          The reference that changed.
+   */
+  public void referenceChanged(final ReferenceHelper<?, ?, ?> referenceHelper) {
+    synchronized (mutex) {
+      if (closed) {
+        return;
+      }
+      pendingReferenceHelpers.add(referenceHelper);
+      if (applying || (scheduledApply != null)) {
+        return;
+      }
+      if (windowNanos > 0) {
+        scheduledApply = SchedulerHolder.SCHEDULER.schedule(new Runnable() {
+
+          @Override
+          public void run() {
+            synchronized (mutex) {
+              scheduledApply = null;
+              if (applying) {
+                return;
+              }
+              applying = true;
+            }
+            applyPendingChanges();
+          }
+        }, windowNanos, TimeUnit.NANOSECONDS);
+        return;
+      }
+      applying = true;
+    }
+    applyPendingChanges();
+  }
+}
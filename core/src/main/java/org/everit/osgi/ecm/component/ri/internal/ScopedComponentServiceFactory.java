@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal;
+
+import org.everit.osgi.ecm.component.ri.ComponentServiceScope;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.PrototypeServiceFactory;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * The service factory that is registered for components with bundle or prototype service scope.
+ * Each consumer gets its own instance of the component from the {@link ComponentInstancePool} of
+ * the component.
+ *
+ * @param <C>
+ *          The type of the component implementation.
+ */
+class ScopedComponentServiceFactory<C> implements ServiceFactory<Object> {
+
+  /**
+   * The factory of components with prototype service scope. The framework decides the scope of
+   * the service based on the interface that the registered factory implements.
+   *
+   * @param <C>
+   *          The type of the component implementation.
+   */
+  private static final class PrototypeComponentServiceFactory<C>
+      extends ScopedComponentServiceFactory<C> implements PrototypeServiceFactory<Object> {
+
+    PrototypeComponentServiceFactory(final ComponentContextImpl<C> componentContext) {
+      super(componentContext);
+    }
+  }
+
+  /**
+   * Creates a factory for the specified scope.
+   *
+   * @param componentContext
+   *          The context of the component.
+   * @param serviceScope
+   *          The scope of the service of the component.
+   * @return The factory or <code>null</code> if the component has singleton service scope.
+   */
+  static <C> ScopedComponentServiceFactory<C> create(
+      final ComponentContextImpl<C> componentContext, final ComponentServiceScope serviceScope) {
+    switch (serviceScope) {
+      case BUNDLE:
+        return new ScopedComponentServiceFactory<>(componentContext);
+      case PROTOTYPE:
+        return new PrototypeComponentServiceFactory<>(componentContext);
+      default:
+        return null;
+    }
+  }
+
+  private final ComponentContextImpl<C> componentContext;
+
+  ScopedComponentServiceFactory(final ComponentContextImpl<C> componentContext) {
+    this.componentContext = componentContext;
+  }
+
+  @Override
+  public Object getService(final Bundle bundle, final ServiceRegistration<Object> registration) {
+    return componentContext.getScopedServiceInstance();
+  }
+
+  @Override
+  public void ungetService(final Bundle bundle, final ServiceRegistration<Object> registration,
+      final Object service) {
+    componentContext.ungetScopedServiceInstance(service);
+  }
+}
@@ -15,8 +15,6 @@
  */
 package org.everit.osgi.ecm.component.ri.internal.attribute;
 
-import java.lang.reflect.Method;
-
 import org.everit.osgi.capabilitycollector.AbstractCapabilityCollector;
 import org.everit.osgi.capabilitycollector.BundleCapabilityCollector;
 import org.everit.osgi.capabilitycollector.RequirementDefinition;
@@ -25,6 +23,7 @@ import org.everit.osgi.ecm.component.BundleCapabilityHolder;
 import org.everit.osgi.ecm.component.ConfigurationException;
 import org.everit.osgi.ecm.component.ri.internal.ComponentContextImpl;
 import org.everit.osgi.ecm.component.ri.internal.ReferenceEventHandler;
+import org.everit.osgi.ecm.component.ri.internal.invoker.MethodInvoker;
 import org.everit.osgi.ecm.metadata.BundleCapabilityReferenceMetadata;
 import org.osgi.framework.wiring.BundleCapability;
 
@@ -47,8 +46,8 @@ public class BundleCapabilityReferenceAttributeHelper<COMPONENT> extends
 
   @Override
   protected void bindInternal() {
-    Method setterMethod = getSetterMethod();
-    if (setterMethod == null) {
+    MethodInvoker setterInvoker = getSetterInvoker();
+    if (setterInvoker == null) {
       return;
     }
 
@@ -56,12 +55,12 @@ public class BundleCapabilityReferenceAttributeHelper<COMPONENT> extends
 
     try {
       if (isArray()) {
-        setterMethod.invoke(getComponentContext().getInstance(), (Object) parameterArray);
+        setterInvoker.invokeWithParameter(getComponentContext().getInstance(), parameterArray);
       } else {
         if (parameterArray.length == 0) {
-          setterMethod.invoke(getComponentContext().getInstance(), (Object) null);
+          setterInvoker.invokeWithParameter(getComponentContext().getInstance(), null);
         } else {
-          setterMethod.invoke(getComponentContext().getInstance(), parameterArray[0]);
+          setterInvoker.invokeWithParameter(getComponentContext().getInstance(), parameterArray[0]);
         }
       }
     } catch (Throwable e) {
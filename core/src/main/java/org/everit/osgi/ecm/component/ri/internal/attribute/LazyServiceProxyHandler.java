@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal.attribute;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.everit.osgi.ecm.component.ri.internal.invoker.MethodInvoker;
+import org.everit.osgi.ecm.component.ri.internal.invoker.MethodInvokerFactory;
+import org.osgi.framework.ServiceException;
+import org.osgi.framework.ServiceObjects;
+
+/**
+ * Handler of a proxy that is injected into a component instead of an OSGi service. The real
+ * service is got from the {@link ServiceObjects} only when a method of the service is called for
+ * the first time, so the service factories of the referenced services that the component does not
+ * use are not called during the activation of the component. The <code>equals</code>,
+ * <code>hashCode</code> and <code>toString</code> methods are answered by the proxy itself and
+ * they do not get the service. The other methods are called on the service via the cached
+ * {@link MethodInvoker}s of the methods of the service interface, so the calls do not go through
+ * the reflection API.
+ *
+ * @param <S>
+ *          The type of the OSGi service.
+ */
+public final class LazyServiceProxyHandler<S> implements InvocationHandler {
+
+  /**
+   * Creates a proxy that gets the service at the first method call.
+   *
+   * @param serviceInterface
+   *          The interface of the service that the proxy implements.
+   * @param serviceObjects
+   *          The service objects that the real service is got from.
+   * @param <S>
+   *          The type of the OSGi service.
+   * @return The proxy.
+   */
+  public static <S> S createProxy(final Class<S> serviceInterface,
+      final ServiceObjects<S> serviceObjects) {
+    Object proxy = Proxy.newProxyInstance(serviceInterface.getClassLoader(),
+        new Class<?>[] { serviceInterface }, new LazyServiceProxyHandler<>(serviceObjects));
+    return serviceInterface.cast(proxy);
+  }
+
+  /**
+   * Returns the handler of a proxy that was created by this class.
+   *
+   * @param service
+   *          The object that was injected as a service.
+   * @return The handler or <code>null</code> if the object is not a lazy proxy.
+   */
+  public static LazyServiceProxyHandler<?> getHandler(final Object service) {
+    if ((service == null) || !Proxy.isProxyClass(service.getClass())) {
+      return null;
+    }
+    InvocationHandler handler = Proxy.getInvocationHandler(service);
+    if (handler instanceof LazyServiceProxyHandler) {
+      return (LazyServiceProxyHandler<?>) handler;
+    }
+    return null;
+  }
+
+  private boolean released = false;
+
+  private volatile S service;
+
+  private final ServiceObjects<S> serviceObjects;
+
+  private LazyServiceProxyHandler(final ServiceObjects<S> serviceObjects) {
+    this.serviceObjects = serviceObjects;
+  }
+
+  private S getService() {
+    S currentService = service;
+    if (currentService != null) {
+      return currentService;
+    }
+    return getServiceInternal();
+  }
+
+  private synchronized S getServiceInternal() {
+    if (released) {
+      throw new ServiceException("The service was released as the reference does not use it"
+          + " anymore: " + serviceObjects.getServiceReference(), ServiceException.UNREGISTERED);
+    }
+    if (service == null) {
+      service = serviceObjects.getService();
+      if (service == null) {
+        throw new ServiceException("The service is not available: "
+            + serviceObjects.getServiceReference(), ServiceException.UNREGISTERED);
+      }
+    }
+    return service;
+  }
+
+  @Override
+  public Object invoke(final Object proxy, final Method method, final Object[] args)
+      throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "LazyServiceProxy[" + serviceObjects.getServiceReference() + "]";
+        default:
+          break;
+      }
+    }
+    MethodInvoker invoker = MethodInvokerFactory.getInvoker(method.getDeclaringClass(), method);
+    try {
+      if (args == null) {
+        return invoker.invoke(getService());
+      }
+      return invoker.invokeWithParameters(getService(), args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Ungets the service if it was got by the proxy. The proxy throws a {@link ServiceException} if
+   * it is called after the release.
+   */
+  public synchronized void release() {
+    released = true;
+    if (service != null) {
+      serviceObjects.ungetService(service);
+      service = null;
+    }
+  }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal.attribute;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable sorted map that is backed by an AVL tree. Adding or removing an entry creates a new
+ * map that shares every node with the original one except the ones on the path of the changed
+ * key, so a change costs O(log n) time and memory and the original map stays valid. The map can
+ * be read by any number of threads without synchronization.
+ *
+ * @param <K>
+ *          The type of the keys.
+ * @param <V>
+ *          The type of the values.
+ */
+public final class PersistentSortedMap<K extends Comparable<? super K>, V>
+    implements Iterable<Map.Entry<K, V>> {
+
+  /**
+   * Iterates through the entries of a tree in the order of their keys.
+   *
+   * @param <K>
+   *          The type of the keys.
+   * @param <V>
+   *          The type of the values.
+   */
+  private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+
+    private final Deque<Node<K, V>> stack = new ArrayDeque<>();
+
+    EntryIterator(final Node<K, V> root) {
+      pushLeftPath(root);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !stack.isEmpty();
+    }
+
+    @Override
+    public Map.Entry<K, V> next() {
+      if (stack.isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      Node<K, V> node = stack.pop();
+      pushLeftPath(node.right);
+      return node;
+    }
+
+    private void pushLeftPath(final Node<K, V> node) {
+      Node<K, V> current = node;
+      while (current != null) {
+        stack.push(current);
+        current = current.left;
+      }
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("The map is immutable");
+    }
+  }
+
+  /**
+   * Immutable node of the AVL tree.
+   *
+   * @param <K>
+   *          The type of the key.
+   * @param <V>
+   *          The type of the value.
+   */
+  private static final class Node<K, V> implements Map.Entry<K, V> {
+
+    final int height;
+
+    final K key;
+
+    final Node<K, V> left;
+
+    final Node<K, V> right;
+
+    final V value;
+
+    Node(final K key, final V value, final Node<K, V> left, final Node<K, V> right) {
+      this.key = key;
+      this.value = value;
+      this.left = left;
+      this.right = right;
+      this.height = Math.max(height(left), height(right)) + 1;
+    }
+
+    @Override
+    public K getKey() {
+      return key;
+    }
+
+    @Override
+    public V getValue() {
+      return value;
+    }
+
+    @Override
+    public V setValue(final V newValue) {
+      throw new UnsupportedOperationException("The map is immutable");
+    }
+
+    @Override
+    public String toString() {
+      return key + "=" + value;
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static final PersistentSortedMap EMPTY = new PersistentSortedMap<>(null, 0);
+
+  private static <K, V> Node<K, V> balance(final K key, final V value, final Node<K, V> left,
+      final Node<K, V> right) {
+    int difference = height(left) - height(right);
+    if (difference > 1) {
+      if (height(left.left) >= height(left.right)) {
+        return rotateRight(key, value, left, right);
+      }
+      return rotateRight(key, value, rotateLeft(left.key, left.value, left.left, left.right),
+          right);
+    }
+    if (difference < -1) {
+      if (height(right.right) >= height(right.left)) {
+        return rotateLeft(key, value, left, right);
+      }
+      return rotateLeft(key, value, left,
+          rotateRight(right.key, right.value, right.left, right.right));
+    }
+    return new Node<>(key, value, left, right);
+  }
+
+  /**
+   * Returns the empty map.
+   *
+   * @param <K>
+   *          The type of the keys.
+   * @param <V>
+   *          The type of the values.
+   * @return The shared empty map.
+   */
+  public static <K extends Comparable<? super K>, V> PersistentSortedMap<K, V> empty() {
+    @SuppressWarnings("unchecked")
+    PersistentSortedMap<K, V> result = EMPTY;
+    return result;
+  }
+
+  private static int height(final Node<?, ?> node) {
+    return (node == null) ? 0 : node.height;
+  }
+
+  private static <K, V> Node<K, V> removeMin(final Node<K, V> node) {
+    if (node.left == null) {
+      return node.right;
+    }
+    return balance(node.key, node.value, removeMin(node.left), node.right);
+  }
+
+  private static <K, V> Node<K, V> rotateLeft(final K key, final V value, final Node<K, V> left,
+      final Node<K, V> right) {
+    return new Node<>(right.key, right.value, new Node<>(key, value, left, right.left),
+        right.right);
+  }
+
+  private static <K, V> Node<K, V> rotateRight(final K key, final V value, final Node<K, V> left,
+      final Node<K, V> right) {
+    return new Node<>(left.key, left.value, left.left,
+        new Node<>(key, value, left.right, right));
+  }
+
+  private final Node<K, V> root;
+
+  private final int size;
+
+  private PersistentSortedMap(final Node<K, V> root, final int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  public boolean containsKey(final K key) {
+    return findNode(key) != null;
+  }
+
+  private Node<K, V> findNode(final K key) {
+    Node<K, V> node = root;
+    while (node != null) {
+      int comparison = key.compareTo(node.key);
+      if (comparison == 0) {
+        return node;
+      }
+      node = (comparison < 0) ? node.left : node.right;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the value that belongs to a key.
+   *
+   * @param key
+   *          The key.
+   * @return The value or <code>null</code> if the map does not contain the key.
+   */
+  public V get(final K key) {
+    Node<K, V> node = findNode(key);
+    return (node == null) ? null : node.value;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Iterates through the entries of the map in the order of their keys. The entries and the
+   * iterator do not support modification.
+   */
+  @Override
+  public Iterator<Map.Entry<K, V>> iterator() {
+    return new EntryIterator<>(root);
+  }
+
+  /**
+   * Returns a map that contains the entries of this map and the specified entry.
+   *
+   * @param key
+   *          The key of the entry.
+   * @param value
+   *          The value of the entry.
+   * @return The new map. This map is returned if it already contains the same value with the key.
+   */
+  public PersistentSortedMap<K, V> put(final K key, final V value) {
+    Node<K, V> newRoot = put(root, key, value);
+    if (newRoot == root) {
+      return this;
+    }
+    int newSize = containsKey(key) ? size : (size + 1);
+    return new PersistentSortedMap<>(newRoot, newSize);
+  }
+
+  private Node<K, V> put(final Node<K, V> node, final K key, final V value) {
+    if (node == null) {
+      return new Node<>(key, value, null, null);
+    }
+    int comparison = key.compareTo(node.key);
+    if (comparison == 0) {
+      if (node.value == value) {
+        return node;
+      }
+      return new Node<>(key, value, node.left, node.right);
+    }
+    if (comparison < 0) {
+      Node<K, V> newLeft = put(node.left, key, value);
+      return (newLeft == node.left) ? node : balance(node.key, node.value, newLeft, node.right);
+    }
+    Node<K, V> newRight = put(node.right, key, value);
+    return (newRight == node.right) ? node : balance(node.key, node.value, node.left, newRight);
+  }
+
+  /**
+   * Returns a map that contains the entries of this map except the one with the specified key.
+   *
+   * @param key
+   *          The key of the entry.
+   * @return The new map. This map is returned if it does not contain the key.
+   */
+  public PersistentSortedMap<K, V> remove(final K key) {
+    Node<K, V> newRoot = remove(root, key);
+    if (newRoot == root) {
+      return this;
+    }
+    return new PersistentSortedMap<>(newRoot, size - 1);
+  }
+
+  private Node<K, V> remove(final Node<K, V> node, final K key) {
+    if (node == null) {
+      return null;
+    }
+    int comparison = key.compareTo(node.key);
+    if (comparison < 0) {
+      Node<K, V> newLeft = remove(node.left, key);
+      return (newLeft == node.left) ? node : balance(node.key, node.value, newLeft, node.right);
+    }
+    if (comparison > 0) {
+      Node<K, V> newRight = remove(node.right, key);
+      return (newRight == node.right) ? node : balance(node.key, node.value, node.left, newRight);
+    }
+    if (node.left == null) {
+      return node.right;
+    }
+    if (node.right == null) {
+      return node.left;
+    }
+    Node<K, V> successor = node.right;
+    while (successor.left != null) {
+      successor = successor.left;
+    }
+    return balance(successor.key, successor.value, node.left, removeMin(node.right));
+  }
+
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("{");
+    Iterator<Map.Entry<K, V>> iterator = iterator();
+    while (iterator.hasNext()) {
+      sb.append(iterator.next());
+      if (iterator.hasNext()) {
+        sb.append(", ");
+      }
+    }
+    return sb.append('}').toString();
+  }
+}
@@ -18,8 +18,11 @@ package org.everit.osgi.ecm.component.ri.internal.attribute;
 import java.lang.reflect.Method;
 
 import org.everit.osgi.ecm.component.PasswordHolder;
+import org.everit.osgi.ecm.component.ri.ComponentLifecyclePhase;
 import org.everit.osgi.ecm.component.ri.internal.ComponentContextImpl;
 import org.everit.osgi.ecm.component.ri.internal.IllegalMetadataException;
+import org.everit.osgi.ecm.component.ri.internal.invoker.MethodInvoker;
+import org.everit.osgi.ecm.component.ri.internal.invoker.MethodInvokerFactory;
 import org.everit.osgi.ecm.metadata.PasswordAttributeMetadata;
 import org.everit.osgi.ecm.metadata.PropertyAttributeMetadata;
 import org.everit.osgi.ecm.util.method.MethodDescriptor;
@@ -36,64 +39,108 @@ public class PropertyAttributeHelper<C, V_ARRAY> {
 
   private final PropertyAttributeMetadata<V_ARRAY> attributeMetadata;
 
-  private final ComponentContextImpl<C> componentContext;
+  private final String componentId;
+
+  /**
+   * The type of the values that can be passed to the setter without any resolution or conversion.
+   * It is the type of the setter parameter or its boxing type if the parameter is primitive.
+   */
+  private final Class<?> directValueClass;
 
   private final Class<?> parameterClass;
 
+  private final MethodInvoker setterInvoker;
+
   private final Method setterMethod;
 
   /**
-   * Constructor.
+   * Constructor. The setter of the attribute is resolved once per component type, so the helper
+   * can be shared between all contexts of the component.
    *
-   * @param componentContext
-   *          Context of the component that the property belongs to.
+   * @param componentType
+   *          The implementation class of the component.
+   * @param componentId
+   *          The id of the component that is used in error messages.
    * @param attributeMetadata
    *          The metadata of the attribute.
+   * @throws IllegalMetadataException
+   *           if the setter of the attribute does not match the metadata.
    */
-  public PropertyAttributeHelper(final ComponentContextImpl<C> componentContext,
+  public PropertyAttributeHelper(final Class<C> componentType, final String componentId,
       final PropertyAttributeMetadata<V_ARRAY> attributeMetadata) {
 
-    this.componentContext = componentContext;
+    this.componentId = componentId;
     this.attributeMetadata = attributeMetadata;
-    this.setterMethod = resolveSetter();
+    this.setterMethod = resolveSetter(componentType);
     this.parameterClass = (setterMethod != null) ? this.setterMethod.getParameterTypes()[0] : null;
-
+    this.setterInvoker = (setterMethod != null)
+        ? MethodInvokerFactory.getInvoker(componentType, setterMethod)
+        : null;
+    this.directValueClass = resolveDirectValueClass();
   }
 
   /**
    * Calls the setter of the property if it is available and the component is not failed.
    *
+   * @param componentContext
+   *          The context of the component instance that the setter is called on.
    * @param newValue
    *          The new value of the property that is passed to the setter.
    */
-  public void applyValue(final Object newValue) {
-    if (setterMethod == null) {
+  public void applyValue(final ComponentContextImpl<C> componentContext, final Object newValue) {
+    if (setterInvoker == null) {
       return;
     }
 
-    Object parameterValue;
+    long startNanos = componentContext.lifecyclePhaseStarted();
     try {
-      parameterValue = resolveValue(newValue);
-    } catch (RuntimeException e) {
-      componentContext.fail(e, false);
-      return;
+      applyValueInternal(componentContext, newValue);
+    } finally {
+      componentContext.lifecyclePhaseCompleted(ComponentLifecyclePhase.APPLY_PROPERTY,
+          attributeMetadata.getAttributeId(), startNanos);
+    }
+  }
+
+  private void applyValueInternal(final ComponentContextImpl<C> componentContext,
+      final Object newValue) {
+    Object parameterValue;
+    if ((newValue != null) && (newValue.getClass() == directValueClass)) {
+      parameterValue = newValue;
+    } else {
+      try {
+        parameterValue = resolveValue(componentContext, newValue);
+      } catch (RuntimeException e) {
+        componentContext.fail(e, false);
+        return;
+      }
     }
 
     C instance = componentContext.getInstance();
 
     try {
-      setterMethod.invoke(instance, parameterValue);
+      setterInvoker.invokeWithParameter(instance, parameterValue);
     } catch (Throwable e) {
       componentContext.fail(e, false);
     }
-
   }
 
   public PropertyAttributeMetadata<V_ARRAY> getAttributeMetadata() {
     return attributeMetadata;
   }
 
-  private Object resolveMultiPasswordParamValue(final Object valueObject) {
+  public boolean hasSetter() {
+    return setterInvoker != null;
+  }
+
+  private Class<?> resolveDirectValueClass() {
+    if ((parameterClass == null) || !parameterClass.isPrimitive()) {
+      return parameterClass;
+    }
+    return PropertyAttributeUtil.PRIMITIVE_BOXING_TYPE_MAPPING.get(parameterClass);
+  }
+
+  private Object resolveMultiPasswordParamValue(final ComponentContextImpl<C> componentContext,
+      final Object valueObject) {
     Class<?> componentType = valueObject.getClass().getComponentType();
     if (!PasswordHolder.class.equals(componentType) && !String.class.equals(componentType)) {
       PropertyAttributeUtil.failDuringValueResolution(
@@ -120,7 +167,8 @@ public class PropertyAttributeHelper<C, V_ARRAY> {
     return result;
   }
 
-  private Object resolveNonExactTypeMatchMultiValue(final Object valueObject) {
+  private Object resolveNonExactTypeMatchMultiValue(
+      final ComponentContextImpl<C> componentContext, final Object valueObject) {
 
     Class<? extends Object> valueClass = valueObject.getClass();
 
@@ -137,21 +185,25 @@ public class PropertyAttributeHelper<C, V_ARRAY> {
           componentContext, attributeMetadata);
     }
 
-    return resolveMultiPasswordParamValue(valueObject);
+    return resolveMultiPasswordParamValue(componentContext, valueObject);
   }
 
-  private Method resolveSetter() {
+  private Method resolveSetter(final Class<C> componentType) {
     MethodDescriptor setterMethodDescriptor = attributeMetadata.getSetter();
     if (setterMethodDescriptor == null) {
       return null;
     }
-    Method method = setterMethodDescriptor.locate(componentContext.getComponentType(), false);
+    Method method = setterMethodDescriptor.locate(componentType, false);
+    if (method == null) {
+      throw new IllegalMetadataException("Could not find setter '"
+          + setterMethodDescriptor.toString() + "' defined for attribute '"
+          + attributeMetadata.getAttributeId() + "' of component '" + componentId + "'");
+    }
 
     Class<?>[] parameterTypes = method.getParameterTypes();
     if (parameterTypes.length != 1) {
       throwIllegalSetter(method,
           "Setter method must have one parameter: " + method.toGenericString());
-      return null;
     }
 
     if (attributeMetadata.isMultiple()) {
@@ -165,7 +217,6 @@ public class PropertyAttributeHelper<C, V_ARRAY> {
       final Class<?>[] parameterTypes) {
     if (!parameterTypes[0].isArray()) {
       throwIllegalSetter(method, "Parameter type should be an array");
-      return null;
     }
     Class<?> componentType = parameterTypes[0].getComponentType();
     Class<?> expectedComponentType = attributeMetadata.getValueType();
@@ -175,12 +226,10 @@ public class PropertyAttributeHelper<C, V_ARRAY> {
         if (!PasswordHolder.class.equals(componentType)) {
           throwIllegalSetter(method,
               "Parameter type should be either String[] or PasswordVaueHolder[].");
-          return null;
         }
       } else {
         throwIllegalSetter(method, "Parameter array should have '" + expectedComponentType
             + "' component type.");
-        return null;
       }
     }
     return method;
@@ -196,7 +245,6 @@ public class PropertyAttributeHelper<C, V_ARRAY> {
           throwIllegalSetter(
               method, " Parameter should be " + valueType.getCanonicalName() + " or "
                   + boxingType.getCanonicalName() + ": " + method.toGenericString());
-          return null;
         }
       } else if (attributeMetadata instanceof PasswordAttributeMetadata) {
         if (!PasswordHolder.class.equals(parameterTypes[0])) {
@@ -212,8 +260,8 @@ public class PropertyAttributeHelper<C, V_ARRAY> {
     return method;
   }
 
-  private Object resolveSimplePasswordParamValue(final Object simpleValue,
-      final Class<?> originalValueType) {
+  private Object resolveSimplePasswordParamValue(final ComponentContextImpl<C> componentContext,
+      final Object simpleValue, final Class<?> originalValueType) {
     Class<?> valueType = simpleValue.getClass();
     if (!String.class.equals(valueType) && !PasswordHolder.class.equals(valueType)) {
       PropertyAttributeUtil.failDuringValueResolution(
@@ -228,7 +276,8 @@ public class PropertyAttributeHelper<C, V_ARRAY> {
     return ((PasswordHolder) simpleValue).getPassword();
   }
 
-  private Object resolveSimpleValue(final Object valueObject) {
+  private Object resolveSimpleValue(final ComponentContextImpl<C> componentContext,
+      final Object valueObject) {
     Object simpleValue = PropertyAttributeUtil.resolveSimpleValueEvenIfItIsInOneElementArray(
         valueObject, componentContext, attributeMetadata);
     if (componentContext.isFailed()) {
@@ -242,18 +291,20 @@ public class PropertyAttributeHelper<C, V_ARRAY> {
     }
 
     if (attributeMetadata instanceof PasswordAttributeMetadata) {
-      return resolveSimplePasswordParamValue(simpleValue, valueObject.getClass());
+      return resolveSimplePasswordParamValue(componentContext, simpleValue,
+          valueObject.getClass());
     }
 
     if (PropertyAttributeUtil.typesEqualWithOrWithoutBoxing(parameterClass, simpleValueClass)) {
       return simpleValue;
     }
 
-    return PropertyAttributeUtil.tryConvertingSimpleValue(simpleValue, parameterClass,
-        componentContext, attributeMetadata);
+    return componentContext.getValueConverterRegistry()
+        .getConverter(attributeMetadata, simpleValueClass).convert(simpleValue, componentContext);
   }
 
-  private Object resolveValue(final Object valueObject) {
+  private Object resolveValue(final ComponentContextImpl<C> componentContext,
+      final Object valueObject) {
     // Handle null value
     if (valueObject == null) {
       PropertyAttributeUtil.checkAttributeOptional(componentContext, attributeMetadata);
@@ -265,20 +316,17 @@ public class PropertyAttributeHelper<C, V_ARRAY> {
     }
 
     if (attributeMetadata.isMultiple()) {
-      return resolveNonExactTypeMatchMultiValue(valueObject);
+      return resolveNonExactTypeMatchMultiValue(componentContext, valueObject);
     } else {
-      return resolveSimpleValue(valueObject);
+      return resolveSimpleValue(componentContext, valueObject);
     }
   }
 
   private void throwIllegalSetter(final Method method, final String additionalMessage) {
-    IllegalMetadataException e = new IllegalMetadataException("Invalid setter '"
+    throw new IllegalMetadataException("Invalid setter '"
         + method.toGenericString()
         + "' defined for attribute '" + attributeMetadata.getAttributeId() + "' of component '"
-        + componentContext.getComponentContainer().getComponentMetadata().getComponentId() + "'. "
-        + additionalMessage);
-
-    componentContext.fail(e, true);
+        + componentId + "'. " + additionalMessage);
   }
 
 }
@@ -21,7 +21,6 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.everit.osgi.ecm.component.ConfigurationException;
-import org.everit.osgi.ecm.component.PasswordHolder;
 import org.everit.osgi.ecm.component.ri.internal.ComponentContextImpl;
 import org.everit.osgi.ecm.metadata.AttributeMetadata;
 import org.everit.osgi.ecm.metadata.ComponentMetadata;
@@ -144,43 +143,6 @@ public final class PropertyAttributeUtil {
     return simpleValue;
   }
 
-  /**
-   * Trying to convert a non-multiple attribute value to a target type. Currently from string to any
-   * other supported type conversion is supported. After this method it is necessary to check the
-   * component state as it might become failed.
-   *
-   * @param simpleValue
-   *          The current value of the non-multiple attribute.
-   * @param targetType
-   *          The type to convert to.
-   * @param componentContext
-   *          The context of the component.
-   * @param attributeMetadata
-   *          The metadata of the attribute.
-   * @return The converted value.
-   */
-  public static Object tryConvertingSimpleValue(final Object simpleValue,
-      final Class<?> targetType, final ComponentContextImpl<?> componentContext,
-      final AttributeMetadata<?> attributeMetadata) {
-
-    Class<? extends Object> originalValueType = simpleValue.getClass();
-
-    if (originalValueType.equals(targetType)) {
-      return simpleValue;
-    }
-
-    PropertyAttributeUtil instance = new PropertyAttributeUtil(componentContext, attributeMetadata);
-    if (simpleValue instanceof String) {
-      return instance.tryConvertingStringValueToAttributeType(simpleValue, targetType);
-    } else if (simpleValue instanceof PasswordHolder && targetType.equals(String.class)) {
-      return ((PasswordHolder) simpleValue).getPassword();
-    }
-
-    instance.failOnIncomaptibleSimpleType(originalValueType, targetType);
-
-    return null;
-  }
-
   /**
    * Checks whether the two types are equal or they can be equal by using primitive to non-primitive
    * boxing.
@@ -202,86 +164,6 @@ public final class PropertyAttributeUtil {
             .equals(PropertyAttributeUtil.PRIMITIVE_BOXING_TYPE_MAPPING.get(type2));
   }
 
-  private final AttributeMetadata<?> attributeMetadata;
-
-  private final ComponentContextImpl<?> componentContext;
-
-  private PropertyAttributeUtil(final ComponentContextImpl<?> componentContextImpl,
-      final AttributeMetadata<?> attributeMetadata) {
-    componentContext = componentContextImpl;
-    this.attributeMetadata = attributeMetadata;
-  }
-
-  private Object convertNonEmptyStringAttributeValueToChar(final String stringValue) {
-    if (stringValue.length() == 1) {
-      return stringValue.charAt(0);
-    } else if (stringValue.length() > 1) {
-      failDuringValueResolution(
-          "String value with multiple characters cannot be converted to char type",
-          componentContext, attributeMetadata);
-    }
-    return null;
-  }
-
-  private void failOnIncomaptibleSimpleType(final Class<? extends Object> valueType,
-      final Class<?> attributeType) {
-
-    StringBuilder sb = new StringBuilder();
-    if (attributeType.isPrimitive()) {
-      sb.append("Either ")
-          .append(PRIMITIVE_BOXING_TYPE_MAPPING.get(attributeType).getCanonicalName())
-          .append(" or ");
-    }
-    sb.append(attributeType.getCanonicalName()).append(" was expected, but got ")
-        .append(valueType.getCanonicalName());
-    failDuringValueResolution(sb.toString(), componentContext, attributeMetadata);
-  }
-
-  private Object tryConvertingStringValueToAttributeType(final Object simpleValue,
-      final Class<?> targetType) {
-    String stringValue = (String) simpleValue;
-
-    if (char.class.equals(targetType)) {
-      return convertNonEmptyStringAttributeValueToChar(stringValue);
-    }
-
-    if ("".equals(stringValue.trim())) {
-      checkAttributeOptional(componentContext, attributeMetadata);
-      return null;
-    }
-
-    if (boolean.class.equals(targetType)) {
-      return Boolean.valueOf(stringValue);
-    }
-
-    return tryConvertingStringValueToNumberOrFail(stringValue, targetType);
-  }
-
-  private Object tryConvertingStringValueToNumberOrFail(final String stringValue,
-      final Class<?> attributeType) {
-
-    try {
-      if (byte.class.equals(attributeType)) {
-        return Byte.valueOf(stringValue);
-      } else if (double.class.equals(attributeType)) {
-        return Double.valueOf(stringValue);
-      } else if (float.class.equals(attributeType)) {
-        return Float.valueOf(stringValue);
-      } else if (int.class.equals(attributeType)) {
-        return Integer.valueOf(stringValue);
-      } else if (long.class.equals(attributeType)) {
-        return Long.valueOf(stringValue);
-      } else if (short.class.equals(attributeType)) {
-        return Short.valueOf(stringValue);
-      }
-    } catch (NumberFormatException e) {
-      failDuringValueResolution(
-          "String value \"" + stringValue + "\" cannot be converted to type '"
-              + attributeType.getCanonicalName() + "'",
-          componentContext, attributeMetadata);
-    }
-
-    failOnIncomaptibleSimpleType(String.class, attributeType);
-    return null;
+  private PropertyAttributeUtil() {
   }
 }
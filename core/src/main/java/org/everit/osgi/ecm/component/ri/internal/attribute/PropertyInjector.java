@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal.attribute;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.everit.osgi.ecm.component.ri.internal.ComponentContextImpl;
+import org.everit.osgi.ecm.component.ri.internal.invoker.MethodInvoker;
+
+/**
+ * Applies the property attributes of a component on a freshly created component instance. The
+ * attributes that have a setter method are collected once per component type and the injector is
+ * shared by all contexts of the component, so an activation iterates only through the attributes
+ * that really have to be injected. The setters are called via the {@link MethodInvoker}s that are
+ * cached per component type and values that already have the type of the setter parameter (or its
+ * boxing type) are passed without any resolution or conversion.
+ *
+ * @param <C>
+ *          The type of the component.
+ */
+public final class PropertyInjector<C> {
+
+  private final String[] attributeIds;
+
+  private final List<PropertyAttributeHelper<C, Object>> helpers;
+
+  /**
+   * Constructor.
+   *
+   * @param propertyAttributeHelpers
+   *          The helpers of all property attributes of the component.
+   */
+  public PropertyInjector(
+      final Collection<PropertyAttributeHelper<C, Object>> propertyAttributeHelpers) {
+    List<PropertyAttributeHelper<C, Object>> helpersWithSetter = new ArrayList<>();
+    for (PropertyAttributeHelper<C, Object> helper : propertyAttributeHelpers) {
+      if (helper.hasSetter()) {
+        helpersWithSetter.add(helper);
+      }
+    }
+    this.helpers = helpersWithSetter;
+    this.attributeIds = new String[helpersWithSetter.size()];
+    for (int i = 0; i < attributeIds.length; i++) {
+      attributeIds[i] = helpersWithSetter.get(i).getAttributeMetadata().getAttributeId();
+    }
+  }
+
+  /**
+   * Calls the setters of the property attributes on the current instance of the component. The
+   * injection stops as soon as the component fails.
+   *
+   * @param componentContext
+   *          The context of the component instance.
+   * @param properties
+   *          The resolved properties of the component.
+   * @return <code>true</code> if all properties were injected, <code>false</code> if the
+   *         component failed.
+   */
+  public boolean inject(final ComponentContextImpl<C> componentContext,
+      final Map<String, Object> properties) {
+    for (int i = 0; i < attributeIds.length; i++) {
+      helpers.get(i).applyValue(componentContext, properties.get(attributeIds[i]));
+      if (componentContext.isFailed()) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
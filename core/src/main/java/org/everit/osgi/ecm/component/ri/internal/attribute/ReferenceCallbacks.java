@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal.attribute;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
+
+import org.everit.osgi.ecm.component.ri.internal.invoker.MethodInvoker;
+import org.everit.osgi.ecm.component.ri.internal.invoker.MethodInvokerFactory;
+import org.everit.osgi.ecm.metadata.MetadataValidationException;
+
+/**
+ * The callbacks of a multiple reference that receive the changes of the reference one by one
+ * instead of the array of all referenced objects. The callbacks are located by the name of the
+ * array setter of the reference: <code>setFoos(Foo[])</code> has the <code>addFoos(Foo)</code>,
+ * <code>removeFoos(Foo)</code> and the optional <code>modifiedFoos(Foo)</code> callbacks.
+ */
+public final class ReferenceCallbacks {
+
+  private static final String SETTER_PREFIX = "set";
+
+  private static Method locateCallbackMethod(final Class<?> componentType, final String name,
+      final Class<?> elementType) {
+    Class<?> currentType = componentType;
+    while (currentType != null) {
+      for (Method method : currentType.getDeclaredMethods()) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        if (method.getName().equals(name) && (parameterTypes.length == 1)
+            && parameterTypes[0].isAssignableFrom(elementType)) {
+          return method;
+        }
+      }
+      currentType = currentType.getSuperclass();
+    }
+    return null;
+  }
+
+  /**
+   * Locates the callbacks of a reference in the component type.
+   *
+   * @param componentType
+   *          The type of the component implementation.
+   * @param setterMethod
+   *          The array setter of the reference.
+   * @return The callbacks or <code>null</code> if the setter is not an array setter or the
+   *         component type does not declare the callbacks.
+   * @throws MetadataValidationException
+   *           if the component type declares only one of the add and remove callbacks.
+   */
+  public static ReferenceCallbacks resolve(final Class<?> componentType,
+      final Method setterMethod) {
+    Class<?>[] parameterTypes = setterMethod.getParameterTypes();
+    if ((parameterTypes.length != 1) || !parameterTypes[0].isArray()) {
+      return null;
+    }
+    Class<?> elementType = parameterTypes[0].getComponentType();
+
+    String setterName = setterMethod.getName();
+    String suffix;
+    if (setterName.startsWith(SETTER_PREFIX) && (setterName.length() > SETTER_PREFIX.length())) {
+      suffix = setterName.substring(SETTER_PREFIX.length());
+    } else {
+      suffix = setterName.substring(0, 1).toUpperCase(Locale.ENGLISH) + setterName.substring(1);
+    }
+
+    Method addMethod = locateCallbackMethod(componentType, "add" + suffix, elementType);
+    Method removeMethod = locateCallbackMethod(componentType, "remove" + suffix, elementType);
+    if ((addMethod == null) && (removeMethod == null)) {
+      return null;
+    }
+    if ((addMethod == null) || (removeMethod == null)) {
+      throw new MetadataValidationException("Both add" + suffix + " and remove" + suffix
+          + " callbacks must be declared for the reference of the setter '"
+          + setterMethod.toGenericString() + "' in type " + componentType.getName());
+    }
+    Method modifiedMethod =
+        locateCallbackMethod(componentType, "modified" + suffix, elementType);
+
+    return new ReferenceCallbacks(MethodInvokerFactory.getInvoker(componentType, addMethod),
+        MethodInvokerFactory.getInvoker(componentType, removeMethod),
+        (modifiedMethod != null)
+            ? MethodInvokerFactory.getInvoker(componentType, modifiedMethod)
+            : null);
+  }
+
+  private final MethodInvoker addInvoker;
+
+  private final MethodInvoker modifiedInvoker;
+
+  private final MethodInvoker removeInvoker;
+
+  private ReferenceCallbacks(final MethodInvoker addInvoker, final MethodInvoker removeInvoker,
+      final MethodInvoker modifiedInvoker) {
+    this.addInvoker = addInvoker;
+    this.removeInvoker = removeInvoker;
+    this.modifiedInvoker = modifiedInvoker;
+  }
+
+  public MethodInvoker getAddInvoker() {
+    return addInvoker;
+  }
+
+  /**
+   * The invoker of the modified callback.
+   *
+   * @return The invoker or <code>null</code> if the component does not declare the callback.
+   */
+  public MethodInvoker getModifiedInvoker() {
+    return modifiedInvoker;
+  }
+
+  public MethodInvoker getRemoveInvoker() {
+    return removeInvoker;
+  }
+}
@@ -17,27 +17,34 @@ package org.everit.osgi.ecm.component.ri.internal.attribute;
 
 import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.felix.utils.manifest.Attribute;
 import org.apache.felix.utils.manifest.Clause;
-import org.apache.felix.utils.manifest.Parser;
 import org.everit.osgi.capabilitycollector.AbstractCapabilityCollector;
 import org.everit.osgi.capabilitycollector.CapabilityConsumer;
 import org.everit.osgi.capabilitycollector.RequirementDefinition;
 import org.everit.osgi.capabilitycollector.Suiting;
 import org.everit.osgi.ecm.component.AbstractReferenceHolder;
 import org.everit.osgi.ecm.component.ConfigurationException;
+import org.everit.osgi.ecm.component.ri.ComponentLifecyclePhase;
 import org.everit.osgi.ecm.component.ri.internal.ComponentContextImpl;
+import org.everit.osgi.ecm.component.ri.internal.ReferenceEventCoalescer;
 import org.everit.osgi.ecm.component.ri.internal.ReferenceEventHandler;
+import org.everit.osgi.ecm.component.ri.internal.invoker.MethodInvoker;
+import org.everit.osgi.ecm.component.ri.internal.invoker.MethodInvokerFactory;
 import org.everit.osgi.ecm.metadata.MetadataValidationException;
 import org.everit.osgi.ecm.metadata.ReferenceConfigurationType;
 import org.everit.osgi.ecm.metadata.ReferenceMetadata;
+import org.everit.osgi.ecm.metadata.ServiceReferenceMetadata;
 import org.everit.osgi.ecm.util.method.MethodDescriptor;
 import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
-import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 
 /**
@@ -63,28 +70,48 @@ public abstract class ReferenceHelper<CAPABILITY, COMPONENT, METADATA extends Re
       suitings = pSuitings;
       satisfied = pSatisfied;
       ReferenceHelper<CAPABILITY, COMPONENT, METADATA> owner = ReferenceHelper.this;
-      if (configurationUpdateFailure) {
-        satisfiedNotificationSent = false;
-        eventHandler.failedDuringConfigurationUpdate(owner);
-      } else if (pSatisfied) {
-        if (!satisfiedNotificationSent) {
-          satisfiedNotificationSent = true;
-          eventHandler.satisfied(owner);
-        } else {
-          if (referenceMetadata.isDynamic()) {
-            eventHandler.updateDynamicWithoutSatisfactionChange(owner);
-          } else {
-            eventHandler.updateNonDynamic(owner);
-          }
-        }
+      if (componentContext.deferReferenceEventIfNecessary(owner)) {
+        // The event is caused by a dynamic rebind that runs on the current thread
+        return;
+      }
+      ReferenceEventCoalescer coalescer = componentContext.getReferenceEventCoalescer();
+      if (coalescer == null) {
+        notifyEventHandler();
+      } else if (componentContext.isWriteLockedByCurrentThread() || isRemoval(pSuitings,
+          pSatisfied)) {
+        // The event is caused by the lifecycle step that runs on the current thread (e.g.: the
+        // component registers or unregisters a service that it references itself) or the
+        // component must stop using a capability before the call of the collector returns
+        coalescer.discard(owner);
+        notifyEventHandler();
       } else {
-        if (satisfiedNotificationSent) {
-          satisfiedNotificationSent = false;
-          eventHandler.unsatisfied(owner);
-        } else {
-          eventHandler.updateDynamicWithoutSatisfactionChange(owner);
+        coalescer.referenceChanged(owner);
+      }
+    }
+
+    /**
+     * Checks whether the change takes away anything that was passed to the event handler of the
+     * component. Such changes must be applied synchronously, as the capability may be gone after
+     * the collector returns (e.g.: an unregistered service must not be used anymore).
+     */
+    private boolean isRemoval(final Suiting<CAPABILITY>[] pSuitings, final boolean pSatisfied) {
+      if (!pSatisfied && satisfiedNotificationSent) {
+        return true;
+      }
+      Suiting<CAPABILITY>[] lNotifiedSuitings = notifiedSuitings;
+      if ((lNotifiedSuitings == null) || (lNotifiedSuitings.length == 0)) {
+        return false;
+      }
+      Set<CAPABILITY> capabilities = new HashSet<>();
+      for (Suiting<CAPABILITY> suiting : pSuitings) {
+        capabilities.add(suiting.getCapability());
+      }
+      for (Suiting<CAPABILITY> suiting : lNotifiedSuitings) {
+        if (!capabilities.contains(suiting.getCapability())) {
+          return true;
         }
       }
+      return false;
     }
   }
 
@@ -98,13 +125,27 @@ public abstract class ReferenceHelper<CAPABILITY, COMPONENT, METADATA extends Re
 
   private final ReferenceEventHandler eventHandler;
 
+  /**
+   * Serializes the dynamic rebinds of this reference that run with the read lock of the component.
+   */
+  private final Lock eventLock = new ReentrantLock();
+
   private final boolean holder;
 
+  private final boolean liveView;
+
+  /**
+   * The suitings that were available when the event handler was notified last time.
+   */
+  private volatile Suiting<CAPABILITY>[] notifiedSuitings;
+
   private final METADATA referenceMetadata;
 
   private boolean satisfied = false;
 
-  private boolean satisfiedNotificationSent = false;
+  private volatile boolean satisfiedNotificationSent = false;
+
+  private final MethodInvoker setterInvoker;
 
   private final Method setterMethod;
 
@@ -134,10 +175,12 @@ public abstract class ReferenceHelper<CAPABILITY, COMPONENT, METADATA extends Re
     if (setterMethodDescriptor == null) {
       holder = false;
       setterMethod = null;
+      setterInvoker = null;
       array = false;
+      liveView = false;
     } else {
-      this.setterMethod = setterMethodDescriptor.locate(componentContext.getComponentType(),
-          false);
+      this.setterMethod =
+          componentContext.getComponentTypeModel().getReferenceSetterMethod(referenceMetadata);
       if (setterMethod == null) {
         throw new MetadataValidationException("Setter method '" + setterMethodDescriptor.toString()
             + "' could not be found for class " + componentContext.getComponentTypeName());
@@ -151,6 +194,20 @@ public abstract class ReferenceHelper<CAPABILITY, COMPONENT, METADATA extends Re
             + "' must have one non-primitive parameter.");
       }
 
+      this.setterInvoker = MethodInvokerFactory.getInvoker(componentContext.getComponentType(),
+          setterMethod);
+
+      boolean mapParameter = Map.class.equals(parameterTypes[0])
+          && componentContext.getComponentContainer().getOptions().isLiveServiceViews();
+      if (mapParameter && !(referenceMetadata instanceof ServiceReferenceMetadata)) {
+        throw new MetadataValidationException("Setter method for reference '"
+            + referenceMetadata.toString()
+            + "' that is defined in the class '" + componentContext.getComponentTypeName()
+            + "' can have a Map parameter only if the reference is a service reference.");
+      }
+      liveView = mapParameter && !Map.class.getName()
+          .equals(((ServiceReferenceMetadata) referenceMetadata).getServiceInterface());
+
       if (AbstractReferenceHolder.class.isAssignableFrom(parameterTypes[0])) {
         holder = true;
         array = false;
@@ -181,9 +238,10 @@ public abstract class ReferenceHelper<CAPABILITY, COMPONENT, METADATA extends Re
    * Calls the setter method with the current referenced object(s).
    */
   public void bind() {
+    long startNanos = componentContext.lifecyclePhaseStarted();
     try {
       if (setterMethod != null) {
-        if (!array && (suitings.length > 1)) {
+        if (!array && !liveView && (suitings.length > 1)) {
           getComponentContext().fail(new ConfigurationException(
               getReferenceMetadata().getAttributeId()
                   + ": Multiple references assigned to the reference while the setter"
@@ -195,6 +253,9 @@ public abstract class ReferenceHelper<CAPABILITY, COMPONENT, METADATA extends Re
       }
     } catch (RuntimeException e) {
       componentContext.fail(e, false);
+    } finally {
+      componentContext.lifecyclePhaseCompleted(ComponentLifecyclePhase.BIND,
+          referenceMetadata.getAttributeId(), startNanos);
     }
   }
 
@@ -268,11 +329,11 @@ public abstract class ReferenceHelper<CAPABILITY, COMPONENT, METADATA extends Re
           return emptyRequirementDefinitionsArray();
         }
         try {
-          Clause[] clauses = Parser.parseClauses(new String[] { requirementString });
-          if (clauses != null) {
-            fillAttributesOfRequirementFromClause(attributes, clauses[0]);
-            requirementId = clauses[0].getName();
-            filterString = clauses[0].getDirective("filter");
+          Clause clause = RequirementParseCache.getInstance().parseClause(requirementString);
+          if (clause != null) {
+            fillAttributesOfRequirementFromClause(attributes, clause);
+            requirementId = clause.getName();
+            filterString = clause.getDirective("filter");
           }
         } catch (IllegalArgumentException e) {
           failConfiguration("Invalid clause: " + requirementString, e);
@@ -283,7 +344,7 @@ public abstract class ReferenceHelper<CAPABILITY, COMPONENT, METADATA extends Re
       Filter filter = null;
       if (filterString != null) {
         try {
-          filter = FrameworkUtil.createFilter(filterString);
+          filter = RequirementParseCache.getInstance().createFilter(filterString);
         } catch (InvalidSyntaxException e) {
           failConfiguration("Invalid OSGi filter expression: " + requirementString, e);
           return emptyRequirementDefinitionsArray();
@@ -299,16 +360,30 @@ public abstract class ReferenceHelper<CAPABILITY, COMPONENT, METADATA extends Re
     return componentContext;
   }
 
+  public Lock getEventLock() {
+    return eventLock;
+  }
+
   public METADATA getReferenceMetadata() {
     return referenceMetadata;
   }
 
+  public MethodInvoker getSetterInvoker() {
+    return setterInvoker;
+  }
+
   public Method getSetterMethod() {
     return setterMethod;
   }
 
+  /**
+   * Returns the current suitings of the reference. The array is shared with the revisions of the
+   * component, so it is not copied on every change of the reference.
+   *
+   * @return The shared array of the suitings that must not be modified.
+   */
   public Suiting<CAPABILITY>[] getSuitings() {
-    return suitings.clone();
+    return suitings;
   }
 
   /**
@@ -318,6 +393,16 @@ public abstract class ReferenceHelper<CAPABILITY, COMPONENT, METADATA extends Re
   protected void init() {
   }
 
+  /**
+   * Called when one instance of a component with bundle or prototype service scope is
+   * deactivated while the reference stays bound for the other instances of the component.
+   *
+   * @param instance
+   *          The deactivated instance.
+   */
+  public void instanceDeactivated(final Object instance) {
+  }
+
   public boolean isArray() {
     return array;
   }
@@ -326,6 +411,17 @@ public abstract class ReferenceHelper<CAPABILITY, COMPONENT, METADATA extends Re
     return holder;
   }
 
+  /**
+   * Whether the setter of the reference gets a read-only live view of the referenced services
+   * instead of the services themselves.
+   *
+   * @return <code>true</code> if live service views are turned on, the parameter of the setter is
+   *         a {@link Map} and the service interface of the reference is not {@link Map}.
+   */
+  public boolean isLiveView() {
+    return liveView;
+  }
+
   public boolean isOpened() {
     return collector.isOpened();
   }
@@ -334,11 +430,51 @@ public abstract class ReferenceHelper<CAPABILITY, COMPONENT, METADATA extends Re
     return satisfied;
   }
 
+  /**
+   * Notifies the event handler of the component about the current state of the reference. The
+   * type of the event depends on the satisfaction of the reference and on the previously sent
+   * events.
+   */
+  public void notifyEventHandler() {
+    notifiedSuitings = suitings;
+    if (configurationUpdateFailure) {
+      satisfiedNotificationSent = false;
+      eventHandler.failedDuringConfigurationUpdate(this);
+    } else if (satisfied) {
+      if (!satisfiedNotificationSent) {
+        satisfiedNotificationSent = true;
+        componentContext.referenceSatisfactionChanged(referenceMetadata.getAttributeId(), true);
+        eventHandler.satisfied(this);
+      } else {
+        if (referenceMetadata.isDynamic()) {
+          eventHandler.updateDynamicWithoutSatisfactionChange(this);
+        } else {
+          eventHandler.updateNonDynamic(this);
+        }
+      }
+    } else {
+      if (satisfiedNotificationSent) {
+        satisfiedNotificationSent = false;
+        componentContext.referenceSatisfactionChanged(referenceMetadata.getAttributeId(), false);
+        eventHandler.unsatisfied(this);
+      } else {
+        eventHandler.updateDynamicWithoutSatisfactionChange(this);
+      }
+    }
+  }
+
   public void open() {
     updateConfiguration();
     collector.open();
   }
 
+  /**
+   * Releases the objects that were retained by {@link #retain()} if the reference was not bound
+   * again since then. The default implementation does nothing.
+   */
+  public void releaseRetained() {
+  }
+
   private void replaceEmptyStringWithNullInRequirementsArray(
       final String[] requirementStringArray) {
 
@@ -379,6 +515,15 @@ public abstract class ReferenceHelper<CAPABILITY, COMPONENT, METADATA extends Re
     return generateRequirementDefinitions(requirementStringArray, configurationType);
   }
 
+  /**
+   * Called instead of {@link #free()} when the component is deactivated to be restarted. The
+   * attached resources that do not change until the next bind may be retained, so they do not
+   * have to be acquired again. The default implementation calls {@link #free()}.
+   */
+  public void retain() {
+    free();
+  }
+
   /**
    * Called when the configuration of the component is updated.
    */
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal.attribute;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.utils.manifest.Clause;
+import org.apache.felix.utils.manifest.Parser;
+import org.everit.osgi.ecm.component.ri.RequirementParseCacheStatistics;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * Bounded cache of parsed clauses and compiled OSGi filters that is shared by every reference of
+ * every component. Factory components often have hundreds of configurations with the same
+ * requirement strings, so parsing and compiling them is done only once as long as they are used
+ * frequently. The least recently used entries are dropped when the cache is full. Parsed
+ * {@link Clause}s and compiled {@link Filter}s are immutable, so the same instance can be passed to
+ * any number of requirements.
+ */
+public final class RequirementParseCache {
+
+  /**
+   * {@link LinkedHashMap} in access order that drops the least recently used entry if the size
+   * exceeds the maximum.
+   *
+   * @param <V>
+   *          The type of the cached values.
+   */
+  private static final class LruMap<V> extends LinkedHashMap<String, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int maxSize;
+
+    LruMap(final int maxSize) {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, V> eldest) {
+      return size() > maxSize;
+    }
+  }
+
+  /**
+   * Immutable snapshot of the statistics of the cache.
+   */
+  private static final class Statistics implements RequirementParseCacheStatistics {
+
+    private final long clauseHitNum;
+
+    private final long clauseMissNum;
+
+    private final long filterHitNum;
+
+    private final long filterMissNum;
+
+    Statistics(final RequirementParseCache cache) {
+      this.clauseHitNum = cache.clauseHitCount.get();
+      this.clauseMissNum = cache.clauseMissCount.get();
+      this.filterHitNum = cache.filterHitCount.get();
+      this.filterMissNum = cache.filterMissCount.get();
+    }
+
+    @Override
+    public long getClauseHitNum() {
+      return clauseHitNum;
+    }
+
+    @Override
+    public long getClauseMissNum() {
+      return clauseMissNum;
+    }
+
+    @Override
+    public long getFilterHitNum() {
+      return filterHitNum;
+    }
+
+    @Override
+    public long getFilterMissNum() {
+      return filterMissNum;
+    }
+
+    @Override
+    public String toString() {
+      return "RequirementParseCacheStatistics [clauseHitNum=" + clauseHitNum + ", clauseMissNum="
+          + clauseMissNum + ", filterHitNum=" + filterHitNum + ", filterMissNum=" + filterMissNum
+          + "]";
+    }
+  }
+
+  /**
+   * The maximum number of clauses and the maximum number of filters that are held in the shared
+   * cache.
+   */
+  public static final int DEFAULT_MAX_SIZE = 1024;
+
+  private static final RequirementParseCache INSTANCE =
+      new RequirementParseCache(DEFAULT_MAX_SIZE);
+
+  public static RequirementParseCache getInstance() {
+    return INSTANCE;
+  }
+
+  private final AtomicLong clauseHitCount = new AtomicLong();
+
+  private final AtomicLong clauseMissCount = new AtomicLong();
+
+  private final LruMap<Clause> clauses;
+
+  private final AtomicLong filterHitCount = new AtomicLong();
+
+  private final AtomicLong filterMissCount = new AtomicLong();
+
+  private final LruMap<Filter> filters;
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize
+   *          The maximum number of clauses and the maximum number of filters that are cached.
+   */
+  public RequirementParseCache(final int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Maximum size must be positive: " + maxSize);
+    }
+    clauses = new LruMap<>(maxSize);
+    filters = new LruMap<>(maxSize);
+  }
+
+  /**
+   * Removes every entry from the cache. The statistics are not reset.
+   */
+  public void clear() {
+    synchronized (clauses) {
+      clauses.clear();
+    }
+    synchronized (filters) {
+      filters.clear();
+    }
+  }
+
+  /**
+   * Returns the compiled form of an OSGi filter expression.
+   *
+   * @param filterString
+   *          The filter expression.
+   * @return The compiled filter.
+   * @throws InvalidSyntaxException
+   *           if the filter expression is invalid. Invalid expressions are not cached.
+   */
+  public Filter createFilter(final String filterString) throws InvalidSyntaxException {
+    synchronized (filters) {
+      Filter filter = filters.get(filterString);
+      if (filter != null) {
+        filterHitCount.incrementAndGet();
+        return filter;
+      }
+    }
+    filterMissCount.incrementAndGet();
+
+    Filter filter = FrameworkUtil.createFilter(filterString);
+    synchronized (filters) {
+      filters.put(filterString, filter);
+    }
+    return filter;
+  }
+
+  /**
+   * Returns a snapshot of the hit and miss counts of the cache.
+   *
+   * @return The statistics of the cache.
+   */
+  public RequirementParseCacheStatistics getStatistics() {
+    return new Statistics(this);
+  }
+
+  /**
+   * Parses a clause string and returns the first clause of it.
+   *
+   * @param clauseString
+   *          The clause string in the same format as the headers of the MANIFEST.
+   * @return The first clause or <code>null</code> if the string does not contain any clause.
+   * @throws IllegalArgumentException
+   *           if the clause string is invalid. Invalid clause strings are not cached.
+   */
+  public Clause parseClause(final String clauseString) {
+    synchronized (clauses) {
+      Clause clause = clauses.get(clauseString);
+      if (clause != null) {
+        clauseHitCount.incrementAndGet();
+        return clause;
+      }
+    }
+    clauseMissCount.incrementAndGet();
+
+    Clause[] parsedClauses = Parser.parseClauses(new String[] { clauseString });
+    if ((parsedClauses == null) || (parsedClauses.length == 0)) {
+      return null;
+    }
+    Clause clause = parsedClauses[0];
+    synchronized (clauses) {
+      clauses.put(clauseString, clause);
+    }
+    return clause;
+  }
+
+  @Override
+  public String toString() {
+    return "RequirementParseCache [clauseHitCount=" + clauseHitCount + ", clauseMissCount="
+        + clauseMissCount + ", filterHitCount=" + filterHitCount + ", filterMissCount="
+        + filterMissCount + "]";
+  }
+}
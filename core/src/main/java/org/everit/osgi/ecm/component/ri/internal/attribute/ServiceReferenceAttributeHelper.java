@@ -16,11 +16,18 @@
 package org.everit.osgi.ecm.component.ri.internal.attribute;
 
 import java.lang.reflect.Array;
-import java.lang.reflect.Method;
-import java.util.Collection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Objects;
+import java.util.Set;
 
 import org.everit.osgi.capabilitycollector.AbstractCapabilityCollector;
 import org.everit.osgi.capabilitycollector.RequirementDefinition;
@@ -29,6 +36,7 @@ import org.everit.osgi.capabilitycollector.Suiting;
 import org.everit.osgi.ecm.component.ServiceHolder;
 import org.everit.osgi.ecm.component.ri.internal.ComponentContextImpl;
 import org.everit.osgi.ecm.component.ri.internal.ReferenceEventHandler;
+import org.everit.osgi.ecm.component.ri.internal.invoker.MethodInvoker;
 import org.everit.osgi.ecm.metadata.ServiceReferenceMetadata;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.ServiceObjects;
@@ -46,6 +54,91 @@ import org.osgi.framework.wiring.BundleWiring;
 public class ServiceReferenceAttributeHelper<S, COMPONENT> extends
     ReferenceHelper<ServiceReference<S>, COMPONENT, ServiceReferenceMetadata> {
 
+  /**
+   * A service that was passed to a callback of a component instance with the object that the
+   * callback got (the service itself or a {@link ServiceHolder}).
+   *
+   * @param <S>
+   *          The type of the OSGi service.
+   */
+  private static class DeliveredService<S> {
+    public Map<String, Object> attributes;
+
+    public Object parameter;
+
+    public SuitingWithService<S> suitingWithService;
+  }
+
+  /**
+   * Read-only view of the services that are bound to the reference by requirement ids. The view
+   * is passed to the setter of the reference if the parameter of the setter is a {@link Map} and
+   * it reflects the changes of the reference without calling the setter again. Every read and
+   * iteration works on the immutable snapshot of the services that was the latest when the read or
+   * the iteration started, so the view can be used by any thread without synchronization.
+   */
+  private final class LiveServiceMap extends AbstractMap<String, S> {
+
+    @Override
+    public boolean containsKey(final Object key) {
+      return (key instanceof String) && suitingsByRequirementId.containsKey((String) key);
+    }
+
+    @Override
+    public Set<Map.Entry<String, S>> entrySet() {
+      final PersistentSortedMap<String, SuitingWithService<S>> snapshot = suitingsByRequirementId;
+      return new AbstractSet<Map.Entry<String, S>>() {
+
+        @Override
+        public Iterator<Map.Entry<String, S>> iterator() {
+          final Iterator<Map.Entry<String, SuitingWithService<S>>> iterator = snapshot.iterator();
+          return new Iterator<Map.Entry<String, S>>() {
+
+            @Override
+            public boolean hasNext() {
+              return iterator.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, S> next() {
+              Map.Entry<String, SuitingWithService<S>> entry = iterator.next();
+              return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(),
+                  entry.getValue().service);
+            }
+
+            @Override
+            public void remove() {
+              throw new UnsupportedOperationException("The view of the services is read-only");
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return snapshot.size();
+        }
+      };
+    }
+
+    @Override
+    public S get(final Object key) {
+      if (!(key instanceof String)) {
+        return null;
+      }
+      SuitingWithService<S> suitingWithService = suitingsByRequirementId.get((String) key);
+      return (suitingWithService == null) ? null : suitingWithService.service;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return suitingsByRequirementId.isEmpty();
+    }
+
+    @Override
+    public int size() {
+      return suitingsByRequirementId.size();
+    }
+  }
+
   /**
    * {@link ServiceObjects} with counter, where counter tells how many times the
    * {@link ServiceObjects} was used to get service.
@@ -72,13 +165,47 @@ public class ServiceReferenceAttributeHelper<S, COMPONENT> extends
     public Suiting<ServiceReference<S>> suiting;
   }
 
-  private Map<String, SuitingWithService<S>> previousSuitingsByRequirementId = new TreeMap<>();
+  private ReferenceCallbacks callbacks;
+
+  /**
+   * The services that were delivered to the callbacks by component instances and requirement ids.
+   * Used only if the changes of the reference are delivered to callbacks.
+   */
+  private final Map<Object, Map<String, DeliveredService<S>>> deliveredServicesByInstance =
+      new IdentityHashMap<>();
+
+  /**
+   * Whether proxies are injected that get the services at the first method call.
+   */
+  private boolean lazyServiceProxies;
+
+  private final Map<String, S> liveServiceMap = new LiveServiceMap();
+
+  /**
+   * The component instances whose setter was already called with the {@link LiveServiceMap}.
+   */
+  private final Set<Object> liveViewInstances =
+      Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+  /**
+   * Whether the services were retained during a restart of the component and the reference has
+   * not been bound again since then.
+   */
+  private boolean retained = false;
 
   private Class<S> serviceClass;
 
   private final Map<ServiceReference<S>, ServiceObjectsWithCounter<S>> serviceObjectsByReferences =
       new HashMap<>();
 
+  /**
+   * The services that are bound to the reference by requirement ids. The map is changed only for
+   * the requirements whose services change, so the unchanged part is shared with the previous
+   * version that the {@link LiveServiceMap} might still read.
+   */
+  private volatile PersistentSortedMap<String, SuitingWithService<S>> suitingsByRequirementId =
+      PersistentSortedMap.empty();
+
   public ServiceReferenceAttributeHelper(final ServiceReferenceMetadata referenceMetadata,
       final ComponentContextImpl<COMPONENT> componentContext,
       final ReferenceEventHandler eventHandler)
@@ -97,7 +224,13 @@ public class ServiceReferenceAttributeHelper<S, COMPONENT> extends
       serviceObjectsByReferences.put(serviceReference, serviceObjectsWithCounter);
     }
 
-    S service = serviceObjectsWithCounter.serviceObjects.getService();
+    S service;
+    if (lazyServiceProxies) {
+      service = LazyServiceProxyHandler.createProxy(serviceClass,
+          serviceObjectsWithCounter.serviceObjects);
+    } else {
+      service = serviceObjectsWithCounter.serviceObjects.getService();
+    }
 
     serviceObjectsWithCounter.counter++;
     return service;
@@ -105,75 +238,124 @@ public class ServiceReferenceAttributeHelper<S, COMPONENT> extends
 
   @Override
   protected synchronized void bindInternal() {
-
-    Map<String, SuitingWithService<S>> newSuitingMapping = new TreeMap<>();
+    retained = false;
+
+    PersistentSortedMap<String, SuitingWithService<S>> previousSuitingMapping =
+        suitingsByRequirementId;
+    PersistentSortedMap<String, SuitingWithService<S>> newSuitingMapping =
+        previousSuitingMapping;
+    List<SuitingWithService<S>> unboundSuitings = new ArrayList<>();
+    int keptRequirementNum = 0;
     Suiting<ServiceReference<S>>[] tmpSuitings = getSuitings();
 
-    Object[] parameter = resolveParameterArray(tmpSuitings);
+    Object[] parameter = ((callbacks == null) && !isLiveView())
+        ? resolveParameterArray(tmpSuitings)
+        : null;
 
     for (int i = 0; i < tmpSuitings.length; i++) {
       Suiting<ServiceReference<S>> suiting = tmpSuitings[i];
       ServiceReference<S> serviceReference = suiting.getCapability();
-      RequirementDefinition<ServiceReference<S>> requirement = suiting.getRequirement();
 
       String requirementId = suiting.getRequirement().getRequirementId();
 
-      SuitingWithService<S> previousSuitingWithService = previousSuitingsByRequirementId
-          .get(requirementId);
+      SuitingWithService<S> previousSuitingWithService =
+          previousSuitingMapping.get(requirementId);
+      if (previousSuitingWithService != null) {
+        keptRequirementNum++;
+      }
 
       S service;
       if ((previousSuitingWithService == null)
           || (previousSuitingWithService.suiting.getCapability()
               .compareTo(suiting.getCapability()) != 0)) {
 
+        if (previousSuitingWithService != null) {
+          unboundSuitings.add(previousSuitingWithService);
+          newSuitingMapping = newSuitingMapping.remove(requirementId);
+        }
         service = addToUsedServiceReferences(serviceReference);
         if (service != null) {
           SuitingWithService<S> suitingWithService = new SuitingWithService<>();
           suitingWithService.service = service;
           suitingWithService.suiting = suiting;
-          newSuitingMapping.put(requirementId, suitingWithService);
+          newSuitingMapping = newSuitingMapping.put(requirementId, suitingWithService);
         }
       } else {
-        previousSuitingsByRequirementId.remove(requirementId);
         service = previousSuitingWithService.service;
-        newSuitingMapping.put(requirementId, previousSuitingWithService);
       }
 
-      if (isHolder()) {
-        ServiceHolder<S> serviceHolder = new ServiceHolder<>(suiting.getRequirement()
-            .getRequirementId(), serviceReference, service, requirement.getAttributes());
-
-        parameter[i] = serviceHolder;
-      } else {
-        parameter[i] = service;
+      if (parameter != null) {
+        parameter[i] = createParameter(suiting, service);
       }
+    }
 
+    if (keptRequirementNum < previousSuitingMapping.size()) {
+      // Some requirements disappeared from the reference
+      Set<String> requirementIds = new HashSet<>();
+      for (Suiting<ServiceReference<S>> suiting : tmpSuitings) {
+        requirementIds.add(suiting.getRequirement().getRequirementId());
+      }
+      for (Map.Entry<String, SuitingWithService<S>> entry : previousSuitingMapping) {
+        if (!requirementIds.contains(entry.getKey())) {
+          unboundSuitings.add(entry.getValue());
+          newSuitingMapping = newSuitingMapping.remove(entry.getKey());
+        }
+      }
     }
 
-    callSetterWithParameters(parameter);
+    suitingsByRequirementId = newSuitingMapping;
+
+    if (callbacks != null) {
+      deliverChanges(tmpSuitings, newSuitingMapping);
+    } else if (isLiveView()) {
+      callSetterWithLiveView();
+    } else {
+      callSetterWithParameters(parameter);
+    }
 
-    Collection<SuitingWithService<S>> previousSuitings = previousSuitingsByRequirementId.values();
-    for (SuitingWithService<S> suitingWithService : previousSuitings) {
+    for (SuitingWithService<S> suitingWithService : unboundSuitings) {
       removeFromUsedServiceReferences(suitingWithService);
     }
+  }
 
-    previousSuitingsByRequirementId = newSuitingMapping;
+  private boolean callCallback(final MethodInvoker callbackInvoker, final Object instance,
+      final Object parameter) {
+    try {
+      callbackInvoker.invokeWithParameter(instance, parameter);
+      return true;
+    } catch (Throwable e) {
+      getComponentContext().fail(e, false);
+      return false;
+    }
+  }
+
+  private void callSetterWithLiveView() {
+    Object instance = getComponentContext().getInstance();
+    if (!liveViewInstances.add(instance)) {
+      // The instance already follows the changes via the view
+      return;
+    }
+    try {
+      getSetterInvoker().invokeWithParameter(instance, liveServiceMap);
+    } catch (Throwable e) {
+      getComponentContext().fail(e, false);
+    }
   }
 
   private void callSetterWithParameters(final Object[] parameter) {
-    Method setterMethod = getSetterMethod();
+    MethodInvoker setterInvoker = getSetterInvoker();
     if (isArray()) {
       try {
-        setterMethod.invoke(getComponentContext().getInstance(), (Object) parameter);
+        setterInvoker.invokeWithParameter(getComponentContext().getInstance(), parameter);
       } catch (Throwable e) {
         getComponentContext().fail(e, false);
       }
     } else {
       try {
         if (parameter.length == 0) {
-          setterMethod.invoke(getComponentContext().getInstance(), (Object) null);
+          setterInvoker.invokeWithParameter(getComponentContext().getInstance(), null);
         } else {
-          setterMethod.invoke(getComponentContext().getInstance(), parameter[0]);
+          setterInvoker.invokeWithParameter(getComponentContext().getInstance(), parameter[0]);
         }
       } catch (Throwable e) {
         getComponentContext().fail(e, false);
@@ -189,6 +371,15 @@ public class ServiceReferenceAttributeHelper<S, COMPONENT> extends
     releaseServices();
   }
 
+  private Object createParameter(final Suiting<ServiceReference<S>> suiting, final S service) {
+    if (isHolder()) {
+      RequirementDefinition<ServiceReference<S>> requirement = suiting.getRequirement();
+      return new ServiceHolder<>(requirement.getRequirementId(), suiting.getCapability(), service,
+          requirement.getAttributes());
+    }
+    return service;
+  }
+
   @Override
   protected AbstractCapabilityCollector<ServiceReference<S>> createCollector(
       final ReferenceCapabilityConsumer consumer,
@@ -198,13 +389,109 @@ public class ServiceReferenceAttributeHelper<S, COMPONENT> extends
         serviceClass, items, consumer, false);
   }
 
+  /**
+   * Delivers the changes of the reference to the callbacks of the current component instance.
+   * The services that are not bound anymore are removed first, then the modifications and the
+   * new services are delivered in the order of the suitings. The changes are computed from the
+   * services that were delivered earlier to the same instance, so every instance of a component
+   * with bundle or prototype service scope gets its own changes.
+   *
+   * @param tmpSuitings
+   *          The current suitings of the reference.
+   * @param newSuitingMapping
+   *          The services that are bound to the suitings by requirement ids.
+   */
+  private void deliverChanges(final Suiting<ServiceReference<S>>[] tmpSuitings,
+      final PersistentSortedMap<String, SuitingWithService<S>> newSuitingMapping) {
+    Object instance = getComponentContext().getInstance();
+    Map<String, DeliveredService<S>> previousDeliveredServices =
+        deliveredServicesByInstance.get(instance);
+    if (previousDeliveredServices == null) {
+      previousDeliveredServices = new HashMap<>();
+    }
+    Map<String, DeliveredService<S>> deliveredServices = new HashMap<>();
+    List<DeliveredService<S>> removedServices = new ArrayList<>();
+    List<DeliveredService<S>> modifiedServices = new ArrayList<>();
+    List<DeliveredService<S>> addedServices = new ArrayList<>();
+
+    for (Suiting<ServiceReference<S>> suiting : tmpSuitings) {
+      String requirementId = suiting.getRequirement().getRequirementId();
+      SuitingWithService<S> suitingWithService = newSuitingMapping.get(requirementId);
+      DeliveredService<S> previousDeliveredService =
+          previousDeliveredServices.remove(requirementId);
+      if (suitingWithService == null) {
+        // The service is not available anymore
+        if (previousDeliveredService != null) {
+          removedServices.add(previousDeliveredService);
+        }
+        continue;
+      }
+
+      Map<String, Object> attributes = suiting.getRequirement().getAttributes();
+      if ((previousDeliveredService != null)
+          && (previousDeliveredService.suitingWithService == suitingWithService)
+          && Objects.equals(previousDeliveredService.attributes, attributes)) {
+        deliveredServices.put(requirementId, previousDeliveredService);
+        continue;
+      }
+
+      DeliveredService<S> deliveredService = new DeliveredService<>();
+      deliveredService.attributes = attributes;
+      deliveredService.parameter = createParameter(suiting, suitingWithService.service);
+      deliveredService.suitingWithService = suitingWithService;
+      deliveredServices.put(requirementId, deliveredService);
+
+      if (previousDeliveredService == null) {
+        addedServices.add(deliveredService);
+      } else if ((previousDeliveredService.suitingWithService == suitingWithService)
+          && (callbacks.getModifiedInvoker() != null)) {
+        modifiedServices.add(deliveredService);
+      } else {
+        removedServices.add(previousDeliveredService);
+        addedServices.add(deliveredService);
+      }
+    }
+    removedServices.addAll(previousDeliveredServices.values());
+
+    if (deliveredServices.isEmpty()) {
+      deliveredServicesByInstance.remove(instance);
+    } else {
+      deliveredServicesByInstance.put(instance, deliveredServices);
+    }
+
+    for (DeliveredService<S> removedService : removedServices) {
+      if (!callCallback(callbacks.getRemoveInvoker(), instance, removedService.parameter)) {
+        return;
+      }
+    }
+    for (DeliveredService<S> modifiedService : modifiedServices) {
+      if (!callCallback(callbacks.getModifiedInvoker(), instance, modifiedService.parameter)) {
+        return;
+      }
+    }
+    for (DeliveredService<S> addedService : addedServices) {
+      if (!callCallback(callbacks.getAddInvoker(), instance, addedService.parameter)) {
+        return;
+      }
+    }
+  }
+
   @Override
-  public void free() {
+  public synchronized void free() {
     releaseServices();
   }
 
+  @Override
+  public synchronized void instanceDeactivated(final Object instance) {
+    deliveredServicesByInstance.remove(instance);
+    liveViewInstances.remove(instance);
+  }
+
   @Override
   protected void init() {
+    callbacks = getComponentContext().getComponentTypeModel()
+        .getReferenceCallbacks(getReferenceMetadata());
+
     String serviceInterfaceName = getReferenceMetadata().getServiceInterface();
 
     if (serviceInterfaceName == null) {
@@ -219,21 +506,33 @@ public class ServiceReferenceAttributeHelper<S, COMPONENT> extends
       Class<S> tmpServiceClass =
           (Class<S>) Class.forName(serviceInterfaceName, true, classLoader);
       this.serviceClass = tmpServiceClass;
+      this.lazyServiceProxies = tmpServiceClass.isInterface() && getComponentContext()
+          .getComponentContainer().getOptions().isLazyServiceProxies();
     } catch (ClassNotFoundException e) {
       throw new IllegalArgumentException(e);
     }
   }
 
+  @Override
+  public synchronized void releaseRetained() {
+    if (retained) {
+      releaseServices();
+    }
+  }
+
   private void releaseServices() {
-    Collection<SuitingWithService<S>> suitingsWithServices = previousSuitingsByRequirementId
-        .values();
+    retained = false;
+    PersistentSortedMap<String, SuitingWithService<S>> suitingsWithServices =
+        suitingsByRequirementId;
+    suitingsByRequirementId = PersistentSortedMap.empty();
 
-    for (SuitingWithService<S> suitingWithService : suitingsWithServices) {
-      removeFromUsedServiceReferences(suitingWithService);
+    for (Map.Entry<String, SuitingWithService<S>> entry : suitingsWithServices) {
+      removeFromUsedServiceReferences(entry.getValue());
     }
 
     serviceObjectsByReferences.clear();
-    previousSuitingsByRequirementId.clear();
+    deliveredServicesByInstance.clear();
+    liveViewInstances.clear();
   }
 
   private void removeFromUsedServiceReferences(final SuitingWithService<S> suitingWithService) {
@@ -242,7 +541,13 @@ public class ServiceReferenceAttributeHelper<S, COMPONENT> extends
       ServiceReference<S> serviceReference = suitingWithService.suiting.getCapability();
       ServiceObjectsWithCounter<S> serviceObjectsWithCounter = serviceObjectsByReferences
           .get(serviceReference);
-      serviceObjectsWithCounter.serviceObjects.ungetService(service);
+      LazyServiceProxyHandler<?> lazyServiceProxyHandler =
+          LazyServiceProxyHandler.getHandler(service);
+      if (lazyServiceProxyHandler != null) {
+        lazyServiceProxyHandler.release();
+      } else {
+        serviceObjectsWithCounter.serviceObjects.ungetService(service);
+      }
 
       serviceObjectsWithCounter.counter--;
 
@@ -261,4 +566,16 @@ public class ServiceReferenceAttributeHelper<S, COMPONENT> extends
     }
     return parameter;
   }
+
+  /**
+   * Keeps the services that are bound to the reference, so the services whose capability does not
+   * change until the next bind are passed to the new component instance without getting them
+   * again. Only the callbacks of the previous instance are forgotten.
+   */
+  @Override
+  public synchronized void retain() {
+    deliveredServicesByInstance.clear();
+    liveViewInstances.clear();
+    retained = true;
+  }
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal.attribute;
+
+import org.everit.osgi.ecm.component.ri.internal.ComponentContextImpl;
+
+/**
+ * Converts the configured value of an attribute to the type of the attribute. Instances are
+ * created by {@link ValueConverterRegistry} for one attribute and one source type, so the type of
+ * the value does not have to be examined again during the conversion. Converters are stateless,
+ * they can be shared between the component instances of a container.
+ */
+public interface ValueConverter {
+
+  /**
+   * Converts a value.
+   *
+   * @param value
+   *          The value that must have the source type the converter was created for.
+   * @param componentContext
+   *          The context of the component that is used to create meaningful error messages.
+   * @return The converted value or the same instance if no conversion was necessary.
+   * @throws org.everit.osgi.ecm.component.ConfigurationException
+   *           if the value cannot be converted.
+   */
+  Object convert(Object value, ComponentContextImpl<?> componentContext);
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal.attribute;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.everit.osgi.ecm.metadata.AttributeMetadata;
+import org.everit.osgi.ecm.metadata.ComponentMetadata;
+import org.everit.osgi.ecm.metadata.PropertyAttributeMetadata;
+
+/**
+ * Holds the {@link ValueConverter}s of the property attributes of a component. The registry is
+ * created together with the component container and it is shared between all component instances
+ * of the container. The converters of the most common source types (<code>String</code> for
+ * simple attributes and <code>String[]</code> for multi-value attributes) are created
+ * immediately, the converters of other source types are created and cached when they are first
+ * needed.
+ */
+public final class ValueConverterRegistry {
+
+  private final Map<String, ConcurrentMap<Class<?>, ValueConverter>> convertersByAttributeId;
+
+  /**
+   * Constructor.
+   *
+   * @param componentMetadata
+   *          The metadata of the component whose attribute values are converted.
+   */
+  public ValueConverterRegistry(final ComponentMetadata componentMetadata) {
+    Map<String, ConcurrentMap<Class<?>, ValueConverter>> converters = new HashMap<>();
+    for (AttributeMetadata<?> attributeMetadata : componentMetadata.getAttributes()) {
+      if (attributeMetadata instanceof PropertyAttributeMetadata) {
+        ConcurrentMap<Class<?>, ValueConverter> convertersOfAttribute =
+            new ConcurrentHashMap<>();
+        Class<?> stringSourceType = (attributeMetadata.isMultiple()) ? String[].class
+            : String.class;
+        convertersOfAttribute.put(stringSourceType,
+            ValueConverters.create(attributeMetadata, stringSourceType));
+        converters.put(attributeMetadata.getAttributeId(), convertersOfAttribute);
+      }
+    }
+    this.convertersByAttributeId = Collections.unmodifiableMap(converters);
+  }
+
+  /**
+   * Returns the converter of an attribute for a source type.
+   *
+   * @param attributeMetadata
+   *          The metadata of the attribute.
+   * @param sourceType
+   *          The type of the configured value.
+   * @return The converter that converts the values of the source type to the type of the
+   *         attribute.
+   */
+  public ValueConverter getConverter(final AttributeMetadata<?> attributeMetadata,
+      final Class<?> sourceType) {
+    ConcurrentMap<Class<?>, ValueConverter> convertersOfAttribute =
+        convertersByAttributeId.get(attributeMetadata.getAttributeId());
+    if (convertersOfAttribute == null) {
+      return ValueConverters.create(attributeMetadata, sourceType);
+    }
+    ValueConverter converter = convertersOfAttribute.get(sourceType);
+    if (converter != null) {
+      return converter;
+    }
+    converter = ValueConverters.create(attributeMetadata, sourceType);
+    ValueConverter existingConverter = convertersOfAttribute.putIfAbsent(sourceType, converter);
+    if (existingConverter != null) {
+      return existingConverter;
+    }
+    return converter;
+  }
+}
@@ -0,0 +1,487 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal.attribute;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.everit.osgi.ecm.component.PasswordHolder;
+import org.everit.osgi.ecm.component.ri.internal.ComponentContextImpl;
+import org.everit.osgi.ecm.metadata.AttributeMetadata;
+import org.everit.osgi.ecm.metadata.PasswordAttributeMetadata;
+
+/**
+ * Creates the {@link ValueConverter}s of attributes. All decisions that depend on the source type
+ * and on the type of the attribute are made when the converter is created.
+ */
+final class ValueConverters {
+
+  /**
+   * Converts an array of boxed values to an array of the primitive type.
+   */
+  private static final class BoxedArrayToPrimitiveArrayConverter implements ValueConverter {
+
+    private final PrimitiveArrayType arrayType;
+
+    private final AttributeMetadata<?> attributeMetadata;
+
+    BoxedArrayToPrimitiveArrayConverter(final AttributeMetadata<?> attributeMetadata,
+        final PrimitiveArrayType arrayType) {
+      this.attributeMetadata = attributeMetadata;
+      this.arrayType = arrayType;
+    }
+
+    @Override
+    public Object convert(final Object value, final ComponentContextImpl<?> componentContext) {
+      Object[] source = (Object[]) value;
+      Object result = arrayType.newArray(source.length);
+      for (int i = 0; i < source.length; i++) {
+        if (source[i] == null) {
+          PropertyAttributeUtil.failDuringValueResolution(
+              "Array element cannot be null at index " + i, componentContext, attributeMetadata);
+        }
+        arrayType.setBoxedElement(result, i, source[i]);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Fails the component as the source type cannot be converted to the type of the attribute.
+   */
+  private static final class IncompatibleTypeConverter implements ValueConverter {
+
+    private final AttributeMetadata<?> attributeMetadata;
+
+    private final String message;
+
+    IncompatibleTypeConverter(final AttributeMetadata<?> attributeMetadata,
+        final Class<?> sourceType, final Class<?> targetType) {
+      this.attributeMetadata = attributeMetadata;
+
+      StringBuilder sb = new StringBuilder();
+      if (targetType.isPrimitive()) {
+        sb.append("Either ")
+            .append(PropertyAttributeUtil.PRIMITIVE_BOXING_TYPE_MAPPING.get(targetType)
+                .getCanonicalName())
+            .append(" or ");
+      }
+      sb.append(targetType.getCanonicalName()).append(" was expected, but got ")
+          .append(sourceType.getCanonicalName());
+      this.message = sb.toString();
+    }
+
+    @Override
+    public Object convert(final Object value, final ComponentContextImpl<?> componentContext) {
+      PropertyAttributeUtil.failDuringValueResolution(message, componentContext,
+          attributeMetadata);
+      return null;
+    }
+  }
+
+  /**
+   * Creates and fills the arrays of a primitive type without boxing the elements.
+   */
+  private abstract static class PrimitiveArrayType {
+
+    abstract Object newArray(int length);
+
+    abstract void parseElement(Object array, int index, String value);
+
+    abstract void setBoxedElement(Object array, int index, Object value);
+  }
+
+  /**
+   * Converts a string array to an array of a primitive type.
+   */
+  private static final class StringArrayToPrimitiveArrayConverter implements ValueConverter {
+
+    private final PrimitiveArrayType arrayType;
+
+    private final AttributeMetadata<?> attributeMetadata;
+
+    StringArrayToPrimitiveArrayConverter(final AttributeMetadata<?> attributeMetadata,
+        final PrimitiveArrayType arrayType) {
+      this.attributeMetadata = attributeMetadata;
+      this.arrayType = arrayType;
+    }
+
+    @Override
+    public Object convert(final Object value, final ComponentContextImpl<?> componentContext) {
+      String[] source = (String[]) value;
+      Object result = arrayType.newArray(source.length);
+      for (int i = 0; i < source.length; i++) {
+        String element = source[i];
+        if (element == null) {
+          PropertyAttributeUtil.failDuringValueResolution(
+              "Array element cannot be null at index " + i, componentContext, attributeMetadata);
+        }
+        try {
+          arrayType.parseElement(result, i, element);
+        } catch (NumberFormatException e) {
+          PropertyAttributeUtil.failDuringValueResolution(
+              "String value \"" + element + "\" cannot be converted to type '"
+                  + attributeMetadata.getValueType().getCanonicalName() + "'",
+              componentContext, attributeMetadata);
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Converts a string to a char.
+   */
+  private static final class StringToCharConverter implements ValueConverter {
+
+    private final AttributeMetadata<?> attributeMetadata;
+
+    StringToCharConverter(final AttributeMetadata<?> attributeMetadata) {
+      this.attributeMetadata = attributeMetadata;
+    }
+
+    @Override
+    public Object convert(final Object value, final ComponentContextImpl<?> componentContext) {
+      String stringValue = (String) value;
+      if (stringValue.length() == 1) {
+        return stringValue.charAt(0);
+      } else if (stringValue.length() > 1) {
+        PropertyAttributeUtil.failDuringValueResolution(
+            "String value with multiple characters cannot be converted to char type",
+            componentContext, attributeMetadata);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Converts a string to a boolean or a number.
+   */
+  private abstract static class StringToScalarConverter implements ValueConverter {
+
+    private final AttributeMetadata<?> attributeMetadata;
+
+    StringToScalarConverter(final AttributeMetadata<?> attributeMetadata) {
+      this.attributeMetadata = attributeMetadata;
+    }
+
+    @Override
+    public Object convert(final Object value, final ComponentContextImpl<?> componentContext) {
+      String stringValue = (String) value;
+      if ("".equals(stringValue.trim())) {
+        PropertyAttributeUtil.checkAttributeOptional(componentContext, attributeMetadata);
+        return null;
+      }
+      try {
+        return parse(stringValue);
+      } catch (NumberFormatException e) {
+        PropertyAttributeUtil.failDuringValueResolution(
+            "String value \"" + stringValue + "\" cannot be converted to type '"
+                + attributeMetadata.getValueType().getCanonicalName() + "'",
+            componentContext, attributeMetadata);
+        return null;
+      }
+    }
+
+    protected abstract Object parse(String value);
+  }
+
+  private static final ValueConverter IDENTITY = new ValueConverter() {
+
+    @Override
+    public Object convert(final Object value, final ComponentContextImpl<?> componentContext) {
+      return value;
+    }
+  };
+
+  private static final ValueConverter PASSWORD_HOLDER_TO_STRING = new ValueConverter() {
+
+    @Override
+    public Object convert(final Object value, final ComponentContextImpl<?> componentContext) {
+      return ((PasswordHolder) value).getPassword();
+    }
+  };
+
+  private static final Map<Class<?>, PrimitiveArrayType> PRIMITIVE_ARRAY_TYPES;
+
+  static {
+    Map<Class<?>, PrimitiveArrayType> primitiveArrayTypes = new HashMap<>();
+    primitiveArrayTypes.put(boolean.class, new PrimitiveArrayType() {
+
+      @Override
+      Object newArray(final int length) {
+        return new boolean[length];
+      }
+
+      @Override
+      void parseElement(final Object array, final int index, final String value) {
+        ((boolean[]) array)[index] = Boolean.parseBoolean(value);
+      }
+
+      @Override
+      void setBoxedElement(final Object array, final int index, final Object value) {
+        ((boolean[]) array)[index] = (Boolean) value;
+      }
+    });
+    primitiveArrayTypes.put(byte.class, new PrimitiveArrayType() {
+
+      @Override
+      Object newArray(final int length) {
+        return new byte[length];
+      }
+
+      @Override
+      void parseElement(final Object array, final int index, final String value) {
+        ((byte[]) array)[index] = Byte.parseByte(value);
+      }
+
+      @Override
+      void setBoxedElement(final Object array, final int index, final Object value) {
+        ((byte[]) array)[index] = (Byte) value;
+      }
+    });
+    primitiveArrayTypes.put(char.class, new PrimitiveArrayType() {
+
+      @Override
+      Object newArray(final int length) {
+        return new char[length];
+      }
+
+      @Override
+      void parseElement(final Object array, final int index, final String value) {
+        if (value.length() != 1) {
+          throw new NumberFormatException();
+        }
+        ((char[]) array)[index] = value.charAt(0);
+      }
+
+      @Override
+      void setBoxedElement(final Object array, final int index, final Object value) {
+        ((char[]) array)[index] = (Character) value;
+      }
+    });
+    primitiveArrayTypes.put(double.class, new PrimitiveArrayType() {
+
+      @Override
+      Object newArray(final int length) {
+        return new double[length];
+      }
+
+      @Override
+      void parseElement(final Object array, final int index, final String value) {
+        ((double[]) array)[index] = Double.parseDouble(value);
+      }
+
+      @Override
+      void setBoxedElement(final Object array, final int index, final Object value) {
+        ((double[]) array)[index] = (Double) value;
+      }
+    });
+    primitiveArrayTypes.put(float.class, new PrimitiveArrayType() {
+
+      @Override
+      Object newArray(final int length) {
+        return new float[length];
+      }
+
+      @Override
+      void parseElement(final Object array, final int index, final String value) {
+        ((float[]) array)[index] = Float.parseFloat(value);
+      }
+
+      @Override
+      void setBoxedElement(final Object array, final int index, final Object value) {
+        ((float[]) array)[index] = (Float) value;
+      }
+    });
+    primitiveArrayTypes.put(int.class, new PrimitiveArrayType() {
+
+      @Override
+      Object newArray(final int length) {
+        return new int[length];
+      }
+
+      @Override
+      void parseElement(final Object array, final int index, final String value) {
+        ((int[]) array)[index] = Integer.parseInt(value);
+      }
+
+      @Override
+      void setBoxedElement(final Object array, final int index, final Object value) {
+        ((int[]) array)[index] = (Integer) value;
+      }
+    });
+    primitiveArrayTypes.put(long.class, new PrimitiveArrayType() {
+
+      @Override
+      Object newArray(final int length) {
+        return new long[length];
+      }
+
+      @Override
+      void parseElement(final Object array, final int index, final String value) {
+        ((long[]) array)[index] = Long.parseLong(value);
+      }
+
+      @Override
+      void setBoxedElement(final Object array, final int index, final Object value) {
+        ((long[]) array)[index] = (Long) value;
+      }
+    });
+    primitiveArrayTypes.put(short.class, new PrimitiveArrayType() {
+
+      @Override
+      Object newArray(final int length) {
+        return new short[length];
+      }
+
+      @Override
+      void parseElement(final Object array, final int index, final String value) {
+        ((short[]) array)[index] = Short.parseShort(value);
+      }
+
+      @Override
+      void setBoxedElement(final Object array, final int index, final Object value) {
+        ((short[]) array)[index] = (Short) value;
+      }
+    });
+    PRIMITIVE_ARRAY_TYPES = Collections.unmodifiableMap(primitiveArrayTypes);
+  }
+
+  /**
+   * Creates the converter of an attribute for a source type.
+   *
+   * @param attributeMetadata
+   *          The metadata of the attribute.
+   * @param sourceType
+   *          The type of the configured values.
+   * @return The converter that converts the values to the type of the attribute.
+   */
+  static ValueConverter create(final AttributeMetadata<?> attributeMetadata,
+      final Class<?> sourceType) {
+    if (attributeMetadata.isMultiple()) {
+      return createMultiValueConverter(attributeMetadata, sourceType);
+    } else {
+      return createSimpleValueConverter(attributeMetadata, sourceType);
+    }
+  }
+
+  private static ValueConverter createMultiValueConverter(
+      final AttributeMetadata<?> attributeMetadata, final Class<?> sourceType) {
+    Class<?> elementType = attributeMetadata.getValueType();
+    if (!sourceType.isArray() || !elementType.isPrimitive()
+        || (attributeMetadata instanceof PasswordAttributeMetadata)) {
+      // Passwords and non-array values are resolved by the setter of the attribute
+      return IDENTITY;
+    }
+
+    Class<?> sourceElementType = sourceType.getComponentType();
+    PrimitiveArrayType arrayType = PRIMITIVE_ARRAY_TYPES.get(elementType);
+    if (String.class.equals(sourceElementType)) {
+      return new StringArrayToPrimitiveArrayConverter(attributeMetadata, arrayType);
+    }
+    if (sourceElementType
+        .equals(PropertyAttributeUtil.PRIMITIVE_BOXING_TYPE_MAPPING.get(elementType))) {
+      return new BoxedArrayToPrimitiveArrayConverter(attributeMetadata, arrayType);
+    }
+    // Either the same type or a type that the setter of the attribute will not accept
+    return IDENTITY;
+  }
+
+  private static ValueConverter createSimpleValueConverter(
+      final AttributeMetadata<?> attributeMetadata, final Class<?> sourceType) {
+    Class<?> targetType = attributeMetadata.getValueType();
+    if (PropertyAttributeUtil.typesEqualWithOrWithoutBoxing(sourceType, targetType)) {
+      return IDENTITY;
+    }
+
+    if (String.class.equals(sourceType)) {
+      return createStringConverter(attributeMetadata, targetType);
+    }
+    if (PasswordHolder.class.equals(sourceType) && String.class.equals(targetType)) {
+      return PASSWORD_HOLDER_TO_STRING;
+    }
+    return new IncompatibleTypeConverter(attributeMetadata, sourceType, targetType);
+  }
+
+  private static ValueConverter createStringConverter(
+      final AttributeMetadata<?> attributeMetadata, final Class<?> targetType) {
+    if (char.class.equals(targetType)) {
+      return new StringToCharConverter(attributeMetadata);
+    } else if (boolean.class.equals(targetType)) {
+      return new StringToScalarConverter(attributeMetadata) {
+
+        @Override
+        protected Object parse(final String value) {
+          return Boolean.valueOf(value);
+        }
+      };
+    } else if (byte.class.equals(targetType)) {
+      return new StringToScalarConverter(attributeMetadata) {
+
+        @Override
+        protected Object parse(final String value) {
+          return Byte.valueOf(value);
+        }
+      };
+    } else if (double.class.equals(targetType)) {
+      return new StringToScalarConverter(attributeMetadata) {
+
+        @Override
+        protected Object parse(final String value) {
+          return Double.valueOf(value);
+        }
+      };
+    } else if (float.class.equals(targetType)) {
+      return new StringToScalarConverter(attributeMetadata) {
+
+        @Override
+        protected Object parse(final String value) {
+          return Float.valueOf(value);
+        }
+      };
+    } else if (int.class.equals(targetType)) {
+      return new StringToScalarConverter(attributeMetadata) {
+
+        @Override
+        protected Object parse(final String value) {
+          return Integer.valueOf(value);
+        }
+      };
+    } else if (long.class.equals(targetType)) {
+      return new StringToScalarConverter(attributeMetadata) {
+
+        @Override
+        protected Object parse(final String value) {
+          return Long.valueOf(value);
+        }
+      };
+    } else if (short.class.equals(targetType)) {
+      return new StringToScalarConverter(attributeMetadata) {
+
+        @Override
+        protected Object parse(final String value) {
+          return Short.valueOf(value);
+        }
+      };
+    }
+    return new IncompatibleTypeConverter(attributeMetadata, String.class, targetType);
+  }
+
+  private ValueConverters() {
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal.invoker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * {@link MethodInvoker} that calls the method via a {@link MethodHandle} that is adapted to a
+ * generic <code>(Object, Object...)Object</code> signature. The adaptation (casting, unboxing of
+ * primitive parameters) is done once when the invoker is created, so calling the method does not
+ * need any reflection.
+ */
+final class MethodHandleMethodInvoker implements MethodInvoker {
+
+  private static boolean isWideningConvertible(final Class<?> primitiveType,
+      final Class<?> argumentType) {
+    if (primitiveType == boolean.class) {
+      return argumentType == Boolean.class;
+    }
+    if (primitiveType == char.class) {
+      return argumentType == Character.class;
+    }
+    if (primitiveType == byte.class) {
+      return argumentType == Byte.class;
+    }
+    if (primitiveType == short.class) {
+      return (argumentType == Short.class) || (argumentType == Byte.class);
+    }
+    if (primitiveType == int.class) {
+      return (argumentType == Integer.class) || (argumentType == Character.class)
+          || isWideningConvertible(short.class, argumentType);
+    }
+    if (primitiveType == long.class) {
+      return (argumentType == Long.class) || isWideningConvertible(int.class, argumentType);
+    }
+    if (primitiveType == float.class) {
+      return (argumentType == Float.class) || isWideningConvertible(long.class, argumentType);
+    }
+    return (argumentType == Double.class) || isWideningConvertible(float.class, argumentType);
+  }
+
+  private final Class<?> declaringClass;
+
+  private final MethodHandle genericMethodHandle;
+
+  private final int parameterCount;
+
+  private final Class<?>[] parameterTypes;
+
+  private final MethodHandle spreadMethodHandle;
+
+  private final boolean staticMethod;
+
+  /**
+   * Constructor.
+   *
+   * @param method
+   *          The method that is called by the invoker.
+   * @param methodHandle
+   *          The method handle of an instance method where the first parameter is the instance.
+   */
+  MethodHandleMethodInvoker(final Method method, final MethodHandle methodHandle) {
+    this.declaringClass = method.getDeclaringClass();
+    this.parameterTypes = method.getParameterTypes();
+    this.parameterCount = parameterTypes.length;
+    this.staticMethod = Modifier.isStatic(method.getModifiers());
+    this.genericMethodHandle = methodHandle.asType(MethodType
+        .genericMethodType(parameterCount + 1));
+    this.spreadMethodHandle = genericMethodHandle.asSpreader(Object[].class, parameterCount);
+  }
+
+  /**
+   * Checks the instance the same way as {@link Method#invoke(Object, Object...)} does, so the
+   * exceptions of the method handle can only come from the called method.
+   */
+  private void checkInstance(final Object instance) {
+    if (staticMethod) {
+      return;
+    }
+    if (instance == null) {
+      throw new NullPointerException("Instance is null for non-static method");
+    }
+    if (!declaringClass.isInstance(instance)) {
+      throw new IllegalArgumentException("Object of type " + instance.getClass().getName()
+          + " is not an instance of declaring class " + declaringClass.getName());
+    }
+  }
+
+  /**
+   * Checks a parameter the same way as {@link Method#invoke(Object, Object...)} does, so the
+   * exceptions of the method handle can only come from the called method.
+   */
+  private void checkParameter(final int index, final Object parameter) {
+    Class<?> parameterType = parameterTypes[index];
+    if (parameterType.isPrimitive()) {
+      if ((parameter == null) || !isWideningConvertible(parameterType, parameter.getClass())) {
+        throw createArgumentTypeMismatchException(index, parameter);
+      }
+    } else if ((parameter != null) && !parameterType.isInstance(parameter)) {
+      throw createArgumentTypeMismatchException(index, parameter);
+    }
+  }
+
+  private IllegalArgumentException createArgumentTypeMismatchException(final int index,
+      final Object parameter) {
+    return new IllegalArgumentException("Argument type mismatch at index " + index
+        + ". Expected: " + parameterTypes[index].getName() + ", got: "
+        + ((parameter == null) ? "null" : parameter.getClass().getName()));
+  }
+
+  private IllegalArgumentException createWrongParameterNumberException(final int actual) {
+    return new IllegalArgumentException("Wrong number of arguments. Expected: " + parameterCount
+        + ", got: " + actual);
+  }
+
+  @Override
+  public Object invoke(final Object instance) throws InvocationTargetException {
+    if (parameterCount != 0) {
+      throw createWrongParameterNumberException(0);
+    }
+    checkInstance(instance);
+    try {
+      return genericMethodHandle.invokeExact(instance);
+    } catch (Throwable e) {
+      throw new InvocationTargetException(e);
+    }
+  }
+
+  @Override
+  public Object invokeWithParameter(final Object instance, final Object parameter)
+      throws InvocationTargetException {
+    if (parameterCount != 1) {
+      throw createWrongParameterNumberException(1);
+    }
+    checkInstance(instance);
+    checkParameter(0, parameter);
+    try {
+      return genericMethodHandle.invokeExact(instance, parameter);
+    } catch (Throwable e) {
+      throw new InvocationTargetException(e);
+    }
+  }
+
+  @Override
+  public Object invokeWithParameters(final Object instance, final Object[] parameters)
+      throws InvocationTargetException {
+    if (parameters.length != parameterCount) {
+      throw createWrongParameterNumberException(parameters.length);
+    }
+    checkInstance(instance);
+    for (int i = 0; i < parameters.length; i++) {
+      checkParameter(i, parameters[i]);
+    }
+    try {
+      return spreadMethodHandle.invokeExact(instance, parameters);
+    } catch (Throwable e) {
+      throw new InvocationTargetException(e);
+    }
+  }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal.invoker;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Calls a method of a component instance. Instances are resolved once per component type and
+ * method by {@link MethodInvokerFactory}, so the lifecycle callbacks do not have to go through the
+ * reflection API every time they are called.
+ *
+ * <p>
+ * The exceptions are thrown in the same way as {@link java.lang.reflect.Method#invoke(Object,
+ * Object...)} would throw them, so callers can handle the failures of component methods the same
+ * way regardless of the implementation.
+ */
+public interface MethodInvoker {
+
+  /**
+   * Calls a method that does not have any parameters.
+   *
+   * @param instance
+   *          The instance that the method is called on.
+   * @return The return value of the method or <code>null</code> if the method is void.
+   * @throws IllegalAccessException
+   *           if the method is not accessible.
+   * @throws InvocationTargetException
+   *           if the called method throws an exception.
+   */
+  Object invoke(Object instance) throws IllegalAccessException, InvocationTargetException;
+
+  /**
+   * Calls a method that has exactly one parameter.
+   *
+   * @param instance
+   *          The instance that the method is called on.
+   * @param parameter
+   *          The value of the parameter.
+   * @return The return value of the method or <code>null</code> if the method is void.
+   * @throws IllegalAccessException
+   *           if the method is not accessible.
+   * @throws InvocationTargetException
+   *           if the called method throws an exception.
+   */
+  Object invokeWithParameter(Object instance, Object parameter)
+      throws IllegalAccessException, InvocationTargetException;
+
+  /**
+   * Calls a method with any number of parameters.
+   *
+   * @param instance
+   *          The instance that the method is called on.
+   * @param parameters
+   *          The parameters of the method. The length of the array must be the same as the number
+   *          of the parameters of the method.
+   * @return The return value of the method or <code>null</code> if the method is void.
+   * @throws IllegalAccessException
+   *           if the method is not accessible.
+   * @throws InvocationTargetException
+   *           if the called method throws an exception.
+   */
+  Object invokeWithParameters(Object instance, Object[] parameters)
+      throws IllegalAccessException, InvocationTargetException;
+}
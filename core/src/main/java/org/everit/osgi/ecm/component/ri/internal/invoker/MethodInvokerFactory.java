@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal.invoker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves and caches the {@link MethodInvoker}s of component methods and of the methods of the
+ * service interfaces that lazy service proxies call. The invokers are stored together with the
+ * type via {@link ClassValue}, so they are shared between all instances of the same type and they
+ * do not prevent the class from being garbage collected when its bundle is uninstalled or
+ * refreshed.
+ */
+public final class MethodInvokerFactory {
+
+  private static final ClassValue<ConcurrentMap<Method, MethodInvoker>> INVOKERS_BY_TYPE =
+      new ClassValue<ConcurrentMap<Method, MethodInvoker>>() {
+        @Override
+        protected ConcurrentMap<Method, MethodInvoker> computeValue(final Class<?> type) {
+          return new ConcurrentHashMap<Method, MethodInvoker>();
+        }
+      };
+
+  private static final Lookup LOOKUP = MethodHandles.lookup();
+
+  private static MethodInvoker createInvoker(final Method method) {
+    MethodHandle methodHandle;
+    try {
+      methodHandle = LOOKUP.unreflect(method);
+    } catch (IllegalAccessException e) {
+      // The reflection API will throw the same exception when the method is called
+      return new ReflectionMethodInvoker(method);
+    }
+
+    if (Modifier.isStatic(method.getModifiers())) {
+      methodHandle = MethodHandles.dropArguments(methodHandle, 0, Object.class);
+    }
+    return new MethodHandleMethodInvoker(method, methodHandle);
+  }
+
+  /**
+   * Returns the {@link MethodInvoker} of a method. The invoker is created only at the first call
+   * for the same component type and method.
+   *
+   * @param componentType
+   *          The type of the component or the service interface that the method was located on.
+   * @param method
+   *          The method that should be called by the invoker.
+   * @return The invoker of the method.
+   */
+  public static MethodInvoker getInvoker(final Class<?> componentType, final Method method) {
+    ConcurrentMap<Method, MethodInvoker> invokers = INVOKERS_BY_TYPE.get(componentType);
+    MethodInvoker invoker = invokers.get(method);
+    if (invoker != null) {
+      return invoker;
+    }
+    invoker = createInvoker(method);
+    MethodInvoker existingInvoker = invokers.putIfAbsent(method, invoker);
+    if (existingInvoker != null) {
+      return existingInvoker;
+    }
+    return invoker;
+  }
+
+  private MethodInvokerFactory() {
+  }
+}
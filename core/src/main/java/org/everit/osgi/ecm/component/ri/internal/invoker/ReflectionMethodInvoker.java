@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal.invoker;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * {@link MethodInvoker} that uses the reflection API. This implementation is used only if a
+ * {@link java.lang.invoke.MethodHandle} cannot be created for the method.
+ */
+final class ReflectionMethodInvoker implements MethodInvoker {
+
+  private final Method method;
+
+  ReflectionMethodInvoker(final Method method) {
+    this.method = method;
+  }
+
+  @Override
+  public Object invoke(final Object instance)
+      throws IllegalAccessException, InvocationTargetException {
+    return method.invoke(instance);
+  }
+
+  @Override
+  public Object invokeWithParameter(final Object instance, final Object parameter)
+      throws IllegalAccessException, InvocationTargetException {
+    return method.invoke(instance, parameter);
+  }
+
+  @Override
+  public Object invokeWithParameters(final Object instance, final Object[] parameters)
+      throws IllegalAccessException, InvocationTargetException {
+    return method.invoke(instance, parameters);
+  }
+
+}
@@ -29,19 +29,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
-import org.everit.osgi.capabilitycollector.RequirementDefinition;
 import org.everit.osgi.capabilitycollector.Suiting;
 import org.everit.osgi.ecm.component.resource.ComponentContainer;
 import org.everit.osgi.ecm.component.resource.ComponentRequirement;
 import org.everit.osgi.ecm.component.resource.ComponentRevision;
 import org.everit.osgi.ecm.component.resource.ComponentState;
-import org.everit.osgi.ecm.metadata.BundleCapabilityReferenceMetadata;
-import org.everit.osgi.ecm.metadata.ReferenceConfigurationType;
+import org.everit.osgi.ecm.component.ri.ComponentLifecycleListener;
+import org.everit.osgi.ecm.component.ri.InstancePoolStatistics;
+import org.everit.osgi.ecm.component.ri.PooledComponentRevision;
+import org.everit.osgi.ecm.component.ri.internal.ComponentInstancePool;
+import org.everit.osgi.ecm.component.ri.internal.resource.ReferenceFragment.RequirementTemplate;
 import org.everit.osgi.ecm.metadata.ReferenceMetadata;
-import org.everit.osgi.ecm.metadata.ServiceReferenceMetadata;
-import org.everit.osgi.linkage.ServiceCapability;
-import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.framework.wiring.BundleCapability;
@@ -57,48 +57,70 @@ import org.osgi.resource.Wire;
  * @param <C>
  *          The type of the component implementation.
  */
-public class ComponentRevisionImpl<C> implements ComponentRevision<C> {
+public class ComponentRevisionImpl<C> implements PooledComponentRevision<C> {
 
   /**
    * The builder class of the {@link ComponentRevision} offers thread safe functionality to collect
    * information about the state of the component and build {@link ComponentRevision} instances.
+   * The collected information is held in an immutable {@link BuilderSnapshot} that is replaced
+   * atomically on every change, so querying the state of the component never blocks.
    *
    * @param <C>
    *          The type of the component implementation.
    */
   public static class Builder<C> {
 
-    private SoftReference<ComponentRevisionImpl<C>> cache = null;
-
-    private Throwable cause = null;
+    private final ServiceCapabilityCache capabilityCache;
 
     private final ComponentContainer<C> container;
 
-    private Thread processingThread = null;
-
-    private Map<String, Object> properties;
-
-    private final LinkedHashSet<ServiceRegistration<?>> serviceRegistrations =
-        new LinkedHashSet<ServiceRegistration<?>>();
+    private volatile ComponentInstancePool<C> instancePool = null;
 
-    private ComponentState state = ComponentState.INACTIVE;
+    private final ComponentLifecycleListener lifecycleListener;
 
-    private final Map<ReferenceMetadata, Suiting<?>[]> suitingsByAttributeIds =
-        new HashMap<ReferenceMetadata, Suiting<?>[]>();
+    private final AtomicReference<BuilderSnapshot<C>> snapshotReference;
 
-    public Builder(final ComponentContainer<C> container, final Map<String, Object> properties) {
+    /**
+     * Constructor.
+     *
+     * @param container
+     *          The container of the component.
+     * @param properties
+     *          The initial properties of the component.
+     * @param capabilityCache
+     *          The cache of the capabilities of the OSGi services that are wired to the component
+     *          or registered by the component.
+     * @param lifecycleListener
+     *          The listener that is notified when the state of the component changes or
+     *          <code>null</code>.
+     */
+    public Builder(final ComponentContainer<C> container, final Map<String, Object> properties,
+        final ServiceCapabilityCache capabilityCache,
+        final ComponentLifecycleListener lifecycleListener) {
       this.container = container;
-      this.properties = properties;
+      this.capabilityCache = capabilityCache;
+      this.lifecycleListener = lifecycleListener;
+      Set<ServiceRegistration<?>> serviceRegistrations = Collections.emptySet();
+      Map<ReferenceMetadata, ReferenceFragment> referenceFragmentsByMetadata =
+          Collections.emptyMap();
+      this.snapshotReference = new AtomicReference<BuilderSnapshot<C>>(new BuilderSnapshot<C>(
+          ComponentState.INACTIVE, null, null, properties, serviceRegistrations,
+          referenceFragmentsByMetadata));
     }
 
     /**
-     * Called when the component instance becomes active.
+     * Called when the activation of the component is scheduled to run asynchronously. The
+     * component is in STARTING state, but no thread processes it yet.
      */
-    public synchronized void active() {
-      this.cache = null;
-      this.state = ComponentState.ACTIVE;
-      this.processingThread = null;
+    public void activationScheduled() {
+      transition(ComponentState.STARTING, null, false, null);
+    }
 
+    /**
+     * Called when the component instance becomes active.
+     */
+    public void active() {
+      transition(ComponentState.ACTIVE, null, true, null);
     }
 
     /**
@@ -108,27 +130,39 @@ public class ComponentRevisionImpl<C> implements ComponentRevision<C> {
      * @param serviceRegistration
      *          The service that was registered.
      */
-    public synchronized void addServiceRegistration(
-        final ServiceRegistration<?> serviceRegistration) {
-
-      cache = null;
-      serviceRegistrations.add(serviceRegistration);
+    public void addServiceRegistration(final ServiceRegistration<?> serviceRegistration) {
+      BuilderSnapshot<C> current;
+      BuilderSnapshot<C> next;
+      do {
+        current = snapshotReference.get();
+        Set<ServiceRegistration<?>> serviceRegistrations =
+            new LinkedHashSet<ServiceRegistration<?>>(current.serviceRegistrations);
+        serviceRegistrations.add(serviceRegistration);
+        next = new BuilderSnapshot<C>(current.state, current.cause, current.processingThread,
+            current.properties, Collections.unmodifiableSet(serviceRegistrations),
+            current.referenceFragmentsByMetadata);
+      } while (!snapshotReference.compareAndSet(current, next));
     }
 
     /**
-     * Builds a new {@link ComponentRevision} based on the snapshot of the component state.
+     * Builds a new {@link ComponentRevision} based on the snapshot of the component state. The
+     * same instance is returned as long as the state of the component does not change and the
+     * previously built instance is not garbage collected.
      *
-     * @return The freshly created {@link ComponentRevision}.
+     * @return The freshly created or the cached {@link ComponentRevision}.
      */
-    public synchronized ComponentRevisionImpl<C> build() {
+    public ComponentRevisionImpl<C> build() {
+      BuilderSnapshot<C> snapshot = snapshotReference.get();
+      SoftReference<ComponentRevisionImpl<C>> cache = snapshot.revisionCache;
       if (cache != null) {
         ComponentRevisionImpl<C> componentRevisionImpl = cache.get();
         if (componentRevisionImpl != null) {
           return componentRevisionImpl;
         }
       }
-      ComponentRevisionImpl<C> componentRevisionImpl = new ComponentRevisionImpl<C>(this);
-      cache = new SoftReference<ComponentRevisionImpl<C>>(componentRevisionImpl);
+      ComponentRevisionImpl<C> componentRevisionImpl =
+          new ComponentRevisionImpl<C>(container, capabilityCache, snapshot, instancePool);
+      snapshot.revisionCache = new SoftReference<ComponentRevisionImpl<C>>(componentRevisionImpl);
       return componentRevisionImpl;
 
     }
@@ -141,14 +175,11 @@ public class ComponentRevisionImpl<C> implements ComponentRevision<C> {
      * @param permanent
      *          Whether the failure is permanent or temporary.
      */
-    public synchronized void fail(final Throwable cause, final boolean permanent) {
-      this.cache = null;
-      this.cause = cause;
-      this.processingThread = null;
+    public void fail(final Throwable cause, final boolean permanent) {
       if (permanent) {
-        this.state = ComponentState.FAILED_PERMANENT;
+        transition(ComponentState.FAILED_PERMANENT, null, false, cause);
       } else {
-        this.state = ComponentState.FAILED;
+        transition(ComponentState.FAILED, null, false, cause);
       }
     }
 
@@ -157,36 +188,59 @@ public class ComponentRevisionImpl<C> implements ComponentRevision<C> {
      *
      * @return A clone of the service registrations of the component.
      */
-    public synchronized Set<ServiceRegistration<?>> getCloneOfServiceRegistrations() {
-      @SuppressWarnings("unchecked")
-      Set<ServiceRegistration<?>> result = (Set<ServiceRegistration<?>>) serviceRegistrations
-          .clone();
-      return result;
+    public Set<ServiceRegistration<?>> getCloneOfServiceRegistrations() {
+      return new LinkedHashSet<ServiceRegistration<?>>(
+          snapshotReference.get().serviceRegistrations);
     }
 
-    public synchronized Map<String, Object> getProperties() {
-      return properties;
+    public Map<String, Object> getProperties() {
+      return snapshotReference.get().properties;
     }
 
-    public synchronized ComponentState getState() {
-      return state;
+    public ComponentState getState() {
+      return snapshotReference.get().state;
     }
 
     /**
      * Called when the component is stopped due to some reason (it is stopped completely or the
      * component has to be restarted due to updating non-dynamic attributes).
      */
-    public synchronized void inactive() {
-      this.cache = null;
-      this.processingThread = null;
-      this.cause = null;
-      this.state = ComponentState.INACTIVE;
+    public void inactive() {
+      transition(ComponentState.INACTIVE, null, false, null);
     }
 
-    public synchronized void removeServiceRegistration(
-        final ServiceRegistration<?> serviceRegistration) {
-      cache = null;
-      serviceRegistrations.remove(serviceRegistration);
+    /**
+     * Called when the component unregisters an OSGi service.
+     *
+     * @param serviceRegistration
+     *          The service that was unregistered.
+     */
+    public void removeServiceRegistration(final ServiceRegistration<?> serviceRegistration) {
+      BuilderSnapshot<C> current;
+      BuilderSnapshot<C> next;
+      do {
+        current = snapshotReference.get();
+        if (!current.serviceRegistrations.contains(serviceRegistration)) {
+          return;
+        }
+        Set<ServiceRegistration<?>> serviceRegistrations =
+            new LinkedHashSet<ServiceRegistration<?>>(current.serviceRegistrations);
+        serviceRegistrations.remove(serviceRegistration);
+        next = new BuilderSnapshot<C>(current.state, current.cause, current.processingThread,
+            current.properties, Collections.unmodifiableSet(serviceRegistrations),
+            current.referenceFragmentsByMetadata);
+      } while (!snapshotReference.compareAndSet(current, next));
+    }
+
+    /**
+     * Sets the pool of the instances of the component whose statistics are available via the
+     * revisions.
+     *
+     * @param instancePool
+     *          The pool or <code>null</code> if the component does not pool its instances.
+     */
+    public void setInstancePool(final ComponentInstancePool<C> instancePool) {
+      this.instancePool = instancePool;
     }
 
     /**
@@ -196,42 +250,56 @@ public class ComponentRevisionImpl<C> implements ComponentRevision<C> {
      * @param cause
      *          A suppressed cause that occurred during the failure of the component.
      */
-    public synchronized void setOrAddSuppressedCause(final Throwable cause) {
-      if (this.cause == null) {
-        this.cause = cause;
-      } else {
-        this.cause.addSuppressed(cause);
-      }
+    public void setOrAddSuppressedCause(final Throwable cause) {
+      BuilderSnapshot<C> current;
+      BuilderSnapshot<C> next;
+      do {
+        current = snapshotReference.get();
+        if (current.cause != null) {
+          current.cause.addSuppressed(cause);
+          return;
+        }
+        next = new BuilderSnapshot<C>(current.state, cause, current.processingThread,
+            current.properties, current.serviceRegistrations, current.referenceFragmentsByMetadata);
+      } while (!snapshotReference.compareAndSet(current, next));
     }
 
     /**
      * Called when the component is starting (activate method is called but it has not finished
      * yet).
      */
-    public synchronized void starting() {
-      this.cache = null;
-      this.state = ComponentState.STARTING;
-      this.cause = null;
-      this.processingThread = Thread.currentThread();
+    public void starting() {
+      transition(ComponentState.STARTING, Thread.currentThread(), false, null);
     }
 
     /**
      * Called when the component is stopping (The deactivate method runs).
      */
-    public synchronized void stopping() {
-      this.cache = null;
-      this.state = ComponentState.STOPPING;
-      this.processingThread = Thread.currentThread();
+    public void stopping() {
+      transition(ComponentState.STOPPING, Thread.currentThread(), true, null);
+    }
+
+    private void transition(final ComponentState newState, final Thread newProcessingThread,
+        final boolean keepCause, final Throwable newCause) {
+      BuilderSnapshot<C> current;
+      BuilderSnapshot<C> next;
+      do {
+        current = snapshotReference.get();
+        Throwable cause = (keepCause) ? current.cause : newCause;
+        next = new BuilderSnapshot<C>(newState, cause, newProcessingThread, current.properties,
+            current.serviceRegistrations, current.referenceFragmentsByMetadata);
+      } while (!snapshotReference.compareAndSet(current, next));
+
+      if ((lifecycleListener != null) && (current.state != newState)) {
+        lifecycleListener.stateChanged(container, current.state, newState);
+      }
     }
 
     /**
      * Called when the component becomes unsatisfied.
      */
-    public synchronized void unsatisfied() {
-      this.cache = null;
-      this.state = ComponentState.UNSATISFIED;
-      this.processingThread = null;
-      this.cause = null;
+    public void unsatisfied() {
+      transition(ComponentState.UNSATISFIED, null, false, null);
     }
 
     /**
@@ -240,25 +308,82 @@ public class ComponentRevisionImpl<C> implements ComponentRevision<C> {
      * @param properties
      *          The new properties of the component.s
      */
-    public synchronized void updateProperties(final Map<String, Object> properties) {
-      this.cache = null;
-      this.properties = properties;
+    public void updateProperties(final Map<String, Object> properties) {
+      BuilderSnapshot<C> current;
+      BuilderSnapshot<C> next;
+      do {
+        current = snapshotReference.get();
+        next = new BuilderSnapshot<C>(current.state, current.cause, current.processingThread,
+            properties, current.serviceRegistrations, current.referenceFragmentsByMetadata);
+      } while (!snapshotReference.compareAndSet(current, next));
     }
 
-    public synchronized void updateSuitingsForAttribute(final ReferenceMetadata referenceMetadata,
+    /**
+     * Called when the suitings of a reference of the component change.
+     *
+     * @param referenceMetadata
+     *          The metadata of the reference.
+     * @param suitings
+     *          The new suitings of the reference.
+     */
+    public void updateSuitingsForAttribute(final ReferenceMetadata referenceMetadata,
         final Suiting<?>[] suitings) {
-      this.cache = null;
-      suitingsByAttributeIds.put(referenceMetadata, suitings);
+      ReferenceFragment referenceFragment = new ReferenceFragment(referenceMetadata, suitings);
+      BuilderSnapshot<C> current;
+      BuilderSnapshot<C> next;
+      do {
+        current = snapshotReference.get();
+        Map<ReferenceMetadata, ReferenceFragment> referenceFragmentsByMetadata =
+            new HashMap<ReferenceMetadata, ReferenceFragment>(
+                current.referenceFragmentsByMetadata);
+        referenceFragmentsByMetadata.put(referenceMetadata, referenceFragment);
+        next = new BuilderSnapshot<C>(current.state, current.cause, current.processingThread,
+            current.properties, current.serviceRegistrations,
+            Collections.unmodifiableMap(referenceFragmentsByMetadata));
+      } while (!snapshotReference.compareAndSet(current, next));
     }
 
     /**
      * Called when the state is changed to {@link ComponentState#UPDATING_CONFIGURATION}.
      */
-    public synchronized void updatingConfiguration() {
-      this.cache = null;
-      this.processingThread = Thread.currentThread();
-      this.cause = null;
-      this.state = ComponentState.UPDATING_CONFIGURATION;
+    public void updatingConfiguration() {
+      transition(ComponentState.UPDATING_CONFIGURATION, Thread.currentThread(), false, null);
+    }
+  }
+
+  /**
+   * Immutable snapshot of the information that is collected by the {@link Builder}. The only
+   * mutable field is the cache of the {@link ComponentRevision} that was built from the snapshot.
+   *
+   * @param <C>
+   *          The type of the component implementation.
+   */
+  private static final class BuilderSnapshot<C> {
+
+    private final Throwable cause;
+
+    private final Thread processingThread;
+
+    private final Map<String, Object> properties;
+
+    private volatile SoftReference<ComponentRevisionImpl<C>> revisionCache = null;
+
+    private final Set<ServiceRegistration<?>> serviceRegistrations;
+
+    private final ComponentState state;
+
+    private final Map<ReferenceMetadata, ReferenceFragment> referenceFragmentsByMetadata;
+
+    BuilderSnapshot(final ComponentState state, final Throwable cause,
+        final Thread processingThread, final Map<String, Object> properties,
+        final Set<ServiceRegistration<?>> serviceRegistrations,
+        final Map<ReferenceMetadata, ReferenceFragment> referenceFragmentsByMetadata) {
+      this.state = state;
+      this.cause = cause;
+      this.processingThread = processingThread;
+      this.properties = properties;
+      this.serviceRegistrations = serviceRegistrations;
+      this.referenceFragmentsByMetadata = referenceFragmentsByMetadata;
     }
   }
 
@@ -297,6 +422,8 @@ public class ComponentRevisionImpl<C> implements ComponentRevision<C> {
 
   private final BundleRevision declaringResource;
 
+  private final ComponentInstancePool<C> instancePool;
+
   private final Thread processingThread;
 
   private final Map<String, Object> properties;
@@ -312,21 +439,31 @@ public class ComponentRevisionImpl<C> implements ComponentRevision<C> {
   /**
    * Constructor that should be called by the builder.
    *
-   * @param builder
-   *          The builder of the {@link ComponentRevisionImpl}.
+   * @param container
+   *          The container of the component.
+   * @param capabilityCache
+   *          The cache of the capabilities of the OSGi services.
+   * @param snapshot
+   *          The snapshot of the builder that the revision is created from.
+   * @param instancePool
+   *          The pool of the instances of the component or <code>null</code>.
    */
-  protected ComponentRevisionImpl(final Builder<C> builder) {
-    declaringResource = builder.container.getBundleContext().getBundle()
+  private ComponentRevisionImpl(final ComponentContainer<C> container,
+      final ServiceCapabilityCache capabilityCache, final BuilderSnapshot<C> snapshot,
+      final ComponentInstancePool<C> instancePool) {
+    declaringResource = container.getBundleContext().getBundle()
         .adapt(BundleRevision.class);
-    this.state = builder.state;
-    this.processingThread = builder.processingThread;
-    this.cause = builder.cause;
-    this.properties = builder.properties;
-    this.container = builder.container;
+    this.state = snapshot.state;
+    this.processingThread = snapshot.processingThread;
+    this.cause = snapshot.cause;
+    this.properties = snapshot.properties;
+    this.container = container;
+    this.instancePool = instancePool;
 
-    this.capabilitiesByNamespace = evaluateCapabilities(builder);
+    this.capabilitiesByNamespace = evaluateCapabilities(capabilityCache, snapshot);
 
-    RequirementsAndWires requirementsAndWires = evaluateRequirementsAndWires(builder);
+    RequirementsAndWires requirementsAndWires =
+        evaluateRequirementsAndWires(capabilityCache, snapshot);
 
     // Making all set readonly
     for (Entry<String, List<Requirement>> entry : requirementsAndWires.requirements.entrySet()) {
@@ -349,13 +486,6 @@ public class ComponentRevisionImpl<C> implements ComponentRevision<C> {
     this.wiresByRequirement = convertToUnmodifiableWireMap(lWiresByRequirement);
   }
 
-  private void addFilterToRequirementDefinitionIfExists(final Map<String, String> directives,
-      final RequirementDefinition<?> requirementDefinition) {
-    if (requirementDefinition.getFilter() != null) {
-      directives.put("filter", requirementDefinition.getFilter().toString());
-    }
-  }
-
   private <CONNECTOR> void addToWireMap(final Map<CONNECTOR, List<Wire>> map,
       final CONNECTOR connector,
       final Wire wire) {
@@ -379,34 +509,22 @@ public class ComponentRevisionImpl<C> implements ComponentRevision<C> {
     return Collections.unmodifiableMap(map);
   }
 
-  private String createFullRequirementId(final ReferenceMetadata referenceMetadata,
-      final String referenceId,
-      final Suiting<?> suiting) {
-    String fullRequirementId = referenceId;
-    if (referenceMetadata.isMultiple()
-        || (referenceMetadata
-            .getReferenceConfigurationType() == ReferenceConfigurationType.CLAUSE)) {
-
-      fullRequirementId += "[" + suiting.getRequirement().getRequirementId() + "]";
-    }
-    return fullRequirementId;
-  }
-
-  private Map<String, List<Capability>> evaluateCapabilities(final Builder<C> builder) {
+  private Map<String, List<Capability>> evaluateCapabilities(
+      final ServiceCapabilityCache capabilityCache, final BuilderSnapshot<C> snapshot) {
     if (((this.state != ComponentState.ACTIVE) && (this.state != ComponentState.UNSATISFIED)
-        && (this.state != ComponentState.FAILED)) || (builder.serviceRegistrations.size() == 0)) {
+        && (this.state != ComponentState.FAILED)) || (snapshot.serviceRegistrations.size() == 0)) {
       return Collections.emptyMap();
     }
 
     Map<String, List<Capability>> result = new LinkedHashMap<String, List<Capability>>();
 
     List<Capability> serviceCapabilityList = new ArrayList<Capability>(
-        builder.serviceRegistrations.size());
+        snapshot.serviceRegistrations.size());
 
-    Iterator<ServiceRegistration<?>> iterator = builder.serviceRegistrations.iterator();
+    Iterator<ServiceRegistration<?>> iterator = snapshot.serviceRegistrations.iterator();
     while (iterator.hasNext()) {
       ServiceRegistration<?> serviceRegistration = iterator.next();
-      serviceCapabilityList.add(new ServiceCapabilityImpl(serviceRegistration.getReference()));
+      serviceCapabilityList.add(capabilityCache.getCapability(serviceRegistration.getReference()));
     }
 
     result.put("osgi.service", Collections.unmodifiableList(serviceCapabilityList));
@@ -414,63 +532,33 @@ public class ComponentRevisionImpl<C> implements ComponentRevision<C> {
     return Collections.unmodifiableMap(result);
   }
 
-  private RequirementsAndWires evaluateRequirementsAndWires(final Builder<C> builder) {
+  private RequirementsAndWires evaluateRequirementsAndWires(
+      final ServiceCapabilityCache capabilityCache, final BuilderSnapshot<C> snapshot) {
     if ((this.state != ComponentState.ACTIVE) && (this.state != ComponentState.UNSATISFIED)
         && (this.state != ComponentState.FAILED)) {
       return new RequirementsAndWires();
     }
 
-    Set<Entry<ReferenceMetadata, Suiting<?>[]>> suitingEntries = builder.suitingsByAttributeIds
-        .entrySet();
-    Iterator<Entry<ReferenceMetadata, Suiting<?>[]>> suitingEntryIterator =
-        suitingEntries.iterator();
-
     RequirementsAndWires result = new RequirementsAndWires();
 
-    while (suitingEntryIterator.hasNext()) {
-      Map.Entry<ReferenceMetadata, Suiting<?>[]> entry = suitingEntryIterator.next();
-      ReferenceMetadata referenceMetadata = entry.getKey();
-      String referenceId = referenceMetadata.getReferenceId();
-      String namespace = resolveNamespaceForWire(referenceMetadata);
+    for (ReferenceFragment referenceFragment : snapshot.referenceFragmentsByMetadata.values()) {
+      String namespace = referenceFragment.getNamespace();
+      Class<Capability> capabilityType = referenceFragment.getCapabilityType();
 
       List<Requirement> requirementsOfNS = getOrCreateRequirementListOfNS(result, namespace);
 
-      Suiting<?>[] suitings = entry.getValue();
-      for (Suiting<?> suiting : suitings) {
-        String fullRequirementId = createFullRequirementId(referenceMetadata, referenceId, suiting);
-
-        Map<String, String> directives = new LinkedHashMap<String, String>();
-        RequirementDefinition<?> requirementDefinition = suiting.getRequirement();
-        if (referenceMetadata instanceof ServiceReferenceMetadata) {
-          String serviceInterface = ((ServiceReferenceMetadata) referenceMetadata)
-              .getServiceInterface();
-          if (serviceInterface != null) {
-            directives.put(Constants.OBJECTCLASS, serviceInterface);
-          }
-        }
-
-        addFilterToRequirementDefinitionIfExists(directives, requirementDefinition);
-
-        Class<? extends Capability> capabilityType = specifyCapabilityType(referenceMetadata);
-
-        @SuppressWarnings("unchecked")
-        Class<Capability> simpleCapabilityType = (Class<Capability>) capabilityType;
-
-        HashMap<String, Object> attributes = new LinkedHashMap<String, Object>(
-            requirementDefinition.getAttributes());
-
+      for (RequirementTemplate template : referenceFragment.getRequirementTemplates()) {
         ComponentRequirementImpl<C, Capability> requirement =
-            new ComponentRequirementImpl<C, Capability>(
-                fullRequirementId, namespace, this, Collections.unmodifiableMap(directives),
-                Collections.unmodifiableMap(attributes), simpleCapabilityType);
+            new ComponentRequirementImpl<C, Capability>(template.requirementId, namespace, this,
+                template.directives, template.attributes, capabilityType);
 
         requirementsOfNS.add(requirement);
 
-        Object capabilityObject = suiting.getCapability();
+        Object capabilityObject = template.capabilityObject;
         Capability capability = null;
         if (capabilityObject != null) {
           if (capabilityObject instanceof ServiceReference<?>) {
-            capability = new ServiceCapabilityImpl((ServiceReference<?>) capabilityObject);
+            capability = capabilityCache.getCapability((ServiceReference<?>) capabilityObject);
           } else {
             // This must be BundleCapability than
             capability = (BundleCapability) capabilityObject;
@@ -478,7 +566,6 @@ public class ComponentRevisionImpl<C> implements ComponentRevision<C> {
 
           result.wires.add(new ComponentWireImpl(requirement, capability));
         }
-
       }
     }
 
@@ -525,6 +612,14 @@ public class ComponentRevisionImpl<C> implements ComponentRevision<C> {
     return declaringResource;
   }
 
+  @Override
+  public InstancePoolStatistics getInstancePoolStatistics() {
+    if (instancePool == null) {
+      return null;
+    }
+    return instancePool.getStatistics();
+  }
+
   private List<Requirement> getOrCreateRequirementListOfNS(final RequirementsAndWires result,
       final String namespace) {
     List<Requirement> requirementsOfNS = result.requirements.get(namespace);
@@ -610,22 +705,4 @@ public class ComponentRevisionImpl<C> implements ComponentRevision<C> {
     return wireList;
   }
 
-  private String resolveNamespaceForWire(final ReferenceMetadata referenceMetadata) {
-    String namespace = ServiceCapability.SERVICE_CAPABILITY_NAMESPACE;
-    if (referenceMetadata instanceof BundleCapabilityReferenceMetadata) {
-      namespace = ((BundleCapabilityReferenceMetadata) referenceMetadata).getNamespace();
-    }
-    return namespace;
-  }
-
-  private Class<? extends Capability> specifyCapabilityType(
-      final ReferenceMetadata referenceMetadata) {
-    Class<? extends Capability> capabilityType;
-    if (referenceMetadata instanceof ServiceReferenceMetadata) {
-      capabilityType = ServiceCapability.class;
-    } else {
-      capabilityType = BundleCapability.class;
-    }
-    return capabilityType;
-  }
 }
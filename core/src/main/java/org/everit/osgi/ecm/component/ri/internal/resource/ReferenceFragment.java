@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal.resource;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.everit.osgi.capabilitycollector.RequirementDefinition;
+import org.everit.osgi.capabilitycollector.Suiting;
+import org.everit.osgi.ecm.metadata.BundleCapabilityReferenceMetadata;
+import org.everit.osgi.ecm.metadata.ReferenceConfigurationType;
+import org.everit.osgi.ecm.metadata.ReferenceMetadata;
+import org.everit.osgi.ecm.metadata.ServiceReferenceMetadata;
+import org.everit.osgi.linkage.ServiceCapability;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.resource.Capability;
+
+/**
+ * The suitings of a reference together with the information about its requirements that does not
+ * depend on the {@link ComponentRevisionImpl} the requirements belong to. A fragment is created
+ * when the suitings of the reference change and it is shared by all revisions that are built
+ * until the next change of the same reference, so the ids, directives and attributes of the
+ * requirements are calculated only once.
+ */
+final class ReferenceFragment {
+
+  /**
+   * The revision independent information of one requirement of the reference.
+   */
+  static final class RequirementTemplate {
+
+    final Map<String, Object> attributes;
+
+    final Object capabilityObject;
+
+    final Map<String, String> directives;
+
+    final String requirementId;
+
+    RequirementTemplate(final String requirementId, final Map<String, String> directives,
+        final Map<String, Object> attributes, final Object capabilityObject) {
+      this.requirementId = requirementId;
+      this.directives = directives;
+      this.attributes = attributes;
+      this.capabilityObject = capabilityObject;
+    }
+  }
+
+  private final Class<Capability> capabilityType;
+
+  private final String namespace;
+
+  private final ReferenceMetadata referenceMetadata;
+
+  private volatile RequirementTemplate[] requirementTemplates = null;
+
+  private final Suiting<?>[] suitings;
+
+  /**
+   * Constructor.
+   *
+   * @param referenceMetadata
+   *          The metadata of the reference.
+   * @param suitings
+   *          The current suitings of the reference.
+   */
+  ReferenceFragment(final ReferenceMetadata referenceMetadata, final Suiting<?>[] suitings) {
+    this.referenceMetadata = referenceMetadata;
+    this.suitings = suitings;
+    this.namespace = resolveNamespaceForWire(referenceMetadata);
+
+    @SuppressWarnings("unchecked")
+    Class<Capability> simpleCapabilityType =
+        (Class<Capability>) specifyCapabilityType(referenceMetadata);
+    this.capabilityType = simpleCapabilityType;
+  }
+
+  private void addFilterToRequirementDefinitionIfExists(final Map<String, String> directives,
+      final RequirementDefinition<?> requirementDefinition) {
+    if (requirementDefinition.getFilter() != null) {
+      directives.put("filter", requirementDefinition.getFilter().toString());
+    }
+  }
+
+  private String createFullRequirementId(final String referenceId, final Suiting<?> suiting) {
+    String fullRequirementId = referenceId;
+    if (referenceMetadata.isMultiple()
+        || (referenceMetadata
+            .getReferenceConfigurationType() == ReferenceConfigurationType.CLAUSE)) {
+
+      fullRequirementId += "[" + suiting.getRequirement().getRequirementId() + "]";
+    }
+    return fullRequirementId;
+  }
+
+  private RequirementTemplate createRequirementTemplate(final Suiting<?> suiting) {
+    String fullRequirementId =
+        createFullRequirementId(referenceMetadata.getReferenceId(), suiting);
+
+    Map<String, String> directives = new LinkedHashMap<String, String>();
+    RequirementDefinition<?> requirementDefinition = suiting.getRequirement();
+    if (referenceMetadata instanceof ServiceReferenceMetadata) {
+      String serviceInterface = ((ServiceReferenceMetadata) referenceMetadata)
+          .getServiceInterface();
+      if (serviceInterface != null) {
+        directives.put(Constants.OBJECTCLASS, serviceInterface);
+      }
+    }
+
+    addFilterToRequirementDefinitionIfExists(directives, requirementDefinition);
+
+    Map<String, Object> attributes = new LinkedHashMap<String, Object>(
+        requirementDefinition.getAttributes());
+
+    return new RequirementTemplate(fullRequirementId, Collections.unmodifiableMap(directives),
+        Collections.unmodifiableMap(attributes), suiting.getCapability());
+  }
+
+  public Class<Capability> getCapabilityType() {
+    return capabilityType;
+  }
+
+  public String getNamespace() {
+    return namespace;
+  }
+
+  /**
+   * Returns the revision independent information of the requirements of the reference. The
+   * information is calculated at the first call.
+   *
+   * @return The requirement templates in the same order as the suitings of the reference.
+   */
+  public RequirementTemplate[] getRequirementTemplates() {
+    RequirementTemplate[] result = requirementTemplates;
+    if (result == null) {
+      result = new RequirementTemplate[suitings.length];
+      for (int i = 0; i < suitings.length; i++) {
+        result[i] = createRequirementTemplate(suitings[i]);
+      }
+      requirementTemplates = result;
+    }
+    return result;
+  }
+
+  private String resolveNamespaceForWire(final ReferenceMetadata pReferenceMetadata) {
+    String lNamespace = ServiceCapability.SERVICE_CAPABILITY_NAMESPACE;
+    if (pReferenceMetadata instanceof BundleCapabilityReferenceMetadata) {
+      lNamespace = ((BundleCapabilityReferenceMetadata) pReferenceMetadata).getNamespace();
+    }
+    return lNamespace;
+  }
+
+  private Class<? extends Capability> specifyCapabilityType(
+      final ReferenceMetadata pReferenceMetadata) {
+    Class<? extends Capability> lCapabilityType;
+    if (pReferenceMetadata instanceof ServiceReferenceMetadata) {
+      lCapabilityType = ServiceCapability.class;
+    } else {
+      lCapabilityType = BundleCapability.class;
+    }
+    return lCapabilityType;
+  }
+}
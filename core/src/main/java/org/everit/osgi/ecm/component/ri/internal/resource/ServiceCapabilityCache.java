@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.internal.resource;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Cache of the properties of OSGi services, so the properties of a service are not copied every
+ * time a {@link ComponentRevisionImpl} is built that wires to the service. The cached properties
+ * are checked against the current properties of the service when they are read and they are
+ * replaced if the properties were modified in the meantime, so no service listener is necessary.
+ * The cache holds only the {@link ServiceReference}s weakly and the cached properties do not
+ * refer to them, so the cache does not prevent the garbage collection of unregistered services.
+ */
+public class ServiceCapabilityCache {
+
+  private static boolean isPropertyValueEqual(final Object value, final Object cachedValue) {
+    if (value == cachedValue) {
+      return true;
+    }
+    if ((value == null) || (cachedValue == null)
+        || (value.getClass() != cachedValue.getClass())) {
+      return false;
+    }
+    if (!value.getClass().isArray()) {
+      return value.equals(cachedValue);
+    }
+    if (value instanceof Object[]) {
+      return Arrays.deepEquals((Object[]) value, (Object[]) cachedValue);
+    } else if (value instanceof int[]) {
+      return Arrays.equals((int[]) value, (int[]) cachedValue);
+    } else if (value instanceof long[]) {
+      return Arrays.equals((long[]) value, (long[]) cachedValue);
+    } else if (value instanceof boolean[]) {
+      return Arrays.equals((boolean[]) value, (boolean[]) cachedValue);
+    } else if (value instanceof double[]) {
+      return Arrays.equals((double[]) value, (double[]) cachedValue);
+    } else if (value instanceof float[]) {
+      return Arrays.equals((float[]) value, (float[]) cachedValue);
+    } else if (value instanceof byte[]) {
+      return Arrays.equals((byte[]) value, (byte[]) cachedValue);
+    } else if (value instanceof short[]) {
+      return Arrays.equals((short[]) value, (short[]) cachedValue);
+    } else {
+      return Arrays.equals((char[]) value, (char[]) cachedValue);
+    }
+  }
+
+  private static boolean isUpToDate(final ServiceReference<?> serviceReference,
+      final Map<String, Object> cachedAttributes) {
+    String[] propertyKeys = serviceReference.getPropertyKeys();
+    if (propertyKeys.length != cachedAttributes.size()) {
+      return false;
+    }
+    for (String propertyKey : propertyKeys) {
+      if (!isPropertyValueEqual(serviceReference.getProperty(propertyKey),
+          cachedAttributes.get(propertyKey))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private final Map<ServiceReference<?>, Map<String, Object>> attributesByReference =
+      new WeakHashMap<ServiceReference<?>, Map<String, Object>>();
+
+  /**
+   * Returns the capability of an OSGi service. The properties of the service are copied only if
+   * they were not cached yet or they were modified since they were cached.
+   *
+   * @param serviceReference
+   *          The reference of the service.
+   * @return The capability of the service.
+   */
+  public ServiceCapabilityImpl getCapability(final ServiceReference<?> serviceReference) {
+    Map<String, Object> cachedAttributes;
+    synchronized (attributesByReference) {
+      cachedAttributes = attributesByReference.get(serviceReference);
+    }
+
+    // The properties are compared outside of the lock as the framework might call back
+    if ((cachedAttributes != null) && isUpToDate(serviceReference, cachedAttributes)) {
+      return new ServiceCapabilityImpl(serviceReference, cachedAttributes);
+    }
+
+    ServiceCapabilityImpl capability = new ServiceCapabilityImpl(serviceReference);
+
+    synchronized (attributesByReference) {
+      attributesByReference.put(serviceReference, capability.getAttributes());
+    }
+    return capability;
+  }
+}
@@ -28,6 +28,15 @@ import org.osgi.framework.wiring.BundleRevision;
  */
 public class ServiceCapabilityImpl implements ServiceCapability {
 
+  private static Map<String, Object> copyProperties(final ServiceReference<?> serviceReference) {
+    HashMap<String, Object> serviceProps = new HashMap<String, Object>();
+    String[] propertyKeys = serviceReference.getPropertyKeys();
+    for (String propertyKey : propertyKeys) {
+      serviceProps.put(propertyKey, serviceReference.getProperty(propertyKey));
+    }
+    return Collections.unmodifiableMap(serviceProps);
+  }
+
   private final Map<String, Object> attributes;
 
   private final BundleRevision resource;
@@ -41,14 +50,22 @@ public class ServiceCapabilityImpl implements ServiceCapability {
    *          All information is derived from the {@link ServiceReference}.
    */
   public ServiceCapabilityImpl(final ServiceReference<?> serviceReference) {
+    this(serviceReference, copyProperties(serviceReference));
+  }
+
+  /**
+   * Constructor that uses properties of the service that were copied earlier.
+   *
+   * @param serviceReference
+   *          The reference of the service.
+   * @param attributes
+   *          The unmodifiable copy of the current properties of the service.
+   */
+  ServiceCapabilityImpl(final ServiceReference<?> serviceReference,
+      final Map<String, Object> attributes) {
     this.serviceReference = serviceReference;
     resource = serviceReference.getBundle().adapt(BundleRevision.class);
-    HashMap<String, Object> serviceProps = new HashMap<String, Object>();
-    String[] propertyKeys = serviceReference.getPropertyKeys();
-    for (String propertyKey : propertyKeys) {
-      serviceProps.put(propertyKey, serviceReference.getProperty(propertyKey));
-    }
-    attributes = Collections.unmodifiableMap(serviceProps);
+    this.attributes = attributes;
   }
 
   @Override
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded when a component fails.
+ */
+@Name("org.everit.osgi.ecm.ComponentFailure")
+@Label("Component Failure")
+@Description("An ECM component failed")
+@Category({ "Everit", "ECM" })
+class ComponentFailureEvent extends Event {
+
+  @Label("Cause Class")
+  Class<?> causeClass;
+
+  @Label("Component Id")
+  String componentId;
+
+  @Label("Message")
+  String message;
+
+  @Label("Permanent")
+  @Description("Whether the failure can be resolved only by updating the component binary")
+  boolean permanent;
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Recorded when a lifecycle phase of a component finishes. The event is committed at the end of
+ * the phase, the duration of the phase is stored in {@link #phaseDuration}.
+ */
+@Name("org.everit.osgi.ecm.ComponentPhase")
+@Label("Component Lifecycle Phase")
+@Description("A timed phase of the lifecycle of an ECM component")
+@Category({ "Everit", "ECM" })
+class ComponentPhaseEvent extends Event {
+
+  @Label("Attribute Id")
+  @Description("The attribute of the component that the phase belongs to")
+  String attributeId;
+
+  @Label("Component Id")
+  String componentId;
+
+  @Label("Phase")
+  String phase;
+
+  @Label("Phase Duration")
+  @Timespan(Timespan.NANOSECONDS)
+  long phaseDuration;
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded when the state of a component changes.
+ */
+@Name("org.everit.osgi.ecm.ComponentStateChange")
+@Label("Component State Change")
+@Description("The state of an ECM component changed")
+@Category({ "Everit", "ECM" })
+class ComponentStateChangeEvent extends Event {
+
+  @Label("Component Id")
+  String componentId;
+
+  @Label("New State")
+  String newState;
+
+  @Label("Old State")
+  String oldState;
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.ri.jfr;
+
+import org.everit.osgi.ecm.component.resource.ComponentContainer;
+import org.everit.osgi.ecm.component.resource.ComponentState;
+import org.everit.osgi.ecm.component.ri.ComponentLifecycleListener;
+import org.everit.osgi.ecm.component.ri.ComponentLifecyclePhase;
+
+import jdk.jfr.EventType;
+
+/**
+ * {@link ComponentLifecycleListener} that emits Java Flight Recorder events about the lifecycle
+ * of the components. The listener is enabled only while at least one of its events is enabled in
+ * a running recording, so the lifecycle phases are not even timed and no event object is created
+ * when nothing is recorded.
+ *
+ * <p>
+ * Start, stop, configuration update and (re)binding of references are recorded as
+ * <code>org.everit.osgi.ecm.ComponentPhase</code> events with their durations. State changes,
+ * reference satisfaction changes and failures have their own event types.
+ *
+ * <p>
+ * In an OSGi framework the <code>jdk.jfr</code> package must be exported by the system bundle,
+ * e.g. via the <code>org.osgi.framework.system.packages.extra</code> framework property.
+ */
+public class JfrComponentLifecycleListener implements ComponentLifecycleListener {
+
+  private static final EventType FAILURE_EVENT_TYPE =
+      EventType.getEventType(ComponentFailureEvent.class);
+
+  private static final EventType PHASE_EVENT_TYPE =
+      EventType.getEventType(ComponentPhaseEvent.class);
+
+  private static final EventType REFERENCE_SATISFACTION_EVENT_TYPE =
+      EventType.getEventType(ReferenceSatisfactionEvent.class);
+
+  private static final EventType STATE_CHANGE_EVENT_TYPE =
+      EventType.getEventType(ComponentStateChangeEvent.class);
+
+  private static String getComponentId(final ComponentContainer<?> container) {
+    return container.getComponentMetadata().getComponentId();
+  }
+
+  @Override
+  public void componentFailed(final ComponentContainer<?> container, final Throwable cause,
+      final boolean permanent) {
+    if (!FAILURE_EVENT_TYPE.isEnabled()) {
+      return;
+    }
+    ComponentFailureEvent event = new ComponentFailureEvent();
+    event.componentId = getComponentId(container);
+    if (cause != null) {
+      event.causeClass = cause.getClass();
+      event.message = cause.getMessage();
+    }
+    event.permanent = permanent;
+    event.commit();
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return PHASE_EVENT_TYPE.isEnabled() || STATE_CHANGE_EVENT_TYPE.isEnabled()
+        || REFERENCE_SATISFACTION_EVENT_TYPE.isEnabled() || FAILURE_EVENT_TYPE.isEnabled();
+  }
+
+  @Override
+  public void phaseCompleted(final ComponentContainer<?> container,
+      final ComponentLifecyclePhase phase, final String attributeId, final long durationNanos) {
+    if (!PHASE_EVENT_TYPE.isEnabled()) {
+      return;
+    }
+    ComponentPhaseEvent event = new ComponentPhaseEvent();
+    event.componentId = getComponentId(container);
+    event.phase = phase.name();
+    event.attributeId = attributeId;
+    event.phaseDuration = durationNanos;
+    event.commit();
+  }
+
+  @Override
+  public void referenceSatisfactionChanged(final ComponentContainer<?> container,
+      final String referenceId, final boolean satisfied) {
+    if (!REFERENCE_SATISFACTION_EVENT_TYPE.isEnabled()) {
+      return;
+    }
+    ReferenceSatisfactionEvent event = new ReferenceSatisfactionEvent();
+    event.componentId = getComponentId(container);
+    event.referenceId = referenceId;
+    event.satisfied = satisfied;
+    event.commit();
+  }
+
+  @Override
+  public void stateChanged(final ComponentContainer<?> container, final ComponentState oldState,
+      final ComponentState newState) {
+    if (!STATE_CHANGE_EVENT_TYPE.isEnabled()) {
+      return;
+    }
+    ComponentStateChangeEvent event = new ComponentStateChangeEvent();
+    event.componentId = getComponentId(container);
+    event.oldState = oldState.name();
+    event.newState = newState.name();
+    event.commit();
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.tests;
+
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.ServiceRef;
+
+/**
+ * Component to test that a batch opens the components that reference each other together. The
+ * reference is optional, so the component breaks the cycle with {@link BatchCycleFirstComponent}.
+ */
+@Component(configurationPolicy = ConfigurationPolicy.IGNORE)
+@Service
+public class BatchCycleSecondComponent {
+
+  private BatchCycleFirstComponent first;
+
+  public synchronized BatchCycleFirstComponent getFirst() {
+    return first;
+  }
+
+  @ServiceRef(optional = true, dynamic = true)
+  public synchronized void setFirst(final BatchCycleFirstComponent first) {
+    this.first = first;
+  }
+}
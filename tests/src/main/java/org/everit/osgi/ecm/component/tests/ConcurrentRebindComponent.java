@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.tests;
+
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.ThreeStateBoolean;
+
+/**
+ * Component to test the concurrent rebinding of dynamic references. The setters run the bound
+ * runnables, so a runnable that throws an exception makes the component fail.
+ */
+@Component(configurationPolicy = ConfigurationPolicy.IGNORE)
+@Service
+public class ConcurrentRebindComponent {
+
+  private static void runAll(final Runnable[] runnables) {
+    if (runnables != null) {
+      for (Runnable runnable : runnables) {
+        runnable.run();
+      }
+    }
+  }
+
+  @ServiceRef(multiple = ThreeStateBoolean.TRUE, dynamic = true, optional = true,
+      defaultValue = "(concurrentRebindTest=first)")
+  public void setFirstRunnables(final Runnable[] runnables) {
+    runAll(runnables);
+  }
+
+  @ServiceRef(multiple = ThreeStateBoolean.TRUE, dynamic = true, optional = true,
+      defaultValue = "(concurrentRebindTest=second)")
+  public void setSecondRunnables(final Runnable[] runnables) {
+    runAll(runnables);
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.tests;
+
+import org.everit.osgi.ecm.annotation.Activate;
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.Update;
+import org.everit.osgi.ecm.annotation.attribute.IntegerAttribute;
+
+/**
+ * Component that counts the calls of its lifecycle methods to test which configuration updates
+ * reach the component.
+ */
+@Component(configurationPolicy = ConfigurationPolicy.REQUIRE)
+@Service
+public class ConfigurationUpdateComponent {
+
+  private int activateCallNum = 0;
+
+  private int setterCallNum = 0;
+
+  private int updateCallNum = 0;
+
+  @Activate
+  public synchronized void activate() {
+    activateCallNum++;
+  }
+
+  public synchronized int getActivateCallNum() {
+    return activateCallNum;
+  }
+
+  public synchronized int getSetterCallNum() {
+    return setterCallNum;
+  }
+
+  public synchronized int getUpdateCallNum() {
+    return updateCallNum;
+  }
+
+  @IntegerAttribute(defaultValue = 0, dynamic = true)
+  public synchronized void setNumber(final int number) {
+    setterCallNum++;
+  }
+
+  @Update
+  public synchronized void update() {
+    updateCallNum++;
+  }
+}
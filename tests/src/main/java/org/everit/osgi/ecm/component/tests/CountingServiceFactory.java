@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.tests;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Service factory that counts how many times the framework got and released its service.
+ *
+ * @param <S>
+ *          The type of the service.
+ */
+public class CountingServiceFactory<S> implements ServiceFactory<S> {
+
+  private final AtomicInteger getCount = new AtomicInteger();
+
+  private final S service;
+
+  private final AtomicInteger ungetCount = new AtomicInteger();
+
+  public CountingServiceFactory(final S service) {
+    this.service = service;
+  }
+
+  public int getGetCount() {
+    return getCount.get();
+  }
+
+  @Override
+  public S getService(final Bundle bundle, final ServiceRegistration<S> registration) {
+    getCount.incrementAndGet();
+    return service;
+  }
+
+  public int getUngetCount() {
+    return ungetCount.get();
+  }
+
+  @Override
+  public void ungetService(final Bundle bundle, final ServiceRegistration<S> registration,
+      final S pService) {
+    ungetCount.incrementAndGet();
+  }
+}
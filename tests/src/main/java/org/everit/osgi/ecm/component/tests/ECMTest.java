@@ -17,14 +17,23 @@ package org.everit.osgi.ecm.component.tests;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import org.everit.osgi.dev.testrunner.TestRunnerConstants;
@@ -42,8 +51,17 @@ import org.everit.osgi.ecm.component.PasswordHolder;
 import org.everit.osgi.ecm.component.resource.ComponentContainer;
 import org.everit.osgi.ecm.component.resource.ComponentRevision;
 import org.everit.osgi.ecm.component.resource.ComponentState;
+import org.everit.osgi.ecm.component.ri.BatchOpenReport;
 import org.everit.osgi.ecm.component.ri.ComponentContainerFactory;
 import org.everit.osgi.ecm.component.ri.ComponentContainerInstance;
+import org.everit.osgi.ecm.component.ri.ComponentContainerOptions;
+import org.everit.osgi.ecm.component.ri.ComponentLifecyclePhase;
+import org.everit.osgi.ecm.component.ri.ComponentServiceScope;
+import org.everit.osgi.ecm.component.ri.ConfigurationBatchReport;
+import org.everit.osgi.ecm.component.ri.HistogramComponentLifecycleListener;
+import org.everit.osgi.ecm.component.ri.InstancePoolStatistics;
+import org.everit.osgi.ecm.component.ri.PooledComponentRevision;
+import org.everit.osgi.ecm.component.ri.RequirementParseCacheStatistics;
 import org.everit.osgi.ecm.metadata.ComponentMetadata;
 import org.junit.After;
 import org.junit.Assert;
@@ -53,11 +71,13 @@ import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceObjects;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.resource.Capability;
 import org.osgi.service.cm.Configuration;
 import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
 import org.osgi.service.metatype.AttributeDefinition;
 import org.osgi.service.metatype.MetaTypeProvider;
@@ -76,6 +96,12 @@ import org.osgi.util.tracker.ServiceTracker;
 @Service
 public class ECMTest {
 
+  private static final long COALESCING_WINDOW_MILLIS = 200;
+
+  private static final int CONCURRENT_REBIND_ITERATIONS = 100;
+
+  private static final int FAILING_RUNNABLE_PERIOD = 10;
+
   private static final double TEST_VALUE_DOUBLE = 1.1D;
 
   private static final float TEST_VALUE_FLOAT = 1.1F;
@@ -124,6 +150,24 @@ public class ECMTest {
     }
   }
 
+  private void convertAllPrimitiveArrayPropertiesToStringArrays(
+      final Hashtable<String, Object> properties) {
+
+    @SuppressWarnings("unchecked")
+    Hashtable<String, Object> clonedProperties = (Hashtable<String, Object>) properties.clone();
+    for (Entry<String, Object> entry : clonedProperties.entrySet()) {
+      Object value = entry.getValue();
+      Class<?> valueClass = value.getClass();
+      if (valueClass.isArray() && valueClass.getComponentType().isPrimitive()) {
+        String[] stringArray = new String[Array.getLength(value)];
+        for (int i = 0; i < stringArray.length; i++) {
+          stringArray[i] = String.valueOf(Array.get(value, i));
+        }
+        properties.put(entry.getKey(), stringArray);
+      }
+    }
+  }
+
   private Hashtable<String, Object> createPresetPropertiesForEveryTypeAttributeTestComponent() {
     Hashtable<String, Object> properties = new Hashtable<>();
     properties.put("booleanAttribute", true);
@@ -168,11 +212,60 @@ public class ECMTest {
     return resources[0].getState();
   }
 
+  private void registerRunnablesRepeatedly(final String concurrentRebindTestValue,
+      final boolean failing) {
+    BundleContext bundleContext = componentContext.getBundleContext();
+    Hashtable<String, Object> properties = new Hashtable<>();
+    properties.put("concurrentRebindTest", concurrentRebindTestValue);
+    for (int i = 0; i < CONCURRENT_REBIND_ITERATIONS; i++) {
+      Runnable runnable;
+      if (failing && ((i % FAILING_RUNNABLE_PERIOD) == 0)) {
+        runnable = () -> {
+          throw new IllegalStateException("Failing runnable");
+        };
+      } else {
+        runnable = () -> {
+        };
+      }
+      bundleContext.registerService(Runnable.class, runnable, properties).unregister();
+    }
+  }
+
   @ServiceRef(defaultValue = "(service.id>=0)")
   public void setConfigAdmin(final ConfigurationAdmin configAdmin) {
     this.configAdmin = configAdmin;
   }
 
+  @Test
+  public void testArrayAttributeConversionFromString() {
+    Hashtable<String, Object> properties =
+        createPresetPropertiesForEveryTypeAttributeTestComponent();
+
+    convertAllPrimitiveArrayPropertiesToStringArrays(properties);
+
+    testEveryTypeComponentWithProperties(properties);
+  }
+
+  @Test
+  public void testAsynchronousActivation() {
+    final List<Runnable> scheduledActivations = new ArrayList<>();
+    ComponentContainerOptions options = new ComponentContainerOptions.Builder()
+        .withAsynchronousActivation(true).withActivationExecutor(scheduledActivations::add)
+        .build();
+
+    testWithContainer(options, IgnoredComponent.class, (container) -> {
+      ComponentRevision<IgnoredComponent> pendingRevision = container.getResources()[0];
+      Assert.assertEquals(ComponentState.STARTING, pendingRevision.getState());
+      Assert.assertNull(pendingRevision.getProcessingThread());
+      Assert.assertEquals(1, scheduledActivations.size());
+
+      scheduledActivations.get(0).run();
+
+      Assert.assertEquals(ComponentState.ACTIVE, getComponentState(container));
+      Assert.assertNotNull(waitForService(IgnoredComponent.class));
+    });
+  }
+
   @Test
   public void testAttributeConversionFromString() {
     Hashtable<String, Object> properties =
@@ -211,6 +304,93 @@ public class ECMTest {
     }
   }
 
+  @Test
+  public void testBatchOpen() throws InterruptedException {
+    ComponentContainerInstance<IgnoredComponent> ignoredComponentContainer = this.factory
+        .createComponentContainer(MetadataBuilder.buildComponentMetadata(IgnoredComponent.class));
+    ComponentContainerInstance<Object> failingComponentContainer = this.factory
+        .createComponentContainer(MetadataBuilder.buildComponentMetadata(FailingComponent.class));
+
+    List<ComponentContainerInstance<?>> containers =
+        Arrays.asList(ignoredComponentContainer, failingComponentContainer);
+    BatchOpenReport report = this.factory.openAll(containers);
+
+    try {
+      Assert.assertTrue(report.isSuccessful());
+      Assert.assertEquals(containers.size(), report.getOpenNanosByContainer().size());
+      Assert.assertTrue(report.getTotalNanos() > 0);
+
+      IgnoredComponent ignoredComponent = waitForService(IgnoredComponent.class);
+      Assert.assertEquals("Default", ignoredComponent.getPropertyWithDefaultValue());
+    } finally {
+      for (ComponentContainerInstance<?> container : containers) {
+        container.close();
+      }
+    }
+  }
+
+  @Test
+  public void testBatchOpenOrdersProviderBeforeConsumer() throws InterruptedException {
+    HistogramComponentLifecycleListener lifecycleListener =
+        new HistogramComponentLifecycleListener();
+    ComponentContainerOptions options =
+        new ComponentContainerOptions.Builder().withLifecycleListener(lifecycleListener).build();
+    ComponentContainerFactory listenedFactory =
+        new ComponentContainerFactory(componentContext.getBundleContext(), null, options);
+
+    ComponentContainerInstance<BatchConsumerComponent> consumerContainer = listenedFactory
+        .createComponentContainer(
+            MetadataBuilder.buildComponentMetadata(BatchConsumerComponent.class));
+    ComponentContainerInstance<IgnoredComponent> providerContainer = listenedFactory
+        .createComponentContainer(MetadataBuilder.buildComponentMetadata(IgnoredComponent.class));
+
+    // The consumer is passed before its provider
+    List<ComponentContainerInstance<?>> containers =
+        Arrays.asList(consumerContainer, providerContainer);
+    BatchOpenReport report = listenedFactory.openAll(containers);
+
+    try {
+      Assert.assertTrue(report.isSuccessful());
+      Assert.assertTrue(report.getOpenNanosByContainer().keySet().containsAll(containers));
+      Assert.assertEquals(ComponentState.ACTIVE, getComponentState(providerContainer));
+      Assert.assertEquals(ComponentState.ACTIVE, getComponentState(consumerContainer));
+
+      // The reference of the consumer was satisfied when the consumer was opened
+      Assert.assertEquals(0, lifecycleListener.getStateChangeCount(ComponentState.UNSATISFIED));
+    } finally {
+      for (ComponentContainerInstance<?> container : containers) {
+        container.close();
+      }
+    }
+  }
+
+  @Test
+  public void testBatchOpenWithReferenceCycle() throws InterruptedException {
+    ComponentContainerInstance<BatchCycleFirstComponent> firstContainer = this.factory
+        .createComponentContainer(
+            MetadataBuilder.buildComponentMetadata(BatchCycleFirstComponent.class));
+    ComponentContainerInstance<BatchCycleSecondComponent> secondContainer = this.factory
+        .createComponentContainer(
+            MetadataBuilder.buildComponentMetadata(BatchCycleSecondComponent.class));
+
+    List<ComponentContainerInstance<?>> containers = Arrays.asList(firstContainer, secondContainer);
+    BatchOpenReport report = this.factory.openAll(containers);
+
+    try {
+      Assert.assertTrue(report.isSuccessful());
+      Assert.assertTrue(report.getOpenNanosByContainer().keySet().containsAll(containers));
+      Assert.assertEquals(ComponentState.ACTIVE, getComponentState(firstContainer));
+      Assert.assertEquals(ComponentState.ACTIVE, getComponentState(secondContainer));
+
+      BatchCycleSecondComponent second = waitForService(BatchCycleSecondComponent.class);
+      Assert.assertNotNull(second.getFirst());
+    } finally {
+      for (ComponentContainerInstance<?> container : containers) {
+        container.close();
+      }
+    }
+  }
+
   @Test
   public void testBundleCapabilityTestComponent() {
     ComponentMetadata bundleCapabilityTest = MetadataBuilder
@@ -290,6 +470,88 @@ public class ECMTest {
     }
   }
 
+  @Test
+  public void testConcurrentDynamicRebind() throws InterruptedException {
+    ComponentContainerInstance<ConcurrentRebindComponent> container = factory
+        .createComponentContainer(
+            MetadataBuilder.buildComponentMetadata(ConcurrentRebindComponent.class));
+    container.open();
+    try {
+      Assert.assertEquals(ComponentState.ACTIVE, getComponentState(container));
+
+      Thread firstThread = new Thread(() -> registerRunnablesRepeatedly("first", true));
+      Thread secondThread = new Thread(() -> registerRunnablesRepeatedly("second", false));
+      firstThread.start();
+      secondThread.start();
+      firstThread.join();
+      secondThread.join();
+
+      // The failure of an instance must not be applied on the instance that replaced it
+      waitForTrueSupplied(() -> getComponentState(container) == ComponentState.ACTIVE);
+    } finally {
+      container.close();
+    }
+  }
+
+  @Test
+  public void testConfigurationUpdateWithNonAttributeProperty() throws ConfigurationException {
+    ComponentContainerInstance<ConfigurationUpdateComponent> container = factory
+        .createComponentContainer(
+            MetadataBuilder.buildComponentMetadata(ConfigurationUpdateComponent.class));
+    container.open();
+    try {
+      Hashtable<String, Object> properties = new Hashtable<>();
+      properties.put("number", 1);
+      properties.put("custom", "first");
+      updateConfiguration(container, properties);
+      ConfigurationUpdateComponent component = waitForService(ConfigurationUpdateComponent.class);
+
+      properties.put("custom", "second");
+      ((ManagedService) container).updated(properties);
+
+      Assert.assertEquals(ComponentState.ACTIVE, getComponentState(container));
+      Assert.assertEquals(1, component.getActivateCallNum());
+      Assert.assertEquals(1, component.getSetterCallNum());
+      Assert.assertEquals(1, component.getUpdateCallNum());
+      BundleContext bundleContext = componentContext.getBundleContext();
+      Assert.assertEquals("second", bundleContext
+          .getServiceReference(ConfigurationUpdateComponent.class).getProperty("custom"));
+    } finally {
+      container.close();
+    }
+  }
+
+  @Test
+  public void testConfigurationUpdateWithSameConfiguration() throws ConfigurationException {
+    ComponentContainerInstance<ConfigurationUpdateComponent> container = factory
+        .createComponentContainer(
+            MetadataBuilder.buildComponentMetadata(ConfigurationUpdateComponent.class));
+    container.open();
+    try {
+      Hashtable<String, Object> properties = new Hashtable<>();
+      properties.put("number", 1);
+      updateConfiguration(container, properties);
+      ConfigurationUpdateComponent component = waitForService(ConfigurationUpdateComponent.class);
+
+      // The updates are passed to the container directly, so they are applied in this thread
+      ManagedService managedService = (ManagedService) container;
+      properties.put("number", 2);
+      managedService.updated(properties);
+      managedService.updated(properties);
+
+      // The configuration is not the same, but it resolves to the same properties
+      properties.put("number", "2");
+      managedService.updated(properties);
+
+      Assert.assertEquals(ComponentState.ACTIVE, getComponentState(container));
+      Assert.assertEquals(1, component.getActivateCallNum());
+      Assert.assertEquals(2, component.getSetterCallNum());
+      Assert.assertEquals(1, component.getUpdateCallNum());
+    } finally {
+      container.close();
+    }
+  }
+
   @Test
   public void testCustomServicePropertiesOnComponentRegisteredService() {
 
@@ -389,6 +651,43 @@ public class ECMTest {
     }
   }
 
+  @Test
+  public void testFactoryBatchUpdate() throws InterruptedException {
+    ComponentContainerInstance<FactoryComponent> container = this.factory
+        .createComponentContainer(MetadataBuilder.buildComponentMetadata(FactoryComponent.class));
+
+    final int configurationNum = 3;
+    Map<String, Dictionary<String, Object>> configurations = new LinkedHashMap<>();
+    for (int i = 0; i < configurationNum; i++) {
+      Dictionary<String, Object> properties = new Hashtable<>();
+      properties.put(Constants.SERVICE_PID, "batch." + i);
+      properties.put("lau", (short) i);
+      configurations.put("batch." + i, properties);
+    }
+
+    final List<Integer> progress = new ArrayList<>();
+    ConfigurationBatchReport report = this.factory.updateAll(container, configurations,
+        Runnable::run, (batchContainer, pid, failure, processedNum, totalNum) -> {
+          synchronized (progress) {
+            progress.add(processedNum);
+          }
+        });
+
+    try {
+      Assert.assertTrue(report.isSuccessful());
+      Assert.assertEquals(configurationNum, report.getConfigurationNum());
+      Assert.assertEquals(configurationNum, progress.size());
+
+      ComponentRevision<FactoryComponent>[] revisions = container.getResources();
+      Assert.assertEquals(configurationNum, revisions.length);
+      for (ComponentRevision<FactoryComponent> revision : revisions) {
+        Assert.assertEquals(ComponentState.ACTIVE, revision.getState());
+      }
+    } finally {
+      container.close();
+    }
+  }
+
   @Test
   public void testFailingComponent() {
 
@@ -550,6 +849,228 @@ public class ECMTest {
     }
   }
 
+  @Test
+  public void testIncrementalReferenceBinding() {
+    ComponentContainerOptions options = new ComponentContainerOptions.Builder()
+        .withIncrementalReferenceBinding(true).build();
+
+    testWithContainer(options, IncrementalReferenceComponent.class, (container) -> {
+      BundleContext bundleContext = componentContext.getBundleContext();
+      ServiceReference<IncrementalReferenceComponent> serviceReference =
+          bundleContext.getServiceReference(IncrementalReferenceComponent.class);
+      IncrementalReferenceComponent component = bundleContext.getService(serviceReference);
+      ServiceRegistration<Runnable> firstRegistration = null;
+      ServiceRegistration<Runnable> secondRegistration = null;
+      try {
+        Runnable first = () -> {
+        };
+        Runnable second = () -> {
+        };
+        Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put("incrementalTest", "1");
+        firstRegistration = bundleContext.registerService(Runnable.class, first, properties);
+        Assert.assertEquals(Arrays.asList(first), component.getRunnables());
+
+        properties.put("incrementalTest", "2");
+        secondRegistration = bundleContext.registerService(Runnable.class, second, properties);
+        Assert.assertEquals(Arrays.asList(first, second), component.getRunnables());
+
+        firstRegistration.unregister();
+        firstRegistration = null;
+        Assert.assertEquals(Arrays.asList(second), component.getRunnables());
+        Assert.assertEquals(0, component.getSetterCallNum());
+      } finally {
+        if (firstRegistration != null) {
+          firstRegistration.unregister();
+        }
+        if (secondRegistration != null) {
+          secondRegistration.unregister();
+        }
+        bundleContext.ungetService(serviceReference);
+      }
+    });
+  }
+
+  @Test
+  public void testInstancePool() {
+    ComponentContainerOptions options = new ComponentContainerOptions.Builder()
+        .withServiceScope(ComponentServiceScope.PROTOTYPE).withInstancePoolSize(1, 2).build();
+
+    testWithContainer(options, IgnoredComponent.class, (container) -> {
+      PooledComponentRevision<IgnoredComponent> revision =
+          (PooledComponentRevision<IgnoredComponent>) container.getResources()[0];
+      Assert.assertEquals(1, revision.getInstancePoolStatistics().getIdleSize());
+
+      BundleContext bundleContext = componentContext.getBundleContext();
+      ServiceObjects<IgnoredComponent> serviceObjects = bundleContext
+          .getServiceObjects(bundleContext.getServiceReference(IgnoredComponent.class));
+      List<IgnoredComponent> instances = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        instances.add(serviceObjects.getService());
+      }
+
+      InstancePoolStatistics statistics = revision.getInstancePoolStatistics();
+      Assert.assertEquals(3, statistics.getRequestNum());
+      Assert.assertEquals(1, statistics.getHitNum());
+      Assert.assertEquals(3, statistics.getCreatedNum());
+
+      for (IgnoredComponent instance : instances) {
+        serviceObjects.ungetService(instance);
+      }
+
+      statistics = revision.getInstancePoolStatistics();
+      Assert.assertEquals(2, statistics.getSize());
+      Assert.assertEquals(2, statistics.getIdleSize());
+      Assert.assertEquals(1, statistics.getDestroyedNum());
+    });
+  }
+
+  @Test
+  public void testLazyActivation() {
+    HistogramComponentLifecycleListener lifecycleListener =
+        new HistogramComponentLifecycleListener();
+    ComponentContainerOptions options = new ComponentContainerOptions.Builder()
+        .withLazyActivation(true).withLifecycleListener(lifecycleListener).build();
+
+    testWithContainer(options, IgnoredComponent.class, (container) -> {
+      String componentId = container.getComponentMetadata().getComponentId();
+      Assert.assertEquals(ComponentState.ACTIVE, getComponentState(container));
+      Assert.assertEquals(0, lifecycleListener
+          .getHistogram(componentId, ComponentLifecyclePhase.ACTIVATE).getCount());
+
+      BundleContext bundleContext = componentContext.getBundleContext();
+      ServiceReference<IgnoredComponent> serviceReference =
+          bundleContext.getServiceReference(IgnoredComponent.class);
+      Assert.assertNotNull(serviceReference);
+      IgnoredComponent ignoredComponent = bundleContext.getService(serviceReference);
+      try {
+        Assert.assertNotNull(ignoredComponent);
+        Assert.assertEquals("Default", ignoredComponent.getPropertyWithDefaultValue());
+        Assert.assertEquals(1, lifecycleListener
+            .getHistogram(componentId, ComponentLifecyclePhase.ACTIVATE).getCount());
+      } finally {
+        bundleContext.ungetService(serviceReference);
+      }
+    });
+  }
+
+  @Test
+  public void testLazyServiceProxies() {
+    ComponentContainerOptions options = new ComponentContainerOptions.Builder()
+        .withIncrementalReferenceBinding(true).withLazyServiceProxies(true).build();
+
+    testWithContainer(options, IncrementalReferenceComponent.class, (container) -> {
+      BundleContext bundleContext = componentContext.getBundleContext();
+      ServiceReference<IncrementalReferenceComponent> serviceReference =
+          bundleContext.getServiceReference(IncrementalReferenceComponent.class);
+      IncrementalReferenceComponent component = bundleContext.getService(serviceReference);
+      ServiceRegistration<Runnable> registration = null;
+      try {
+        AtomicInteger runCount = new AtomicInteger();
+        CountingServiceFactory<Runnable> runnableFactory =
+            new CountingServiceFactory<>(() -> runCount.incrementAndGet());
+        Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put("incrementalTest", "1");
+        registration = bundleContext.registerService(Runnable.class, runnableFactory, properties);
+
+        List<Runnable> runnables = component.getRunnables();
+        Assert.assertEquals(1, runnables.size());
+        Runnable proxy = runnables.get(0);
+        Assert.assertTrue(Proxy.isProxyClass(proxy.getClass()));
+        Assert.assertEquals(0, runnableFactory.getGetCount());
+
+        proxy.run();
+        Assert.assertEquals(1, runnableFactory.getGetCount());
+        Assert.assertEquals(1, runCount.get());
+
+        // The service stays registered, so only the reference can release it
+        properties.put("incrementalTest", "0");
+        registration.setProperties(properties);
+        Assert.assertTrue(component.getRunnables().isEmpty());
+        Assert.assertEquals(1, runnableFactory.getUngetCount());
+      } finally {
+        if (registration != null) {
+          registration.unregister();
+        }
+        bundleContext.ungetService(serviceReference);
+      }
+    });
+  }
+
+  @Test
+  public void testLifecycleListener() {
+    HistogramComponentLifecycleListener lifecycleListener =
+        new HistogramComponentLifecycleListener();
+    ComponentContainerOptions options =
+        new ComponentContainerOptions.Builder().withLifecycleListener(lifecycleListener).build();
+    String componentId =
+        MetadataBuilder.buildComponentMetadata(IgnoredComponent.class).getComponentId();
+
+    testWithContainer(options, IgnoredComponent.class, (container) -> {
+      Assert.assertEquals(1,
+          lifecycleListener.getHistogram(componentId, ComponentLifecyclePhase.START).getCount());
+      Assert.assertEquals(1, lifecycleListener
+          .getHistogram(componentId, ComponentLifecyclePhase.ACTIVATE).getCount());
+      Assert.assertEquals(2, lifecycleListener
+          .getHistogram(componentId, ComponentLifecyclePhase.APPLY_PROPERTY).getCount());
+      Assert.assertEquals(1, lifecycleListener.getStateChangeCount(ComponentState.ACTIVE));
+    });
+
+    Assert.assertEquals(1,
+        lifecycleListener.getHistogram(componentId, ComponentLifecyclePhase.STOP).getCount());
+    Assert.assertEquals(1, lifecycleListener.getStateChangeCount(ComponentState.INACTIVE));
+  }
+
+  @Test
+  public void testLiveServiceView() {
+    ComponentContainerOptions options = new ComponentContainerOptions.Builder()
+        .withLiveServiceViews(true).build();
+
+    testWithContainer(options, LiveServiceViewComponent.class, (container) -> {
+      BundleContext bundleContext = componentContext.getBundleContext();
+      ServiceReference<LiveServiceViewComponent> serviceReference =
+          bundleContext.getServiceReference(LiveServiceViewComponent.class);
+      LiveServiceViewComponent component = bundleContext.getService(serviceReference);
+      ServiceRegistration<Runnable> firstRegistration = null;
+      ServiceRegistration<Runnable> secondRegistration = null;
+      try {
+        Map<String, Runnable> runnables = component.getRunnables();
+        Assert.assertTrue(runnables.isEmpty());
+
+        Runnable first = () -> {
+        };
+        Runnable second = () -> {
+        };
+        Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put("liveViewTest", "1");
+        firstRegistration = bundleContext.registerService(Runnable.class, first, properties);
+        Assert.assertSame(first, runnables.get("0"));
+
+        properties.put("liveViewTest", "2");
+        secondRegistration = bundleContext.registerService(Runnable.class, second, properties);
+        Assert.assertEquals(2, runnables.size());
+        Assert.assertSame(second, runnables.get("1"));
+
+        firstRegistration.unregister();
+        firstRegistration = null;
+        Assert.assertEquals(1, runnables.size());
+        Assert.assertNull(runnables.get("0"));
+
+        // The view follows the changes without calling the setter again
+        Assert.assertSame(runnables, component.getRunnables());
+        Assert.assertEquals(1, component.getSetterCallNum());
+      } finally {
+        if (firstRegistration != null) {
+          firstRegistration.unregister();
+        }
+        if (secondRegistration != null) {
+          secondRegistration.unregister();
+        }
+        bundleContext.ungetService(serviceReference);
+      }
+    });
+  }
+
   @Test
   public void testMetatypeWithCapabilitiesAndRequirements() {
     ComponentMetadata componentMetadata = MetadataBuilder
@@ -643,6 +1164,170 @@ public class ECMTest {
     }
   }
 
+  @Test
+  public void testPrototypeServiceScope() {
+    ComponentContainerOptions options = new ComponentContainerOptions.Builder()
+        .withServiceScope(ComponentServiceScope.PROTOTYPE).build();
+
+    testWithContainer(options, IgnoredComponent.class, (container) -> {
+      Assert.assertEquals(ComponentState.ACTIVE, getComponentState(container));
+
+      BundleContext bundleContext = componentContext.getBundleContext();
+      ServiceObjects<IgnoredComponent> serviceObjects = bundleContext
+          .getServiceObjects(bundleContext.getServiceReference(IgnoredComponent.class));
+      IgnoredComponent first = serviceObjects.getService();
+      IgnoredComponent second = serviceObjects.getService();
+      Assert.assertNotNull(first);
+      Assert.assertNotNull(second);
+      Assert.assertNotSame(first, second);
+      Assert.assertEquals("Default", second.getPropertyWithDefaultValue());
+
+      serviceObjects.ungetService(second);
+      IgnoredComponent reused = serviceObjects.getService();
+      Assert.assertSame(second, reused);
+
+      serviceObjects.ungetService(first);
+      serviceObjects.ungetService(reused);
+    });
+  }
+
+  @Test
+  public void testReferenceEventCoalescing() {
+    ComponentContainerOptions options = new ComponentContainerOptions.Builder()
+        .withReferenceEventCoalescing(true)
+        .withReferenceEventCoalescingWindow(COALESCING_WINDOW_MILLIS, TimeUnit.MILLISECONDS)
+        .build();
+
+    testWithContainer(options, IncrementalReferenceComponent.class, (container) -> {
+      BundleContext bundleContext = componentContext.getBundleContext();
+      ServiceReference<IncrementalReferenceComponent> serviceReference =
+          bundleContext.getServiceReference(IncrementalReferenceComponent.class);
+      IncrementalReferenceComponent component = bundleContext.getService(serviceReference);
+      ServiceRegistration<Runnable> firstRegistration = null;
+      ServiceRegistration<Runnable> secondRegistration = null;
+      try {
+        int setterCallNum = component.getSetterCallNum();
+        Runnable first = () -> {
+        };
+        Runnable second = () -> {
+        };
+        Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put("incrementalTest", "1");
+        firstRegistration = bundleContext.registerService(Runnable.class, first, properties);
+        properties.put("incrementalTest", "2");
+        secondRegistration = bundleContext.registerService(Runnable.class, second, properties);
+
+        // Arrivals are applied together after the window elapsed
+        Assert.assertEquals(setterCallNum, component.getSetterCallNum());
+        waitForTrueSupplied(() -> component.getRunnables().size() == 2);
+        Assert.assertEquals(setterCallNum + 1, component.getSetterCallNum());
+
+        // Removals are applied before unregister returns
+        firstRegistration.unregister();
+        firstRegistration = null;
+        Assert.assertEquals(Arrays.asList(second), component.getRunnables());
+        Assert.assertEquals(setterCallNum + 2, component.getSetterCallNum());
+      } finally {
+        if (firstRegistration != null) {
+          firstRegistration.unregister();
+        }
+        if (secondRegistration != null) {
+          secondRegistration.unregister();
+        }
+        bundleContext.ungetService(serviceReference);
+      }
+    });
+  }
+
+  @Test
+  public void testRequirementParseCacheSkipsInvalidFilters() throws InterruptedException {
+    ComponentContainerInstance<FactoryComponent> container = this.factory
+        .createComponentContainer(MetadataBuilder.buildComponentMetadata(FactoryComponent.class));
+    try {
+      String invalidFilter = "(parseCacheTest=" + System.nanoTime();
+      RequirementParseCacheStatistics before = this.factory.getRequirementParseCacheStatistics();
+      updateSomeReferenceTarget(container, "parseCache.invalid.0", invalidFilter);
+      updateSomeReferenceTarget(container, "parseCache.invalid.1", invalidFilter);
+      RequirementParseCacheStatistics after = this.factory.getRequirementParseCacheStatistics();
+
+      Assert.assertEquals(before.getFilterMissNum() + 2, after.getFilterMissNum());
+      Assert.assertEquals(before.getFilterHitNum(), after.getFilterHitNum());
+    } finally {
+      container.close();
+    }
+  }
+
+  @Test
+  public void testRequirementParseCacheStatistics() throws InterruptedException {
+    ComponentContainerInstance<FactoryComponent> container = this.factory
+        .createComponentContainer(MetadataBuilder.buildComponentMetadata(FactoryComponent.class));
+    try {
+      // The filter is unique, so it cannot be in the cache that is shared by every test
+      String filter = "(!(parseCacheTest=" + System.nanoTime() + "))";
+      RequirementParseCacheStatistics before = this.factory.getRequirementParseCacheStatistics();
+      updateSomeReferenceTarget(container, "parseCache.0", filter);
+      RequirementParseCacheStatistics afterFirst =
+          this.factory.getRequirementParseCacheStatistics();
+      updateSomeReferenceTarget(container, "parseCache.1", filter);
+      RequirementParseCacheStatistics afterSecond =
+          this.factory.getRequirementParseCacheStatistics();
+
+      Assert.assertEquals(before.getFilterMissNum() + 1, afterFirst.getFilterMissNum());
+      Assert.assertEquals(afterFirst.getFilterMissNum(), afterSecond.getFilterMissNum());
+      Assert.assertTrue(afterSecond.getFilterHitNum() > afterFirst.getFilterHitNum());
+    } finally {
+      container.close();
+    }
+  }
+
+  @Test
+  public void testServiceRetentionOnRestart() {
+    ComponentContainerOptions options = new ComponentContainerOptions.Builder()
+        .withServiceRetentionOnRestart(true).build();
+
+    BundleContext bundleContext = componentContext.getBundleContext();
+    CountingServiceFactory<Runnable> unchangedFactory = new CountingServiceFactory<>(() -> {
+    });
+    CountingServiceFactory<Runnable> replacedFactory = new CountingServiceFactory<>(() -> {
+    });
+    Hashtable<String, Object> properties = new Hashtable<>();
+    properties.put("retentionTest", "unchanged");
+    ServiceRegistration<Runnable> unchangedRegistration =
+        bundleContext.registerService(Runnable.class, unchangedFactory, properties);
+    properties.put("retentionTest", "replaced");
+    ServiceRegistration<Runnable> replacedRegistration =
+        bundleContext.registerService(Runnable.class, replacedFactory, properties);
+    try {
+      testWithContainer(options, ServiceRetentionComponent.class, (container) -> {
+        Assert.assertEquals(ComponentState.ACTIVE, getComponentState(container));
+        Assert.assertEquals(1, unchangedFactory.getGetCount());
+        Assert.assertEquals(1, replacedFactory.getGetCount());
+
+        CountingServiceFactory<Runnable> replacementFactory = new CountingServiceFactory<>(() -> {
+        });
+        ServiceRegistration<Runnable> replacementRegistration =
+            bundleContext.registerService(Runnable.class, replacementFactory, properties);
+        try {
+          // The replaced service stays registered, so only the component can release it
+          Hashtable<String, Object> outdatedProperties = new Hashtable<>();
+          outdatedProperties.put("retentionTest", "outdated");
+          replacedRegistration.setProperties(outdatedProperties);
+
+          Assert.assertEquals(ComponentState.ACTIVE, getComponentState(container));
+          Assert.assertEquals(1, replacedFactory.getUngetCount());
+          Assert.assertEquals(1, replacementFactory.getGetCount());
+          Assert.assertEquals(1, unchangedFactory.getGetCount());
+          Assert.assertEquals(0, unchangedFactory.getUngetCount());
+        } finally {
+          replacementRegistration.unregister();
+        }
+      });
+    } finally {
+      replacedRegistration.unregister();
+      unchangedRegistration.unregister();
+    }
+  }
+
   @Test
   public void testTestComponent() {
     Hashtable<String, Object> properties =
@@ -651,6 +1336,24 @@ public class ECMTest {
     testEveryTypeComponentWithProperties(properties);
   }
 
+  /**
+   * Opens a container of the component with the specified options, runs the test on it and
+   * closes the container.
+   */
+  private <C> void testWithContainer(final ComponentContainerOptions options,
+      final Class<C> componentType, final Consumer<ComponentContainerInstance<C>> test) {
+    ComponentContainerFactory optionsFactory =
+        new ComponentContainerFactory(componentContext.getBundleContext(), null, options);
+    ComponentContainerInstance<C> container = optionsFactory
+        .createComponentContainer(MetadataBuilder.buildComponentMetadata(componentType));
+    container.open();
+    try {
+      test.accept(container);
+    } finally {
+      container.close();
+    }
+  }
+
   @Test
   public void testWrongActivateMethodComponent() {
     BundleContext bundleContext = this.componentContext.getBundleContext();
@@ -721,6 +1424,15 @@ public class ECMTest {
     }
   }
 
+  private void updateSomeReferenceTarget(final ComponentContainerInstance<?> container,
+      final String pid, final String target) throws InterruptedException {
+    Dictionary<String, Object> properties = new Hashtable<>();
+    properties.put(Constants.SERVICE_PID, pid);
+    properties.put("someReference.target", target);
+    this.factory.updateAll(container, Collections.singletonMap(pid, properties), Runnable::run,
+        null);
+  }
+
   private <T> T waitForService(final Class<T> clazz) {
     return waitForService("(" + Constants.OBJECTCLASS + "=" + clazz.getName() + ")");
   }
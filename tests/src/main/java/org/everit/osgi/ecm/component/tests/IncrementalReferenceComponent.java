@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.ThreeStateBoolean;
+
+/**
+ * Component to test the incremental and the coalesced binding of a multiple service reference.
+ */
+@Component(configurationPolicy = ConfigurationPolicy.IGNORE)
+@Service
+public class IncrementalReferenceComponent {
+
+  private final List<Runnable> runnables = new ArrayList<>();
+
+  private int setterCallNum = 0;
+
+  public synchronized void addRunnables(final Runnable runnable) {
+    runnables.add(runnable);
+  }
+
+  public synchronized List<Runnable> getRunnables() {
+    return new ArrayList<>(runnables);
+  }
+
+  public synchronized int getSetterCallNum() {
+    return setterCallNum;
+  }
+
+  public synchronized void removeRunnables(final Runnable runnable) {
+    runnables.remove(runnable);
+  }
+
+  @ServiceRef(multiple = ThreeStateBoolean.TRUE, dynamic = true, optional = true,
+      defaultValue = { "(incrementalTest=1)", "(incrementalTest=2)" })
+  public synchronized void setRunnables(final Runnable[] runnables) {
+    setterCallNum++;
+    this.runnables.clear();
+    if (runnables != null) {
+      this.runnables.addAll(Arrays.asList(runnables));
+    }
+  }
+}
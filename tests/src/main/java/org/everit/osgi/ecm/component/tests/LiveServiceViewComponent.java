@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.tests;
+
+import java.util.Map;
+
+import org.everit.osgi.ecm.annotation.Component;
+import org.everit.osgi.ecm.annotation.ConfigurationPolicy;
+import org.everit.osgi.ecm.annotation.Service;
+import org.everit.osgi.ecm.annotation.ServiceRef;
+import org.everit.osgi.ecm.annotation.ThreeStateBoolean;
+
+/**
+ * Component to test the live view of the services of a multiple service reference.
+ */
+@Component(configurationPolicy = ConfigurationPolicy.IGNORE)
+@Service
+public class LiveServiceViewComponent {
+
+  private Map<String, Runnable> runnables;
+
+  private int setterCallNum = 0;
+
+  public synchronized Map<String, Runnable> getRunnables() {
+    return runnables;
+  }
+
+  public synchronized int getSetterCallNum() {
+    return setterCallNum;
+  }
+
+  @ServiceRef(referenceInterface = Runnable.class, multiple = ThreeStateBoolean.TRUE,
+      dynamic = true, optional = true, defaultValue = { "(liveViewTest=1)", "(liveViewTest=2)" })
+  public synchronized void setRunnables(final Map<String, Runnable> runnables) {
+    this.runnables = runnables;
+    setterCallNum++;
+  }
+}